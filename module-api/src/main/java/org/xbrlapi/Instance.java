@@ -4,6 +4,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.xbrlapi.data.XMLCursor;
 import org.xbrlapi.utilities.XBRLException;
 
 /**
@@ -97,6 +98,13 @@ public interface Instance extends Fragment {
      * @throws XBRLException
      */
     public List<Fact> getAllFacts() throws XBRLException;
+
+    /**
+     * @return a cursor over all facts (tuples and facts within tuples also) 
+     * in this instance.  The facts are built as the cursor moves to them.
+     * @throws XBRLException
+     */
+    public XMLCursor<Fact> getAllFactsCursor() throws XBRLException;
     
     /**
      * @return the list of concepts that have facts that are children of 
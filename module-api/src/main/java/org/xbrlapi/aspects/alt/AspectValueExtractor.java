@@ -0,0 +1,133 @@
+package org.xbrlapi.aspects.alt;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.xbrlapi.Fact;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * <h2>Aspect value extractor</h2>
+ *
+ * <p>
+ * Determines the aspect values of a collection of facts using a pool of
+ * threads and hands the aspect values of each fact on to a handler, one
+ * fact at a time, in the order of the facts in the collection.  The facts
+ * are split into chunks and the aspect values of the facts in a chunk are
+ * handed on as soon as the chunk and all preceding chunks are done, so the
+ * handler runs on the calling thread while the remaining chunks are
+ * still being worked on.
+ * </p>
+ *
+ * <p>
+ * This only speeds up fact set construction if the data store supports
+ * concurrent queries, given that most of the work done in determining
+ * aspect values involves retrieving contexts, units and the like from
+ * the data store.
+ * </p>
+ *
+ * @author Geoff Shuetrim (geoff@galexy.net)
+ */
+final class AspectValueExtractor {
+
+    private static final Logger logger = Logger.getLogger(AspectValueExtractor.class);
+
+    /**
+     * The largest number of facts to put in a chunk.
+     */
+    private static final int MAXIMUM_CHUNK_SIZE = 256;
+
+    /**
+     * The number of chunks to aim for per thread so that threads that
+     * finish their chunks early can pick up more work.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Receives the aspect values of each fact.
+     */
+    interface Handler {
+
+        /**
+         * @param fact The fact.
+         * @param values The map from aspect IDs to the aspect values of the fact.
+         * @throws XBRLException
+         */
+        public void handle(Fact fact, Map<URI,AspectValue> values) throws XBRLException;
+
+    }
+
+    private AspectValueExtractor() {
+        super();
+    }
+
+    /**
+     * @param model The aspect model to get the aspect values from.
+     * @param facts The facts to get the aspect values for.
+     * @param threads The number of threads to use.
+     * @param handler The handler for the aspect values of each fact.
+     * @throws XBRLException if the number of threads is not positive, if
+     * the aspect values of a fact cannot be determined or if the handler
+     * throws an exception.
+     */
+    static <F extends Fact> void extract(final AspectModel model, Collection<F> facts, int threads, Handler handler) throws XBRLException {
+
+        if (threads < 1) throw new XBRLException("At least one thread is required.");
+
+        if (threads == 1 || facts.size() < 2) {
+            for (F fact: facts) {
+                handler.handle(fact, model.getAspectValues(fact));
+            }
+            return;
+        }
+
+        List<Fact> list = new Vector<Fact>(facts);
+        int chunkSize = Math.max(1, Math.min(MAXIMUM_CHUNK_SIZE, list.size() / (threads * CHUNKS_PER_THREAD)));
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<Map<URI,AspectValue>>>> futures = new Vector<Future<List<Map<URI,AspectValue>>>>();
+            for (int start = 0; start < list.size(); start += chunkSize) {
+                final List<Fact> chunk = list.subList(start, Math.min(start + chunkSize, list.size()));
+                futures.add(pool.submit(new Callable<List<Map<URI,AspectValue>>>() {
+                    public List<Map<URI,AspectValue>> call() throws Exception {
+                        List<Map<URI,AspectValue>> result = new Vector<Map<URI,AspectValue>>();
+                        for (Fact fact: chunk) {
+                            result.add(model.getAspectValues(fact));
+                        }
+                        return result;
+                    }
+                }));
+            }
+            pool.shutdown();
+
+            int position = 0;
+            for (Future<List<Map<URI,AspectValue>>> future: futures) {
+                for (Map<URI,AspectValue> values: future.get()) {
+                    handler.handle(list.get(position++), values);
+                }
+            }
+            logger.debug("Extracted the aspect values of " + position + " facts using " + threads + " threads.");
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XBRLException("Interrupted while extracting aspect values.",e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof XBRLException) throw (XBRLException) cause;
+            throw new XBRLException("The aspect values could not be extracted.",cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,282 @@
+package org.xbrlapi.aspects.alt;
+
+import java.io.Serializable;
+import java.util.BitSet;
+
+/**
+ * <h2>Bitmap</h2>
+ *
+ * <p>
+ * A set of non-negative integer IDs, used by the {@link BitmapFactSetImpl}
+ * to hold the IDs of the facts with a given aspect value and the IDs of
+ * the values of a given aspect.
+ * </p>
+ *
+ * <p>
+ * Sparse bitmaps are held as sorted arrays of IDs and dense bitmaps are held
+ * as bit sets, whichever takes the least memory, so that the many aspect values
+ * that only apply to a few facts do not each cost a bit for every fact
+ * in the fact set.  Bitmaps are not thread safe.
+ * </p>
+ *
+ * @author Geoff Shuetrim (geoff@galexy.net)
+ */
+final class Bitmap implements Serializable {
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = -1842350785170395537L;
+
+    /**
+     * The smallest number of IDs to hold as a bit set.
+     */
+    private static final int MINIMUM_BITSET_CARDINALITY = 64;
+
+    /**
+     * The sorted IDs when the bitmap is held as an array.
+     */
+    private int[] ids = new int[4];
+
+    /**
+     * The number of IDs in the array.
+     */
+    private int size = 0;
+
+    /**
+     * The IDs when the bitmap is held as a bit set, or null otherwise.
+     */
+    private BitSet bits = null;
+
+    /**
+     * Creates an empty bitmap.
+     */
+    Bitmap() {
+        super();
+    }
+
+    /**
+     * @param ids The sorted IDs.
+     * @param size The number of IDs in the array.
+     */
+    private Bitmap(int[] ids, int size) {
+        this.ids = ids;
+        this.size = size;
+        optimise();
+    }
+
+    /**
+     * @param bits The IDs.
+     */
+    private Bitmap(BitSet bits) {
+        this.ids = null;
+        this.bits = bits;
+        optimise();
+    }
+
+    /**
+     * @param count The number of IDs.
+     * @return the bitmap containing the IDs from zero to count less one.
+     */
+    static Bitmap range(int count) {
+        BitSet bits = new BitSet(count);
+        bits.set(0,count);
+        return new Bitmap(bits);
+    }
+
+    /**
+     * @param id The ID to add to the bitmap.
+     */
+    void add(int id) {
+        if (bits != null) {
+            bits.set(id);
+            return;
+        }
+        if (size > 0 && id <= ids[size-1]) {
+            int position = search(id);
+            if (position >= 0) return;
+            position = -(position + 1);
+            ensureCapacity(size + 1);
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+        } else {
+            ensureCapacity(size + 1);
+            ids[size] = id;
+        }
+        size++;
+        optimise();
+    }
+
+    /**
+     * @param id The ID.
+     * @return true if the bitmap contains the ID and false otherwise.
+     */
+    boolean contains(int id) {
+        if (bits != null) return bits.get(id);
+        return search(id) >= 0;
+    }
+
+    /**
+     * @return the number of IDs in the bitmap.
+     */
+    int cardinality() {
+        if (bits != null) return bits.cardinality();
+        return size;
+    }
+
+    /**
+     * @return true if the bitmap contains no IDs.
+     */
+    boolean isEmpty() {
+        if (bits != null) return bits.isEmpty();
+        return size == 0;
+    }
+
+    /**
+     * @return the IDs in the bitmap, in ascending order.
+     */
+    int[] toArray() {
+        if (bits == null) {
+            int[] result = new int[size];
+            System.arraycopy(ids, 0, result, 0, size);
+            return result;
+        }
+        int[] result = new int[bits.cardinality()];
+        int j = 0;
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            result[j++] = i;
+        }
+        return result;
+    }
+
+    /**
+     * @param other The other bitmap.
+     * @return a new bitmap containing the IDs that are in both bitmaps.
+     */
+    Bitmap and(Bitmap other) {
+        if (bits != null && other.bits != null) {
+            BitSet result = (BitSet) bits.clone();
+            result.and(other.bits);
+            return new Bitmap(result);
+        }
+        Bitmap sparse = this;
+        Bitmap dense = other;
+        if (bits != null || (other.bits == null && other.size < size)) {
+            sparse = other;
+            dense = this;
+        }
+        int[] result = new int[sparse.size];
+        int n = 0;
+        for (int i=0; i<sparse.size; i++) {
+            if (dense.contains(sparse.ids[i])) result[n++] = sparse.ids[i];
+        }
+        return new Bitmap(result, n);
+    }
+
+    /**
+     * @param other The other bitmap.
+     * @return a new bitmap containing the IDs that are in either bitmap.
+     */
+    Bitmap or(Bitmap other) {
+        if (bits == null && other.bits == null) {
+            int[] result = new int[size + other.size];
+            int i = 0, j = 0, n = 0;
+            while (i < size && j < other.size) {
+                if (ids[i] < other.ids[j]) result[n++] = ids[i++];
+                else if (ids[i] > other.ids[j]) result[n++] = other.ids[j++];
+                else {
+                    result[n++] = ids[i++];
+                    j++;
+                }
+            }
+            while (i < size) result[n++] = ids[i++];
+            while (j < other.size) result[n++] = other.ids[j++];
+            return new Bitmap(result, n);
+        }
+        BitSet result = toBitSet();
+        result.or(other.toBitSet());
+        return new Bitmap(result);
+    }
+
+    /**
+     * @param other The other bitmap.
+     * @return a new bitmap containing the IDs that are in this bitmap
+     * but not in the other bitmap.
+     */
+    Bitmap andNot(Bitmap other) {
+        if (bits == null) {
+            int[] result = new int[size];
+            int n = 0;
+            for (int i=0; i<size; i++) {
+                if (! other.contains(ids[i])) result[n++] = ids[i];
+            }
+            return new Bitmap(result, n);
+        }
+        BitSet result = (BitSet) bits.clone();
+        result.andNot(other.toBitSet());
+        return new Bitmap(result);
+    }
+
+    /**
+     * @return a new bit set containing the IDs in this bitmap.
+     */
+    private BitSet toBitSet() {
+        if (bits != null) return (BitSet) bits.clone();
+        BitSet result = new BitSet((size == 0) ? 0 : ids[size-1] + 1);
+        for (int i=0; i<size; i++) {
+            result.set(ids[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Switches between the array and bit set representations of the
+     * bitmap so that the bitmap uses the representation that takes the
+     * least memory.  An array takes 32 bits per ID and a bit set takes
+     * one bit for each integer up to the largest ID.
+     */
+    private void optimise() {
+        if (bits == null) {
+            if (size >= MINIMUM_BITSET_CARDINALITY && size * 32L > ids[size-1] + 1L) {
+                bits = toBitSet();
+                ids = null;
+                size = 0;
+            }
+        } else {
+            int cardinality = bits.cardinality();
+            if (cardinality < MINIMUM_BITSET_CARDINALITY || cardinality * 32L < bits.length()) {
+                ids = toArray();
+                size = ids.length;
+                bits = null;
+            }
+        }
+    }
+
+    /**
+     * @param capacity The number of IDs that the array must be able to hold.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) return;
+        int[] larger = new int[Math.max(capacity, ids.length * 2)];
+        System.arraycopy(ids, 0, larger, 0, size);
+        ids = larger;
+    }
+
+    /**
+     * @param id The ID to search the array for.
+     * @return the position of the ID in the array if it is there and
+     * otherwise (-(insertion point) - 1).
+     */
+    private int search(int id) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (ids[middle] < id) low = middle + 1;
+            else if (ids[middle] > id) high = middle - 1;
+            else return middle;
+        }
+        return -(low + 1);
+    }
+
+}
@@ -0,0 +1,450 @@
+package org.xbrlapi.aspects.alt;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+import org.xbrlapi.Fact;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * <h2>Bitmap Fact Set Implementation</h2>
+ *
+ * <p>
+ * This fact set implementation is intended for large fact sets that
+ * are filtered on several aspects at once.  Each fact and each aspect value
+ * is given a dense integer ID as it is added to the fact set and the facts
+ * for each aspect value are held as a bitmap of fact IDs.  Filtering
+ * on several aspect values is then a matter of intersecting bitmaps,
+ * see {@link #getMatchingFacts(Collection)}, and all of the combinations
+ * of aspect values in a {@link Combinations} can be matched to facts in a
+ * single pass, see {@link #getMatchingFacts(Combinations)}.
+ * </p>
+ *
+ * <p>
+ * Unlike the {@link FactSetImpl}, the facts with the missing value for
+ * an aspect are the facts that have no other value for that aspect,
+ * consistent with the aspect values returned by {@link #getAspectValues(Fact)}.
+ * </p>
+ *
+ * <p>
+ * Facts cannot be removed from the fact set.  The fact set is safe to
+ * share between threads.
+ * </p>
+ *
+ * @author Geoff Shuetrim (geoff@galexy.net)
+ */
+public class BitmapFactSetImpl implements FactSet {
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = -3361526306497125440L;
+
+    private static final Logger logger = Logger.getLogger(BitmapFactSetImpl.class);
+
+    /**
+     * The aspect model that is being used.
+     */
+    private AspectModel model;
+
+    /**
+     * The facts, indexed by fact ID.
+     */
+    private List<Fact> facts = new Vector<Fact>();
+
+    /**
+     * Maps from facts to their fact IDs.
+     */
+    private Map<Fact,Integer> factIds = new LinkedHashMap<Fact,Integer>();
+
+    /**
+     * The aspect value IDs for each fact, indexed by fact ID.
+     */
+    private List<int[]> factValues = new Vector<int[]>();
+
+    /**
+     * The aspect values, indexed by aspect value ID.
+     */
+    private List<AspectValue> values = new Vector<AspectValue>();
+
+    /**
+     * Maps from aspect values to their aspect value IDs.
+     */
+    private Map<AspectValue,Integer> valueIds = new LinkedHashMap<AspectValue,Integer>();
+
+    /**
+     * The IDs of the facts with each aspect value, indexed by aspect value ID.
+     */
+    private List<Bitmap> postings = new Vector<Bitmap>();
+
+    /**
+     * Maps from aspect IDs to the IDs of the values for that aspect.
+     */
+    private Map<URI,Bitmap> aspectValues = new HashMap<URI,Bitmap>();
+
+    /**
+     * @param model The aspect model determining the aspects to work with.
+     * @throws XBRLException if the model is null.
+     */
+    public BitmapFactSetImpl(AspectModel model) throws XBRLException {
+        super();
+        if (model == null) throw new XBRLException("The model must not be null.");
+        this.model = model;
+    }
+
+    /**
+     * @see FactSet#getModel()
+     */
+    public AspectModel getModel() {
+        return model;
+    }
+
+    /**
+     * @see FactSet#getAspectModel()
+     */
+    public AspectModel getAspectModel() {
+        return model;
+    }
+
+    /**
+     * @see FactSet#addFacts(Collection)
+     */
+    public <F extends Fact> void addFacts(Collection<F> facts) throws XBRLException {
+        for (F fact: facts) {
+            this.addFact(fact);
+        }
+    }
+
+    /**
+     * Facts are given their IDs in the order given, whatever the
+     * number of threads.
+     * @see FactSet#addFacts(Collection, int)
+     */
+    public <F extends Fact> void addFacts(Collection<F> facts, int threads) throws XBRLException {
+        AspectValueExtractor.extract(model, facts, threads, new AspectValueExtractor.Handler() {
+            public void handle(Fact fact, Map<URI,AspectValue> values) {
+                addFact(fact, values);
+            }
+        });
+    }
+
+    /**
+     * @see FactSet#addFact(Fact)
+     */
+    public void addFact(Fact fact) throws XBRLException {
+        addFact(fact, model.getAspectValues(fact));
+    }
+
+    /**
+     * @param fact The fact to add.
+     * @param map The map from aspect IDs to the aspect values of the fact.
+     */
+    private void addFact(Fact fact, Map<URI,AspectValue> map) {
+
+        synchronized (this) {
+            if (factIds.containsKey(fact)) return;
+            int factId = facts.size();
+            facts.add(fact);
+            factIds.put(fact, factId);
+
+            int[] ids = new int[map.size()];
+            int count = 0;
+            for (URI aspectId: map.keySet()) {
+                AspectValue value = map.get(aspectId);
+                if (value.isMissing()) continue;
+                int valueId = getValueId(aspectId, value);
+                postings.get(valueId).add(factId);
+                ids[count++] = valueId;
+            }
+            int[] result = new int[count];
+            System.arraycopy(ids, 0, result, 0, count);
+            factValues.add(result);
+        }
+    }
+
+    /**
+     * @param aspectId The ID of the aspect that the value is for.
+     * @param value The aspect value.
+     * @return the ID of the aspect value, assigning one if the aspect
+     * value is new to the fact set.
+     */
+    private int getValueId(URI aspectId, AspectValue value) {
+        Integer valueId = valueIds.get(value);
+        if (valueId != null) return valueId;
+        int id = values.size();
+        values.add(value);
+        valueIds.put(value, id);
+        postings.add(new Bitmap());
+        if (! aspectValues.containsKey(aspectId)) aspectValues.put(aspectId, new Bitmap());
+        aspectValues.get(aspectId).add(id);
+        return id;
+    }
+
+    /**
+     * @see FactSet#getAspectValues()
+     */
+    public synchronized Set<AspectValue> getAspectValues() {
+        return Collections.unmodifiableSet(new LinkedHashSet<AspectValue>(valueIds.keySet()));
+    }
+
+    /**
+     * @see FactSet#getAspectValues(Fact)
+     */
+    public synchronized Collection<AspectValue> getAspectValues(Fact fact) throws XBRLException {
+        Collection<AspectValue> result = new Vector<AspectValue>();
+        Integer factId = factIds.get(fact);
+        if (factId == null) return result;
+        Set<URI> aspectsWithValues = new LinkedHashSet<URI>();
+        for (int valueId: factValues.get(factId)) {
+            AspectValue value = values.get(valueId);
+            result.add(value);
+            aspectsWithValues.add(value.getAspectId());
+        }
+        for (Aspect aspect: model.getAspects()) {
+            if (! aspectsWithValues.contains(aspect.getId()))
+                result.add(aspect.getMissingValue());
+        }
+        return result;
+    }
+
+    /**
+     * @see FactSet#getAspectValue(URI, Fact)
+     */
+    public synchronized AspectValue getAspectValue(URI aspectId, Fact fact) throws XBRLException {
+        Integer factId = factIds.get(fact);
+        if (factId != null) {
+            for (int valueId: factValues.get(factId)) {
+                AspectValue value = values.get(valueId);
+                if (value.getAspectId().equals(aspectId)) return value;
+            }
+        }
+        return model.getAspect(aspectId).getMissingValue();
+    }
+
+    /**
+     * @see FactSet#getAspectValues(URI)
+     */
+    public synchronized Collection<AspectValue> getAspectValues(URI aspectId) {
+        Collection<AspectValue> result = new Vector<AspectValue>();
+        Bitmap ids = aspectValues.get(aspectId);
+        if (ids != null) {
+            for (int valueId: ids.toArray()) {
+                result.add(values.get(valueId));
+            }
+        }
+        try {
+            result.add(model.getAspect(aspectId).getMissingValue());
+        } catch (XBRLException e) {
+            ; // Generally unreachable.
+        }
+        return result;
+    }
+
+    /**
+     * @see FactSet#getAspectValueCount(URI)
+     */
+    public synchronized int getAspectValueCount(URI aspectId) {
+        Bitmap ids = aspectValues.get(aspectId);
+        if (ids == null) return 0;
+        return ids.cardinality();
+    }
+
+    /**
+     * @see FactSet#getFacts()
+     */
+    public synchronized Set<Fact> getFacts() {
+        return Collections.unmodifiableSet(new LinkedHashSet<Fact>(facts));
+    }
+
+    /**
+     * @see FactSet#getFacts(AspectValue)
+     */
+    public synchronized Collection<Fact> getFacts(AspectValue value) {
+        return toFacts(getFactIds(value));
+    }
+
+    /**
+     * @param criteria The aspect values that the facts must have.
+     * @return the facts that have all of the given aspect values, or
+     * the empty set if there are no criteria.
+     */
+    public synchronized Set<Fact> getMatchingFacts(Collection<AspectValue> criteria) {
+        if (criteria.isEmpty()) return new LinkedHashSet<Fact>();
+        return toFacts(getFactIds(criteria));
+    }
+
+    /**
+     * Matches the facts in the fact set to each of the combinations of
+     * aspect values in the given combinations.  The facts for each combination
+     * are found by intersecting the facts for the values of the leading aspects,
+     * which are shared by many combinations, with the facts for the value of
+     * each following aspect in turn, skipping all of the combinations that
+     * share leading aspect values that no fact has.
+     * @param combinations The aspect value combinations.
+     * @return a map from the indices of the combinations that match at least
+     * one fact to the facts that match the combination.  The indices are those
+     * used by {@link Combinations#getCombinationValues(int)}.
+     * @throws XBRLException
+     */
+    public synchronized Map<Integer,Set<Fact>> getMatchingFacts(Combinations combinations) throws XBRLException {
+        Map<Integer,Set<Fact>> result = new LinkedHashMap<Integer,Set<Fact>>();
+        List<Aspect> aspects = combinations.getAspects();
+        if (aspects.isEmpty() || combinations.getCombinationCount() == 0) return result;
+        match(combinations, aspects, 0, Bitmap.range(facts.size()), 0, result);
+        return result;
+    }
+
+    /**
+     * @param combinations The aspect value combinations.
+     * @param aspects The aspects of the combinations, in order.
+     * @param level The index of the aspect whose values are being matched.
+     * @param candidates The IDs of the facts that match the values of the leading aspects.
+     * @param combination The index of the first combination with the values of the leading aspects.
+     * @param result The map from combination indices to matching facts being built up.
+     * @throws XBRLException
+     */
+    private void match(Combinations combinations, List<Aspect> aspects, int level, Bitmap candidates, int combination, Map<Integer,Set<Fact>> result) throws XBRLException {
+        URI aspectId = aspects.get(level).getId();
+        int descendantCount = combinations.getDescendantCount(aspectId);
+        List<AspectValue> combinationValues = combinations.getAspectValues(aspectId);
+        for (int i=0; i<combinationValues.size(); i++) {
+            Bitmap matches = candidates.and(getFactIds(combinationValues.get(i)));
+            if (matches.isEmpty()) continue;
+            int index = combination + i * descendantCount;
+            if (level == aspects.size() - 1) {
+                result.put(index, toFacts(matches));
+            } else {
+                match(combinations, aspects, level + 1, matches, index, result);
+            }
+        }
+    }
+
+    /**
+     * @param criteria The aspect values.
+     * @return the IDs of the facts that have all of the aspect values,
+     * intersecting the smallest sets of facts first.
+     */
+    private Bitmap getFactIds(Collection<AspectValue> criteria) {
+        List<Bitmap> bitmaps = new Vector<Bitmap>();
+        for (AspectValue criterion: criteria) {
+            Bitmap bitmap = getFactIds(criterion);
+            if (bitmap.isEmpty()) return bitmap;
+            int position = 0;
+            while (position < bitmaps.size() && bitmaps.get(position).cardinality() <= bitmap.cardinality()) position++;
+            bitmaps.add(position, bitmap);
+        }
+        Bitmap result = bitmaps.get(0);
+        for (int i=1; i<bitmaps.size() && ! result.isEmpty(); i++) {
+            result = result.and(bitmaps.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * @param value The aspect value.
+     * @return the IDs of the facts with the aspect value.  For a missing
+     * value, these are the IDs of the facts without any other value for
+     * the aspect.
+     */
+    private Bitmap getFactIds(AspectValue value) {
+        if (value.isMissing()) {
+            Bitmap withValues = new Bitmap();
+            Bitmap ids = null;
+            try {
+                ids = aspectValues.get(value.getAspectId());
+            } catch (XBRLException e) {
+                ; // Generally unreachable.
+            }
+            if (ids != null) {
+                for (int valueId: ids.toArray()) {
+                    withValues = withValues.or(postings.get(valueId));
+                }
+            }
+            return Bitmap.range(facts.size()).andNot(withValues);
+        }
+        Integer valueId = valueIds.get(value);
+        if (valueId == null) return new Bitmap();
+        return postings.get(valueId);
+    }
+
+    /**
+     * @param ids The fact IDs.
+     * @return the set of facts with the given IDs.
+     */
+    private Set<Fact> toFacts(Bitmap ids) {
+        Set<Fact> result = new LinkedHashSet<Fact>();
+        for (int factId: ids.toArray()) {
+            result.add(facts.get(factId));
+        }
+        return result;
+    }
+
+    /**
+     * @see FactSet#hasAspectValue(AspectValue)
+     */
+    public synchronized boolean hasAspectValue(AspectValue value) {
+        return valueIds.containsKey(value);
+    }
+
+    /**
+     * @see FactSet#hasFact(Fact)
+     */
+    public synchronized boolean hasFact(Fact fact) {
+        return factIds.containsKey(fact);
+    }
+
+    /**
+     * @see FactSet#getSize()
+     */
+    public synchronized long getSize() {
+        return facts.size();
+    }
+
+    /**
+     * @see FactSet#isPopulated(URI)
+     */
+    public synchronized boolean isPopulated(URI aspectId) {
+        return getAspectValueCount(aspectId) > 0;
+    }
+
+    /**
+     * @see FactSet#isSingular(URI)
+     */
+    public synchronized boolean isSingular(URI aspectId) {
+        return getAspectValueCount(aspectId) == 1;
+    }
+
+    /**
+     * @see FactSet#getRootFacts(URI)
+     */
+    public synchronized List<Fact> getRootFacts(URI aspectId) throws XBRLException {
+        Domain domain = model.getAspect(aspectId).getDomain();
+        Bitmap ids = new Bitmap();
+        for (AspectValue value: this.getAspectValues(aspectId)) {
+            if (domain.isRoot(value)) {
+                ids = ids.or(getFactIds(value));
+            }
+        }
+        return new Vector<Fact>(toFacts(ids));
+    }
+
+    /**
+     * @see FactSet#getPopulatedAspects()
+     */
+    public Collection<Aspect> getPopulatedAspects() throws XBRLException {
+        Collection<Aspect> result = new Vector<Aspect>();
+        for (Aspect aspect: getModel().getAspects())
+            if (this.isPopulated(aspect.getId())) result.add(aspect);
+        return result;
+    }
+
+}
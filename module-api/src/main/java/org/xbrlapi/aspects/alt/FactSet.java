@@ -46,6 +46,19 @@ public interface FactSet extends Serializable {
      * @throws XBRLException
      */
     public <F extends Fact> void addFacts(Collection<F> facts) throws XBRLException;
+
+    /**
+     * Adds the facts to the fact set, computing the aspect values
+     * for the facts on several threads at once.  The facts are added
+     * in the order given, as for {@link #addFacts(Collection)}.  This
+     * only speeds up the addition of facts if the data store supports
+     * concurrent queries.
+     * @param facts The facts to add.
+     * @param threads The number of threads to compute aspect values on.
+     * @throws XBRLException if the number of threads is not positive or
+     * the aspect values of a fact cannot be computed.
+     */
+    public <F extends Fact> void addFacts(Collection<F> facts, int threads) throws XBRLException;
     
     /**
      * @param fact The fact to test for.
@@ -112,12 +112,29 @@ public class FactSetImpl implements FactSet {
         }
     }
 
+    /**
+     * @see FactSet#addFacts(Collection, int)
+     */
+    public <F extends Fact> void addFacts(Collection<F> facts, int threads) throws XBRLException {
+        AspectValueExtractor.extract(model, facts, threads, new AspectValueExtractor.Handler() {
+            public void handle(Fact fact, Map<URI,AspectValue> values) {
+                addFact(fact, values);
+            }
+        });
+    }
+
     /**
      * @see FactSet#addFact(Fact)
      */
     public void addFact(Fact fact) throws XBRLException {
+        addFact(fact, model.getAspectValues(fact));
+    }
 
-        Map<URI,AspectValue> values = model.getAspectValues(fact);
+    /**
+     * @param fact The fact to add.
+     * @param values The map from aspect IDs to the aspect values of the fact.
+     */
+    private void addFact(Fact fact, Map<URI,AspectValue> values) {
         for (URI id: values.keySet()) {
             AspectValue value = values.get(id);
             if (! value.isMissing()) {
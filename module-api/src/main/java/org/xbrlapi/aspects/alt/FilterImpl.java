@@ -34,6 +34,9 @@ public class FilterImpl implements Filter {
      * @see Filter#getMatchingFacts(FactSet)
      */
     public Set<Fact> getMatchingFacts(FactSet candidateFacts) {
+        if (candidateFacts instanceof BitmapFactSetImpl) {
+            return ((BitmapFactSetImpl) candidateFacts).getMatchingFacts(map.values());
+        }
         Set<Fact> matches = new HashSet<Fact>();
         for (AspectValue criterion: map.values()) {
             if (matches.isEmpty()) {
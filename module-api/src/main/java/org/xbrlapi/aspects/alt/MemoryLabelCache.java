@@ -1,7 +1,7 @@
 package org.xbrlapi.aspects.alt;
 
 import java.net.URI;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
@@ -10,7 +10,14 @@ import org.xbrlapi.utilities.XBRLException;
 /**
  * <p>
  * Provides an in-memory label caching system.
- * This is really only useful for unit-testing purposes.
+ * On its own, this is really only useful for unit-testing purposes
+ * but it also serves as the in-memory tier of the {@link TieredLabelCache}.
+ * </p>
+ * 
+ * <p>
+ * The cache can be bounded, in which case the least recently used labels 
+ * are dropped from the cache once it holds more than the maximum number 
+ * of labels.  The cache is safe to share between threads.
  * </p>
  * 
  * @author Geoff Shuetrim (geoff@galexy.net)
@@ -24,31 +31,88 @@ public class MemoryLabelCache implements LabelCache {
 
     protected final static Logger logger = Logger.getLogger(MemoryLabelCache.class);
     
-    private Map<String,String> map = new HashMap<String,String>();
+    /**
+     * The maximum number of labels in the cache.
+     */
+    private int maximumSize = Integer.MAX_VALUE;
+    
+    /**
+     * The number of labels that have been dropped from the cache.
+     */
+    private long evictions = 0;
+    
+    /**
+     * Maps from label keys to labels, in least recently used order.
+     */
+    private Map<String,String> map = new LinkedHashMap<String,String>(16,0.75f,true) {
+        private static final long serialVersionUID = 1L;
+        protected boolean removeEldestEntry(Map.Entry<String,String> eldest) {
+            if (size() <= maximumSize) return false;
+            evictions++;
+            return true;
+        }
+    };
     
     /**
-     * @param store The data store to use.
+     * Creates an unbounded cache.
      */
     public MemoryLabelCache() {
         super();
     }
 
+    /**
+     * @param maximumSize The maximum number of labels to hold in the cache.
+     * @throws XBRLException if the maximum size is not positive.
+     */
+    public MemoryLabelCache(int maximumSize) throws XBRLException {
+        this();
+        if (maximumSize < 1) throw new XBRLException("The maximum size of the cache must be positive.");
+        this.maximumSize = maximumSize;
+    }
+
     /**
      * @see LabelCache#getLabel(URI, String, String, URI, URI)
      */
-    public String getLabel(URI aspectId, String valueId, String locale, URI resourceRole, URI linkRole) throws XBRLException {
-        String key = aspectId + valueId + locale + resourceRole + linkRole;
-        if (map.containsKey(key)) return map.get(key);
-        return null;
+    public synchronized String getLabel(URI aspectId, String valueId, String locale, URI resourceRole, URI linkRole) throws XBRLException {
+        return map.get(getKey(aspectId, valueId, locale, resourceRole, linkRole));
     }
     
     /**
      * @see LabelCache#cacheLabel(URI, String, String, URI, URI, String)
      */
-    public void cacheLabel(URI aspectId, String valueId, String locale,
+    public synchronized void cacheLabel(URI aspectId, String valueId, String locale,
             URI resourceRole, URI linkRole, String label) throws XBRLException {
-        String key = aspectId + valueId + locale + resourceRole + linkRole;
-        map.put(key,label);
+        map.put(getKey(aspectId, valueId, locale, resourceRole, linkRole),label);
+    }
+    
+    /**
+     * @return the number of labels in the cache.
+     */
+    public synchronized int getSize() {
+        return map.size();
+    }
+    
+    /**
+     * @return true if caching another label would drop the least
+     * recently used label from the cache.
+     */
+    public synchronized boolean isFull() {
+        return map.size() >= maximumSize;
+    }
+    
+    /**
+     * @return the number of labels that have been dropped from the 
+     * cache to keep it within its maximum size.
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+    
+    /**
+     * @return the key identifying the label with the given selection criteria.
+     */
+    static String getKey(URI aspectId, String valueId, String locale, URI resourceRole, URI linkRole) {
+        return aspectId + "\t" + valueId + "\t" + locale + "\t" + resourceRole + "\t" + linkRole;
     }
 
 }
@@ -8,6 +8,8 @@ import org.xbrlapi.utilities.XBRLException;
  * This is the same as the standard aspect model except that it 
  * also sets up the store-based caching aspect value labeller system
  * automatically as part of the constructor.
+ * The labels are cached in memory, in front of the data store,
+ * and new labels are written straight through to the data store.
  * 
  * @author Geoff Shuetrim (geoff@galexy.net)
  */
@@ -20,6 +22,11 @@ public class StandardAspectModelWithStoreCachingLabellers extends StandardAspect
     
     private static final Logger logger = Logger.getLogger(StandardAspectModelWithStoreCachingLabellers.class);
 
+    /**
+     * The aspect value label cache.
+     */
+    private TieredLabelCache cache = null;
+
     /**
      * @param store The data store.
      * @param cache The aspect value label cache to use.
@@ -34,7 +41,7 @@ public class StandardAspectModelWithStoreCachingLabellers extends StandardAspect
      */
     public void initialise() throws XBRLException {
         super.initialise();
-        LabelCache cache = new StoreLabelCache(getStore());
+        cache = new TieredLabelCache(new StoreLabelCache(getStore()));
         this.setLabeller(LocationAspect.ID, new CachingLabeller(cache, new LocationLabeller(this.getAspect(LocationAspect.ID))));
         this.setLabeller(ConceptAspect.ID, new CachingLabeller(cache, new ConceptLabeller(this.getAspect(ConceptAspect.ID))));
         this.setLabeller(UnitAspect.ID, new CachingLabeller(cache, new UnitLabeller(this.getAspect(UnitAspect.ID))));
@@ -45,4 +52,12 @@ public class StandardAspectModelWithStoreCachingLabellers extends StandardAspect
         
     }
 
+    /**
+     * @return the aspect value label cache used by the labellers or null
+     * if the aspect model has not been initialised.
+     */
+    public TieredLabelCache getLabelCache() {
+        return cache;
+    }
+
 }
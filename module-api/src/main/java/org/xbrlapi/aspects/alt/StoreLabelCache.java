@@ -1,7 +1,12 @@
 package org.xbrlapi.aspects.alt;
 
 import java.net.URI;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.xbrlapi.AspectValueLabel;
@@ -75,12 +80,76 @@ public class StoreLabelCache implements LabelCache {
             URI resourceRole, URI linkRole, String label) throws XBRLException {
         AspectValueLabel avl = this.getAspectValueLabel(aspectId, valueId, locale, resourceRole, linkRole);
         if (avl != null) store.remove(avl);
-        String id = store.getId(aspectId + valueId + locale + resourceRole + linkRole);
+        String id = getId(aspectId, valueId, locale, resourceRole, linkRole);
         AspectValueLabelImpl xml = new AspectValueLabelImpl(id,aspectId,valueId, locale,resourceRole,linkRole,label);
         store.persist(xml);
     }
 
-    
-    
+    /**
+     * Caches the given labels, replacing earlier versions of the labels in the
+     * cache, using one query per aspect to find the labels being replaced and 
+     * persisting all of the new labels together.
+     * @param labels The aspect value labels to cache.
+     * @throws XBRLException
+     */
+    public void cacheLabels(Collection<AspectValueLabel> labels) throws XBRLException {
+        if (labels.isEmpty()) return;
+        Map<URI,Set<String>> valueIds = new HashMap<URI,Set<String>>();
+        Set<String> keys = new HashSet<String>();
+        for (AspectValueLabel label: labels) {
+            URI aspectId = label.getAspectId();
+            if (! valueIds.containsKey(aspectId)) valueIds.put(aspectId, new HashSet<String>());
+            valueIds.get(aspectId).add(label.getMetaAttribute("valueId"));
+            keys.add(getKey(label));
+        }
+        for (URI aspectId: valueIds.keySet()) {
+            String condition = "";
+            for (String valueId: valueIds.get(aspectId)) {
+                if (condition.length() > 0) condition += " or ";
+                condition += "@valueId='" + valueId + "'";
+            }
+            String query = "#roots#[@type='"+AspectValueLabelImpl.class.getName()+"' and @aspectId='" + aspectId + "' and (" + condition + ")]";
+            List<AspectValueLabel> existing = store.<AspectValueLabel>queryForXMLResources(query);
+            for (AspectValueLabel label: existing) {
+                if (keys.contains(getKey(label))) store.remove(label);
+            }
+        }
+        store.persist(labels);
+    }
+
+    /**
+     * @param aspectId The ID of the aspect.
+     * @return all of the aspect value labels in the cache for the aspect.
+     * @throws XBRLException
+     */
+    public List<AspectValueLabel> getAspectValueLabels(URI aspectId) throws XBRLException {
+        String query = "#roots#[@type='"+AspectValueLabelImpl.class.getName()+"' and @aspectId='" + aspectId + "']";
+        return store.<AspectValueLabel>queryForXMLResources(query);
+    }
+
+    /**
+     * @return the fragment ID to use for the aspect value label with the 
+     * given selection criteria.
+     * @throws XBRLException
+     */
+    String getId(URI aspectId, String valueId, String locale, URI resourceRole, URI linkRole) throws XBRLException {
+        return store.getId(aspectId + valueId + locale + resourceRole + linkRole);
+    }
+
+    /**
+     * @param label The aspect value label.
+     * @return the key identifying the label's selection criteria.
+     * @throws XBRLException
+     */
+    static String getKey(AspectValueLabel label) throws XBRLException {
+        return MemoryLabelCache.getKey(label.getAspectId(), label.getMetaAttribute("valueId"), label.getLocale(), label.getResourceRole(), label.getLinkRole());
+    }
+
+    /**
+     * @return the data store used to cache aspect value labels.
+     */
+    public Store getStore() {
+        return store;
+    }
 
 }
@@ -0,0 +1,304 @@
+package org.xbrlapi.aspects.alt;
+
+import java.io.Serializable;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+import org.xbrlapi.AspectValueLabel;
+import org.xbrlapi.impl.AspectValueLabelImpl;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * <p>
+ * Provides a label caching system with a bounded in-memory cache in front
+ * of a data store based cache.
+ * </p>
+ *
+ * <p>
+ * The first time that a label is needed for an aspect, all of the labels for
+ * that aspect are loaded from the data store into memory with a single query.
+ * Thereafter, labels are retrieved from memory and the data store is only
+ * queried again if labels have had to be dropped from memory to keep the
+ * memory cache within its maximum size.
+ * </p>
+ *
+ * <p>
+ * By default, newly cached labels are written straight through to the data
+ * store.  If the cache is given a batch size greater than one then new labels
+ * are held in memory and written to the data store in batches.  In that case,
+ * call {@link #flush()} to write any labels that are waiting to be written,
+ * for example, once a rendering has been completed, because labels that have
+ * not been written are lost when the cache is discarded.  Waiting labels are
+ * also written before any labels are dropped from memory.
+ * </p>
+ *
+ * <p>
+ * The cache is safe to share between threads.  Do not use this with a DOM
+ * based data store for the same reasons as apply to the {@link StoreLabelCache}.
+ * </p>
+ *
+ * @author Geoff Shuetrim (geoff@galexy.net)
+ */
+public class TieredLabelCache implements LabelCache {
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = 2937180365493217716L;
+
+    protected final static Logger logger = Logger.getLogger(TieredLabelCache.class);
+
+    /**
+     * The default maximum number of labels to hold in memory.
+     */
+    public static final int DEFAULT_SIZE = 100000;
+
+    /**
+     * The default number of new labels to write to the data store together,
+     * writing each new label straight through to the data store.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1;
+
+    /**
+     * The data store based cache.
+     */
+    private StoreLabelCache storeCache;
+
+    /**
+     * The in-memory cache.
+     */
+    private MemoryLabelCache memoryCache;
+
+    /**
+     * The number of new labels to write to the data store together.
+     */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * Maps from label keys to the new labels that are yet to be
+     * written to the data store, in the order that they were cached.
+     */
+    private Map<String,PendingLabel> pending = new LinkedHashMap<String,PendingLabel>();
+
+    /**
+     * Maps from the IDs of the aspects that have had their labels loaded
+     * into memory to the eviction count of the memory cache at the time
+     * of loading.  All of the stored labels for an aspect are in memory
+     * if the memory cache has not dropped any labels since they were loaded.
+     */
+    private Map<URI,Long> preloaded = new HashMap<URI,Long>();
+
+    /**
+     * @param storeCache The data store based label cache.
+     * @throws XBRLException if the data store based label cache is null.
+     */
+    public TieredLabelCache(StoreLabelCache storeCache) throws XBRLException {
+        this(storeCache, DEFAULT_SIZE, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param storeCache The data store based label cache.
+     * @param maximumSize The maximum number of labels to hold in memory.
+     * @param batchSize The number of new labels to write to the data store together.
+     * @throws XBRLException if the data store based label cache is null or
+     * the sizes are not positive.
+     */
+    public TieredLabelCache(StoreLabelCache storeCache, int maximumSize, int batchSize) throws XBRLException {
+        super();
+        if (storeCache == null) throw new XBRLException("The data store based label cache must not be null.");
+        this.storeCache = storeCache;
+        this.memoryCache = new MemoryLabelCache(maximumSize);
+        if (batchSize < 1) throw new XBRLException("The batch size must be positive.");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @see LabelCache#getLabel(URI, String, String, URI, URI)
+     */
+    public String getLabel(URI aspectId, String valueId, String locale, URI resourceRole, URI linkRole) throws XBRLException {
+
+        String label = memoryCache.getLabel(aspectId, valueId, locale, resourceRole, linkRole);
+        if (label != null) return label;
+
+        synchronized (pending) {
+            PendingLabel pendingLabel = pending.get(MemoryLabelCache.getKey(aspectId, valueId, locale, resourceRole, linkRole));
+            if (pendingLabel != null) label = pendingLabel.label;
+        }
+        if (label != null) {
+            cacheInMemory(aspectId, valueId, locale, resourceRole, linkRole, label);
+            return label;
+        }
+
+        if (! hasBeenPreloaded(aspectId)) {
+            preload(aspectId);
+            label = memoryCache.getLabel(aspectId, valueId, locale, resourceRole, linkRole);
+            if (label != null) return label;
+        }
+
+        if (isInMemory(aspectId)) return null;
+
+        label = storeCache.getLabel(aspectId, valueId, locale, resourceRole, linkRole);
+        if (label != null) cacheInMemory(aspectId, valueId, locale, resourceRole, linkRole, label);
+        return label;
+    }
+
+    /**
+     * The label is cached in memory straight away and it is written to the
+     * data store with the next batch of new labels.
+     * @see LabelCache#cacheLabel(URI, String, String, URI, URI, String)
+     */
+    public void cacheLabel(URI aspectId, String valueId, String locale,
+            URI resourceRole, URI linkRole, String label) throws XBRLException {
+        if (label == null) throw new XBRLException("The label must not be null.");
+        cacheInMemory(aspectId, valueId, locale, resourceRole, linkRole, label);
+        boolean isFull = false;
+        synchronized (pending) {
+            pending.put(MemoryLabelCache.getKey(aspectId, valueId, locale, resourceRole, linkRole), new PendingLabel(aspectId, valueId, locale, resourceRole, linkRole, label));
+            isFull = (pending.size() >= batchSize);
+        }
+        if (isFull) flush();
+    }
+
+    /**
+     * Writes all of the new labels that are waiting to be written to
+     * the data store.
+     * @throws XBRLException if the labels cannot be written to the data store.
+     */
+    public synchronized void flush() throws XBRLException {
+
+        Map<String,PendingLabel> batch = null;
+        synchronized (pending) {
+            if (pending.isEmpty()) return;
+            batch = new LinkedHashMap<String,PendingLabel>(pending);
+        }
+
+        List<AspectValueLabel> labels = new Vector<AspectValueLabel>();
+        for (PendingLabel p: batch.values()) {
+            String id = storeCache.getId(p.aspectId, p.valueId, p.locale, p.resourceRole, p.linkRole);
+            labels.add(new AspectValueLabelImpl(id, p.aspectId, p.valueId, p.locale, p.resourceRole, p.linkRole, p.label));
+        }
+        storeCache.cacheLabels(labels);
+        logger.debug("Wrote " + labels.size() + " aspect value labels to the data store.");
+
+        synchronized (pending) {
+            for (String key: batch.keySet()) {
+                if (pending.get(key) == batch.get(key)) pending.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Loads all of the labels in the data store for the aspects in the
+     * aspect model into memory.
+     * @param model The aspect model.
+     * @throws XBRLException
+     */
+    public void preload(AspectModel model) throws XBRLException {
+        for (Aspect aspect: model.getAspects()) {
+            preload(aspect.getId());
+        }
+    }
+
+    /**
+     * Loads all of the labels in the data store for the aspect into memory.
+     * Labels that are waiting to be written to the data store take
+     * precedence over the labels being loaded.
+     * @param aspectId The ID of the aspect.
+     * @throws XBRLException
+     */
+    public void preload(URI aspectId) throws XBRLException {
+        long evictions = memoryCache.getEvictionCount();
+        List<AspectValueLabel> labels = storeCache.getAspectValueLabels(aspectId);
+        for (AspectValueLabel label: labels) {
+            synchronized (pending) {
+                if (pending.containsKey(StoreLabelCache.getKey(label))) continue;
+            }
+            cacheInMemory(aspectId, label.getMetaAttribute("valueId"), label.getLocale(), label.getResourceRole(), label.getLinkRole(), label.getLabel());
+        }
+        synchronized (preloaded) {
+            if (memoryCache.getEvictionCount() == evictions) preloaded.put(aspectId, evictions);
+            else preloaded.put(aspectId, -1L);
+        }
+        logger.debug("Loaded " + labels.size() + " labels for " + aspectId);
+    }
+
+    /**
+     * @return the number of new labels that are waiting to be written to the data store.
+     */
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * @return the in-memory cache.
+     */
+    public MemoryLabelCache getMemoryCache() {
+        return memoryCache;
+    }
+
+    /**
+     * Caches the label in memory, first writing any labels that are waiting
+     * to be written to the data store if the in-memory cache is about to
+     * drop a label, so that only labels in the data store are dropped.
+     * @throws XBRLException if waiting labels cannot be written to the data store.
+     */
+    private void cacheInMemory(URI aspectId, String valueId, String locale, URI resourceRole, URI linkRole, String label) throws XBRLException {
+        if (memoryCache.isFull() && getPendingCount() > 0) flush();
+        memoryCache.cacheLabel(aspectId, valueId, locale, resourceRole, linkRole, label);
+    }
+
+    /**
+     * @param aspectId The ID of the aspect.
+     * @return true if the labels for the aspect have been loaded into memory.
+     */
+    private boolean hasBeenPreloaded(URI aspectId) {
+        synchronized (preloaded) {
+            return preloaded.containsKey(aspectId);
+        }
+    }
+
+    /**
+     * @param aspectId The ID of the aspect.
+     * @return true if all of the labels in the data store for the aspect
+     * are still in memory.
+     */
+    private boolean isInMemory(URI aspectId) {
+        synchronized (preloaded) {
+            Long evictions = preloaded.get(aspectId);
+            if (evictions == null) return false;
+            return evictions.longValue() == memoryCache.getEvictionCount();
+        }
+    }
+
+    /**
+     * A new label that is waiting to be written to the data store.
+     */
+    private static class PendingLabel implements Serializable {
+
+        private static final long serialVersionUID = -4470291857460931384L;
+
+        private URI aspectId;
+        private String valueId;
+        private String locale;
+        private URI resourceRole;
+        private URI linkRole;
+        private String label;
+
+        PendingLabel(URI aspectId, String valueId, String locale, URI resourceRole, URI linkRole, String label) {
+            this.aspectId = aspectId;
+            this.valueId = valueId;
+            this.locale = locale;
+            this.resourceRole = resourceRole;
+            this.linkRole = linkRole;
+            this.label = label;
+        }
+    }
+
+}
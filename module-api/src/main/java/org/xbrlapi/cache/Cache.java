@@ -77,6 +77,19 @@ public interface Cache extends Serializable {
     public abstract void copyToCache(URI originalURI, String xml)
             throws XBRLException;
 
+    /**
+     * Copies the resources that are not already in the cache into the cache,
+     * using a pool of fetchers that work concurrently.  As for 
+     * {@link #copyToCache(URI, File)}, a resource that cannot be copied
+     * into the cache does not cause an exception to be thrown.
+     * @param uris The original URIs of the resources to copy into the cache.
+     * @param fetchers The number of resources to fetch at the same time.
+     * @return the original URIs of the resources that are still not in the cache.
+     * @throws XBRLException if the number of fetchers is less than one or
+     * if the prefetching is interrupted.
+     */
+    public abstract List<URI> prefetch(List<URI> uris, int fetchers) throws XBRLException;
+
     /**
      * Delete a resource from the cache.
      * @param uri The original or the cache URI.
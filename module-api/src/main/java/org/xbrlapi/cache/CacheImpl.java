@@ -1,7 +1,6 @@
 package org.xbrlapi.cache;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
@@ -12,11 +11,20 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.xbrlapi.utilities.XBRLException;
@@ -57,6 +65,27 @@ public class CacheImpl implements Cache {
      */
     private HashMap<URI,URI> uriMap = new HashMap<URI, URI>();      
 
+    /**
+     * The number of milliseconds to wait when connecting to a remote resource.
+     */
+    private int connectTimeout = 30000;
+
+    /**
+     * The number of milliseconds to wait for data from a remote resource.
+     */
+    private int readTimeout = 60000;
+
+    /**
+     * The size of the buffer used to copy remote resources into the cache.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The suffix of the temporary files that resources are copied to 
+     * before they are renamed to become cache files.
+     */
+    private static final String TEMPORARY_FILE_SUFFIX = ".part";
+
     /**
      * Constructs a URI translator for usage with a local cache location.
      * @param cacheRoot The root directory for the cache.
@@ -350,6 +379,11 @@ public class CacheImpl implements Cache {
     }
     
     /**
+     * The resource is first copied to a temporary file in the same directory
+     * as the cache file and then renamed, so that loaders sharing the cache
+     * never see a partially written cache file.  Local files are copied
+     * using file channels and remote resources are copied through a 
+     * large buffer, subject to the connection and read timeouts.
      * @see org.xbrlapi.cache.Cache#copyToCache(java.net.URI, java.io.File)
      */
     public void copyToCache(URI originalURI, File cacheFile) {
@@ -358,36 +392,41 @@ public class CacheImpl implements Cache {
 		File parent = cacheFile.getParentFile();
 		if (parent != null) parent.mkdirs();
 		
+		File temporaryFile = null;
+		InputStream inputStream = null;
+		FileOutputStream outputStream = null;
 		try {
 
-			// Establish the connection to the original CacheURIImpl data source
-		    InputStream inputStream = null;
+		    temporaryFile = File.createTempFile("." + cacheFile.getName() + ".", TEMPORARY_FILE_SUFFIX, parent);
+		    outputStream = new FileOutputStream(temporaryFile);
+		    FileChannel destination = outputStream.getChannel();
 		    
 		    if (originalURI.getScheme().equals("file")) {
-	            String path = originalURI.getPath();
-                File f = new File(path);
-	            inputStream = new FileInputStream(f);
+		        FileInputStream fileInputStream = new FileInputStream(new File(originalURI.getPath()));
+		        inputStream = fileInputStream;
+		        FileChannel source = fileInputStream.getChannel();
+		        long size = source.size();
+		        long position = 0;
+		        while (position < size) {
+		            position += destination.transferFrom(source, position, size - position);
+		        }
 		    } else {
-                inputStream =  originalURI.toURL().openConnection().getInputStream();
+		        URLConnection connection = originalURI.toURL().openConnection();
+		        connection.setConnectTimeout(connectTimeout);
+		        connection.setReadTimeout(readTimeout);
+		        inputStream = connection.getInputStream();
+		        byte[] buffer = new byte[BUFFER_SIZE];
+		        int count = inputStream.read(buffer);
+		        while (count != -1) {
+		            outputStream.write(buffer, 0, count);
+		            count = inputStream.read(buffer);
+		        }
 		    }
+		    outputStream.close();
+		    outputStream = null;
 		    
-		    BufferedInputStream bis = new BufferedInputStream(inputStream);
-		    
-		    // Establish the connection to the destination file
-		    FileOutputStream fos = new FileOutputStream(cacheFile);
-		    BufferedOutputStream bos = new BufferedOutputStream(fos);
-	
-		    // Write the source file to the destination file
-		    int bite = bis.read();
-		    while (bite != -1) {
-				bos.write(bite);
-				bite = bis.read();
-		    }
-	
-		    // Clean up the reader and writer
-		    bos.flush();
-		    bis.close();
-		    bos.close();
+		    commit(temporaryFile, cacheFile, false);
+		    temporaryFile = null;
 
 		} catch (java.net.NoRouteToHostException e) {
 		    logger.debug(e.getMessage());
@@ -395,6 +434,10 @@ public class CacheImpl implements Cache {
             logger.debug(e.getMessage());
 		} catch (IOException e) {
             logger.debug(e.getMessage());
+		} finally {
+		    close(inputStream);
+		    close(outputStream);
+		    if (temporaryFile != null) temporaryFile.delete();
 		}
     }
     
@@ -413,15 +456,128 @@ public class CacheImpl implements Cache {
 		File parent = cacheFile.getParentFile();
 		if (parent != null) parent.mkdirs();
 
+		File temporaryFile = null;
 		try {
-	        FileWriter out = new FileWriter(cacheFile);
-
-	        out.write(xml);
-	        out.close();		
+		    temporaryFile = File.createTempFile("." + cacheFile.getName() + ".", TEMPORARY_FILE_SUFFIX, parent);
+	        FileWriter out = new FileWriter(temporaryFile);
+	        try {
+	            out.write(xml);
+	        } finally {
+	            out.close();
+	        }
+	        commit(temporaryFile, cacheFile, true);
+	        temporaryFile = null;
 		} catch (IOException e) {
 			 throw new XBRLException("The String resource could not be cached.",e);
+		} finally {
+		    if (temporaryFile != null) temporaryFile.delete();
 		}
     }    
+
+    /**
+     * Moves a fully written temporary file to become the cache file,
+     * atomically replacing any existing cache file so that there is never
+     * a time when the cache file is missing.  A plain rename is used if
+     * the file system does not support atomic moves.  If the file cannot
+     * be moved but another loader has cached the same resource in the 
+     * meantime then the other loader's cache file is kept, unless the 
+     * cache file was meant to be replaced.
+     * @param temporaryFile The temporary file.
+     * @param cacheFile The cache file.
+     * @param replace True if the content of the temporary file must
+     * replace any existing cache file and false if any cache file for the
+     * same resource will do.
+     * @throws IOException if the temporary file cannot be moved and
+     * the cache file does not exist or was meant to be replaced.
+     */
+    private void commit(File temporaryFile, File cacheFile, boolean replace) throws IOException {
+        try {
+            Files.move(temporaryFile.toPath(), cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return;
+        } catch (AtomicMoveNotSupportedException e) {
+            logger.debug("Atomic moves are not supported for " + cacheFile);
+            if (temporaryFile.renameTo(cacheFile)) return;
+        } catch (IOException e) {
+            logger.debug(e.getMessage());
+        }
+        if (cacheFile.exists() && ! replace) {
+            logger.debug(cacheFile + " was cached by another loader.");
+            temporaryFile.delete();
+            return;
+        }
+        throw new IOException(temporaryFile + " could not be moved to " + cacheFile);
+    }
+
+    /**
+     * Closes a stream, ignoring any problems in doing so.
+     * @param stream The stream to close or null.
+     */
+    private void close(Closeable stream) {
+        if (stream == null) return;
+        try {
+            stream.close();
+        } catch (IOException e) {
+            logger.debug(e.getMessage());
+        }
+    }
+
+    /**
+     * @see org.xbrlapi.cache.Cache#prefetch(List, int)
+     */
+    public List<URI> prefetch(List<URI> uris, int fetchers) throws XBRLException {
+
+        if (fetchers < 1) throw new XBRLException("At least one fetcher is required.");
+
+        final List<URI> missing = new Vector<URI>();
+        ExecutorService pool = Executors.newFixedThreadPool(fetchers);
+        try {
+            for (final URI uri: new LinkedHashSet<URI>(uris)) {
+                pool.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            File cacheFile = getCacheFile(uri);
+                            if (! cacheFile.exists()) {
+                                copyToCache(uri, cacheFile);
+                            }
+                            if (! cacheFile.exists()) {
+                                missing.add(uri);
+                            }
+                        } catch (XBRLException e) {
+                            logger.debug(e.getMessage());
+                            missing.add(uri);
+                        }
+                    }
+                });
+            }
+            pool.shutdown();
+            while (! pool.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.debug("Still prefetching documents into the cache ...");
+            }
+        } catch (InterruptedException e) {
+            throw new XBRLException("Prefetching was interrupted.",e);
+        } finally {
+            pool.shutdownNow();
+        }
+        return missing;
+    }
+
+    /**
+     * @param timeout The number of milliseconds to wait for a connection
+     * to a remote resource before giving up on caching it.  Zero means 
+     * that there is no timeout.
+     */
+    public void setConnectTimeout(int timeout) {
+        this.connectTimeout = timeout;
+    }
+
+    /**
+     * @param timeout The number of milliseconds to wait for data from 
+     * a remote resource before giving up on caching it.  Zero means 
+     * that there is no timeout.
+     */
+    public void setReadTimeout(int timeout) {
+        this.readTimeout = timeout;
+    }
     
     /**
      * @see org.xbrlapi.cache.Cache#purge(java.net.URI)
@@ -453,7 +609,7 @@ public class CacheImpl implements Cache {
         List<URI> result = new Vector<URI>();
         FileFilter fileFilter = new FileFilter() {
             public boolean accept(File file) {
-                return (!file.isDirectory());
+                return (!file.isDirectory() && !file.getName().endsWith(TEMPORARY_FILE_SUFFIX));
             }
         };
         for (File childFile: file.listFiles(fileFilter)) {
@@ -509,4 +665,4 @@ public class CacheImpl implements Cache {
         return true;
     }
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,38 +1,48 @@
 package org.xbrlapi.data;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.OutputStream;
 import java.io.StringWriter;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.log4j.Logger;
 import org.apache.xml.serialize.OutputFormat;
 import org.apache.xml.serialize.XMLSerializer;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xbrlapi.Arc;
 import org.xbrlapi.ArcEnd;
 import org.xbrlapi.ArcroleType;
 import org.xbrlapi.Concept;
+import org.xbrlapi.Context;
 import org.xbrlapi.ExtendedLink;
 import org.xbrlapi.Fact;
+import org.xbrlapi.FactDimensionContainer;
 import org.xbrlapi.Fragment;
 import org.xbrlapi.Instance;
 import org.xbrlapi.Item;
@@ -48,12 +58,15 @@ import org.xbrlapi.SchemaContent;
 import org.xbrlapi.SchemaDeclaration;
 import org.xbrlapi.Stub;
 import org.xbrlapi.Tuple;
+import org.xbrlapi.Unit;
 import org.xbrlapi.XML;
 import org.xbrlapi.cache.Cache;
 import org.xbrlapi.cache.CacheImpl;
 import org.xbrlapi.data.resource.DefaultMatcherImpl;
 import org.xbrlapi.data.resource.InStoreMatcherImpl;
+import org.xbrlapi.data.metrics.StoreMetrics;
 import org.xbrlapi.data.resource.Matcher;
+import org.xbrlapi.impl.ContextImpl;
 import org.xbrlapi.impl.FractionItemImpl;
 import org.xbrlapi.impl.FragmentComparator;
 import org.xbrlapi.impl.NonNumericItemImpl;
@@ -64,6 +77,7 @@ import org.xbrlapi.impl.SchemaImpl;
 import org.xbrlapi.impl.SimpleNumericItemImpl;
 import org.xbrlapi.impl.StubImpl;
 import org.xbrlapi.impl.TupleImpl;
+import org.xbrlapi.impl.UnitImpl;
 import org.xbrlapi.loader.Loader;
 import org.xbrlapi.networks.AllAnalyserImpl;
 import org.xbrlapi.networks.Analyser;
@@ -74,6 +88,8 @@ import org.xbrlapi.networks.NetworksImpl;
 import org.xbrlapi.utilities.Constants;
 import org.xbrlapi.utilities.XBRLException;
 import org.xbrlapi.utilities.XMLDOMBuilder;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
 
 
 /**
@@ -106,6 +122,52 @@ public abstract class BaseStoreImpl implements Store {
 
     private static final Logger logger = Logger.getLogger(BaseStoreImpl.class);
 
+    /**
+     * Guards the content of the data store.  Methods that only read
+     * the store content take the read lock so that they can run concurrently.
+     * Methods that change the store content take the write lock.
+     */
+    transient private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * @return the lock to hold while reading the content of the data store.
+     */
+    protected Lock readLock() {
+        return lock.readLock();
+    }
+
+    /**
+     * @return the lock to hold while changing the content of the data store.
+     */
+    protected Lock writeLock() {
+        return lock.writeLock();
+    }
+
+    /**
+     * Persists the resource matches that the matcher has not yet written
+     * to the data store so that they are seen by the count or query that
+     * follows.  Store implementations call this before they take their
+     * read lock.  Nothing is flushed if the current thread already holds
+     * the read lock because the matches are persisted using the write lock.
+     * @throws XBRLException if the matches cannot be persisted.
+     */
+    protected void flushMatches() throws XBRLException {
+        if (matcher == null || lock.getReadHoldCount() > 0) return;
+        matcher.flush();
+    }
+
+    /**
+     * Handles object inflation.
+     * @param in The input object stream used to access the object's serialization.
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        lock = new ReentrantReadWriteLock();
+        operationDepth = newOperationDepth();
+    }
+
     /**
      * The DOM document used to construct DOM representations
      * of subtrees of documents in the store.
@@ -132,6 +194,148 @@ public abstract class BaseStoreImpl implements Store {
         return this.matcher;
     }    
     
+    /**
+     * The metrics that the store operations are recorded in or null
+     * if the store operations are not being recorded.
+     */
+    transient private volatile StoreMetrics metrics = null;
+
+    /**
+     * @see org.xbrlapi.data.Store#setMetrics(StoreMetrics)
+     */
+    public void setMetrics(StoreMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @see org.xbrlapi.data.Store#getMetrics()
+     */
+    public StoreMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * The catalog of the documents in the store or null if it
+     * has not yet been loaded.
+     */
+    transient private volatile DocumentCatalog catalog = null;
+
+    /**
+     * @see org.xbrlapi.data.Store#getDocumentCatalog()
+     */
+    public DocumentCatalog getDocumentCatalog() throws XBRLException {
+        DocumentCatalog result = catalog;
+        if (result != null) return result;
+        // Nothing can be persisted or removed while the catalog is loaded
+        // so concurrent loads produce the same catalog.
+        readLock().lock();
+        try {
+            result = new DocumentCatalog(this);
+            result.load();
+            catalog = result;
+            return result;
+        } finally {
+            readLock().unlock();
+        }
+    }
+
+    /**
+     * Updates the document catalog, if it has been loaded, and the cached
+     * contexts and units after an XML resource has been persisted.
+     * Implementations must call this while holding the write lock.
+     * @param xml The XML resource that has been persisted.
+     */
+    protected void xmlPersisted(XML xml) {
+        DocumentCatalog current = catalog;
+        if (current != null) current.persisted(xml);
+        if (xml instanceof FactDimensionContainer) {
+            try {
+                clearFactDimensionContainers(((FactDimensionContainer) xml).getURI());
+            } catch (XBRLException e) {
+                logger.warn("The cached contexts and units could not be updated for " + xml.getIndex());
+                clearFactDimensionContainers();
+            }
+        }
+    }
+
+    /**
+     * Updates the document catalog, if it has been loaded, and the cached
+     * contexts and units after an XML resource has been removed.
+     * Implementations must call this while holding the write lock.
+     * @param index The index of the XML resource that has been removed.
+     */
+    protected void xmlRemoved(String index) {
+        DocumentCatalog current = catalog;
+        if (current != null) current.removed(index);
+        clearFactDimensionContainer(index);
+    }
+
+    /**
+     * Discards the document catalog so that it is reloaded from the
+     * store when it is next used.  Call this after changing the content
+     * of the store without persisting or removing XML resources one at a time.
+     */
+    protected void clearDocumentCatalog() {
+        catalog = null;
+    }
+
+    /**
+     * The value returned by {@link #startOperation()} when the 
+     * operation is not being recorded.
+     */
+    private static final long UNRECORDED = Long.MIN_VALUE;
+
+    /**
+     * The number of recorded store operations that the current thread
+     * is inside of.  Only the outermost operation is recorded so that
+     * operations implemented in terms of other operations, including 
+     * those of a superclass, are only recorded once.  Each store has its
+     * own count so that an operation on one store that runs inside an
+     * operation on another store is still recorded.
+     */
+    transient private ThreadLocal<int[]> operationDepth = newOperationDepth();
+
+    /**
+     * @return a new per-thread operation depth count.
+     */
+    private static ThreadLocal<int[]> newOperationDepth() {
+        return new ThreadLocal<int[]>() {
+            protected int[] initialValue() {
+                return new int[1];
+            }
+        };
+    }
+
+    /**
+     * Store implementations call this at the start of each query, 
+     * retrieval, persistence, removal and sync operation and then pass the 
+     * returned value to {@link #endOperation(long, String, String, int, int)}
+     * in a finally block.
+     * @return the start time of the operation in nanoseconds.
+     */
+    protected long startOperation() {
+        if (metrics == null) return UNRECORDED;
+        operationDepth.get()[0]++;
+        return System.nanoTime();
+    }
+
+    /**
+     * @param start The value returned by {@link #startOperation()} for the operation.
+     * @param operation The name of the operation.
+     * @param query The query run by the operation or null if it did not run a query.
+     * @param results The number of results or a negative number if the operation failed.
+     * @param fragments The number of XML resources built by the operation.
+     * @see StoreMetrics#record(String, String, long, int, int)
+     */
+    protected void endOperation(long start, String operation, String query, int results, int fragments) {
+        if (start == UNRECORDED) return;
+        int[] depth = operationDepth.get();
+        depth[0]--;
+        StoreMetrics metrics = this.metrics;
+        if (depth[0] > 0 || metrics == null) return;
+        metrics.record(operation, query, System.nanoTime() - start, results, fragments);
+    }
+
     /**
      * Namespace bindings
      */
@@ -140,20 +344,25 @@ public abstract class BaseStoreImpl implements Store {
     /**
      * @see org.xbrlapi.data.Store#setNamespaceBinding(URI,String)
      */
-    public synchronized void setNamespaceBinding(URI namespace, String prefix) throws XBRLException {
-        this.namespaceBindings.put(namespace,prefix);
+    public void setNamespaceBinding(URI namespace, String prefix) throws XBRLException {
+        writeLock().lock();
+        try {
+            this.namespaceBindings.put(namespace,prefix);
+        } finally {
+            writeLock().unlock();
+        }
     }
 
     /**
      * Set of URIs to use when filtering query results to only get matches
      * to a specific set of documents.
      */
-    private Set<URI> uris = new HashSet<URI>();
+    private volatile Set<URI> uris = new HashSet<URI>();
 
     /**
      * @see org.xbrlapi.data.Store#setFilteringURIs(Set)
      */
-    public synchronized void setFilteringURIs(Set<URI> uris) {
+    public void setFilteringURIs(Set<URI> uris) {
         if (uris == null) this.uris = new HashSet<URI>();
         else this.uris = uris;
     }
@@ -175,7 +384,7 @@ public abstract class BaseStoreImpl implements Store {
     /**
      * @see org.xbrlapi.data.Store#isFilteringByURIs()
      */
-    public synchronized boolean isFilteringByURIs() {
+    public boolean isFilteringByURIs() {
         return (! this.uris.isEmpty());
     }
     
@@ -183,11 +392,12 @@ public abstract class BaseStoreImpl implements Store {
      * @return an X Query clause that restricts the set of fragments returned by 
      * a query to those from a specific set of URIs.
      */
-    protected synchronized String getURIFilteringPredicate() {
+    protected String getURIFilteringPredicate() {
 
-        if (isFilteringByURIs()) {
+        Set<URI> uris = this.getFilteringURIs();
+        if (! uris.isEmpty()) {
             String uriFilter = "0";
-            for (URI uri: this.getFilteringURIs()) {
+            for (URI uri: uris) {
                 uriFilter = uriFilter + " or @uri='" + uri + "'";
             }
             uriFilter = "[" + uriFilter + "]";
@@ -209,10 +419,30 @@ public abstract class BaseStoreImpl implements Store {
 
 	}
 	
+    /**
+     * This implementation persists the fragments one at a time
+     * while holding the write lock for the whole batch.
+     * @see org.xbrlapi.data.Store#persist(Collection)
+     */
+    public void persist(Collection<? extends XML> xmls) throws XBRLException {
+        long start = startOperation();
+        int results = -1;
+        writeLock().lock();
+        try {
+            for (XML xml: xmls) {
+                persist(xml);
+            }
+            results = xmls.size();
+        } finally {
+            writeLock().unlock();
+            endOperation(start, StoreMetrics.PERSIST, null, results, 0);
+        }
+    }
+
     /**
      * @see org.xbrlapi.data.Store#persistLoaderState(Map)
      */
-    public synchronized void persistLoaderState(Map<URI,String> documents) throws XBRLException {
+    public void persistLoaderState(Map<URI,String> documents) throws XBRLException {
         try {
             for (URI uri: documents.keySet()) {
                 persistStub(uri,documents.get(uri));
@@ -242,7 +472,7 @@ public abstract class BaseStoreImpl implements Store {
      * Default implementation does nothing.
      * @see Store#sync()
      */
-    public synchronized void sync() throws XBRLException {
+    public void sync() throws XBRLException {
     }
 
     /**
@@ -377,6 +607,9 @@ public abstract class BaseStoreImpl implements Store {
         logger.debug("Deleting " + uri + " from the data store.");
         URI matchURI = getMatcher().getMatch(uri);
         URI newMatchURI = getMatcher().delete(uri);
+        clearFactDimensionContainers(uri);
+        clearFactDimensionContainers(matchURI);
+        if (newMatchURI != null) clearFactDimensionContainers(newMatchURI);
         
         String query = "for $fragment in #roots# where $fragment/@uri='"+ matchURI + "' return $fragment";
 
@@ -515,19 +748,7 @@ public abstract class BaseStoreImpl implements Store {
      * @see Store#getDocumentURIs()
      */
     public Set<URI> getDocumentURIs() throws XBRLException {
-
-        Set<URI> uris = new HashSet<URI>();
-        
-        Set<String> uriStrings =  this.queryForStrings("for $root in #roots#[@parentIndex=''] return string($root/@uri)");
-
-        try {
-            for (String uriString: uriStrings) {
-                uris.add(new URI(uriString));
-            }
-        } catch (URISyntaxException e) {
-            throw new XBRLException("A document URI has invalid syntax.",e);
-        }
-        return uris;
+        return getDocumentCatalog().getDocumentURIs();
     }
 
     /**
@@ -541,11 +762,7 @@ public abstract class BaseStoreImpl implements Store {
             logger.warn(uri + " could not be matched. " + e.getMessage());
             matchURI = uri;
         }
-        String query = "for $root in #roots# where $root/@uri='" + matchURI + "' and $root/@parentIndex='' return string($root/@index)";
-        Set<String> rootIndices = queryForStrings(query);
-        if (rootIndices.size() == 1) return true;
-        if (rootIndices.size() == 0) return false;
-        throw new XBRLException("There are two root fragments in the store for " + uri);
+        return getDocumentCatalog().hasDocument(matchURI);
     }
 
     
@@ -563,7 +780,249 @@ public abstract class BaseStoreImpl implements Store {
      * @throws XBRLException if the document cannot be constructed as a DOM.
      */
     public Element getDocumentAsDOM(URI uri) throws XBRLException {
-    	return getSubtree(this.getRootFragmentForDocument(uri));
+        Map<String,List<Fragment>> children = getDocumentFragments(uri);
+    	return getSubtree(children.get("").get(0), children);
+    }
+
+    /**
+     * Retrieves all of the fragments in a document using a single query.
+     * @param uri The URI of the document.
+     * @return a map from the index of each fragment in the document to its
+     * child fragments, sorted using the {@link FragmentComparator}.  The 
+     * root fragment of the document is mapped to from the empty string.
+     * @throws XBRLException if the document is not in the data store or if
+     * it has more than one root fragment.
+     */
+    private Map<String,List<Fragment>> getDocumentFragments(URI uri) throws XBRLException {
+        Map<String,List<Fragment>> children = new HashMap<String,List<Fragment>>();
+        for (Fragment fragment: this.<Fragment>queryForXMLResources("#roots#[@uri='" + uri + "' and @parentIndex]")) {
+            String parentIndex = fragment.getParentIndex();
+            if (parentIndex == null) parentIndex = "";
+            List<Fragment> siblings = children.get(parentIndex);
+            if (siblings == null) {
+                siblings = new Vector<Fragment>();
+                children.put(parentIndex,siblings);
+            }
+            siblings.add(fragment);
+        }
+        if (! children.containsKey("")) throw new XBRLException("The document " + uri + " is not in the data store.");
+        if (children.get("").size() > 1) throw new XBRLException("Two fragments identify themselves as roots of the one document.");
+        FragmentComparator comparator = new FragmentComparator();
+        for (List<Fragment> siblings: children.values()) {
+            Collections.sort(siblings,comparator);
+        }
+        return children;
+    }
+
+    /**
+     * @param f The fragment at the root of the subtree.
+     * @param children The map from fragment indices to sorted child fragments.
+     * @return the root element of the subtree headed by the fragment, 
+     * built in the store DOM without querying the data store.
+     * @throws XBRLException if the subtree cannot be constructed.
+     */
+    private Element getSubtree(Fragment f, Map<String,List<Fragment>> children) throws XBRLException {
+
+		if (storeDOM == null) {
+			storeDOM = (new XMLDOMBuilder()).newDocument();
+		}
+
+		Element d = null;
+		try {
+		    d = (Element) storeDOM.importNode(f.getDataRootElement(), true);
+		} catch (Exception e) {
+		    throw new XBRLException("The data could not be plugged into the DOM for fragment " + f.getIndex(),e);
+		}
+
+		List<Fragment> childFragments = children.get(f.getIndex());
+		if (childFragments == null) return d;
+    	for (Fragment childFragment: childFragments) {
+    		Element child = getSubtree(childFragment, children);
+    		childFragment.getParentElement(d).appendChild(child);
+    	}
+		return d;
+    }
+
+    /**
+     * @see org.xbrlapi.data.Store#serializeDocument(URI, OutputStream)
+     */
+    public void serializeDocument(URI uri, OutputStream destination) throws XBRLException {
+        try {
+            XMLSerializer serializer = getStreamingSerializer(destination);
+            serializer.startDocument();
+            writeDocument(uri, serializer);
+            serializer.endDocument();
+        } catch (SAXException e) {
+            throw new XBRLException("The document " + uri + " could not be serialised.", e);
+        }
+    }
+
+    /**
+     * @param destination The output stream to write to.
+     * @return a serializer that writes SAX events to the output stream in 
+     * the same format as {@link #serialize(Element, OutputStream)}.
+     */
+    private XMLSerializer getStreamingSerializer(OutputStream destination) {
+        OutputFormat format = new OutputFormat("xml", "UTF-8", true);
+        XMLSerializer serializer = new XMLSerializer(destination, format);
+        serializer.setNamespaces(true);
+        return serializer;
+    }
+
+    /**
+     * Writes a document in the data store as SAX events, fragment
+     * by fragment, without assembling the document as a DOM.
+     * @param uri The URI of the document.
+     * @param serializer The serializer to write the document to.
+     * @throws XBRLException if the document fragments cannot be retrieved.
+     * @throws SAXException if the document cannot be written.
+     */
+    private void writeDocument(URI uri, XMLSerializer serializer) throws XBRLException, SAXException {
+        Map<String,List<Fragment>> children = getDocumentFragments(uri);
+        writeFragment(children.get("").get(0), children, new HashMap<String,String>(), serializer);
+    }
+
+    /**
+     * Writes the subtree headed by a fragment.  The child fragments are
+     * written after the content of their parent elements, in the same
+     * positions that {@link #getSubtree(Fragment)} appends them in.
+     * @param fragment The fragment at the root of the subtree.
+     * @param children The map from fragment indices to sorted child fragments.
+     * @param namespaces The map from prefixes to the namespaces that they are
+     * bound to in the scope of the parent element, with the empty string 
+     * as the prefix of the default namespace.
+     * @param serializer The serializer to write to.
+     * @throws XBRLException
+     * @throws SAXException
+     */
+    private void writeFragment(Fragment fragment, Map<String,List<Fragment>> children, Map<String,String> namespaces, XMLSerializer serializer) throws XBRLException, SAXException {
+        Element data = fragment.getDataRootElement();
+        Map<Element,List<Fragment>> insertions = new IdentityHashMap<Element,List<Fragment>>();
+        List<Fragment> childFragments = children.get(fragment.getIndex());
+        if (childFragments != null) {
+            for (Fragment childFragment: childFragments) {
+                Element parentElement = childFragment.getParentElement(data);
+                List<Fragment> inserted = insertions.get(parentElement);
+                if (inserted == null) {
+                    inserted = new Vector<Fragment>();
+                    insertions.put(parentElement,inserted);
+                }
+                inserted.add(childFragment);
+            }
+        }
+        writeElement(data, insertions, children, namespaces, serializer);
+    }
+
+    /**
+     * @param element The element to write.
+     * @param insertions The map from elements in the current fragment to the
+     * child fragments to write at the end of their content.
+     * @param children The map from fragment indices to sorted child fragments.
+     * @param namespaces The prefix bindings in the scope of the parent element.
+     * @param serializer The serializer to write to.
+     * @throws XBRLException
+     * @throws SAXException
+     */
+    private void writeElement(Element element, Map<Element,List<Fragment>> insertions, Map<String,List<Fragment>> children, Map<String,String> namespaces, XMLSerializer serializer) throws XBRLException, SAXException {
+
+        Map<String,String> scope = new HashMap<String,String>(namespaces);
+        AttributesImpl attributes = new AttributesImpl();
+        NamedNodeMap nodes = element.getAttributes();
+        for (int i=0; i<nodes.getLength(); i++) {
+            Node attribute = nodes.item(i);
+            String namespace = attribute.getNamespaceURI();
+            String localName = attribute.getLocalName();
+            if (localName == null) localName = attribute.getNodeName();
+            if (Constants.XMLNSNamespace.toString().equals(namespace)) {
+                scope.put(localName.equals("xmlns") ? "" : localName, attribute.getNodeValue());
+            }
+            attributes.addAttribute((namespace == null) ? "" : namespace, localName, attribute.getNodeName(), "CDATA", attribute.getNodeValue());
+        }
+
+        // Declare the namespaces that the DOM serializer adds during namespace fixup.
+        AttributesImpl declarations = new AttributesImpl();
+        String namespace = element.getNamespaceURI();
+        String localName = element.getLocalName();
+        if (namespace == null) namespace = "";
+        if (localName == null) localName = element.getNodeName();
+        declare(element.getPrefix(), namespace, scope, declarations);
+        for (int i=0; i<nodes.getLength(); i++) {
+            Node attribute = nodes.item(i);
+            String attributeNamespace = attribute.getNamespaceURI();
+            if (attribute.getPrefix() == null || attributeNamespace == null) continue;
+            if (Constants.XMLNSNamespace.toString().equals(attributeNamespace) || Constants.XMLNamespace.toString().equals(attributeNamespace)) continue;
+            declare(attribute.getPrefix(), attributeNamespace, scope, declarations);
+        }
+        for (int i=0; i<attributes.getLength(); i++) {
+            declarations.addAttribute(attributes.getURI(i), attributes.getLocalName(i), attributes.getQName(i), attributes.getType(i), attributes.getValue(i));
+        }
+
+        serializer.startElement(namespace, localName, element.getNodeName(), declarations);
+        writeContent(element, insertions, children, scope, serializer);
+        List<Fragment> inserted = insertions.get(element);
+        if (inserted != null) {
+            for (Fragment childFragment: inserted) {
+                writeFragment(childFragment, children, scope, serializer);
+            }
+        }
+        serializer.endElement(namespace, localName, element.getNodeName());
+    }
+
+    /**
+     * Adds a namespace declaration to the attributes if the prefix is not
+     * already bound to the namespace in the current scope.
+     * @param prefix The prefix, or null for the default namespace.
+     * @param namespace The namespace, or the empty string for no namespace.
+     * @param scope The prefix bindings in scope, updated with any new declaration.
+     * @param declarations The attributes to add the declaration to.
+     */
+    private void declare(String prefix, String namespace, Map<String,String> scope, AttributesImpl declarations) {
+        if (prefix == null) prefix = "";
+        String bound = scope.get(prefix);
+        if (bound == null) bound = "";
+        if (bound.equals(namespace)) return;
+        scope.put(prefix, namespace);
+        if (prefix.equals("")) {
+            declarations.addAttribute(Constants.XMLNSNamespace.toString(), "xmlns", "xmlns", "CDATA", namespace);
+        } else {
+            declarations.addAttribute(Constants.XMLNSNamespace.toString(), prefix, "xmlns:" + prefix, "CDATA", namespace);
+        }
+    }
+
+    private void writeContent(Node parent, Map<Element,List<Fragment>> insertions, Map<String,List<Fragment>> children, Map<String,String> namespaces, XMLSerializer serializer) throws XBRLException, SAXException {
+        NodeList nodes = parent.getChildNodes();
+        for (int i=0; i<nodes.getLength(); i++) {
+            Node node = nodes.item(i);
+            switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                writeElement((Element) node, insertions, children, namespaces, serializer);
+                break;
+            case Node.TEXT_NODE:
+                // The indenting DOM serializer drops whitespace-only text.
+                if (node.getNodeValue().trim().length() == 0) break;
+                char[] text = node.getNodeValue().toCharArray();
+                serializer.characters(text, 0, text.length);
+                break;
+            case Node.CDATA_SECTION_NODE:
+                char[] data = node.getNodeValue().toCharArray();
+                serializer.startCDATA();
+                serializer.characters(data, 0, data.length);
+                serializer.endCDATA();
+                break;
+            case Node.COMMENT_NODE:
+                char[] comment = node.getNodeValue().toCharArray();
+                serializer.comment(comment, 0, comment.length);
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                serializer.processingInstruction(node.getNodeName(), node.getNodeValue());
+                break;
+            case Node.ENTITY_REFERENCE_NODE:
+                writeContent(node, insertions, children, namespaces, serializer);
+                break;
+            default:
+                break;
+            }
+        }
     }
 	
 	/**
@@ -578,11 +1037,9 @@ public abstract class BaseStoreImpl implements Store {
      */
     private Element getAnnotatedDocumentAsDOM(URI uri) throws XBRLException {
         URI matchURI = getMatcher().getMatch(uri);
-        List<Fragment> fragments = queryForXMLResources("#roots#[@uri='" + matchURI + "' and @parentIndex='']");
-        if (fragments.size() > 1) throw new XBRLException("More than one document was found in the data store.");
-        if (fragments.size() == 0) throw new XBRLException("No documents were found in the data store.");
-        Fragment fragment = fragments.get(0);
-        Element document = this.getAnnotatedSubtree(fragment);
+        Map<String,List<Fragment>> children = getDocumentFragments(matchURI);
+        Fragment fragment = children.get("").get(0);
+        Element document = this.getAnnotatedSubtree(fragment, children);
         document.setAttributeNS(Constants.CompNamespace.toString(),Constants.CompPrefix + ":index",fragment.getIndex());
         return document;
     }
@@ -592,58 +1049,18 @@ public abstract class BaseStoreImpl implements Store {
 	 * fragment with the specified index.  All subtrees for a given store
 	 * instance are produced from the one XML DOM and so can be appended
 	 * to eachother as required.
+	 * The fragments of the fragment's document are retrieved with a single
+	 * query rather than one query per fragment in the subtree.
 	 * @param f The fragment at the root of the subtree.
 	 * @return The root element of the subtree headed by the fragment
 	 * with the specified index.
 	 * @throws XBRLException if the fragment is null.
 	 */
 	public Element getSubtree(Fragment f) throws XBRLException {
-
 	    if (f == null) {
 	        throw new XBRLException("The fragment must not be null.");
 	    }
-	    
-		// Make sure that the DOM is initialised.
-		if (storeDOM == null) {
-			storeDOM = (new XMLDOMBuilder()).newDocument();
-		}
-
-		// Get the DOM representation of the fragment
-		Element d = null;
-		try {
-		    d = (Element) storeDOM.importNode(f.getDataRootElement(), true);
-		} catch (Exception e) {
-		    throw new XBRLException("The data could not be plugged into the DOM for fragment " + f.getIndex(),e);
-		}
-		    
-		// Get the child fragment IDs
-		List<Fragment> unorderedFragments = this.queryForXMLResources("#roots#[@parentIndex='" + f.getIndex() + "']");
-		
-		// With no children, just return the fragment
-		if (unorderedFragments.size() == 0) {
-			return d;
-		}
-
-		// Sort the child fragments into insertion order
-		TreeSet<Fragment> sortedFragments = new TreeSet<Fragment>(new FragmentComparator());
-    	for (Fragment fragment: unorderedFragments) {
-    		sortedFragments.add(fragment);
-    	}
-    	
-    	// Iterate sorted child fragments in insertion order, inserting them
-    	for (Fragment childFragment: sortedFragments) {
-
-    		// Get XML DOM for child fragment
-    		Element child = getSubtree(childFragment);
-
-    		// Get parent element of child fragment in current fragment
-    		Element parentElement = childFragment.getParentElement(d);
-
-            // Do the fragment insertion
-    		parentElement.appendChild(child);
-
-    	}
-		return d;
+	    return getSubtree(f, getDocumentFragments(f.getURI()));
 	}
 	
     /**
@@ -674,14 +1091,13 @@ public abstract class BaseStoreImpl implements Store {
 	 * instance are produced from the one XML DOM and so can be appended
 	 * to eachother as required.
 	 * @param f The fragment at the root of the subtree.
+	 * @param children The map from fragment indices to sorted child fragments.
 	 * @return the root element of the subtree headed by the fragment
 	 * with the specified index.
 	 * @throws XBRLException if the subtree cannot be constructed.
 	 */
-	private Element getAnnotatedSubtree(Fragment f) throws XBRLException {
+	private Element getAnnotatedSubtree(Fragment f, Map<String,List<Fragment>> children) throws XBRLException {
 		
-    	//logger.debug((new Date()) + ":Getting fragment " + f.getIndex());
-    	
 		// Make sure that the DOM is initialised.
 		if (storeDOM == null) {
 			storeDOM = (new XMLDOMBuilder()).newDocument();
@@ -690,37 +1106,17 @@ public abstract class BaseStoreImpl implements Store {
 		// Get the DOM representation of the fragment
 		Element d = (Element) storeDOM.importNode(f.getDataRootElement(), true);
 		
-		// Get the child fragment IDs
-		List<Fragment> fs = this.queryForXMLResources("/"+ Constants.XBRLAPIPrefix+ ":" + "fragment[@parentIndex='" + f.getIndex() + "']");
-		
 		// With no children, just return the fragment
-		if (fs.size() == 0) {
+		List<Fragment> childFragments = children.get(f.getIndex());
+		if (childFragments == null) {
 			return d;
 		}
 
-		// Sort the child fragments into insertion order
-		TreeSet<Fragment> fragments = new TreeSet<Fragment>(new FragmentComparator());
-		for (int i=0; i<fs.size(); i++) {
-    		fragments.add(fs.get(i));
-    	}
-    	
     	// Iterate child fragments in insertion order, inserting them
-    	Iterator<Fragment> iterator = fragments.iterator();
-    	while (iterator.hasNext()) {
-    		
-    		// Get child fragment
-    		Fragment childFragment = iterator.next();
-
-    		// Get XML DOM for child fragment using recursion
-    		Element child = getAnnotatedSubtree(childFragment);
+    	for (Fragment childFragment: childFragments) {
+    		Element child = getAnnotatedSubtree(childFragment, children);
 	    	child.setAttributeNS(Constants.CompNamespace.toString(),Constants.CompPrefix + ":index",childFragment.getIndex());
-
-    		// Get parent element of child fragment in current fragment
-    		Element parentElement = childFragment.getParentElement(d);
-
-    		// Do the fragment insertion
-            parentElement.appendChild(child);
-    		
+            childFragment.getParentElement(d).appendChild(child);
     	}
 		return d;
 	}
@@ -822,7 +1218,7 @@ public abstract class BaseStoreImpl implements Store {
     /**
      * @see org.xbrlapi.data.Store#getDocumentsToDiscover()
      */
-    public synchronized List<URI> getDocumentsToDiscover() throws XBRLException {
+    public List<URI> getDocumentsToDiscover() throws XBRLException {
         List<Stub> stubs = getStubs();
         Vector<URI> list = new Vector<URI>();
         for (Stub stub: stubs) {
@@ -876,8 +1272,17 @@ public abstract class BaseStoreImpl implements Store {
 			if (uri.toString().startsWith(uriPrefix)) {
 				Cache cache = new CacheImpl(destination);
 				File file = cache.getCacheFile(uri);
-				Element e = getDocumentAsDOM(uri);
-				serialize(e,file);
+				File parentFile = file.getParentFile();
+				if (parentFile != null) parentFile.mkdirs();
+				OutputStream output = null;
+				try {
+				    output = new BufferedOutputStream(new FileOutputStream(file));
+				    serializeDocument(uri, output);
+				} catch (FileNotFoundException e) {
+				    throw new XBRLException("The file to be written to cannot be found.", e);
+				} finally {
+				    close(output);
+				}
 			}
 		}
 		
@@ -892,7 +1297,42 @@ public abstract class BaseStoreImpl implements Store {
 	 * saved to the single file.
 	 */
 	public void saveStoreAsSingleDocument(File file) throws XBRLException {
-		serialize(getStoreAsDOM().getDocumentElement(),file);
+		File parentFile = file.getParentFile();
+		if (parentFile != null) parentFile.mkdirs();
+		OutputStream output = null;
+		try {
+		    output = new BufferedOutputStream(new FileOutputStream(file));
+		    XMLSerializer serializer = getStreamingSerializer(output);
+		    serializer.startDocument();
+		    String name = Constants.XBRLAPIPrefix + ":dts";
+		    AttributesImpl attributes = new AttributesImpl();
+		    attributes.addAttribute(Constants.XMLNSNamespace.toString(), Constants.XBRLAPIPrefix, "xmlns:" + Constants.XBRLAPIPrefix, "CDATA", Constants.XBRLAPINamespace.toString());
+		    serializer.startElement(Constants.XBRLAPINamespace.toString(), "dts", name, attributes);
+		    for (URI uri: getDocumentURIs()) {
+		        writeDocument(uri, serializer);
+		    }
+		    serializer.endElement(Constants.XBRLAPINamespace.toString(), "dts", name);
+		    serializer.endDocument();
+		} catch (FileNotFoundException e) {
+		    throw new XBRLException("The file to be written to cannot be found.", e);
+		} catch (SAXException e) {
+		    throw new XBRLException("The data store could not be serialised.", e);
+		} finally {
+		    close(output);
+		}
+	}
+
+	/**
+	 * Closes an output stream, logging rather than throwing any problems.
+	 * @param output The output stream to close, or null.
+	 */
+	private void close(OutputStream output) {
+	    if (output == null) return;
+	    try {
+	        output.close();
+	    } catch (IOException e) {
+	        logger.warn("The output stream could not be closed.");
+	    }
 	}
     
     /**
@@ -1445,6 +1885,154 @@ public abstract class BaseStoreImpl implements Store {
         String query = "for $root in #roots#[@uri='"+ uri +"' ] where $root/@fact return $root";
         return this.<Fact>queryForXMLResources(query);
     }
+
+    /**
+     * The maximum number of instance documents to cache the contexts and units of.
+     */
+    private static final int FACT_DIMENSION_CONTAINER_CACHE_SIZE = 100;
+
+    /**
+     * Maps from the URIs of instance documents to maps from IDs to the
+     * contexts and units in those documents, in least recently used order.
+     * IDs that are used by more than one context or unit map to null.
+     */
+    transient private Map<URI,Map<String,FactDimensionContainer>> factDimensionContainers = null;
+
+    /**
+     * Maps from the indices of the cached contexts and units to the
+     * URIs of their instance documents.  This is guarded by the lock on
+     * the cache of contexts and units.
+     */
+    transient private Map<String,URI> factDimensionContainerDocuments = null;
+
+    /**
+     * Incremented, while holding the lock on the cache of contexts and units,
+     * each time that cached contexts and units are dropped, so that contexts
+     * and units retrieved before they were changed are not cached.
+     */
+    transient private long factDimensionContainerChanges = 0;
+
+    /**
+     * @return the cache of contexts and units, creating it if necessary.
+     */
+    private synchronized Map<URI,Map<String,FactDimensionContainer>> getFactDimensionContainerCache() {
+        if (factDimensionContainers == null) {
+            factDimensionContainerDocuments = new HashMap<String,URI>();
+            factDimensionContainers = new LinkedHashMap<URI,Map<String,FactDimensionContainer>>(16,0.75f,true) {
+                private static final long serialVersionUID = 1L;
+                protected boolean removeEldestEntry(Map.Entry<URI,Map<String,FactDimensionContainer>> eldest) {
+                    if (size() <= FACT_DIMENSION_CONTAINER_CACHE_SIZE) return false;
+                    factDimensionContainerDocuments.values().removeAll(Collections.singleton(eldest.getKey()));
+                    return true;
+                }
+            };
+        }
+        return factDimensionContainers;
+    }
+
+    /**
+     * @param uri The URI of the instance document.
+     * @return the map from IDs to the contexts and units in the instance
+     * document, retrieving them all with a single query if they are not
+     * already cached.
+     * @throws XBRLException
+     */
+    private Map<String,FactDimensionContainer> getFactDimensionContainers(URI uri) throws XBRLException {
+        Map<URI,Map<String,FactDimensionContainer>> cache = getFactDimensionContainerCache();
+        long changes;
+        synchronized (cache) {
+            if (cache.containsKey(uri)) return cache.get(uri);
+            changes = factDimensionContainerChanges;
+        }
+        Map<String,FactDimensionContainer> containers = new HashMap<String,FactDimensionContainer>();
+        List<String> indices = new Vector<String>();
+        String query = "#roots#[@uri='" + uri + "' and (@type='" + ContextImpl.class.getName() + "' or @type='" + UnitImpl.class.getName() + "')]";
+        for (FactDimensionContainer container: this.<FactDimensionContainer>queryForXMLResources(query)) {
+            indices.add(container.getIndex());
+            String id = container.getId();
+            if (containers.containsKey(id)) containers.put(id, null);
+            else containers.put(id, container);
+        }
+        synchronized (cache) {
+            if (changes == factDimensionContainerChanges) {
+                cache.put(uri, containers);
+                for (String index: indices) {
+                    factDimensionContainerDocuments.put(index, uri);
+                }
+            }
+        }
+        return containers;
+    }
+
+    /**
+     * @param uri The URI of the instance document.
+     * @param id The ID of the context or unit.
+     * @return the context or unit with the given ID or null if there is
+     * no unique such context or unit.  Missing IDs are answered from the
+     * cache too, because contexts and units that are persisted later drop 
+     * the cached contexts and units of their document.
+     * @throws XBRLException
+     */
+    private FactDimensionContainer getFactDimensionContainer(URI uri, String id) throws XBRLException {
+        return getFactDimensionContainers(uri).get(id);
+    }
+
+    /**
+     * Drops the cached contexts and units of an instance document.
+     * @param uri The URI of the instance document.
+     */
+    protected void clearFactDimensionContainers(URI uri) {
+        Map<URI,Map<String,FactDimensionContainer>> cache = getFactDimensionContainerCache();
+        synchronized (cache) {
+            factDimensionContainerChanges++;
+            if (cache.remove(uri) == null) return;
+            factDimensionContainerDocuments.values().removeAll(Collections.singleton(uri));
+        }
+    }
+
+    /**
+     * Drops the cached contexts and units of all instance documents.
+     */
+    protected void clearFactDimensionContainers() {
+        Map<URI,Map<String,FactDimensionContainer>> cache = getFactDimensionContainerCache();
+        synchronized (cache) {
+            factDimensionContainerChanges++;
+            cache.clear();
+            factDimensionContainerDocuments.clear();
+        }
+    }
+
+    /**
+     * Drops the cached contexts and units of the instance document
+     * containing the context or unit with the given index, if it is cached.
+     * @param index The index of the XML resource.
+     */
+    private void clearFactDimensionContainer(String index) {
+        Map<URI,Map<String,FactDimensionContainer>> cache = getFactDimensionContainerCache();
+        URI uri = null;
+        synchronized (cache) {
+            uri = factDimensionContainerDocuments.get(index);
+        }
+        if (uri != null) clearFactDimensionContainers(uri);
+    }
+
+    /**
+     * @see Store#getContext(URI, String)
+     */
+    public Context getContext(URI uri, String id) throws XBRLException {
+        FactDimensionContainer container = getFactDimensionContainer(uri, id);
+        if (container instanceof Context) return (Context) container;
+        throw new XBRLException("There is not a unique matching context with ID " + id + " in instance " + uri);
+    }
+
+    /**
+     * @see Store#getUnit(URI, String)
+     */
+    public Unit getUnit(URI uri, String id) throws XBRLException {
+        FactDimensionContainer container = getFactDimensionContainer(uri, id);
+        if (container instanceof Unit) return (Unit) container;
+        throw new XBRLException("There is not a unique matching unit with ID " + id + " in instance " + uri);
+    }
     
     /**
      * @see Store#getAllFacts()
@@ -1453,6 +2041,96 @@ public abstract class BaseStoreImpl implements Store {
         String query = "for $root in #roots# where $root/@fact return $root";
         return this.<Fact>queryForXMLResources(query);
     }    
+
+    /**
+     * @return the query for the indices of the XBRL instances, used to restrict
+     * fact queries to root-level facts.
+     */
+    private String getInstanceIndicesQuery() {
+        return "#roots#[@type='org.xbrlapi.impl.InstanceImpl']/@index";
+    }
+
+    /**
+     * @see Store#getFactsCursor()
+     */
+    public XMLCursor<Fact> getFactsCursor() throws XBRLException {
+        return this.<Fact>queryForXMLCursor("#roots#[@fact and @parentIndex=" + getInstanceIndicesQuery() + "]");
+    }
+
+    /**
+     * @see Store#getAllFactsCursor()
+     */
+    public XMLCursor<Fact> getAllFactsCursor() throws XBRLException {
+        return this.<Fact>queryForXMLCursor("#roots#[@fact]");
+    }
+
+    /**
+     * @see Store#getAllFactsCursor(URI)
+     */
+    public XMLCursor<Fact> getAllFactsCursor(URI uri) throws XBRLException {
+        return this.<Fact>queryForXMLCursor("#roots#[@fact and @uri='" + uri + "']");
+    }
+
+    /**
+     * @see Store#getItemsCursor()
+     */
+    public XMLCursor<Item> getItemsCursor() throws XBRLException {
+        String types = "@type='" + SimpleNumericItemImpl.class.getName() + "' or @type='" + FractionItemImpl.class.getName() + "' or @type='" + NonNumericItemImpl.class.getName() + "'";
+        return this.<Item>queryForXMLCursor("#roots#[(" + types + ") and @parentIndex=" + getInstanceIndicesQuery() + "]");
+    }
+
+    /**
+     * This implementation gets the indices of the matching XML resources
+     * and then retrieves each XML resource as the cursor moves to it.
+     * The order of the XML resources is not specified.
+     * @see Store#queryForXMLCursor(String)
+     */
+    public <F extends XML> XMLCursor<F> queryForXMLCursor(String query) throws XBRLException {
+        long start = startOperation();
+        int results = -1;
+        try {
+            Set<String> indices = queryForIndices(query);
+            results = indices.size();
+            return this.<F>newIndexCursor(indices);
+        } finally {
+            endOperation(start, StoreMetrics.QUERY_FOR_XML_CURSOR, query, results, 0);
+        }
+    }
+
+    /**
+     * @param indices The indices of the XML resources to move over, in order.
+     * @return a cursor that retrieves each XML resource as the cursor moves to it.
+     */
+    protected <F extends XML> XMLCursor<F> newIndexCursor(Collection<String> indices) {
+        return new IndexCursor<F>(indices);
+    }
+
+    /**
+     * A cursor that retrieves XML resources from the data store by their indices.
+     */
+    private class IndexCursor<F extends XML> implements XMLCursor<F> {
+
+        private Iterator<String> indices;
+
+        IndexCursor(Collection<String> indices) {
+            this.indices = new Vector<String>(indices).iterator();
+        }
+
+        public boolean hasNext() {
+            return indices != null && indices.hasNext();
+        }
+
+        public F next() throws XBRLException {
+            if (! hasNext()) throw new XBRLException("There are no more XML resources.");
+            String index = indices.next();
+            if (! indices.hasNext()) close();
+            return BaseStoreImpl.this.<F>getXMLResource(index);
+        }
+
+        public void close() {
+            indices = null;
+        }
+    }
     
 
     
@@ -1806,7 +2484,7 @@ public abstract class BaseStoreImpl implements Store {
     /**
      * @see Store#getMinimalNetworksWithArcrole(Fragment, URI)
      */
-    public synchronized Networks getMinimalNetworksWithArcrole(Fragment fragment, URI arcrole) throws XBRLException {
+    public Networks getMinimalNetworksWithArcrole(Fragment fragment, URI arcrole) throws XBRLException {
         Set<Fragment> set = new HashSet<Fragment>();
         set.add(fragment);
         return this.getMinimalNetworksWithArcrole(set,arcrole);
@@ -1815,7 +2493,7 @@ public abstract class BaseStoreImpl implements Store {
     /**
      * @see Store#getMinimalNetworksWithArcrole(Set, URI)
      */
-    public synchronized Networks getMinimalNetworksWithArcrole(Set<Fragment> fragments, URI arcrole) throws XBRLException {
+    public Networks getMinimalNetworksWithArcrole(Set<Fragment> fragments, URI arcrole) throws XBRLException {
 
         try {
             Networks networks = new NetworksImpl(this);
@@ -1831,7 +2509,7 @@ public abstract class BaseStoreImpl implements Store {
     /**
      * @see Store#augmentNetworksForFragment(Fragment, URI, Networks)
      */
-    public synchronized void augmentNetworksForFragment(Fragment fragment, URI arcrole, Networks networks) throws XBRLException {
+    public void augmentNetworksForFragment(Fragment fragment, URI arcrole, Networks networks) throws XBRLException {
         for (Network network: networks.getNetworks(arcrole)) {
             if (network.hasActiveRelationshipsTo(fragment.getIndex())) return;
         }
@@ -1853,7 +2531,7 @@ public abstract class BaseStoreImpl implements Store {
     /**
      * @see Store#augmentNetworkForFragment(Fragment, Network)
      */
-    public synchronized void augmentNetworkForFragment(Fragment fragment, Network network) throws XBRLException {
+    public void augmentNetworkForFragment(Fragment fragment, Network network) throws XBRLException {
 
         if (network.hasActiveRelationshipsTo(fragment.getIndex())) return;
                 
@@ -2293,7 +2971,7 @@ public abstract class BaseStoreImpl implements Store {
      */
     public Set<URI> getMissingDocumentURIs() throws XBRLException {
         Set<URI> result = new HashSet<URI>();
-        String query = "for $targetURI in #roots#[*/*[@xlink:type='locator' or @xlink:type='simple'], return distinct-values(string($fragment/@targetDocumentURI))";
+        String query = "for $fragment in #roots#[@targetDocumentURI] return string($fragment/@targetDocumentURI)";
         Set<String> uris = this.queryForStrings(query);
         for (String uri: uris) {
             try {
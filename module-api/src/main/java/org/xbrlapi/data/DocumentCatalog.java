@@ -0,0 +1,210 @@
+package org.xbrlapi.data;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.xbrlapi.XML;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * The catalog of the documents in a data store, mapping the URI of each
+ * document to the index of its root fragment.  The catalog is loaded from
+ * the data store with a single query and is then maintained by the data
+ * store as root fragments are persisted and removed, so that document
+ * presence checks and listings do not need to query the data store.
+ * Fragment counts are obtained from the data store when they are first
+ * requested and are cached until the data store is next modified.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+
+public class DocumentCatalog {
+
+    private static final Logger logger = Logger.getLogger(DocumentCatalog.class);
+
+    /**
+     * The information held about a single document.
+     */
+    public static class Entry {
+
+        private URI uri;
+        private String rootIndex;
+        private long loadTime;
+        private int fragmentCount = -1;
+        private long fragmentCountVersion = -1;
+
+        private Entry(URI uri, String rootIndex, long loadTime) {
+            this.uri = uri;
+            this.rootIndex = rootIndex;
+            this.loadTime = loadTime;
+        }
+
+        /**
+         * @return the URI of the document.
+         */
+        public URI getURI() {
+            return uri;
+        }
+
+        /**
+         * @return the index of the root fragment of the document.
+         */
+        public String getRootIndex() {
+            return rootIndex;
+        }
+
+        /**
+         * @return the time, in milliseconds since the epoch, at which the
+         * root fragment of the document was persisted or -1 if the document
+         * was already in the data store when the catalog was loaded.
+         */
+        public long getLoadTime() {
+            return loadTime;
+        }
+    }
+
+    private Store store = null;
+
+    /**
+     * Map from document URIs to catalog entries.
+     */
+    private Map<URI,Entry> entries = new ConcurrentHashMap<URI,Entry>();
+
+    /**
+     * Map from root fragment indices to document URIs.
+     */
+    private Map<String,URI> roots = new ConcurrentHashMap<String,URI>();
+
+    /**
+     * Incremented each time that the data store is modified.
+     */
+    private AtomicLong version = new AtomicLong();
+
+    /**
+     * @param store The data store being catalogued.
+     * @throws XBRLException if the store is null.
+     */
+    public DocumentCatalog(Store store) throws XBRLException {
+        if (store == null) throw new XBRLException("The store must not be null.");
+        this.store = store;
+    }
+
+    /**
+     * Loads the catalog entries for the documents in the data store.
+     * @throws XBRLException if the root fragments cannot be queried.
+     */
+    public void load() throws XBRLException {
+        Set<String> results = store.queryForStrings("for $root in #roots#[@parentIndex=''] return concat($root/@index,' ',$root/@uri)");
+        for (String result: results) {
+            int split = result.indexOf(' ');
+            String index = result.substring(0, split);
+            try {
+                add(new URI(result.substring(split + 1)), index, -1);
+            } catch (URISyntaxException e) {
+                throw new XBRLException("A document URI has invalid syntax.",e);
+            }
+        }
+        logger.debug("Catalogued " + entries.size() + " documents.");
+    }
+
+    private void add(URI uri, String rootIndex, long loadTime) {
+        Entry entry = entries.get(uri);
+        if (entry != null && ! entry.getRootIndex().equals(rootIndex)) {
+            logger.warn("There are two root fragments in the store for " + uri);
+        }
+        entries.put(uri, new Entry(uri, rootIndex, loadTime));
+        roots.put(rootIndex, uri);
+    }
+
+    /**
+     * Updates the catalog after an XML resource has been persisted.
+     * @param xml The XML resource that has been persisted.
+     */
+    public void persisted(XML xml) {
+        version.incrementAndGet();
+        String index = xml.getIndex();
+        URI previous = roots.get(index);
+        if (! "".equals(xml.getMetaAttribute("parentIndex"))) {
+            if (previous != null) removed(index);
+            return;
+        }
+        String uri = xml.getMetaAttribute("uri");
+        if (uri == null) return;
+        try {
+            URI document = new URI(uri);
+            if (document.equals(previous)) return;
+            if (previous != null) entries.remove(previous);
+            add(document, index, System.currentTimeMillis());
+        } catch (URISyntaxException e) {
+            logger.warn(uri + " is not a valid document URI so it has not been catalogued.");
+        }
+    }
+
+    /**
+     * Updates the catalog after an XML resource has been removed.
+     * @param index The index of the XML resource that has been removed.
+     */
+    public void removed(String index) {
+        version.incrementAndGet();
+        URI uri = roots.remove(index);
+        if (uri == null) return;
+        Entry entry = entries.get(uri);
+        if (entry != null && entry.getRootIndex().equals(index)) entries.remove(uri);
+    }
+
+    /**
+     * @param uri The document URI.
+     * @return true if the document is in the data store and false otherwise.
+     */
+    public boolean hasDocument(URI uri) {
+        return entries.containsKey(uri);
+    }
+
+    /**
+     * @return the URIs of the documents in the data store.
+     */
+    public Set<URI> getDocumentURIs() {
+        return new HashSet<URI>(entries.keySet());
+    }
+
+    /**
+     * @param uri The document URI.
+     * @return the catalog entry for the document or null if the
+     * document is not in the data store.
+     */
+    public Entry getEntry(URI uri) {
+        return entries.get(uri);
+    }
+
+    /**
+     * @return the number of documents in the data store.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @param uri The document URI.
+     * @return the number of fragments in the document or 0 if the
+     * document is not in the data store.
+     * @throws XBRLException if the fragments cannot be counted.
+     */
+    public int getFragmentCount(URI uri) throws XBRLException {
+        Entry entry = entries.get(uri);
+        if (entry == null) return 0;
+        synchronized (entry) {
+            long current = version.get();
+            if (entry.fragmentCountVersion != current) {
+                entry.fragmentCount = (int) store.queryCount("#roots#[@uri='" + uri + "']");
+                entry.fragmentCountVersion = current;
+            }
+            return entry.fragmentCount;
+        }
+    }
+
+}
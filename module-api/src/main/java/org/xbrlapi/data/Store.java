@@ -15,6 +15,7 @@ import org.w3c.dom.Element;
 import org.xbrlapi.Arc;
 import org.xbrlapi.ArcroleType;
 import org.xbrlapi.Concept;
+import org.xbrlapi.Context;
 import org.xbrlapi.ExtendedLink;
 import org.xbrlapi.Fact;
 import org.xbrlapi.Fragment;
@@ -29,7 +30,9 @@ import org.xbrlapi.SchemaContent;
 import org.xbrlapi.SchemaDeclaration;
 import org.xbrlapi.Stub;
 import org.xbrlapi.Tuple;
+import org.xbrlapi.Unit;
 import org.xbrlapi.XML;
+import org.xbrlapi.data.metrics.StoreMetrics;
 import org.xbrlapi.data.resource.Matcher;
 import org.xbrlapi.loader.Loader;
 import org.xbrlapi.networks.Analyser;
@@ -49,6 +52,11 @@ import org.xbrlapi.utilities.XBRLException;
  * as the underlying data structure.  Similarly, initialisation
  * steps would be taken if XML data binding to Java objects were
  * being used to handle the underlying data.
+ * 
+ * Data stores are shared by loaders and by reporting threads.
+ * Methods that only read the store content, like the query methods,
+ * can run concurrently.  Methods that change the store content,
+ * like persist and remove, have exclusive access to the store content.
  *
  * @author Geoffrey Shuetrim (geoff@galexy.net)
  */
@@ -57,23 +65,33 @@ public interface Store extends Serializable {
 
 	/**
 	 * Close the data store.
-	 * This method must be synchronized.
+	 * Implementations of this method must have exclusive access to the store content.
 	 * Throws XBRLException if the data store cannot be closed. 
 	 */
 	public void close() throws XBRLException;
 
 	/**
 	 * Store a fragment.
-	 * Implementations of this method must always be synchronized. 
+	 * Implementations of this method must have exclusive access to the store content.
 	 * @param xml The fragment to be added to the store.
 	 * @throws XBRLException if the fragment cannot be added to the store.
 	 */
     public void persist(XML xml) throws XBRLException;    
 
+    /**
+     * Store a set of fragments as a batch, in a single update where the
+     * underlying database supports it.  Existing fragments with the same
+     * indices are replaced, as for {@link #persist(XML)}.
+     * Implementations of this method must have exclusive access to the store content.
+     * @param xmls The fragments to be added to the store.
+     * @throws XBRLException if the fragments cannot be added to the store.
+     */
+    public void persist(Collection<? extends XML> xmls) throws XBRLException;
+
     /**
      * Test if a store contains a specific fragment, as identified by
      * its index.
-     * Implementations of this method must be synchronized.
+     * Implementations of this method must be safe to run concurrently with other reads.
      * @param index The index of the fragment to test for.
      * @return true iff the store contains a fragment with the specified 
      * fragment index.
@@ -83,7 +101,7 @@ public interface Store extends Serializable {
     
     /**
      * Retrieves an XML Resource from a data store.
-     * Implementations of this method must be synchronized.
+     * Implementations of this method must be safe to run concurrently with other reads.
      * @param index The index of the XML resource.
      * @return The XML resource corresponding to the specified index.
      * @throws XBRLException if the XML resource cannot be retrieved.
@@ -94,7 +112,7 @@ public interface Store extends Serializable {
 	 * Remove a fragment from the underlying data structure.
 	 * If a fragment with the same ID does not already exist in the 
 	 * data store then no action is required.
-     * Implementations of this method must be synchronized.
+     * Implementations of this method must have exclusive access to the store content.
 	 * @param index The index of the fragment to be removed from the DTS store.
 	 * @throws XBRLException if the fragment cannot be removed from the store.
 	 */
@@ -144,7 +162,7 @@ public interface Store extends Serializable {
 
 	/**
 	 * Run a query against the collection of all fragments in the store.
-     * Implementations of this method must be synchronized.
+     * Implementations of this method must be safe to run concurrently with other reads.
 	 * @param query The XPath query to run against the set of fragments.
      * Any occurrences of the string #roots# in a query will be deemed to 
      * be a marker for the root elements of the fragments in an XML database collection 
@@ -156,9 +174,20 @@ public interface Store extends Serializable {
 	 */
 	public <F extends XML> List<F> queryForXMLResources(String query) throws XBRLException;
 
+    /**
+     * Run a query against the collection of all fragments in the store,
+     * building the matching XML resources one at a time as the returned
+     * cursor is moved over them, rather than building them all up front.
+     * @param query The query to run, using the #roots# marker as for
+     * {@link #queryForXMLResources(String)}.
+     * @return a cursor over the matching XML resources.
+     * @throws XBRLException if the query cannot be executed.
+     */
+    public <F extends XML> XMLCursor<F> queryForXMLCursor(String query) throws XBRLException;
+
     /**
      * Run a query against the collection of all fragments in the store.
-     * Implementations of this method must be synchronized.
+     * Implementations of this method must be safe to run concurrently with other reads.
      * @param query The XPath query to run against the set of fragments.
      * Any occurrences of the string #roots# in a query will be deemed to 
      * be a marker for the root elements of the fragments in an XML database collection 
@@ -173,7 +202,7 @@ public interface Store extends Serializable {
     public Set<String> queryForIndices(String query) throws XBRLException;
     
     /**
-     * This method must be synchronised
+     * Implementations of this method must be safe to run concurrently with other reads.
      * @param query The XPath query to run.
      * Any occurrences of the string #roots# in a query will be deemed to 
      * be a marker for the root elements of the fragments in an XML database collection 
@@ -186,7 +215,7 @@ public interface Store extends Serializable {
     
     /**
      * Run a query that is required to return a list of strings.
-     * Implementations of this method must be synchronized.
+     * Implementations of this method must be safe to run concurrently with other reads.
      * @param query The XPath query to run against the set of fragments.
      * Any occurrences of the string #roots# in a query will be deemed to 
      * be a marker for the root elements of the fragments in an XML database collection 
@@ -200,7 +229,7 @@ public interface Store extends Serializable {
     
     /**
      * Run a query that is required to return a single string.
-     * Implementations of this method must be synchronized.
+     * Implementations of this method must be safe to run concurrently with other reads.
      * @param query The XPath query to run against the set of fragments.
      * Any occurrences of the string #roots# in a query will be deemed to 
      * be a marker for the root elements of the fragments in an XML database collection 
@@ -274,6 +303,20 @@ public interface Store extends Serializable {
      * @throws XBRLException if the document cannot be constructed as a DOM.
      */
     public Element getDocumentAsDOM(URI uri) throws XBRLException;
+
+    /**
+     * Serializes a single document in the store to an output stream.
+     * All of the fragments in the document are retrieved using a single 
+     * query and the XML is written fragment by fragment, without
+     * assembling the document as a DOM.  The XML written is equivalent
+     * to that produced by serializing the result of {@link #getDocumentAsDOM(URI)}.
+     * @param uri The URI of the document to be serialized.
+     * @param destination The output stream to write the document to.  The
+     * output stream is not closed.
+     * @throws XBRLException if the document is not in the store or 
+     * if it cannot be serialized.
+     */
+    public void serializeDocument(URI uri, OutputStream destination) throws XBRLException;
     
 	/**
 	 * Serializes the individual documents in the data store, 
@@ -361,6 +404,13 @@ public interface Store extends Serializable {
      */
     public boolean hasDocument(URI uri) throws XBRLException;
 
+    /**
+     * @return the catalog of the documents in the data store, which 
+     * is maintained as fragments are persisted and removed.
+     * @throws XBRLException if the catalog cannot be loaded.
+     */
+    public DocumentCatalog getDocumentCatalog() throws XBRLException;
+
     /**
      * Stores the state of the document discovery process.
      * @param documents The map from URIs of the documents 
@@ -648,7 +698,7 @@ public interface Store extends Serializable {
     
     /**
      * Close and then delete the data store.
-     * This method must be synchronized.
+     * Implementations of this method must have exclusive access to the store content.
      * @throws XBRLException if the data store cannot be deleted.
      */
     public void delete() throws XBRLException;    
@@ -707,6 +757,20 @@ public interface Store extends Serializable {
      * @return the matcher used by the store to identify identical resources.
      */
     public Matcher getMatcher();
+
+    /**
+     * Sets the metrics that the store records its query, retrieval, 
+     * persistence, removal and sync operations in.
+     * @param metrics the metrics to record operations in or null to
+     * stop recording operations.
+     */
+    public void setMetrics(StoreMetrics metrics);
+
+    /**
+     * @return the metrics that the store records its operations in or
+     * null if the store is not recording its operations.
+     */
+    public StoreMetrics getMetrics();
     
     /**
      * @param uri The URI of the referenced document.
@@ -833,6 +897,27 @@ public interface Store extends Serializable {
      * @throws XBRLException
      */
     public List<Fact> getAllFacts(URI uri) throws XBRLException;
+
+    /**
+     * All of the contexts and units in an instance document are retrieved
+     * together the first time that one of them is needed and they are then
+     * cached until the document is deleted from the data store.
+     * @param uri The URI of the instance document containing the context.
+     * @param id The ID of the context.
+     * @return the context with the given ID in the given instance document.
+     * @throws XBRLException if there is no unique such context.
+     */
+    public Context getContext(URI uri, String id) throws XBRLException;
+
+    /**
+     * Units are cached in the same way as contexts.
+     * @param uri The URI of the instance document containing the unit.
+     * @param id The ID of the unit.
+     * @return the unit with the given ID in the given instance document.
+     * @throws XBRLException if there is no unique such unit.
+     * @see #getContext(URI, String)
+     */
+    public Unit getUnit(URI uri, String id) throws XBRLException;
     
     /**
      * @return a list of all of the facts (root level and those nested in tuples) 
@@ -840,6 +925,37 @@ public interface Store extends Serializable {
      * @throws XBRLException
      */
     public List<Fact> getAllFacts() throws XBRLException;
+
+    /**
+     * @return a cursor over all of the root-level facts in the data store.
+     * @throws XBRLException
+     * @see #getFacts()
+     */
+    public XMLCursor<Fact> getFactsCursor() throws XBRLException;
+
+    /**
+     * @return a cursor over all of the facts (root level and those nested in tuples) 
+     * in the data store.
+     * @throws XBRLException
+     * @see #getAllFacts()
+     */
+    public XMLCursor<Fact> getAllFactsCursor() throws XBRLException;
+
+    /**
+     * @param uri The URI of the document to get the facts from.
+     * @return a cursor over all of the facts (root level and those nested in tuples) 
+     * in the document with the specified URI.
+     * @throws XBRLException
+     * @see #getAllFacts(URI)
+     */
+    public XMLCursor<Fact> getAllFactsCursor(URI uri) throws XBRLException;
+
+    /**
+     * @return a cursor over all of the root-level items in the data store.
+     * @throws XBRLException
+     * @see #getItems()
+     */
+    public XMLCursor<Item> getItemsCursor() throws XBRLException;
     
     /**
      * @param uri The URI of the document to get the items from.
@@ -0,0 +1,41 @@
+package org.xbrlapi.data;
+
+import org.xbrlapi.XML;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * A cursor over the XML resources matched by a data store query.
+ * The XML resources are only built as the cursor moves over them
+ * so iterating over the results of a query does not require
+ * memory proportional to the number of results.
+ *
+ * A cursor must be closed once it is no longer needed unless
+ * it has been moved past the last result, in which case it closes
+ * itself.  The data store should not be modified by the thread
+ * using a cursor while the cursor is open.
+ *
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public interface XMLCursor<F extends XML> {
+
+    /**
+     * @return true if there is another XML resource to move to
+     * and false otherwise.
+     * @throws XBRLException if the data store cannot be accessed.
+     */
+    public boolean hasNext() throws XBRLException;
+
+    /**
+     * @return the next XML resource.
+     * @throws XBRLException if there are no more XML resources
+     * or the next XML resource cannot be built.
+     */
+    public F next() throws XBRLException;
+
+    /**
+     * Releases the resources held by the cursor.  Calling this method
+     * more than once has no effect.
+     */
+    public void close();
+
+}
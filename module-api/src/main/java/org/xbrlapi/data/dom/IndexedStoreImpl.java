@@ -0,0 +1,465 @@
+package org.xbrlapi.data.dom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xbrlapi.XML;
+import org.xbrlapi.data.XMLCursor;
+import org.xbrlapi.data.metrics.StoreMetrics;
+import org.xbrlapi.impl.FragmentFactory;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * An in-memory data store that keeps hash indexes on the fragment
+ * metadata attributes that the API filters on: parentIndex, uri, type,
+ * sourceIndex and targetIndex.
+ *
+ * Queries of the form <code>#roots#[@a='x' and @b]</code>, optionally
+ * followed by <code>/@c</code> when querying for strings, are answered
+ * from the indexes if at least one of the terms is an equality test on an
+ * indexed attribute.  All other queries are evaluated by the XQuery
+ * engine, as for the unindexed in-memory data store.
+ *
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class IndexedStoreImpl extends StoreImpl {
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = -3148750432615512370L;
+
+    private static final Logger logger = Logger.getLogger(IndexedStoreImpl.class);
+
+    /**
+     * The names of the indexed metadata attributes.
+     */
+    private static final String[] INDEXED_ATTRIBUTES = {"parentIndex","uri","type","sourceIndex","targetIndex"};
+
+    /**
+     * Matches the queries that may be answered from the indexes, capturing
+     * the predicate and the name of the selected attribute, if any.
+     */
+    private static final Pattern indexedQuery = Pattern.compile("^\\s*#roots#\\[(.*)\\](?:/@([\\w\\-\\.]+))?\\s*$",Pattern.DOTALL);
+
+    /**
+     * Matches one term in the predicate of a query that may be answered from the indexes.
+     */
+    private static final Pattern term = Pattern.compile("\\s*@([\\w\\-\\.]+)(?:\\s*=\\s*(?:'([^'&]*)'|\"([^\"&]*)\"))?\\s*");
+
+    /**
+     * Matches the conjunction of terms in the predicate.
+     */
+    private static final Pattern conjunction = Pattern.compile("and\\s");
+
+    /**
+     * Maps from attribute name to attribute value to the indices
+     * of the fragments with that attribute value, in the order that
+     * the fragments were stored.
+     */
+    transient private Map<String,Map<String,Set<String>>> indexes;
+
+    /**
+     * Maps from fragment index to the values of the indexed attributes
+     * at the time that the fragment was stored.  These are used to
+     * clear the index entries for a fragment whose metadata has been
+     * changed in place before it is stored again.
+     */
+    transient private Map<String,String[]> indexedValues;
+
+    /**
+     * Initialise the data store.
+     * @throws XBRLException if the data store cannot be initialised.
+     */
+    public IndexedStoreImpl() throws XBRLException {
+        super();
+        initializeIndexes();
+    }
+
+    private void initializeIndexes() {
+        indexes = new HashMap<String,Map<String,Set<String>>>();
+        for (String attribute: INDEXED_ATTRIBUTES) {
+            indexes.put(attribute,new HashMap<String,Set<String>>());
+        }
+        indexedValues = new HashMap<String,String[]>();
+    }
+
+    /**
+     * Handles object inflation, rebuilding the indexes from the
+     * fragments in the store.
+     * @param in The input object stream used to access the object's serialization.
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        rebuildIndexes();
+    }
+
+    /**
+     * @see org.xbrlapi.data.dom.StoreImpl#loadSnapshot(File)
+     */
+    public void loadSnapshot(File file) throws XBRLException {
+        writeLock().lock();
+        try {
+            super.loadSnapshot(file);
+            rebuildIndexes();
+        } finally {
+            writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuilds the indexes from the fragments in the store.
+     */
+    private void rebuildIndexes() {
+        initializeIndexes();
+        NodeList nodes = getStoreAsDOM().getDocumentElement().getChildNodes();
+        for (int i=0; i<nodes.getLength(); i++) {
+            Node node = nodes.item(i);
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                Element element = (Element) node;
+                if (element.hasAttribute("index")) {
+                    addToIndexes(element.getAttribute("index"),element);
+                }
+            }
+        }
+    }
+
+    /**
+     * @see org.xbrlapi.data.Store#persist(XML)
+     */
+    public void persist(XML xml) throws XBRLException {
+        long start = startOperation();
+        int results = -1;
+        writeLock().lock();
+        try {
+            super.persist(xml);
+            String index = xml.getIndex();
+            addToIndexes(index,getStoredElement(index));
+            results = 1;
+        } finally {
+            writeLock().unlock();
+            endOperation(start, StoreMetrics.PERSIST, null, results, 0);
+        }
+    }
+
+    /**
+     * @see org.xbrlapi.data.Store#remove(String)
+     */
+    public void remove(String index) throws XBRLException {
+        long start = startOperation();
+        int results = -1;
+        writeLock().lock();
+        try {
+            removeFromIndexes(index);
+            super.remove(index);
+            results = 1;
+        } finally {
+            writeLock().unlock();
+            endOperation(start, StoreMetrics.REMOVE, null, results, 0);
+        }
+    }
+
+    /**
+     * Must only be called while holding the write lock.
+     * @param index The index of the fragment.
+     * @param element The root element of the fragment in the store.
+     */
+    private void addToIndexes(String index, Element element) {
+        if (element == null) return;
+        String[] values = new String[INDEXED_ATTRIBUTES.length];
+        for (int i=0; i<INDEXED_ATTRIBUTES.length; i++) {
+            String attribute = INDEXED_ATTRIBUTES[i];
+            if (! element.hasAttribute(attribute)) continue;
+            values[i] = element.getAttribute(attribute);
+            Map<String,Set<String>> index4Attribute = indexes.get(attribute);
+            Set<String> fragments = index4Attribute.get(values[i]);
+            if (fragments == null) {
+                fragments = new LinkedHashSet<String>();
+                index4Attribute.put(values[i],fragments);
+            }
+            fragments.add(index);
+        }
+        indexedValues.put(index,values);
+    }
+
+    /**
+     * Must only be called while holding the write lock.
+     * @param index The index of the fragment.
+     */
+    private void removeFromIndexes(String index) {
+        String[] values = indexedValues.remove(index);
+        if (values == null) return;
+        for (int i=0; i<INDEXED_ATTRIBUTES.length; i++) {
+            if (values[i] == null) continue;
+            Map<String,Set<String>> index4Attribute = indexes.get(INDEXED_ATTRIBUTES[i]);
+            Set<String> fragments = index4Attribute.get(values[i]);
+            if (fragments == null) continue;
+            fragments.remove(index);
+            if (fragments.isEmpty()) index4Attribute.remove(values[i]);
+        }
+    }
+
+    /**
+     * @see org.xbrlapi.data.Store#queryForXMLResources(String)
+     */
+    public <F extends XML> List<F> queryForXMLResources(String query) throws XBRLException {
+        flushMatches();
+        long start = startOperation();
+        int results = -1;
+        readLock().lock();
+        try {
+            IndexedQuery indexed = parse(query);
+            List<F> fragments = null;
+            if (indexed == null || indexed.getSelectedAttribute() != null) {
+                fragments = super.<F>queryForXMLResources(query);
+            } else {
+                fragments = new Vector<F>();
+                for (Element element: indexed.getMatches()) {
+                    fragments.add(FragmentFactory.<F>newFragment(this, element));
+                }
+            }
+            results = fragments.size();
+            return fragments;
+        } finally {
+            readLock().unlock();
+            endOperation(start, StoreMetrics.QUERY_FOR_XML_RESOURCES, query, results, results);
+        }
+    }
+
+    /**
+     * @see org.xbrlapi.data.Store#queryForXMLCursor(String)
+     */
+    public <F extends XML> XMLCursor<F> queryForXMLCursor(String query) throws XBRLException {
+        flushMatches();
+        readLock().lock();
+        try {
+            IndexedQuery indexed = parse(query);
+            if (indexed == null || indexed.getSelectedAttribute() != null) {
+                return super.<F>queryForXMLCursor(query);
+            }
+            long start = startOperation();
+            int results = -1;
+            try {
+                List<String> indices = new Vector<String>();
+                for (Element element: indexed.getMatches()) {
+                    indices.add(element.getAttribute("index"));
+                }
+                results = indices.size();
+                return this.<F>newIndexCursor(indices);
+            } finally {
+                endOperation(start, StoreMetrics.QUERY_FOR_XML_CURSOR, query, results, 0);
+            }
+        } finally {
+            readLock().unlock();
+        }
+    }
+
+    /**
+     * @see org.xbrlapi.data.Store#queryForIndices(String)
+     */
+    public Set<String> queryForIndices(String query) throws XBRLException {
+        flushMatches();
+        long start = startOperation();
+        int results = -1;
+        readLock().lock();
+        try {
+            IndexedQuery indexed = parse(query);
+            Set<String> indices = null;
+            if (indexed == null || indexed.getSelectedAttribute() != null) {
+                indices = super.queryForIndices(query);
+            } else {
+                indices = new HashSet<String>();
+                for (Element element: indexed.getMatches()) {
+                    indices.add(element.getAttribute("index"));
+                }
+            }
+            results = indices.size();
+            return indices;
+        } finally {
+            readLock().unlock();
+            endOperation(start, StoreMetrics.QUERY_FOR_INDICES, query, results, 0);
+        }
+    }
+
+    /**
+     * @see org.xbrlapi.data.Store#queryForStrings(String)
+     */
+    public Set<String> queryForStrings(String query) throws XBRLException {
+        flushMatches();
+        long start = startOperation();
+        int results = -1;
+        readLock().lock();
+        try {
+            IndexedQuery indexed = parse(query);
+            Set<String> strings = null;
+            if (indexed == null || indexed.getSelectedAttribute() == null) {
+                strings = super.queryForStrings(query);
+            } else {
+                String attribute = indexed.getSelectedAttribute();
+                strings = new TreeSet<String>();
+                for (Element element: indexed.getMatches()) {
+                    if (element.hasAttribute(attribute)) {
+                        strings.add(element.getAttribute(attribute));
+                    }
+                }
+            }
+            results = strings.size();
+            return strings;
+        } finally {
+            readLock().unlock();
+            endOperation(start, StoreMetrics.QUERY_FOR_STRINGS, query, results, 0);
+        }
+    }
+
+    /**
+     * @see org.xbrlapi.data.Store#queryCount(String)
+     */
+    public long queryCount(String query) throws XBRLException {
+        flushMatches();
+        long start = startOperation();
+        int results = -1;
+        readLock().lock();
+        try {
+            IndexedQuery indexed = parse(query);
+            long count = 0;
+            if (indexed == null) {
+                count = super.queryCount(query);
+            } else {
+                String attribute = indexed.getSelectedAttribute();
+                for (Element element: indexed.getMatches()) {
+                    if (attribute == null || element.hasAttribute(attribute)) count++;
+                }
+            }
+            results = (int) count;
+            return count;
+        } finally {
+            readLock().unlock();
+            endOperation(start, StoreMetrics.QUERY_COUNT, query, results, 0);
+        }
+    }
+
+    /**
+     * Must only be called while holding the read lock.
+     * @param query The query to parse.
+     * @return the query as a set of attribute tests or null if the query
+     * cannot be answered from the indexes.
+     */
+    private IndexedQuery parse(String query) {
+
+        Matcher matcher = indexedQuery.matcher(query);
+        if (! matcher.matches()) return null;
+        String predicate = matcher.group(1);
+
+        List<String> names = new Vector<String>();
+        List<String> values = new Vector<String>();
+        Matcher termMatcher = term.matcher(predicate);
+        Matcher conjunctionMatcher = conjunction.matcher(predicate);
+        int position = 0;
+        while (true) {
+            termMatcher.region(position,predicate.length());
+            if (! termMatcher.lookingAt()) return null;
+            names.add(termMatcher.group(1));
+            if (termMatcher.group(2) != null) values.add(termMatcher.group(2));
+            else values.add(termMatcher.group(3));
+            position = termMatcher.end();
+            if (position == predicate.length()) break;
+            conjunctionMatcher.region(position,predicate.length());
+            if (! conjunctionMatcher.lookingAt()) return null;
+            position = conjunctionMatcher.end();
+        }
+
+        // Use the smallest set of candidates from the indexed attributes.
+        Set<String> candidates = null;
+        for (int i=0; i<names.size(); i++) {
+            if (values.get(i) == null) continue;
+            Map<String,Set<String>> index4Attribute = indexes.get(names.get(i));
+            if (index4Attribute == null) continue;
+            Set<String> fragments = index4Attribute.get(values.get(i));
+            if (fragments == null) {
+                candidates = new HashSet<String>();
+                break;
+            }
+            if (candidates == null || fragments.size() < candidates.size()) {
+                candidates = fragments;
+            }
+        }
+        if (candidates == null) return null;
+
+        logger.debug("Answering " + query + " from the indexes.");
+        return new IndexedQuery(candidates, names, values, matcher.group(2));
+    }
+
+    /**
+     * A query that is answered by testing the attributes of
+     * a set of candidate fragments obtained from the indexes.
+     */
+    private class IndexedQuery {
+
+        private Set<String> candidates;
+        private List<String> names;
+        private List<String> values;
+        private String selectedAttribute;
+
+        IndexedQuery(Set<String> candidates, List<String> names, List<String> values, String selectedAttribute) {
+            this.candidates = candidates;
+            this.names = names;
+            this.values = values;
+            this.selectedAttribute = selectedAttribute;
+        }
+
+        /**
+         * @return the name of the attribute selected from the
+         * matching fragments or null if the fragments themselves
+         * are selected.
+         */
+        String getSelectedAttribute() {
+            return selectedAttribute;
+        }
+
+        /**
+         * @return the root elements of the matching fragments, in the
+         * order that they were stored, taking the URI filtering into account.
+         */
+        List<Element> getMatches() {
+            Set<URI> filteringURIs = isFilteringByURIs() ? getFilteringURIs() : null;
+            Set<String> uris = null;
+            if (filteringURIs != null) {
+                uris = new HashSet<String>();
+                for (URI uri: filteringURIs) uris.add(uri.toString());
+            }
+            List<Element> matches = new Vector<Element>();
+            CANDIDATES: for (String index: candidates) {
+                Element element = getStoredElement(index);
+                if (element == null) continue;
+                for (int i=0; i<names.size(); i++) {
+                    String name = names.get(i);
+                    if (! element.hasAttribute(name)) continue CANDIDATES;
+                    String value = values.get(i);
+                    if (value != null && ! value.equals(element.getAttribute(name))) continue CANDIDATES;
+                }
+                if (uris != null && ! uris.contains(element.getAttribute("uri"))) continue;
+                matches.add(element);
+            }
+            return matches;
+        }
+    }
+
+}
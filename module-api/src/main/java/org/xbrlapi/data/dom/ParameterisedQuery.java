@@ -0,0 +1,113 @@
+package org.xbrlapi.data.dom;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.regex.Pattern;
+
+/**
+ * Splits an XQuery into its shape and the values of its string literals.
+ * In the shape, each string literal is replaced by a reference to an
+ * external variable, declared in the query prolog, so that queries
+ * that only differ in their literal values share the same shape and
+ * can share the same compiled query.
+ *
+ * Queries are left as they are, with no parameters, if they have
+ * their own prolog or contain direct element constructors.
+ * Literals containing entity or character references are left in
+ * the shape.
+ *
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+class ParameterisedQuery {
+
+    /**
+     * The prefix of the names of the external variables.
+     */
+    static final String VARIABLE_PREFIX = "xbrlapi-literal-";
+
+    private static final Pattern prolog = Pattern.compile("^\\s*(xquery\\s+version|declare\\s|import\\s|module\\s).*",Pattern.DOTALL);
+    private static final Pattern constructor = Pattern.compile(".*<[\\p{L}_].*",Pattern.DOTALL);
+
+    private String shape;
+    private List<String> values = new Vector<String>();
+
+    /**
+     * @param query The query to parameterise.
+     */
+    ParameterisedQuery(String query) {
+        if (prolog.matcher(query).matches() || constructor.matcher(query).matches()) {
+            shape = query;
+            return;
+        }
+
+        StringBuilder body = new StringBuilder();
+        int i = 0;
+        int length = query.length();
+        while (i < length) {
+            char c = query.charAt(i);
+            if (c == '(' && i + 1 < length && query.charAt(i+1) == ':') {
+                int end = query.indexOf(":)",i+2);
+                if (end == -1) end = length - 2;
+                body.append(query.substring(i,end+2));
+                i = end + 2;
+            } else if (c == '\'' || c == '"') {
+                StringBuilder value = new StringBuilder();
+                int j = i + 1;
+                while (j < length) {
+                    char d = query.charAt(j);
+                    if (d == c) {
+                        if (j + 1 < length && query.charAt(j+1) == c) {
+                            value.append(c);
+                            j += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    value.append(d);
+                    j++;
+                }
+                if (j >= length || value.indexOf("&") != -1) {
+                    // Unterminated or containing references so leave it for the compiler.
+                    int end = Math.min(j+1,length);
+                    body.append(query.substring(i,end));
+                    i = end;
+                } else {
+                    values.add(value.toString());
+                    body.append("$").append(VARIABLE_PREFIX).append(values.size());
+                    i = j + 1;
+                }
+            } else {
+                body.append(c);
+                i++;
+            }
+        }
+
+        if (values.isEmpty()) {
+            shape = query;
+            return;
+        }
+
+        StringBuilder declarations = new StringBuilder();
+        for (int v=1; v<=values.size(); v++) {
+            declarations.append("declare variable $").append(VARIABLE_PREFIX).append(v).append(" as xs:string external;\n");
+        }
+        shape = declarations.append(body).toString();
+    }
+
+    /**
+     * @return the query with its string literals replaced by
+     * references to external variables.
+     */
+    String getShape() {
+        return shape;
+    }
+
+    /**
+     * @return the values of the string literals, in order, where
+     * the first value is for the variable with the suffix 1.
+     */
+    List<String> getValues() {
+        return values;
+    }
+
+}
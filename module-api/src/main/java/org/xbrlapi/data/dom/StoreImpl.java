@@ -4,11 +4,13 @@ package org.xbrlapi.data.dom;
  * @author Geoffrey Shuetrim (geoff@galexy.net)
  */
 
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.net.URI;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -16,6 +18,7 @@ import java.util.TreeSet;
 import java.util.Vector;
 
 import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.QName;
 import net.sf.saxon.s9api.SaxonApiException;
 import net.sf.saxon.s9api.XQueryCompiler;
 import net.sf.saxon.s9api.XQueryEvaluator;
@@ -34,6 +37,8 @@ import org.w3c.dom.NodeList;
 import org.xbrlapi.XML;
 import org.xbrlapi.data.BaseStoreImpl;
 import org.xbrlapi.data.Store;
+import org.xbrlapi.data.XMLCursor;
+import org.xbrlapi.data.metrics.StoreMetrics;
 import org.xbrlapi.impl.FragmentFactory;
 import org.xbrlapi.utilities.Constants;
 import org.xbrlapi.utilities.XBRLException;
@@ -58,6 +63,13 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	 * XML DOM used to build the fragments in the store.
 	 */
 	transient private Document dom  = null;
+
+	/**
+	 * Held while a query traverses the DOM.  Queries hold the read lock
+	 * so that they run alongside fragment retrievals but the DOM 
+	 * implementation does not support concurrent traversals. 
+	 */
+	transient private Object domMonitor;
 	
 	/**
 	 * Name of the root element in the DOM
@@ -80,6 +92,13 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	private void initialize() {
 	    fragmentMap = new HashMap<String,Element>();
 	    indexMap = new HashMap<Element,String>();
+	    domMonitor = new Object();
+	    executables = new LinkedHashMap<String,XQueryExecutable>(16,0.75f,true) {
+	        private static final long serialVersionUID = 1L;
+	        protected boolean removeEldestEntry(Map.Entry<String,XQueryExecutable> eldest) {
+	            return size() > QUERY_CACHE_SIZE;
+	        }
+	    };
 	}
 
 	/**
@@ -88,6 +107,11 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	 * @throws IOException
 	 */
 	private void writeObject(java.io.ObjectOutputStream out) throws IOException {
+	    try {
+	        getMatcher().flush();
+	    } catch (XBRLException e) {
+	        throw new IOException("The resource matches could not be persisted.",e);
+	    }
 	    out.defaultWriteObject( );
 	    try {
 	        String xml = serializeToString(dom.getDocumentElement());
@@ -131,8 +155,14 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	/**
 	 * @see org.xbrlapi.data.Store#close()
 	 */
-	public synchronized void close() throws XBRLException {
-		super.close();
+	public void close() throws XBRLException {
+	    getMatcher().flush();
+	    writeLock().lock();
+	    try {
+	        super.close();
+	    } finally {
+	        writeLock().unlock();
+	    }
 	}
 	
 	/**
@@ -140,65 +170,102 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	 * the data store from persistent storage.
 	 * @see org.xbrlapi.data.Store#delete()
 	 */
-	public synchronized void delete() throws XBRLException {
+	public void delete() throws XBRLException {
 		; 
 	}	
 	
     /**
-     * @see org.xbrlapi.data.Store#persist(XML)
+     * Outstanding resource matches are persisted first so that they are counted.
+     * @see org.xbrlapi.data.Store#getSize()
      */
-    public synchronized int getSize() throws XBRLException {
-        return fragmentMap.size();
+    public int getSize() throws XBRLException {
+        flushMatches();
+        readLock().lock();
+        try {
+            return fragmentMap.size();
+        } finally {
+            readLock().unlock();
+        }
     }
 	
 	/**
 	 * @see org.xbrlapi.data.Store#persist(XML)
 	 */
-	public synchronized void persist(XML xml) throws XBRLException {
+	public void persist(XML xml) throws XBRLException {
 		
 	    logger.debug("Storing " + xml.getType() + " " + xml.getIndex());
-		
-		// Get the fragment index to delete existing fragments with the same index.
-		String index = xml.getIndex();
-		if (hasXMLResource(index)) {
-		    this.remove(index);
-        }
 
-		// TODO Eliminate this importNode call.
-		Element element = null;
-		if (xml.getBuilder() != null) {
-	        element = (Element) dom.importNode(xml.getBuilder().getMetadata(),true);
-		} else {
-		    element = (Element) dom.importNode(xml.getMetadataRootElement(),true);
-		}
-        dom.getDocumentElement().appendChild(element);
-        fragmentMap.put(index, element);
-        indexMap.put(element, index);
-        
-        // Finalise the fragment, ready for use
-        if (xml.getStore() == null) xml.setStore(this);
-        xml.setResource(element);
+	    long start = startOperation();
+	    int results = -1;
+	    writeLock().lock();
+	    try {
+    		// Get the fragment index to delete existing fragments with the same index.
+    		String index = xml.getIndex();
+    		if (hasXMLResource(index)) {
+    		    this.remove(index);
+            }
+    
+    		// TODO Eliminate this importNode call.
+    		Element element = null;
+    		if (xml.getBuilder() != null) {
+    	        element = (Element) dom.importNode(xml.getBuilder().getMetadata(),true);
+    		} else {
+    		    element = (Element) dom.importNode(xml.getMetadataRootElement(),true);
+    		}
+            dom.getDocumentElement().appendChild(element);
+            fragmentMap.put(index, element);
+            indexMap.put(element, index);
+            wrappedDOM = null;
+            
+            // Finalise the fragment, ready for use
+            if (xml.getStore() == null) xml.setStore(this);
+            xml.setResource(element);
+            xmlPersisted(xml);
+            results = 1;
+	    } finally {
+	        writeLock().unlock();
+	        endOperation(start, StoreMetrics.PERSIST, null, results, 0);
+	    }
         
 	}
 
 	/**
 	 * @see org.xbrlapi.data.Store#hasXMLResource(String)
 	 */
-	public synchronized boolean hasXMLResource(String index) throws XBRLException {
-		if (fragmentMap.containsKey(index)) return true;
-		return false;
+	public boolean hasXMLResource(String index) throws XBRLException {
+	    readLock().lock();
+	    try {
+	        if (fragmentMap.containsKey(index)) return true;
+	        return false;
+	    } finally {
+	        readLock().unlock();
+	    }
 	}
 
 	/**
 	 * @see org.xbrlapi.data.Store#getXMLResource(String)
 	 */
-	public synchronized <F extends XML> F getXMLResource(String index) throws XBRLException {
+	public <F extends XML> F getXMLResource(String index) throws XBRLException {
 
-		Element root = fragmentMap.get(index);
-		if (root == null) {
-			throw new XBRLException("Index " + index + " does not map to a fragment in the store.");
-		}
-		return FragmentFactory.<F>newFragment(this, root);
+	    long start = startOperation();
+	    int results = -1;
+	    try {
+	        Element root = null;
+	        readLock().lock();
+	        try {
+	            root = fragmentMap.get(index);
+	        } finally {
+	            readLock().unlock();
+	        }
+	        if (root == null) {
+	            throw new XBRLException("Index " + index + " does not map to a fragment in the store.");
+	        }
+	        F xml = FragmentFactory.<F>newFragment(this, root);
+	        results = 1;
+	        return xml;
+	    } finally {
+	        endOperation(start, StoreMetrics.GET_XML_RESOURCE, null, results, results);
+	    }
 	}
 
 
@@ -211,16 +278,41 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	 * @throws XBRLException
 	 *             if the fragment exists but cannot be removed from the store.
 	 */
-	public synchronized void remove(String index) throws XBRLException {
-    	
-        if (! hasXMLResource(index)) return;
-
-        Element d = fragmentMap.get(index);
-        fragmentMap.remove(index);
-        indexMap.remove(d);
-        d.getParentNode().removeChild(d);
+	public void remove(String index) throws XBRLException {
+
+	    long start = startOperation();
+	    int results = -1;
+	    writeLock().lock();
+	    try {
+	        results = 0;
+	        if (! hasXMLResource(index)) return;
+	        Element d = fragmentMap.get(index);
+	        fragmentMap.remove(index);
+	        indexMap.remove(d);
+	        d.getParentNode().removeChild(d);
+	        wrappedDOM = null;
+	        xmlRemoved(index);
+	        results = 1;
+	    } finally {
+	        writeLock().unlock();
+	        endOperation(start, StoreMetrics.REMOVE, null, results, 0);
+	    }
 	}
 
+    /**
+     * @param index The index of an XML resource in the store.
+     * @return the root element of the XML resource in the store DOM
+     * or null if there is no such XML resource in the store.
+     */
+    protected Element getStoredElement(String index) {
+        readLock().lock();
+        try {
+            return fragmentMap.get(index);
+        } finally {
+            readLock().unlock();
+        }
+    }
+
     /**
      * Get the actual DOM that is used to hold the data store.
      * @return the XML DOM that is the data store.  Note that this
@@ -228,10 +320,74 @@ public class StoreImpl extends BaseStoreImpl implements Store {
      * getStoreAsDOM method.
      * Contributed by Howard Ungar 13 February, 2007.
      */
-    public synchronized Document getStoreAsDOM() {
+    public Document getStoreAsDOM() {
     	return this.dom;
     }
 
+    /**
+     * Saves all of the fragments in the data store, including the
+     * persisted relationships, as a compact binary snapshot that
+     * can be loaded by another data store.
+     * @param file The file to save the snapshot to.  An existing
+     * file is only replaced once the new snapshot is complete.
+     * @throws XBRLException if the snapshot cannot be saved.
+     */
+    public void saveSnapshot(File file) throws XBRLException {
+        getMatcher().flush();
+        readLock().lock();
+        try {
+            List<Element> roots = new Vector<Element>(fragmentMap.size());
+            NodeList nodes = dom.getDocumentElement().getChildNodes();
+            for (int i=0; i<nodes.getLength(); i++) {
+                Node node = nodes.item(i);
+                if (node.getNodeType() == Node.ELEMENT_NODE && indexMap.containsKey(node)) {
+                    roots.add((Element) node);
+                }
+            }
+            (new StoreSnapshot()).write(roots,file);
+            logger.info("Saved a snapshot of " + roots.size() + " fragments to " + file);
+        } finally {
+            readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the fragments in a snapshot to the data store, replacing any
+     * fragments in the store with the same index.  The snapshot file is
+     * memory mapped and the fragments are added without having to parse
+     * and build the original documents.  The resource matcher reloads its
+     * matches afterwards because the snapshot can contain match XML resources.
+     * @param file The snapshot file saved by {@link #saveSnapshot(File)}.
+     * @throws XBRLException if the snapshot cannot be loaded.
+     */
+    public void loadSnapshot(File file) throws XBRLException {
+        getMatcher().flush();
+        writeLock().lock();
+        try {
+            List<Element> roots = (new StoreSnapshot()).read(file,dom);
+            Element store = dom.getDocumentElement();
+            for (Element element: roots) {
+                String index = element.getAttribute("index");
+                if (index.equals("")) {
+                    throw new XBRLException("The snapshot " + file + " contains a fragment without an index.");
+                }
+                if (fragmentMap.containsKey(index)) {
+                    this.remove(index);
+                }
+                store.appendChild(element);
+                fragmentMap.put(index, element);
+                indexMap.put(element, index);
+            }
+            wrappedDOM = null;
+            clearFactDimensionContainers();
+            clearDocumentCatalog();
+            logger.info("Loaded a snapshot of " + roots.size() + " fragments from " + file);
+        } finally {
+            writeLock().unlock();
+        }
+        getMatcher().reload();
+    }
+
 
 
 
@@ -241,13 +397,57 @@ public class StoreImpl extends BaseStoreImpl implements Store {
     transient private Processor processor;
 
     /**
-     * Contains the logic common to queries that return fragments and
-     * queries that return fragment indices.
+     * The maximum number of compiled queries to keep.
+     */
+    private static final int QUERY_CACHE_SIZE = 500;
+
+    /**
+     * Compiled queries, indexed by their shape, with the least recently 
+     * used compiled queries being dropped once the cache is full.
+     * Only accessed while holding the DOM monitor.
+     */
+    transient private Map<String,XQueryExecutable> executables;
+
+    /**
+     * The wrapper around the DOM that is used as the query context item.
+     * It is discarded whenever the store content changes.
+     */
+    transient private XdmNode wrappedDOM;
+
+    /**
+     * Contains the logic common to queries that return string values.
+     * The query is evaluated and the string values of the results are collected
+     * while holding the DOM monitor so that the DOM is only ever traversed by 
+     * one query at a time.
+     * @param query The query to run.
+     * @return The string values of the query results, in order.
+     * @throws XBRLException
+     */
+    private List<String> runQuery(String query) throws XBRLException {
+        readLock().lock();
+        try {
+            synchronized (domMonitor) {
+                List<String> values = new Vector<String>();
+                for (XdmItem item: evaluate(query)) {
+                    values.add(item.getStringValue());
+                }
+                return values;
+            }
+        } finally {
+            readLock().unlock();
+        }
+    }
+
+    /**
+     * Must only be called while holding the read lock and the DOM monitor.
+     * String literals in the query are passed to the compiled query as
+     * external variables so that queries with the same shape are only
+     * compiled once.
      * @param query The query to run.
      * @return The query results as an iterable sequence.
      * @throws XBRLException
      */
-    private XdmValue runQuery(String query) throws XBRLException {
+    private XdmValue evaluate(String query) throws XBRLException {
 
         if (processor == null) {
             processor = new Processor(false);
@@ -261,24 +461,49 @@ public class StoreImpl extends BaseStoreImpl implements Store {
             compiler.declareNamespace(Constants.XLinkPrefix,Constants.XLinkNamespace.toString());
             compiler.declareNamespace(Constants.XMLPrefix,Constants.XMLNamespace.toString());
             compiler.declareNamespace(Constants.XMLSchemaPrefix,Constants.XMLSchemaNamespace.toString());
+            for (URI namespace: this.namespaceBindings.keySet()) {
+                compiler.declareNamespace(this.namespaceBindings.get(namespace),namespace.toString());
+            }
         }
         
         String roots = "/" + StoreImpl.ROOT_NAME + "/*" + this.getURIFilteringPredicate();
         query = query.replaceAll("#roots#",roots);
+        ParameterisedQuery parameterisedQuery = new ParameterisedQuery(query);
+        String shape = parameterisedQuery.getShape();
 
         try {
-            for (URI namespace: this.namespaceBindings.keySet()) {
-                compiler.declareNamespace(this.namespaceBindings.get(namespace),namespace.toString());
+            XQueryExecutable executable = executables.get(shape);
+            if (executable == null) {
+                executable = compiler.compile(shape);
+                executables.put(shape,executable);
             }
-            XQueryExecutable executable = compiler.compile(query);
             XQueryEvaluator evaluator = executable.load();
-            XdmNode xdmNode = processor.newDocumentBuilder().wrap(dom);
-            evaluator.setContextItem(xdmNode);
+            List<String> values = parameterisedQuery.getValues();
+            for (int i=0; i<values.size(); i++) {
+                QName name = new QName(ParameterisedQuery.VARIABLE_PREFIX + (i+1));
+                evaluator.setExternalVariable(name,new XdmAtomicValue(values.get(i)));
+            }
+            if (wrappedDOM == null) {
+                wrappedDOM = processor.newDocumentBuilder().wrap(dom);
+            }
+            evaluator.setContextItem(wrappedDOM);
             return evaluator.evaluate();
         } catch (SaxonApiException e) {
             throw new XBRLException("Saxon failed to execute " + query,e);
         }
     }
+
+    /**
+     * Compiled queries are discarded because they depend on the namespace bindings.
+     * @see org.xbrlapi.data.Store#setNamespaceBinding(URI,String)
+     */
+    public void setNamespaceBinding(URI namespace, String prefix) throws XBRLException {
+        super.setNamespaceBinding(namespace,prefix);
+        synchronized (domMonitor) {
+            compiler = null;
+            executables.clear();
+        }
+    }
     
 
     
@@ -288,22 +513,24 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	 * @return a resource set that contains data for each matching fragment.
 	 * @throws XBRLException if the query cannot be executed.
 	 */
-    @SuppressWarnings(value = "unchecked")
-	public synchronized <F extends XML> List<F> queryForXMLResources(String query) throws XBRLException {
+	public <F extends XML> List<F> queryForXMLResources(String query) throws XBRLException {
+        flushMatches();
         
-        query = "for $attr in "+ query + "/@index return string($attr)";
-        XdmValue result = runQuery(query);
+        long start = startOperation();
+        int results = -1;
         List<F> fragments = new Vector<F>();
-        for (XdmItem item: result) {
-            String index = "";
-            if (item.isAtomicValue()) {
-                index = ((XdmAtomicValue)item).getStringValue();
-            } else {
-                index = ((XdmNode)item).getStringValue();
-            }
-            if (this.fragmentMap.containsKey(index)) {
-                fragments.add((F) getXMLResource(index));
+        readLock().lock();
+        try {
+            for (String index: runQuery("for $attr in "+ query + "/@index return string($attr)")) {
+                Element root = fragmentMap.get(index);
+                if (root != null) {
+                    fragments.add(FragmentFactory.<F>newFragment(this, root));
+                }
             }
+            results = fragments.size();
+        } finally {
+            readLock().unlock();
+            endOperation(start, StoreMetrics.QUERY_FOR_XML_RESOURCES, query, results, results);
         }
 	    return fragments;
 	}
@@ -311,43 +538,70 @@ public class StoreImpl extends BaseStoreImpl implements Store {
     /**
      * @see Store#queryCount(String)
      */
-    @SuppressWarnings("unused")
-    public synchronized long queryCount(String query) throws XBRLException {
-        XdmValue result = runQuery(query);
-        long count = 0;
-        for (XdmItem item: result) {
-            count++;
+    public long queryCount(String query) throws XBRLException {
+        flushMatches();
+        long start = startOperation();
+        int results = -1;
+        readLock().lock();
+        try {
+            synchronized (domMonitor) {
+                results = evaluate(query).size();
+                return results;
+            }
+        } finally {
+            readLock().unlock();
+            endOperation(start, StoreMetrics.QUERY_COUNT, query, results, 0);
         }
-        return count;
     }    
     
     /**
-     * @see org.xbrlapi.data.Store#queryForIndices(String)
+     * The indices of the matching fragments are found up front, in document
+     * order, and each fragment is built as the cursor moves to it.
+     * @see org.xbrlapi.data.Store#queryForXMLCursor(String)
      */
-    public synchronized Set<String> queryForIndices(String query) throws XBRLException {
-        
-        query = query + "/@index";
-        XdmValue result = runQuery(query);
-        Set<String> indices = new HashSet<String>();
-        for (XdmItem item: result) {
-            indices.add(item.getStringValue());
+    public <F extends XML> XMLCursor<F> queryForXMLCursor(String query) throws XBRLException {
+        flushMatches();
+        long start = startOperation();
+        int results = -1;
+        try {
+            List<String> indices = runQuery(query + "/@index");
+            results = indices.size();
+            return this.<F>newIndexCursor(indices);
+        } finally {
+            endOperation(start, StoreMetrics.QUERY_FOR_XML_CURSOR, query, results, 0);
         }
+    }
 
-        return indices;
+    /**
+     * @see org.xbrlapi.data.Store#queryForIndices(String)
+     */
+    public Set<String> queryForIndices(String query) throws XBRLException {
+        flushMatches();
+        long start = startOperation();
+        int results = -1;
+        try {
+            Set<String> indices = new HashSet<String>(runQuery(query + "/@index"));
+            results = indices.size();
+            return indices;
+        } finally {
+            endOperation(start, StoreMetrics.QUERY_FOR_INDICES, query, results, 0);
+        }
     }
     
     /**
      * @see org.xbrlapi.data.Store#queryForStrings(String)
      */
-    public synchronized Set<String> queryForStrings(String query) throws XBRLException {
-                
-        XdmValue result = runQuery(query);
-        Set<String> strings = new TreeSet<String>();
-        for (XdmItem item: result) {
-            strings.add(item.getStringValue());
+    public Set<String> queryForStrings(String query) throws XBRLException {
+        flushMatches();
+        long start = startOperation();
+        int results = -1;
+        try {
+            Set<String> strings = new TreeSet<String>(runQuery(query));
+            results = strings.size();
+            return strings;
+        } finally {
+            endOperation(start, StoreMetrics.QUERY_FOR_STRINGS, query, results, 0);
         }
-        return strings;
-
     }    
 	
 	/**
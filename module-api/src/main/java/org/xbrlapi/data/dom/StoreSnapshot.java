@@ -0,0 +1,365 @@
+package org.xbrlapi.data.dom;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Reads and writes a compact binary snapshot of the fragments in a
+ * data store so that a store can be populated with a previously
+ * loaded taxonomy, including its persisted relationships, without
+ * parsing, discovering and building the taxonomy documents again.
+ *
+ * The snapshot starts with a string table holding each distinct
+ * element name, attribute name, namespace, attribute value and
+ * text value once.  The fragment root elements follow, as a pre-order
+ * encoding of their DOM trees in which every string is a reference
+ * into the string table.  Snapshots are read through a memory mapping
+ * of the snapshot file.
+ *
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+class StoreSnapshot {
+
+    /**
+     * Identifies snapshot files.
+     */
+    private static final int MAGIC = 0x5842534E;
+
+    /**
+     * The version of the snapshot format.
+     */
+    private static final int VERSION = 1;
+
+    private static final byte ELEMENT = 1;
+    private static final byte TEXT = 2;
+    private static final byte CDATA = 3;
+    private static final byte COMMENT = 4;
+    private static final byte PROCESSING_INSTRUCTION = 5;
+
+    /**
+     * Used to refer to a missing string, such as the namespace of
+     * an element that is not in a namespace.
+     */
+    private static final int NONE = -1;
+
+    /**
+     * Used in place of a namespace for elements and attributes that were
+     * created without namespace information using DOM level 1 methods.
+     */
+    private static final int LEVEL_1 = -2;
+
+    /**
+     * Maps from the strings in the string table to their positions.
+     */
+    private Map<String,Integer> strings = new LinkedHashMap<String,Integer>();
+
+    /**
+     * Writes the snapshot to a temporary file that is renamed to the
+     * snapshot file once it is complete so that a partially written
+     * snapshot never replaces a usable one.
+     * @param roots The fragment root elements to include in the snapshot.
+     * @param file The snapshot file.
+     * @throws XBRLException if the snapshot cannot be written.
+     */
+    void write(List<Element> roots, File file) throws XBRLException {
+
+        strings.clear();
+        for (Element root: roots) {
+            collectStrings(root);
+        }
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        File temp = null;
+        DataOutputStream out = null;
+        try {
+            temp = File.createTempFile("." + file.getName() + ".", ".part", parent);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp),64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(strings.size());
+            for (String string: strings.keySet()) {
+                byte[] bytes = string.getBytes("UTF-8");
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(roots.size());
+            for (Element root: roots) {
+                writeNode(out,root);
+            }
+            out.close();
+            out = null;
+            if (file.exists() && ! file.delete()) {
+                throw new XBRLException("The existing snapshot " + file + " could not be replaced.");
+            }
+            if (! temp.renameTo(file)) {
+                throw new XBRLException("The snapshot could not be renamed to " + file);
+            }
+        } catch (IOException e) {
+            throw new XBRLException("The snapshot " + file + " could not be written.",e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    ;
+                }
+            }
+            if (temp != null && temp.exists()) temp.delete();
+            strings.clear();
+        }
+
+    }
+
+    /**
+     * Reads a snapshot, building the fragment root elements using the
+     * given DOM document without adding them to the document.
+     * @param file The snapshot file.
+     * @param dom The document that is to own the fragment root elements.
+     * @return the fragment root elements, in the order that they were written.
+     * @throws XBRLException if the snapshot cannot be read or is not a
+     * snapshot in a supported format.
+     */
+    List<Element> read(File file, Document dom) throws XBRLException {
+
+        ByteBuffer buffer = null;
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new XBRLException("The snapshot " + file + " could not be mapped.",e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    ;
+                }
+            }
+        }
+
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new XBRLException(file + " is not a data store snapshot.");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new XBRLException("Version " + version + " snapshots are not supported.");
+            }
+
+            String[] table = new String[buffer.getInt()];
+            byte[] bytes = new byte[256];
+            for (int i=0; i<table.length; i++) {
+                int length = buffer.getInt();
+                if (length > bytes.length) bytes = new byte[Math.max(length, 2 * bytes.length)];
+                buffer.get(bytes, 0, length);
+                table[i] = new String(bytes, 0, length, "UTF-8");
+            }
+
+            int count = buffer.getInt();
+            List<Element> roots = new Vector<Element>(count);
+            for (int i=0; i<count; i++) {
+                Node node = readNode(buffer, table, dom);
+                if (! (node instanceof Element)) {
+                    throw new XBRLException("The snapshot " + file + " is corrupted.");
+                }
+                roots.add((Element) node);
+            }
+            return roots;
+
+        } catch (BufferUnderflowException e) {
+            throw new XBRLException("The snapshot " + file + " is truncated.",e);
+        } catch (IndexOutOfBoundsException e) {
+            throw new XBRLException("The snapshot " + file + " is corrupted.",e);
+        } catch (IOException e) {
+            throw new XBRLException("The snapshot " + file + " could not be decoded.",e);
+        }
+    }
+
+    /**
+     * Adds the strings used by a node and its descendants to the string table.
+     * @param node The node.
+     */
+    private void collectStrings(Node node) {
+        switch (node.getNodeType()) {
+        case Node.ELEMENT_NODE:
+            collectString(node.getNamespaceURI());
+            collectString(node.getNodeName());
+            NamedNodeMap attributes = node.getAttributes();
+            for (int i=0; i<attributes.getLength(); i++) {
+                Attr attribute = (Attr) attributes.item(i);
+                collectString(attribute.getNamespaceURI());
+                collectString(attribute.getName());
+                collectString(attribute.getValue());
+            }
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                collectStrings(child);
+            }
+            break;
+        case Node.PROCESSING_INSTRUCTION_NODE:
+            collectString(((ProcessingInstruction) node).getTarget());
+            collectString(node.getNodeValue());
+            break;
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+        case Node.COMMENT_NODE:
+            collectString(node.getNodeValue());
+            break;
+        default:
+            break;
+        }
+    }
+
+    private void collectString(String string) {
+        if (string == null) return;
+        if (! strings.containsKey(string)) {
+            strings.put(string,strings.size());
+        }
+    }
+
+    private int reference(String string) {
+        if (string == null) return NONE;
+        return strings.get(string);
+    }
+
+    private int namespaceReference(Node node) {
+        if (node.getLocalName() == null) return LEVEL_1;
+        return reference(node.getNamespaceURI());
+    }
+
+    /**
+     * Writes a node and its descendants.  Entity references and
+     * other node types that do not occur in fragments are omitted.
+     * @param out The output stream.
+     * @param node The node.
+     * @throws IOException
+     */
+    private void writeNode(DataOutputStream out, Node node) throws IOException {
+        switch (node.getNodeType()) {
+        case Node.ELEMENT_NODE:
+            out.writeByte(ELEMENT);
+            out.writeInt(namespaceReference(node));
+            out.writeInt(reference(node.getNodeName()));
+            NamedNodeMap attributes = node.getAttributes();
+            out.writeInt(attributes.getLength());
+            for (int i=0; i<attributes.getLength(); i++) {
+                Attr attribute = (Attr) attributes.item(i);
+                out.writeInt(namespaceReference(attribute));
+                out.writeInt(reference(attribute.getName()));
+                out.writeInt(reference(attribute.getValue()));
+            }
+            int children = 0;
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (isWritten(child)) children++;
+            }
+            out.writeInt(children);
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (isWritten(child)) writeNode(out,child);
+            }
+            break;
+        case Node.TEXT_NODE:
+            out.writeByte(TEXT);
+            out.writeInt(reference(node.getNodeValue()));
+            break;
+        case Node.CDATA_SECTION_NODE:
+            out.writeByte(CDATA);
+            out.writeInt(reference(node.getNodeValue()));
+            break;
+        case Node.COMMENT_NODE:
+            out.writeByte(COMMENT);
+            out.writeInt(reference(node.getNodeValue()));
+            break;
+        case Node.PROCESSING_INSTRUCTION_NODE:
+            out.writeByte(PROCESSING_INSTRUCTION);
+            out.writeInt(reference(((ProcessingInstruction) node).getTarget()));
+            out.writeInt(reference(node.getNodeValue()));
+            break;
+        default:
+            break;
+        }
+    }
+
+    private boolean isWritten(Node node) {
+        switch (node.getNodeType()) {
+        case Node.ELEMENT_NODE:
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+        case Node.COMMENT_NODE:
+        case Node.PROCESSING_INSTRUCTION_NODE:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Reads a node and its descendants.
+     * @param buffer The buffer holding the snapshot, positioned at the start of the node.
+     * @param table The string table.
+     * @param dom The document used to create the node.
+     * @return the node.
+     * @throws XBRLException if the node type is not recognised.
+     */
+    private Node readNode(ByteBuffer buffer, String[] table, Document dom) throws XBRLException {
+        byte type = buffer.get();
+        switch (type) {
+        case ELEMENT:
+            int namespace = buffer.getInt();
+            String elementName = string(table, buffer.getInt());
+            Element element = (namespace == LEVEL_1) ? dom.createElement(elementName) : dom.createElementNS(string(table, namespace), elementName);
+            int attributes = buffer.getInt();
+            for (int i=0; i<attributes; i++) {
+                int attributeNamespace = buffer.getInt();
+                String name = string(table, buffer.getInt());
+                String value = string(table, buffer.getInt());
+                if (attributeNamespace == LEVEL_1) {
+                    element.setAttribute(name, value);
+                } else {
+                    element.setAttributeNS(string(table, attributeNamespace), name, value);
+                }
+            }
+            int children = buffer.getInt();
+            for (int i=0; i<children; i++) {
+                element.appendChild(readNode(buffer, table, dom));
+            }
+            return element;
+        case TEXT:
+            return dom.createTextNode(string(table, buffer.getInt()));
+        case CDATA:
+            return dom.createCDATASection(string(table, buffer.getInt()));
+        case COMMENT:
+            return dom.createComment(string(table, buffer.getInt()));
+        case PROCESSING_INSTRUCTION:
+            String target = string(table, buffer.getInt());
+            return dom.createProcessingInstruction(target, string(table, buffer.getInt()));
+        default:
+            throw new XBRLException("The snapshot contains an unknown node type " + type);
+        }
+    }
+
+    private String string(String[] table, int reference) {
+        if (reference == NONE) return null;
+        return table[reference];
+    }
+
+}
@@ -0,0 +1,153 @@
+package org.xbrlapi.data.metrics;
+
+import java.io.Serializable;
+
+/**
+ * Accumulates the latency histogram, result counts and numbers of
+ * XML resources built for one operation and query shape.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+
+public class QueryStatistics implements Serializable {
+
+    /**
+     * The serial version UID.
+     * @see
+     * http://java.sun.com/javase/6/docs/platform/serialization/spec/version.html#6678
+     * for information about what changes will require the serial version UID to be
+     * modified.
+     */
+    private static final long serialVersionUID = 4710843377924118962L;
+
+    /**
+     * The upper bounds, in milliseconds, of the histogram buckets.  The
+     * last bucket counts the operations that take longer than the last bound.
+     */
+    private static final long[] BUCKET_BOUNDS = {1, 5, 10, 50, 100, 500, 1000, 5000, 10000};
+
+    private long count = 0;
+    private long failures = 0;
+    private long totalNanoseconds = 0;
+    private long maximumNanoseconds = 0;
+    private long results = 0;
+    private long fragments = 0;
+    private long[] histogram = new long[BUCKET_BOUNDS.length + 1];
+
+    public QueryStatistics() {
+        super();
+    }
+
+    /**
+     * @param nanoseconds The time taken by the operation.
+     * @param results The number of results or a negative number if the
+     * operation failed.
+     * @param fragments The number of XML resources built by the operation.
+     */
+    public synchronized void record(long nanoseconds, int results, int fragments) {
+        count++;
+        totalNanoseconds += nanoseconds;
+        if (nanoseconds > maximumNanoseconds) maximumNanoseconds = nanoseconds;
+        if (results < 0) failures++;
+        else this.results += results;
+        this.fragments += fragments;
+        long milliseconds = nanoseconds / 1000000;
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS.length && milliseconds >= BUCKET_BOUNDS[bucket]) bucket++;
+        histogram[bucket]++;
+    }
+
+    /**
+     * @return the number of operations recorded.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of recorded operations that failed.
+     */
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the total time taken by the operations in milliseconds.
+     */
+    public synchronized double getTotalMilliseconds() {
+        return totalNanoseconds / 1000000.0;
+    }
+
+    /**
+     * @return the mean time taken by the operations in milliseconds.
+     */
+    public synchronized double getMeanMilliseconds() {
+        if (count == 0) return 0;
+        return getTotalMilliseconds() / count;
+    }
+
+    /**
+     * @return the longest time taken by an operation in milliseconds.
+     */
+    public synchronized double getMaximumMilliseconds() {
+        return maximumNanoseconds / 1000000.0;
+    }
+
+    /**
+     * @return the total number of results returned by the operations.
+     */
+    public synchronized long getResults() {
+        return results;
+    }
+
+    /**
+     * @return the total number of XML resources built by the operations.
+     */
+    public synchronized long getFragments() {
+        return fragments;
+    }
+
+    /**
+     * @return a copy of the latency histogram.  Element i counts the
+     * operations taking less than the i'th bucket bound but not less than
+     * the previous bound.  The last element counts the operations that
+     * took longer than the last bucket bound.
+     * @see #getBucketBounds()
+     */
+    public synchronized long[] getHistogram() {
+        long[] copy = new long[histogram.length];
+        System.arraycopy(histogram, 0, copy, 0, histogram.length);
+        return copy;
+    }
+
+    /**
+     * @return a copy of the upper bounds, in milliseconds, of the histogram buckets.
+     */
+    public static long[] getBucketBounds() {
+        long[] copy = new long[BUCKET_BOUNDS.length];
+        System.arraycopy(BUCKET_BOUNDS, 0, copy, 0, BUCKET_BOUNDS.length);
+        return copy;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public synchronized String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append("count=").append(count)
+            .append(" failures=").append(failures)
+            .append(" total=").append(String.format("%.1f", getTotalMilliseconds())).append("ms")
+            .append(" mean=").append(String.format("%.2f", getMeanMilliseconds())).append("ms")
+            .append(" max=").append(String.format("%.1f", getMaximumMilliseconds())).append("ms")
+            .append(" results=").append(results)
+            .append(" fragments=").append(fragments)
+            .append(" histogram=[");
+        for (int i=0; i<histogram.length; i++) {
+            if (i > 0) result.append(" ");
+            if (i < BUCKET_BOUNDS.length) result.append("<").append(BUCKET_BOUNDS[i]).append("ms:");
+            else result.append(">=").append(BUCKET_BOUNDS[i-1]).append("ms:");
+            result.append(histogram[i]);
+        }
+        return result.append("]").toString();
+    }
+
+}
@@ -0,0 +1,77 @@
+package org.xbrlapi.data.metrics;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Records the time taken by the operations performed by a data store.
+ * Statistics are accumulated separately for each combination of an
+ * operation and the shape of the query that it ran, if any.
+ * Implementations must be safe for use by concurrent threads.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+
+public interface StoreMetrics extends Serializable {
+
+    public static final String QUERY_FOR_XML_RESOURCES = "queryForXMLResources";
+    public static final String QUERY_FOR_XML_CURSOR = "queryForXMLCursor";
+    public static final String QUERY_FOR_INDICES = "queryForIndices";
+    public static final String QUERY_FOR_STRINGS = "queryForStrings";
+    public static final String QUERY_COUNT = "queryCount";
+    public static final String GET_XML_RESOURCE = "getXMLResource";
+    public static final String PERSIST = "persist";
+    public static final String REMOVE = "remove";
+    public static final String SYNC = "sync";
+
+    /**
+     * @param operation The name of the store operation, one of the constants
+     * defined by this interface.
+     * @param query The query run by the operation or null if the operation does
+     * not run a query.
+     * @param nanoseconds The time taken by the operation in nanoseconds.
+     * @param results The number of results returned by the operation or a
+     * negative number if the operation failed.
+     * @param fragments The number of XML resources built by the operation.
+     */
+    public void record(String operation, String query, long nanoseconds, int results, int fragments);
+
+    /**
+     * @param query The query.
+     * @return the shape of the query, being the query with each literal
+     * value replaced by a question mark and with runs of disjunctions
+     * that only differ in their literal values collapsed into one.
+     */
+    public String getShape(String query);
+
+    /**
+     * @return a map from the operation and query shape keys to the statistics
+     * recorded for them.  The keys are the operation name, followed by a space
+     * and the query shape if the operation ran a query.
+     */
+    public Map<String,QueryStatistics> getStatistics();
+
+    /**
+     * @param milliseconds The duration in milliseconds above which
+     * an operation is logged as slow.  Negative values turn off the
+     * logging of slow operations.
+     */
+    public void setSlowOperationThreshold(long milliseconds);
+
+    /**
+     * @return the duration in milliseconds above which an operation
+     * is logged as slow or a negative value if slow operations are not logged.
+     */
+    public long getSlowOperationThreshold();
+
+    /**
+     * Discards all of the statistics recorded so far.
+     */
+    public void reset();
+
+    /**
+     * @return a report of the recorded statistics, one line per operation
+     * and query shape, ordered by decreasing total time.
+     */
+    public String getReport();
+
+}
@@ -0,0 +1,167 @@
+package org.xbrlapi.data.metrics;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Accumulates the statistics in memory.  Slow operations are logged
+ * as warnings to the <code>org.xbrlapi.data.metrics.SlowOperations</code>
+ * logger so that they can be directed to their own log file using the log4j
+ * configuration.
+ * 
+ * Statistics are kept for each distinct query shape, so the memory used
+ * grows with the number of distinct shapes.  To bound it, once statistics
+ * are held for {@link #MAXIMUM_QUERY_SHAPES} keys, the queries of any new
+ * shape are recorded against the operation name followed by 
+ * {@link #OTHER_QUERY_SHAPES}.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+
+public class StoreMetricsImpl implements StoreMetrics {
+
+    /**
+     * The serial version UID.
+     * @see
+     * http://java.sun.com/javase/6/docs/platform/serialization/spec/version.html#6678
+     * for information about what changes will require the serial version UID to be
+     * modified.
+     */
+    private static final long serialVersionUID = -6193817540287720493L;
+
+    private static final Logger slowOperationLogger = Logger.getLogger("org.xbrlapi.data.metrics.SlowOperations");
+
+    /**
+     * The default slow operation threshold in milliseconds.
+     */
+    public static final long DEFAULT_SLOW_OPERATION_THRESHOLD = 1000;
+
+    /**
+     * The maximum number of operation and query shape keys that 
+     * statistics are kept for before new query shapes are pooled.
+     */
+    public static final int MAXIMUM_QUERY_SHAPES = 1000;
+
+    /**
+     * The query shape that statistics are recorded against for 
+     * the query shapes seen after {@link #MAXIMUM_QUERY_SHAPES} keys
+     * have been recorded.
+     */
+    public static final String OTHER_QUERY_SHAPES = "(other query shapes)";
+
+    private static final Pattern STRING_LITERALS = Pattern.compile("'[^']*'|\"[^\"]*\"");
+    private static final Pattern NUMERIC_LITERALS = Pattern.compile("(?<![\\w$#.-])\\d+(\\.\\d+)?(?![\\w.])");
+    private static final Pattern DISJUNCTIONS = Pattern.compile("(([@$][\\w:/$@-]*\\s*!?=\\s*\\?)(\\s+or\\s+\\2)+)");
+
+    private Map<String,QueryStatistics> statistics = new ConcurrentHashMap<String,QueryStatistics>();
+
+    private volatile long slowOperationThreshold = DEFAULT_SLOW_OPERATION_THRESHOLD;
+
+    public StoreMetricsImpl() {
+        super();
+    }
+
+    /**
+     * @param milliseconds The duration in milliseconds above which
+     * an operation is logged as slow.
+     */
+    public StoreMetricsImpl(long milliseconds) {
+        this();
+        setSlowOperationThreshold(milliseconds);
+    }
+
+    /**
+     * @see StoreMetrics#record(String, String, long, int, int)
+     */
+    public void record(String operation, String query, long nanoseconds, int results, int fragments) {
+        String key = (query == null) ? operation : operation + " " + getShape(query);
+        QueryStatistics shapeStatistics = statistics.get(key);
+        if (shapeStatistics == null) {
+            synchronized (statistics) {
+                shapeStatistics = statistics.get(key);
+                if (shapeStatistics == null && query != null && statistics.size() >= MAXIMUM_QUERY_SHAPES) {
+                    key = operation + " " + OTHER_QUERY_SHAPES;
+                    shapeStatistics = statistics.get(key);
+                }
+                if (shapeStatistics == null) {
+                    shapeStatistics = new QueryStatistics();
+                    statistics.put(key, shapeStatistics);
+                }
+            }
+        }
+        shapeStatistics.record(nanoseconds, results, fragments);
+
+        long threshold = slowOperationThreshold;
+        if (threshold >= 0 && nanoseconds > threshold * 1000000) {
+            slowOperationLogger.warn(operation + " took " + (nanoseconds / 1000000) + " milliseconds"
+                    + ((results < 0) ? " and failed" : " for " + results + " results")
+                    + ((query == null) ? "" : ": " + query));
+        }
+    }
+
+    /**
+     * @see StoreMetrics#getShape(String)
+     */
+    public String getShape(String query) {
+        String shape = STRING_LITERALS.matcher(query).replaceAll("?");
+        shape = NUMERIC_LITERALS.matcher(shape).replaceAll("?");
+        shape = DISJUNCTIONS.matcher(shape).replaceAll("$2 or ...");
+        return shape.replaceAll("\\s+", " ").trim();
+    }
+
+    /**
+     * @see StoreMetrics#getStatistics()
+     */
+    public Map<String,QueryStatistics> getStatistics() {
+        return Collections.unmodifiableMap(new HashMap<String,QueryStatistics>(statistics));
+    }
+
+    /**
+     * @see StoreMetrics#setSlowOperationThreshold(long)
+     */
+    public void setSlowOperationThreshold(long milliseconds) {
+        slowOperationThreshold = milliseconds;
+    }
+
+    /**
+     * @see StoreMetrics#getSlowOperationThreshold()
+     */
+    public long getSlowOperationThreshold() {
+        return slowOperationThreshold;
+    }
+
+    /**
+     * @see StoreMetrics#reset()
+     */
+    public void reset() {
+        synchronized (statistics) {
+            statistics.clear();
+        }
+    }
+
+    /**
+     * @see StoreMetrics#getReport()
+     */
+    public String getReport() {
+        final Map<String,QueryStatistics> snapshot = getStatistics();
+        List<String> keys = new Vector<String>(snapshot.keySet());
+        Collections.sort(keys, new Comparator<String>() {
+            public int compare(String key1, String key2) {
+                return Double.compare(snapshot.get(key2).getTotalMilliseconds(), snapshot.get(key1).getTotalMilliseconds());
+            }
+        });
+        StringBuilder report = new StringBuilder();
+        for (String key: keys) {
+            report.append(snapshot.get(key)).append(" ").append(key).append("\n");
+        }
+        return report.toString();
+    }
+
+}
@@ -78,6 +78,9 @@ public abstract class BaseMatcherImpl implements Matcher {
         File cacheFile = cache.getCacheFile(uri);
         
         if (cacheFile.exists()) {
+            if (getSigner() instanceof StreamingSigner) {
+                return ((StreamingSigner) getSigner()).getSignature(cacheFile);
+            }
             return getSigner().getSignature(getResourceContent(cacheFile));
         }
 
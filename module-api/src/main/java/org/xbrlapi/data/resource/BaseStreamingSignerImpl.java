@@ -0,0 +1,178 @@
+package org.xbrlapi.data.resource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Reads the resource content through a fixed size buffer and passes
+ * it to the hash supplied by the subclass.  Carriage returns are
+ * dropped from the content before it is hashed so that resources that
+ * only differ in their line endings have the same signature.
+ * Signatures take the form algorithm_length_hash where the length is the
+ * number of bytes that were hashed.  Signatures begin with the name of
+ * the algorithm so that signatures generated using different algorithms
+ * never match.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+
+public abstract class BaseStreamingSignerImpl implements StreamingSigner {
+
+    /**
+     * The serial version UID.
+     * @see
+     * http://java.sun.com/javase/6/docs/platform/serialization/spec/version.html#6678
+     * for information about what changes will require the serial version UID to be
+     * modified.
+     */
+    private static final long serialVersionUID = 2836404738119716735L;
+
+    private static final Logger logger = Logger.getLogger(BaseStreamingSignerImpl.class);
+
+    /**
+     * The size of the buffer used to read the resource content.
+     */
+    public static final int BUFFER_SIZE = 65536;
+
+    private static final byte CARRIAGE_RETURN = '\r';
+    private static final byte LINE_FEED = '\n';
+
+    public BaseStreamingSignerImpl() {
+        super();
+    }
+
+    /**
+     * The hash of the content of a single resource.  A new hash
+     * is used for each signature so that signers can be shared
+     * by concurrent threads.
+     */
+    protected static abstract class Hash {
+
+        /**
+         * @param bytes The buffer containing the content.
+         * @param offset The offset of the content in the buffer.
+         * @param length The number of bytes of content.
+         */
+        protected abstract void update(byte[] bytes, int offset, int length);
+
+        /**
+         * @return the hash of the content, as a string of lower case
+         * hexadecimal digits.
+         */
+        protected abstract String getValue();
+
+    }
+
+    /**
+     * @return a new hash to use for a single resource.
+     * @throws XBRLException if the hash cannot be created.
+     */
+    protected abstract Hash newHash() throws XBRLException;
+
+    /**
+     * @return the name of the algorithm used to generate signatures,
+     * containing only lower case letters and digits.
+     */
+    public abstract String getAlgorithm();
+
+    /**
+     * @see StreamingSigner#getSignature(File)
+     */
+    public String getSignature(File file) throws XBRLException {
+        InputStream stream = null;
+        try {
+            stream = new FileInputStream(file);
+            return getSignature(stream);
+        } catch (IOException e) {
+            throw new XBRLException("There was a problem reading " + file + ".",e);
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    logger.warn("The file " + file + " could not be closed.");
+                }
+            }
+        }
+    }
+
+    /**
+     * @param stream The input stream providing the resource content.
+     * The stream is read to its end but it is not closed.
+     * @return the signature given the resource content.
+     * @throws XBRLException if the content cannot be read.
+     */
+    public String getSignature(InputStream stream) throws XBRLException {
+        Hash hash = newHash();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long length = 0;
+        try {
+            int count = 0;
+            while ((count = stream.read(buffer)) != -1) {
+                int retained = 0;
+                for (int i=0; i<count; i++) {
+                    if (buffer[i] != CARRIAGE_RETURN) buffer[retained++] = buffer[i];
+                }
+                hash.update(buffer, 0, retained);
+                length += retained;
+            }
+        } catch (IOException e) {
+            throw new XBRLException("The resource content could not be read.",e);
+        }
+        return getSignature(length, hash);
+    }
+
+    /**
+     * The lines are hashed as if they were separated by line feeds.
+     * @see Signer#getSignature(List)
+     */
+    public String getSignature(List<String> lines) {
+        try {
+            Hash hash = newHash();
+            byte[] separator = { LINE_FEED };
+            long length = 0;
+            for (int i=0; i<lines.size(); i++) {
+                if (i > 0) {
+                    hash.update(separator, 0, 1);
+                    length++;
+                }
+                byte[] line = lines.get(i).replace("\r","").getBytes("UTF-8");
+                hash.update(line, 0, line.length);
+                length += line.length;
+            }
+            return getSignature(length, hash);
+        } catch (UnsupportedEncodingException e) {
+            logger.error("Your system does not support the UTF-8 encoding.");
+            return "corruptedSignature";
+        } catch (XBRLException e) {
+            logger.error(e.getMessage());
+            return "corruptedSignature";
+        }
+    }
+
+    private String getSignature(long length, Hash hash) {
+        return getAlgorithm() + "_" + length + "_" + hash.getValue();
+    }
+
+    /**
+     * @param bytes The bytes to convert.
+     * @return the bytes as a string of lower case hexadecimal digits,
+     * two per byte.
+     */
+    protected static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b: bytes) {
+            String digits = Integer.toHexString(0xFF & b);
+            if (digits.length() == 1) hex.append('0');
+            hex.append(digits);
+        }
+        return hex.toString();
+    }
+
+}
@@ -0,0 +1,76 @@
+package org.xbrlapi.data.resource;
+
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Generates signatures from the CRC32 and Adler32 checksums of the
+ * resource content.  This is faster than the message digest algorithms
+ * but, with 64 bits of checksum, it is only suitable where resources
+ * are not deliberately crafted to have the same signature.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+
+public class ChecksumSignerImpl extends BaseStreamingSignerImpl {
+
+    /**
+     * The serial version UID.
+     * @see
+     * http://java.sun.com/javase/6/docs/platform/serialization/spec/version.html#6678
+     * for information about what changes will require the serial version UID to be
+     * modified.
+     */
+    private static final long serialVersionUID = 5016872745330941862L;
+
+    public ChecksumSignerImpl() {
+        super();
+    }
+
+    /**
+     * @see BaseStreamingSignerImpl#getAlgorithm()
+     */
+    public String getAlgorithm() {
+        return "crc32adler32";
+    }
+
+    /**
+     * @see BaseStreamingSignerImpl#newHash()
+     */
+    protected Hash newHash() throws XBRLException {
+        final CRC32 crc = new CRC32();
+        final Adler32 adler = new Adler32();
+        return new Hash() {
+            protected void update(byte[] bytes, int offset, int length) {
+                crc.update(bytes, offset, length);
+                adler.update(bytes, offset, length);
+            }
+            protected String getValue() {
+                return String.format("%08x%08x", crc.getValue(), adler.getValue());
+            }
+        };
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return 2;
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        return true;
+    }
+}
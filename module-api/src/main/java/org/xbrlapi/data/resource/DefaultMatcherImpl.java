@@ -75,6 +75,23 @@ public class DefaultMatcherImpl implements Matcher, Serializable {
         return true;
     }
 
+    /**
+     * This matcher does not persist its matches so there is nothing to flush.
+     * @see Matcher#flush()
+     */
+    public void flush() throws XBRLException {
+        ;
+    }
+
+    /**
+     * This matcher does not load its matches from the data store so 
+     * there is nothing to reload.
+     * @see Matcher#reload()
+     */
+    public void reload() throws XBRLException {
+        ;
+    }
+
     /**
      * @see java.lang.Object#hashCode()
      */
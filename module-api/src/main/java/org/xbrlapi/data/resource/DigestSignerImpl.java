@@ -0,0 +1,96 @@
+package org.xbrlapi.data.resource;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Generates signatures using one of the message digest algorithms,
+ * MD5 by default, supported by the Java security providers.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+
+public class DigestSignerImpl extends BaseStreamingSignerImpl {
+
+    /**
+     * The serial version UID.
+     * @see
+     * http://java.sun.com/javase/6/docs/platform/serialization/spec/version.html#6678
+     * for information about what changes will require the serial version UID to be
+     * modified.
+     */
+    private static final long serialVersionUID = -7460238957206129931L;
+
+    /**
+     * The name of the default message digest algorithm.
+     */
+    public static final String DEFAULT_ALGORITHM = "MD5";
+
+    private String algorithm = DEFAULT_ALGORITHM;
+
+    public DigestSignerImpl() {
+        super();
+    }
+
+    /**
+     * @param algorithm The name of the message digest algorithm,
+     * such as MD5 or SHA-1.
+     * @throws XBRLException if the algorithm is not available.
+     */
+    public DigestSignerImpl(String algorithm) throws XBRLException {
+        this();
+        if (algorithm == null) throw new XBRLException("The message digest algorithm must not be null.");
+        this.algorithm = algorithm;
+        newHash();
+    }
+
+    /**
+     * @see BaseStreamingSignerImpl#getAlgorithm()
+     */
+    public String getAlgorithm() {
+        return algorithm.toLowerCase().replaceAll("[^a-z0-9]","");
+    }
+
+    /**
+     * @see BaseStreamingSignerImpl#newHash()
+     */
+    protected Hash newHash() throws XBRLException {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance(algorithm);
+            return new Hash() {
+                protected void update(byte[] bytes, int offset, int length) {
+                    digest.update(bytes, offset, length);
+                }
+                protected String getValue() {
+                    return toHex(digest.digest());
+                }
+            };
+        } catch (NoSuchAlgorithmException e) {
+            throw new XBRLException("Your system is missing the " + algorithm + " message digest algorithm.",e);
+        }
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return algorithm.hashCode();
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        DigestSignerImpl other = (DigestSignerImpl) obj;
+        return algorithm.equals(other.algorithm);
+    }
+}
@@ -148,6 +148,23 @@ public class InMemoryMatcherImpl extends BaseMatcherImpl implements Matcher {
         }*/    
     }
 
+    /**
+     * This matcher does not persist its matches so there is nothing to flush.
+     * @see Matcher#flush()
+     */
+    public void flush() throws XBRLException {
+        ;
+    }
+
+    /**
+     * This matcher does not load its matches from the data store so 
+     * there is nothing to reload.
+     * @see Matcher#reload()
+     */
+    public void reload() throws XBRLException {
+        ;
+    }
+
     /**
      * @see java.lang.Object#hashCode()
      */
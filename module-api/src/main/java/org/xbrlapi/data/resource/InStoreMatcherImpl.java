@@ -1,38 +1,63 @@
 package org.xbrlapi.data.resource;
 
+import java.io.IOException;
 import java.net.URI;
-import java.net.URISyntaxException;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.log4j.Logger;
 import org.xbrlapi.Match;
 import org.xbrlapi.cache.Cache;
 import org.xbrlapi.data.Store;
 import org.xbrlapi.impl.MatchImpl;
-import org.xbrlapi.utilities.Constants;
 import org.xbrlapi.utilities.XBRLException;
 
 /**
  * The in-store resource matcher implementation, for use with the
  * persistent store implementations.  This matcher MUST use the
  * store that it is doing the matching for.
+ *
+ * The matches are held in an in-memory index that is loaded from the
+ * match XML resources in the store when the matcher is first used.
+ * Lookups are answered from the index.  Changes to the index are written
+ * through to the store in batches, by a background thread, shortly after
+ * they are made.  The data stores call {@link #flush()} before they
+ * count or query their XML resources so the match XML resources are
+ * always seen.  The background thread stops once there is nothing left
+ * to persist and a new one is started when there are further changes.
  * @author Geoffrey Shuetrim (geoff@galexy.net)
  */
 
 public class InStoreMatcherImpl extends BaseMatcherImpl implements Matcher {
 
     /**
-     * 
+     *
      */
     private static final long serialVersionUID = -2815835104865947253L;
 
+    private static final Logger logger = Logger.getLogger(InStoreMatcherImpl.class);
+
+    /**
+     * The number of milliseconds that changes to the index are
+     * accumulated for before they are persisted.
+     */
+    public static final long FLUSH_DELAY = 200;
+
     /**
      * The store in which the information about matched URIs is
      * to be retained.
      */
     private Store store = null;
-    
+
     /**
      * @return the store used by this matcher.
      */
@@ -42,11 +67,50 @@ public class InStoreMatcherImpl extends BaseMatcherImpl implements Matcher {
     private void setStore(Store store) {
         this.store = store;
     }
-    
+
+    /**
+     * Map from URIs to the signatures of the resources that they identify.
+     */
+    transient private Map<URI,String> signatures = null;
+
+    /**
+     * Map from signatures to the URIs with that signature.  The first
+     * URI in each list is the URI of the resource in the data store.
+     */
+    transient private Map<String,List<URI>> matches = null;
+
+    /**
+     * True once the index has been loaded from the data store.
+     */
+    transient private volatile boolean loaded = false;
+
+    /**
+     * The signatures whose matches have changed since they were
+     * last persisted.
+     */
+    transient private Set<String> pending = null;
+
+    /**
+     * True if a flush of the pending changes has been scheduled.
+     */
+    transient private boolean scheduled = false;
+
+    /**
+     * Serializes the persistence of the index changes.
+     */
+    transient private Object flushLock = null;
+
+    transient private ScheduledExecutorService flusher = null;
+
     /**
      * @param store The data store to use for persisting resource matches
      * @param cache The resource cache to be used by the matcher when accessing
-     * resources to determine their signature.
+     * resources to determine their signature.  Signatures are generated by
+     * an {@link MD5SignerImpl} so that the matches already persisted in 
+     * existing data stores are still found.  Use {@link #setSigner(Signer)}
+     * with a {@link DigestSignerImpl} to sign large resources without reading
+     * them into memory, but only for new data stores because its signatures
+     * never equal those of the {@link MD5SignerImpl}.
      * @throws XBRLException if the cache parameter is null.
      */
     public InStoreMatcherImpl(Store store, Cache cache) throws XBRLException {
@@ -58,30 +122,63 @@ public class InStoreMatcherImpl extends BaseMatcherImpl implements Matcher {
     }
 
     /**
-     * @see org.xbrlapi.data.resource.Matcher#getMatch(URI)
+     * Loads the index from the match XML resources in the data store
+     * if that has not already been done.
+     * @throws XBRLException if the match XML resources cannot be retrieved.
      */
-    public synchronized URI getMatch(URI uri) throws XBRLException {
-        
-        String query = "for $match in #roots#[@type='org.xbrlapi.impl.MatchImpl']/" + matchElement + " where $match/@value='"+ uri + "' return string($match/../" + matchElement + "[1]/@value)";
-        Set<String> matches = getStore().queryForStrings(query);
-        
-        if (matches.size() == 1) { // We have already captured this URI in the matcher.
-            String matchURI = matches.iterator().next();
-            try {
-                return new URI(matchURI);
-            } catch (URISyntaxException e) {
-                throw new XBRLException("The matching URI syntax is invalid: " + matchURI);
+    private void load() throws XBRLException {
+        if (loaded) return;
+
+        // The store is queried without holding this matcher's monitor
+        // because the query takes the store's read lock.
+        Map<URI,String> signatures = new ConcurrentHashMap<URI,String>();
+        Map<String,List<URI>> matches = new ConcurrentHashMap<String,List<URI>>();
+        List<Match> resources = getStore().<Match>queryForXMLResources("#roots#[@type='org.xbrlapi.impl.MatchImpl']");
+        for (Match resource: resources) {
+            String signature = resource.getIndex();
+            List<URI> uris = new CopyOnWriteArrayList<URI>(resource.getURIs());
+            if (uris.isEmpty()) continue;
+            matches.put(signature, uris);
+            for (URI uri: uris) {
+                signatures.put(uri, signature);
             }
         }
 
-        if (matches.size() == 0) { 
-            return addURI(uri); // This URI remains to be captured.
+        synchronized (this) {
+            if (loaded) return;
+            logger.debug("Loaded " + resources.size() + " matches into the index.");
+            this.signatures = signatures;
+            this.matches = matches;
+            this.pending = new LinkedHashSet<String>();
+            this.flushLock = new Object();
+            loaded = true;
         }
+    }
 
-        throw new XBRLException("There is more than one matching URI for " + uri);
+    /**
+     * @param uri The URI to look up.
+     * @return the URIs matching the given URI or null if the URI is
+     * not in the index.
+     * @throws XBRLException
+     */
+    private List<URI> getMatches(URI uri) throws XBRLException {
+        load();
+        String signature = signatures.get(uri);
+        if (signature == null) return null;
+        List<URI> uris = matches.get(signature);
+        if (uris == null || uris.isEmpty()) return null;
+        return uris;
+    }
 
+    /**
+     * @see org.xbrlapi.data.resource.Matcher#getMatch(URI)
+     */
+    public URI getMatch(URI uri) throws XBRLException {
+        List<URI> uris = getMatches(uri);
+        if (uris != null) return uris.get(0);
+        return addURI(uri); // This URI remains to be captured.
     }
-    
+
     /**
      * @param uri The URI to add to the matcher system.
      * @return the URI that matches the given URI, after the addition.
@@ -91,64 +188,185 @@ public class InStoreMatcherImpl extends BaseMatcherImpl implements Matcher {
 
         String signature = this.getSignature(uri);
 
-        Store store = getStore();
-        
-        if (store.hasXMLResource(signature)) {
-            Match match = store.<Match>getXMLResource(signature);
-            match.addMatchedURI(uri);
-            store.persist(match);
-            return match.getMatch();
-        } 
-        
-        Match match = new MatchImpl(signature);
-        match.setStore(store);
-        match.addMatchedURI(uri);
-        store.persist(match);
-        return uri;
-        
-    }
-    
+        synchronized (this) {
+            List<URI> uris = getMatches(uri);
+            if (uris != null) return uris.get(0);
+            uris = matches.get(signature);
+            if (uris == null) {
+                uris = new CopyOnWriteArrayList<URI>();
+                matches.put(signature, uris);
+            }
+            uris.add(uri);
+            signatures.put(uri, signature);
+            schedule(signature);
+            return uris.get(0);
+        }
+
+    }
+
     /**
      * @see org.xbrlapi.data.resource.Matcher#getAllMatchingURIs(java.net.URI)
      */
     public List<URI> getAllMatchingURIs(URI uri) throws XBRLException {
+        List<URI> uris = getMatches(uri);
+        if (uris == null) return new Vector<URI>();
+        return new Vector<URI>(uris);
+    }
 
-        Match match = this.getMatchXMLResource(uri);
-        if (match == null) return new Vector<URI>();
-        return match.getURIs();
-
-    }    
-    
-    private final static String matchElement = Constants.XBRLAPIPrefix + ":match";
-    
     /**
      * @see Matcher#delete(URI)
      */
     public synchronized URI delete(URI uri) throws XBRLException {
-        
+
         if (uri == null) throw new XBRLException("The URI must not be null.");
 
-        Match match = this.getMatchXMLResource(uri);
-        if (match == null) return null;
-        match.deleteURI(uri);
-        return match.getMatch();
+        load();
+        String signature = signatures.remove(uri);
+        if (signature == null) return null;
+        List<URI> uris = matches.get(signature);
+        if (uris == null) return null;
+        uris.remove(uri);
+        if (uris.isEmpty()) matches.remove(signature);
+        schedule(signature);
+        return uris.isEmpty() ? null : uris.get(0);
 
-    }    
-    
-    private Match getMatchXMLResource(URI uri) throws XBRLException {
-        String query = "for $match in #roots#[@type='org.xbrlapi.impl.MatchImpl'] where $match/" + matchElement + "/@value='"+ uri + "' return $match";
-        List<Match> matches = getStore().<Match>queryForXMLResources(query);
-        if (matches.size() > 1) throw new XBRLException("The wrong number of match fragments was retrieved.  There must be just one.");
-        if (matches.size() == 0) return null;
-        return matches.get(0);
     }
+
     /**
      * @see org.xbrlapi.data.resource.Matcher#hasURI(java.net.URI)
      */
     public boolean hasURI(URI uri) throws XBRLException {
-        return (this.getMatchXMLResource(uri) != null);
+        return (getMatches(uri) != null);
+    }
+
+    /**
+     * Records that the matches for a signature need to be persisted and
+     * makes sure that a flush is scheduled.
+     * @param signature The signature whose matches have changed.
+     */
+    private void schedule(String signature) {
+        synchronized (pending) {
+            pending.add(signature);
+            if (scheduled) return;
+            scheduled = true;
+            getFlusher().schedule(new Runnable() {
+                public void run() {
+                    try {
+                        flush();
+                    } catch (Exception e) {
+                        logger.error("The resource matches could not be persisted. " + e.getMessage());
+                    }
+                }
+            }, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Call this while synchronized on the pending changes.
+     * @return the executor that persists the changes, starting it if
+     * it is not already running.
+     */
+    private ScheduledExecutorService getFlusher() {
+        if (flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "InStoreMatcher flusher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return flusher;
+    }
+
+    /**
+     * Shuts down the executor that persists the changes if there are
+     * no changes waiting to be persisted.  Call this while synchronized 
+     * on the pending changes.
+     */
+    private void stopFlusher() {
+        if (flusher == null || scheduled || ! pending.isEmpty()) return;
+        flusher.shutdown();
+        flusher = null;
     }
 
+    /**
+     * Persists the matches that have changed since they were last
+     * persisted, replacing the match XML resources for their signatures
+     * and removing those that no longer match any URIs.
+     * @see Matcher#flush()
+     */
+    public void flush() throws XBRLException {
+        if (! loaded) return;
+        synchronized (flushLock) {
+            List<String> batch = null;
+            synchronized (pending) {
+                scheduled = false;
+                if (pending.isEmpty()) {
+                    stopFlusher();
+                    return;
+                }
+                batch = new Vector<String>(pending);
+                pending.clear();
+            }
+            try {
+                List<Match> resources = new Vector<Match>();
+                for (String signature: batch) {
+                    List<URI> uris = matches.get(signature);
+                    if (uris == null || uris.isEmpty()) {
+                        if (getStore().hasXMLResource(signature)) getStore().remove(signature);
+                        continue;
+                    }
+                    resources.add(new MatchImpl(signature, uris));
+                }
+                getStore().persist(resources);
+                logger.debug("Persisted " + batch.size() + " changed matches.");
+                synchronized (pending) {
+                    stopFlusher();
+                }
+            } catch (XBRLException e) {
+                synchronized (pending) {
+                    pending.addAll(batch);
+                }
+                throw new XBRLException("The resource matches could not be persisted.",e);
+            }
+        }
+    }
+
+    /**
+     * Persists any outstanding changes and then discards the index so
+     * that it is loaded again from the match XML resources in the store.
+     * @see Matcher#reload()
+     */
+    public void reload() throws XBRLException {
+        while (true) {
+            flush();
+            synchronized (this) {
+                if (! loaded) return;
+                synchronized (pending) {
+                    if (! pending.isEmpty()) continue;
+                    stopFlusher();
+                    loaded = false;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Persists any outstanding changes before serialization because
+     * the index is reloaded from the data store after deserialization.
+     * @param out The output stream used to store the serialization of the object.
+     * @throws IOException
+     */
+    private void writeObject(java.io.ObjectOutputStream out) throws IOException {
+        try {
+            flush();
+        } catch (XBRLException e) {
+            throw new IOException("The resource matches could not be persisted.",e);
+        }
+        out.defaultWriteObject();
+    }
 
     /**
      * @see java.lang.Object#equals(java.lang.Object)
@@ -170,9 +388,4 @@ public class InStoreMatcherImpl extends BaseMatcherImpl implements Matcher {
         return true;
     }
 
-
-    
-
-    
-    
 }
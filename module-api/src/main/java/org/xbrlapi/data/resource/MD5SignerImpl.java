@@ -1,16 +1,26 @@
 package org.xbrlapi.data.resource;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
 
 import org.apache.log4j.Logger;
+import org.xbrlapi.utilities.XBRLException;
 
 /**
+ * Signatures are the number of lines in the resource followed by the MD5
+ * hash of a sample of those lines: the first 40 lines, the last 9 lines and
+ * roughly 21 lines spread evenly in between.  Files are signed in two 
+ * passes, the first counting the lines and the second hashing the sampled 
+ * lines, so only one line is held in memory at a time.
  * @author Geoffrey Shuetrim (geoff@galexy.net)
  */
 
-public class MD5SignerImpl implements Signer {
+public class MD5SignerImpl implements StreamingSigner {
 
     /**
      * 
@@ -23,45 +33,109 @@ public class MD5SignerImpl implements Signer {
         super();
     }
     
+    /**
+     * @see Signer#getSignature(List)
+     */
     public String getSignature(List<String> lines) {
-        String document = "";
-        double divisor = Math.ceil(lines.size() / 21);
+        MessageDigest algorithm = getAlgorithm();
+        if (algorithm == null) return "corruptedSignature";
         for (int i=0; i<lines.size(); i++) {
-            if (i < 40) {
-                document = document + lines.get(i);
-            } else if (i > (lines.size()-10)) {
-                document = document + lines.get(i);
-            } else {
-                double result = i/divisor;
-                if ( result == Math.floor(result)) {
-                    document = document + lines.get(i);
-                }
+            if (isSampled(i, lines.size())) {
+                algorithm.update(lines.get(i).getBytes());
             }
         }
-        return (new Integer(lines.size())).toString() + MD5(document);
+        return (new Integer(lines.size())).toString() + toHex(algorithm.digest());
     }
-    
-    private String MD5(String content) {
+
+    /**
+     * @see StreamingSigner#getSignature(File)
+     */
+    public String getSignature(File file) throws XBRLException {
+        MessageDigest algorithm = getAlgorithm();
+        if (algorithm == null) return "corruptedSignature";
+        int count = countLines(file);
+        BufferedReader reader = null;
         try {
-            MessageDigest algorithm = MessageDigest.getInstance("MD5");
-            algorithm.reset();
-            algorithm.update(content.getBytes());
-            byte messageDigest[] = algorithm.digest();
-            StringBuffer hexString = new StringBuffer();
-            
-            for (int i=0;i<messageDigest.length;i++) {
-                String hex = Integer.toHexString(0xFF & messageDigest[i]);
-                if (hex.length() == 1) {
-                    hexString.append('0');
+            reader = new BufferedReader(new FileReader(file));
+            String line;
+            int i = 0;
+            while ((line = reader.readLine()) != null) {
+                if (isSampled(i, count)) {
+                    algorithm.update(line.getBytes());
                 }
-                hexString.append(Integer.toHexString(0xFF & messageDigest[i]));
+                i++;
             }
-            return hexString.toString();
-            
+        } catch (IOException e) {
+            throw new XBRLException("There was a problem reading " + file + ".",e);
+        } finally {
+            close(reader, file);
+        }
+        return (new Integer(count)).toString() + toHex(algorithm.digest());
+    }
+
+    /**
+     * @param file The file to read.
+     * @return the number of lines in the file.
+     * @throws XBRLException if the file cannot be read.
+     */
+    private int countLines(File file) throws XBRLException {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            int count = 0;
+            while (reader.readLine() != null) count++;
+            return count;
+        } catch (IOException e) {
+            throw new XBRLException("There was a problem reading " + file + ".",e);
+        } finally {
+            close(reader, file);
+        }
+    }
+
+    private void close(BufferedReader reader, File file) {
+        if (reader == null) return;
+        try {
+            reader.close();
+        } catch (IOException e) {
+            logger.warn("The file " + file + " could not be closed.");
+        }
+    }
+
+    /**
+     * @param i The index of the line.
+     * @param size The number of lines in the resource.
+     * @return true if the line is included in the signature.
+     */
+    private boolean isSampled(int i, int size) {
+        if (i < 40) return true;
+        if (i > (size-10)) return true;
+        double divisor = Math.ceil(size / 21);
+        double result = i/divisor;
+        return (result == Math.floor(result));
+    }
+
+    /**
+     * @return the MD5 message digest or null if it is not available.
+     */
+    private MessageDigest getAlgorithm() {
+        try {
+            return MessageDigest.getInstance("MD5");
         } catch (NoSuchAlgorithmException e) {
             logger.error("Your system is missing an MD5 algorithm.");
-            return "corruptedSignature";
+            return null;
+        }
+    }
+
+    private String toHex(byte[] messageDigest) {
+        StringBuffer hexString = new StringBuffer();
+        for (int i=0;i<messageDigest.length;i++) {
+            String hex = Integer.toHexString(0xFF & messageDigest[i]);
+            if (hex.length() == 1) {
+                hexString.append('0');
+            }
+            hexString.append(hex);
         }
+        return hexString.toString();
     }
 
     /**
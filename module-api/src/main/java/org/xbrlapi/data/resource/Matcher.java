@@ -65,4 +65,24 @@ public interface Matcher extends Serializable {
 	 */
 	public URI delete(URI uri) throws XBRLException;
 	
+	/**
+	 * Persists any changes to the matches that the matcher has not
+	 * yet written to the data store.  Data stores call this before
+	 * they acquire their write lock when closing, because the matches
+	 * are persisted using that lock.  They also call this before
+	 * counting or querying their XML resources so that the results
+	 * include the matches.
+	 * @throws XBRLException if the changes cannot be persisted.
+	 */
+	public void flush() throws XBRLException;
+	
+	/**
+	 * Discards any matches that the matcher has loaded from the data
+	 * store so that they are loaded again when next needed.  Data stores
+	 * call this when XML resources are added to them other than through 
+	 * the matcher, such as when loading a snapshot.
+	 * @throws XBRLException if outstanding changes cannot be persisted.
+	 */
+	public void reload() throws XBRLException;
+	
 }
@@ -0,0 +1,25 @@
+package org.xbrlapi.data.resource;
+
+import java.io.File;
+
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Signers that generate signatures by reading the resource content
+ * through a fixed size buffer, so that the memory used does not grow
+ * with the size of the resource.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+
+public interface StreamingSigner extends Signer {
+
+    /**
+     * @param file The file containing the resource content.  The file
+     * is read as many times as the signer needs.
+     * @return the signature given the resource content.  This is the 
+     * same as the signature given the lines of the resource content.
+     * @throws XBRLException if the content cannot be read.
+     */
+    public String getSignature(File file) throws XBRLException;
+
+}
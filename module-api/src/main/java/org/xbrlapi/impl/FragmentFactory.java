@@ -2,6 +2,8 @@ package org.xbrlapi.impl;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.log4j.Logger;
 import org.w3c.dom.Element;
@@ -18,6 +20,12 @@ import org.xbrlapi.utilities.XBRLException;
 public class FragmentFactory<F> {
 
 	private static final Logger logger = Logger.getLogger(FragmentFactory.class);
+
+	/**
+	 * Fragment constructors, indexed by the fragment class name, so that
+	 * the reflective lookup is only done once for each fragment type.
+	 */
+	private static final ConcurrentMap<String,Constructor<?>> constructors = new ConcurrentHashMap<String,Constructor<?>>();
 	
 	/**
 	 * Get the class for the specified class name.
@@ -60,9 +68,11 @@ public class FragmentFactory<F> {
 				}
 
 				String className = root.getAttribute("type");
-		    	Class fragmentClass = getClass(className);
-
-	        	Constructor constructor = fragmentClass.getConstructor();
+				Constructor<?> constructor = constructors.get(className);
+				if (constructor == null) {
+				    constructor = getClass(className).getConstructor();
+				    constructors.putIfAbsent(className,constructor);
+				}
 		    	XML fragment = (XML) constructor.newInstance();
 	            fragment.setStore(store);
 	            fragment.setResource(root);
@@ -21,6 +21,7 @@ import org.xbrlapi.Resource;
 import org.xbrlapi.SimpleLink;
 import org.xbrlapi.Tuple;
 import org.xbrlapi.Unit;
+import org.xbrlapi.data.XMLCursor;
 import org.xbrlapi.utilities.Constants;
 import org.xbrlapi.utilities.XBRLException;
 
@@ -72,11 +73,7 @@ public class InstanceImpl extends FragmentImpl implements Instance {
      * @see org.xbrlapi.Instance#getContext(String)
      */
     public Context getContext(String id) throws XBRLException {
-    	String xpath = "#roots#[@type='org.xbrlapi.impl.ContextImpl' and @parentIndex='" + getIndex() + "' and */*/@id='" + id + "']";
-    	List<Context> list = getStore().<Context>queryForXMLResources(xpath);
-    	if (list.size() == 0) throw new XBRLException("The instance does not contain a context with id: " + id);
-    	if (list.size() > 1) throw new XBRLException("The instance contains more than one context with id: " + id);
-    	return (list.get(0));
+    	return getStore().getContext(getURI(), id);
     }
     
     /**
@@ -90,10 +87,7 @@ public class InstanceImpl extends FragmentImpl implements Instance {
      * @see org.xbrlapi.Instance#getUnit(String)
      */
     public Unit getUnit(String id) throws XBRLException {
-    	List<Unit> list = getStore().queryForXMLResources("#roots#[@type='org.xbrlapi.impl.UnitImpl' and @parentIndex='" + this.getIndex() + "' and "+ Constants.XBRLAPIPrefix+ ":" + "data/*/@id='" + id + "']");
-    	if (list.size() == 0) throw new XBRLException("The instance does not contain a unit with id: " + id);
-    	if (list.size() > 1) throw new XBRLException("The instance contains more than one unit with id: " + id);
-    	return list.get(0);
+    	return getStore().getUnit(getURI(), id);
     }
     
     /**
@@ -147,6 +141,13 @@ public class InstanceImpl extends FragmentImpl implements Instance {
     public List<Fact> getAllFacts() throws XBRLException {
         return getStore().<Fact>queryForXMLResources(getAllFactsQuery());
     }    
+
+    /**
+     * @see org.xbrlapi.Instance#getAllFactsCursor()
+     */
+    public XMLCursor<Fact> getAllFactsCursor() throws XBRLException {
+        return getStore().<Fact>queryForXMLCursor(getAllFactsQuery());
+    }
     
     /**
      * @see org.xbrlapi.Instance#getChildItems()
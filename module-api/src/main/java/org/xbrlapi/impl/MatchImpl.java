@@ -52,6 +52,23 @@ public class MatchImpl extends NonFragmentXMLImpl implements Match {
 		this.finalizeBuilder();
 	}
 	
+	/**
+	 * @param id The unique id of the XML resource being created,
+	 * within the scope of the containing data store.
+	 * @param uris The matched URIs, starting with the URI of the
+	 * matching document that is actually stored in the data store.
+	 * @throws XBRLException if the list of URIs is null or contains a null URI.
+	 */
+	public MatchImpl(String id, List<URI> uris) throws XBRLException {
+		this();
+		this.setIndex(id);
+		if (uris == null) throw new XBRLException("The matched URIs must not be null.");
+		for (URI uri: uris) {
+		    addMatchedURI(uri);
+		}
+		this.finalizeBuilder();
+	}
+	
 	/**
 	 * @see Match#addMatchedURI(URI)
 	 */
@@ -2,6 +2,7 @@ package org.xbrlapi.impl;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Map;
 
 import org.xbrlapi.Arc;
 import org.xbrlapi.ExtendedLink;
@@ -23,6 +24,16 @@ public class RelationshipImpl extends NonFragmentXMLImpl implements Relationship
      */
     private static final long serialVersionUID = -8152142828118166919L;
 
+    /**
+     * The arc, extended link, source and target of the relationship,
+     * retained once they have been retrieved from the data store so that 
+     * repeated calls return the same fragments without further store reads.
+     */
+    transient private Arc arc = null;
+    transient private ExtendedLink link = null;
+    transient private Fragment source = null;
+    transient private Fragment target = null;
+
     /**
      * No argument constructor.
      * @throws XBRLException
@@ -41,14 +52,28 @@ public class RelationshipImpl extends NonFragmentXMLImpl implements Relationship
      * @throws XBRLException
      */
     public RelationshipImpl(Arc arc, Fragment source, Fragment target) throws XBRLException {
+        this(arc, (arc == null) ? null : arc.getExtendedLink(), source, target);
+    }
+
+    /**
+     * Use this constructor when the extended link containing the arc 
+     * has already been retrieved from the data store, to avoid
+     * retrieving it again for each relationship that the arc defines.
+     * @param arc The arc defining the relationship
+     * @param link The extended link containing the arc
+     * @param source The source of the relationship
+     * @param target The target of the relationship
+     * @throws XBRLException
+     */
+    public RelationshipImpl(Arc arc, ExtendedLink link, Fragment source, Fragment target) throws XBRLException {
         this();
 
-        setStore(arc.getStore());
-        
         if (arc == null) throw new XBRLException("The arc must not be null");
+        if (link == null) throw new XBRLException("The extended link must not be null");
         if (source == null) throw new XBRLException("The source must not be null");
-        if (source == null) throw new XBRLException("The target must not be null");
-        ExtendedLink link = arc.getExtendedLink();
+        if (target == null) throw new XBRLException("The target must not be null");
+
+        setStore(arc.getStore());
 
         setIndex(arc.getIndex() + source.getIndex() + target.getIndex());
 
@@ -91,7 +116,11 @@ public class RelationshipImpl extends NonFragmentXMLImpl implements Relationship
         setSignature(arc);
 
         this.finalizeBuilder();
-        
+
+        this.arc = arc;
+        this.link = link;
+        this.source = source;
+        this.target = target;
     }    
     
     /**
@@ -108,7 +137,8 @@ public class RelationshipImpl extends NonFragmentXMLImpl implements Relationship
      * @see org.xbrlapi.Relationship#getArc()
      */
     public Arc getArc() throws XBRLException {
-        return (Arc) this.getStore().getXMLResource(getArcIndex());
+        if (arc == null) arc = (Arc) this.getStore().getXMLResource(getArcIndex());
+        return arc;
     }
     
     
@@ -275,7 +305,8 @@ public class RelationshipImpl extends NonFragmentXMLImpl implements Relationship
      */
     @SuppressWarnings("unchecked")
     public <F extends Fragment> F getSource() throws XBRLException {
-        return (F) this.getStore().getXMLResource(getSourceIndex());
+        if (source == null) source = this.getStore().<Fragment>getXMLResource(getSourceIndex());
+        return (F) source;
     }
 
     /**
@@ -335,7 +366,8 @@ public class RelationshipImpl extends NonFragmentXMLImpl implements Relationship
      */
     @SuppressWarnings("unchecked")
     public <F extends Fragment> F getTarget() throws XBRLException {
-        return (F) this.getStore().getXMLResource(getTargetIndex());
+        if (target == null) target = this.getStore().<Fragment>getXMLResource(getTargetIndex());
+        return (F) target;
     }
 
     /**
@@ -668,7 +700,32 @@ public class RelationshipImpl extends NonFragmentXMLImpl implements Relationship
      * @see org.xbrlapi.Relationship#getExtendedLink()
      */
     public ExtendedLink getExtendedLink() throws XBRLException {
-        return getStore().<ExtendedLink>getXMLResource(getLinkIndex());
+        if (link == null) link = getStore().<ExtendedLink>getXMLResource(getLinkIndex());
+        return link;
+    }
+
+    /**
+     * @return true if the arc, extended link, source and target of 
+     * the relationship have all been retrieved from the data store.
+     */
+    boolean isResolved() {
+        return (arc != null && link != null && source != null && target != null);
+    }
+
+    /**
+     * Sets the arc, extended link, source and target of the relationship
+     * from a map of fragments that have already been retrieved from the
+     * data store.  Fragments that are already known or that are not in 
+     * the map are left alone.
+     * @param fragments The map from fragment indices to fragments.
+     * @throws XBRLException
+     * @see RelationshipResolver
+     */
+    void resolve(Map<String,Fragment> fragments) throws XBRLException {
+        if (arc == null) arc = (Arc) fragments.get(getArcIndex());
+        if (link == null) link = (ExtendedLink) fragments.get(getLinkIndex());
+        if (source == null) source = fragments.get(getSourceIndex());
+        if (target == null) target = fragments.get(getTargetIndex());
     }
 
     /**
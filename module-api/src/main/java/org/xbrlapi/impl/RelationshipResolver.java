@@ -0,0 +1,93 @@
+package org.xbrlapi.impl;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+import org.xbrlapi.Fragment;
+import org.xbrlapi.Relationship;
+import org.xbrlapi.data.Store;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Retrieves the arcs, extended links, sources and targets of a collection
+ * of persisted relationships from the data store using a few queries that
+ * each match a bounded number of fragment indices, rather than one
+ * store read per relationship endpoint.  Relationships that share an
+ * endpoint share the same fragment object.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+
+public class RelationshipResolver {
+
+    private static final Logger logger = Logger.getLogger(RelationshipResolver.class);
+
+    /**
+     * The maximum number of fragment indices to match in one query.
+     */
+    private static final int QUERY_SIZE = 200;
+
+    private RelationshipResolver() {
+        super();
+    }
+
+    /**
+     * Resolves the endpoints of the relationships that have not already
+     * been resolved.  Relationships that are not {@link RelationshipImpl}s
+     * are ignored.
+     * @param store The data store to retrieve the fragments from.
+     * @param relationships The relationships to resolve.
+     * @throws XBRLException if the fragments cannot be retrieved.
+     */
+    public static void resolve(Store store, Collection<? extends Relationship> relationships) throws XBRLException {
+
+        if (store == null) throw new XBRLException("The data store must not be null.");
+
+        List<RelationshipImpl> unresolved = new Vector<RelationshipImpl>();
+        Set<String> indices = new HashSet<String>();
+        for (Relationship relationship: relationships) {
+            if (! (relationship instanceof RelationshipImpl)) continue;
+            RelationshipImpl r = (RelationshipImpl) relationship;
+            if (r.isResolved()) continue;
+            unresolved.add(r);
+            indices.add(r.getArcIndex());
+            indices.add(r.getLinkIndex());
+            indices.add(r.getSourceIndex());
+            indices.add(r.getTargetIndex());
+        }
+        if (unresolved.isEmpty()) return;
+
+        Map<String,Fragment> fragments = new HashMap<String,Fragment>();
+        StringBuilder predicate = new StringBuilder();
+        int count = 0;
+        for (String index: indices) {
+            if (index == null || index.equals("")) continue;
+            if (count > 0) predicate.append(" or ");
+            predicate.append("@index='").append(index).append("'");
+            count++;
+            if (count == QUERY_SIZE) {
+                getFragments(store, predicate.toString(), fragments);
+                predicate = new StringBuilder();
+                count = 0;
+            }
+        }
+        if (count > 0) getFragments(store, predicate.toString(), fragments);
+
+        for (RelationshipImpl relationship: unresolved) {
+            relationship.resolve(fragments);
+        }
+        logger.debug("Resolved " + unresolved.size() + " relationships using " + fragments.size() + " fragments.");
+    }
+
+    private static void getFragments(Store store, String predicate, Map<String,Fragment> fragments) throws XBRLException {
+        for (Fragment fragment: store.<Fragment>queryForXMLResources("#roots#[" + predicate + "]")) {
+            fragments.put(fragment.getIndex(),fragment);
+        }
+    }
+
+}
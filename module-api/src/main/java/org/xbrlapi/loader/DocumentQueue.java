@@ -0,0 +1,134 @@
+package org.xbrlapi.loader;
+
+import java.net.URI;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A thread-safe queue of documents awaiting discovery, shared
+ * by a set of loaders that are discovering documents
+ * into the one data store in parallel.
+ *
+ * Each URI is only ever handed out once.  A loader takes
+ * the next URI from the queue, loads it and then reports
+ * that it has finished with it.  URIs found while a document
+ * is being parsed are stashed back into the queue.  The queue
+ * is exhausted once it is empty and no loader is still working
+ * on a document that it has taken from the queue, because
+ * only those loaders can discover new documents.
+ *
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class DocumentQueue {
+
+    private static final Logger logger = Logger.getLogger(DocumentQueue.class);
+
+    /**
+     * The URIs waiting to be handed out to a loader.
+     */
+    private LinkedList<URI> queue = new LinkedList<URI>();
+
+    /**
+     * All URIs that have ever been stashed in the queue.
+     */
+    private Set<URI> stashed = new HashSet<URI>();
+
+    /**
+     * The number of URIs that have been taken from the queue
+     * by loaders that have not yet finished with them.
+     */
+    private int inProgress = 0;
+
+    /**
+     * Set to true when no more URIs are to be handed out.
+     */
+    private boolean interrupted = false;
+
+    /**
+     * Adds the URI to the queue unless it has already been stashed.
+     * @param uri The URI of the document to be discovered.
+     */
+    public synchronized void stash(URI uri) {
+        if (stashed.add(uri)) {
+            queue.add(uri);
+            notifyAll();
+        }
+    }
+
+    /**
+     * @param uris The URIs of the documents to be discovered.
+     */
+    public synchronized void stash(List<URI> uris) {
+        for (URI uri: uris) {
+            stash(uri);
+        }
+    }
+
+    /**
+     * Blocks until a URI becomes available or until the queue
+     * is exhausted.  A loader that takes a URI must call
+     * {@link #finished(URI)} once it is done with the document.
+     * @return the next URI to discover or null if the queue
+     * is exhausted or has been interrupted.
+     */
+    public synchronized URI take() {
+        while (queue.isEmpty() && inProgress > 0 && ! interrupted) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                logger.warn(Thread.currentThread().getName() + " was interrupted while waiting for a document to discover.");
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        if (interrupted || queue.isEmpty()) return null;
+        inProgress++;
+        return queue.removeFirst();
+    }
+
+    /**
+     * Records that a loader has finished with a URI that it took from the queue.
+     * @param uri The URI of the document that the loader has finished with.
+     */
+    public synchronized void finished(URI uri) {
+        inProgress--;
+        notifyAll();
+    }
+
+    /**
+     * Stops the queue from handing out any more URIs.  Loaders
+     * finish the documents that they are working on.
+     */
+    public synchronized void requestInterrupt() {
+        interrupted = true;
+        notifyAll();
+    }
+
+    /**
+     * @return true if the queue has been interrupted.
+     */
+    public synchronized boolean isInterrupted() {
+        return interrupted;
+    }
+
+    /**
+     * @return the URIs still waiting in the queue.
+     */
+    public synchronized List<URI> getRemainingURIs() {
+        return new Vector<URI>(queue);
+    }
+
+    /**
+     * @return true if the queue is empty and no loader
+     * is still working on a document taken from it.
+     */
+    public synchronized boolean isExhausted() {
+        return queue.isEmpty() && inProgress == 0;
+    }
+
+}
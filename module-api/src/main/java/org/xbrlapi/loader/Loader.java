@@ -137,7 +137,36 @@ public interface Loader extends Serializable {
 	 * @param uri The URI to discover.
 	 * @throws XBRLException
 	 */
-	public void discover(String uri) throws XBRLException;	
+	public void discover(String uri) throws XBRLException;
+
+	/**
+	 * Parses a single document into the data store, if the loader can
+	 * obtain loading rights for it and it is not already in the data store.
+	 * Documents found while parsing it are stashed in the usual way.
+	 * Unlike the other discovery methods, this does not work through the
+	 * rest of the queue of documents to be discovered and it does not update
+	 * the persisted relationships.
+	 * @param uri The URI of the document to parse.
+	 * @return true if the document was loaded into the data store by this
+	 * loader and false otherwise.
+	 * @throws XBRLException if the discovery process fails.
+	 */
+	public boolean discoverDocument(URI uri) throws XBRLException;
+
+	/**
+	 * Used when a set of loaders do parallel discovery into the one data store.
+	 * Once the shared queue is set, URIs stashed by this loader are added to
+	 * the shared queue rather than being queued by this loader.
+	 * @param queue The queue of documents shared by the loaders
+	 * or null to go back to using this loader's own queue.
+	 */
+	public void setDocumentQueue(DocumentQueue queue);
+
+	/**
+	 * @return the queue of documents shared with other loaders
+	 * or null if this loader is using its own queue.
+	 */
+	public DocumentQueue getDocumentQueue();
 
 
 
@@ -103,6 +103,13 @@ public class LoaderImpl implements Loader {
      */
     private TreeSet<URI> documentQueue = new TreeSet<URI>();
 
+    /**
+     * The queue of documents shared with other loaders when 
+     * doing parallel discovery.  This is null unless the loader
+     * is one of a set of loaders doing parallel discovery.
+     */
+    transient private DocumentQueue sharedQueue = null;
+
     /**
      * The document history recording system used to track the
      * documents being loaded, their URIs and their document
@@ -431,13 +438,59 @@ public class LoaderImpl implements Loader {
             getStates().pop();
 //            getChildrenStack().pop();
             Fragment f = fragments.pop();
-            getStore().persist(f);
+            persistFragment(f);
             return f;
         } catch (EmptyStackException e) {
             throw new XBRLException(this.getDocumentURI() + " There are no fragments being built.  The stack of fragments is empty.",e);
         }
     }
 
+    /**
+     * Persists a fragment that the loader has finished building.
+     * This implementation persists the fragment immediately.
+     * @param fragment The fragment to persist.
+     * @throws XBRLException if the fragment cannot be persisted.
+     */
+    protected void persistFragment(Fragment fragment) throws XBRLException {
+        getStore().persist(fragment);
+    }
+
+    /**
+     * Completes the loading of a document once it has been parsed.
+     * This implementation flags the document as explored and
+     * synchronises the data store.
+     * @param uri The URI of the document that has been parsed.
+     * @throws XBRLException if the data store cannot be synchronised.
+     */
+    protected void documentParsed(URI uri) throws XBRLException {
+        markDocumentAsExplored(uri);
+        getStore().sync();
+    }
+
+    /**
+     * Blocks until all of the fragments built by this loader have been
+     * persisted, cleaning up any documents that could not be persisted.
+     * This implementation does nothing because fragments are persisted
+     * as soon as they are built.
+     * @throws XBRLException if the wait is interrupted.
+     */
+    protected void awaitPersistence() throws XBRLException {
+        // Nothing is waiting to be persisted.
+    }
+
+    /**
+     * Blocks until the document, or a document that the matcher reports
+     * as having the same content, has been persisted if this loader is
+     * still persisting it, so that the data store can tell whether the
+     * document is already loaded.  This implementation does nothing
+     * because fragments are persisted as soon as they are built.
+     * @param uri The URI of the document about to be loaded.
+     * @throws XBRLException if the wait is interrupted.
+     */
+    protected void awaitPersistence(URI uri) throws XBRLException {
+        // Nothing is waiting to be persisted.
+    }
+
     /**
      * @see Loader#discover(List)
      */
@@ -498,39 +551,10 @@ public class LoaderImpl implements Loader {
 
         URI uri = getNextDocumentToExplore();
         DOCUMENTS: while (uri != null) {
-            boolean documentClaimedByThisLoader = store.requestLoadingRightsFor(this,uri);
-            if (! documentClaimedByThisLoader) {
-                markDocumentAsExplored(uri);
-                uri = getNextDocumentToExplore();
-                continue DOCUMENTS;
-            }
-            
-            long start = System.currentTimeMillis();
-
-            if (!getStore().hasDocument(uri)) {
-                setDocumentURI(uri);
-                this.setNextFragmentId("1");
-                try {
-                    parse(uri);
-                    long duration = (System.currentTimeMillis() - start) / 1000;
-                    logger.info("#" + discoveryCount + " took " + duration + " seconds. " + (fragmentId-1) + " fragments in " + uri);
-                    discoveryCount++;
-                    markDocumentAsExplored(uri);
-                    newDocuments.add(uri);
-                    getStore().sync();
-                } catch (XBRLException e) {
-                    this.cleanupFailedLoad(uri,"XBRL-API related problems occurred: " + e.getMessage(),e);
-                } catch (SAXException e) {
-                    this.cleanupFailedLoad(uri,"The document could not be parsed.",e);
-                } catch (IOException e) {
-                    this.cleanupFailedLoad(uri,"The document could not be accessed.",e);
-                } catch (ParserConfigurationException e) {
-                    getStore().recindLoadingRightsFor(this,uri);
-                    throw new XBRLException("The parser could not be correctly configured.",e);
-                }
-            } else {
-                logger.debug(uri + " is already in the data store.");
-                markDocumentAsExplored(uri);
+
+            if (loadDocument(uri,discoveryCount)) {
+                discoveryCount++;
+                newDocuments.add(uri);
             }
 
             if (interruptRequested()) {
@@ -541,6 +565,8 @@ public class LoaderImpl implements Loader {
             uri = getNextDocumentToExplore();
         }
 
+        awaitPersistence();
+        newDocuments.retainAll(successes);
         storeDocumentsToAnalyse();
         setDiscovering(false);
 
@@ -582,6 +608,88 @@ public class LoaderImpl implements Loader {
         
     }
 
+    /**
+     * Loads a single document into the data store if this loader can
+     * obtain the loading rights for it and the document is not
+     * already in the data store.
+     * @param uri The URI of the document to load.
+     * @param discoveryCount The number of the document in the current 
+     * discovery process, used for logging.
+     * @return true if the document was loaded into the data store
+     * by this loader and false otherwise.
+     * @throws XBRLException if the parser cannot be configured.
+     */
+    private boolean loadDocument(URI uri, int discoveryCount) throws XBRLException {
+
+        boolean documentClaimedByThisLoader = getStore().requestLoadingRightsFor(this,uri);
+        if (! documentClaimedByThisLoader) {
+            markDocumentAsExplored(uri);
+            return false;
+        }
+        
+        long start = System.currentTimeMillis();
+
+        awaitPersistence(uri);
+        if (getStore().hasDocument(uri)) {
+            logger.debug(uri + " is already in the data store.");
+            markDocumentAsExplored(uri);
+            return false;
+        }
+
+        setDocumentURI(uri);
+        this.setNextFragmentId("1");
+        try {
+            parse(uri);
+            long duration = (System.currentTimeMillis() - start) / 1000;
+            logger.info("#" + discoveryCount + " took " + duration + " seconds. " + (fragmentId-1) + " fragments in " + uri);
+            documentParsed(uri);
+            return true;
+        } catch (XBRLException e) {
+            this.cleanupFailedLoad(uri,"XBRL-API related problems occurred: " + e.getMessage(),e);
+        } catch (SAXException e) {
+            this.cleanupFailedLoad(uri,"The document could not be parsed.",e);
+        } catch (IOException e) {
+            this.cleanupFailedLoad(uri,"The document could not be accessed.",e);
+        } catch (ParserConfigurationException e) {
+            getStore().recindLoadingRightsFor(this,uri);
+            throw new XBRLException("The parser could not be correctly configured.",e);
+        }
+        return false;
+    }
+
+    /**
+     * @see Loader#discoverDocument(URI)
+     */
+    public boolean discoverDocument(URI uri) throws XBRLException {
+        
+        if (isDiscovering()) {
+            logger.warn("The loader is already doing discovery so it cannot discover " + uri);
+            return false;
+        }
+        setDiscovering(true);
+        try {
+            boolean loaded = loadDocument(uri,successes.size() + 1);
+            awaitPersistence();
+            return loaded && successes.contains(uri);
+        } finally {
+            setDiscovering(false);
+        }
+    }
+
+    /**
+     * @see Loader#setDocumentQueue(DocumentQueue)
+     */
+    public void setDocumentQueue(DocumentQueue queue) {
+        this.sharedQueue = queue;
+    }
+
+    /**
+     * @see Loader#getDocumentQueue()
+     */
+    public DocumentQueue getDocumentQueue() {
+        return this.sharedQueue;
+    }
+
     /**
      * @see org.xbrlapi.loader.Loader#discoverNext()
      */
@@ -612,8 +720,7 @@ public class LoaderImpl implements Loader {
             this.setNextFragmentId("1");
             try {
                 parse(uri);
-                markDocumentAsExplored(uri);
-                getStore().sync();
+                documentParsed(uri);
                 logger.info((this.fragmentId-1) + " fragments in " + uri);
             } catch (XBRLException e) {
                 this.cleanupFailedLoad(uri,"XBRL Problem: " + e.getMessage(),e);
@@ -627,6 +734,7 @@ public class LoaderImpl implements Loader {
         }
 
         logger.info("Finished discovery of " + uri);
+        awaitPersistence();
         this.storeDocumentsToAnalyse();
         
         setDiscovering(false);
@@ -690,6 +798,15 @@ public class LoaderImpl implements Loader {
     protected void markDocumentAsExplored(URI uri) {
         documentQueue.remove(uri);
         successes.add(uri);
+        releaseLoadingRights(uri);
+    }
+
+    /**
+     * Rescinds this loader's rights to load the document so that
+     * other loaders can act as they deem appropriate.
+     * @param uri The URI of the document.
+     */
+    protected void releaseLoadingRights(URI uri) {
         getStore().recindLoadingRightsFor(this,uri);
     }
 
@@ -791,6 +908,12 @@ public class LoaderImpl implements Loader {
             throw new XBRLException("Malformed URI found in DTS discovery process: " + uri, e);
         }
 
+        // Pass the URI to the shared queue if doing parallel discovery
+        if (sharedQueue != null) {
+            sharedQueue.stash(dereferencedURI);
+            return;
+        }
+
         // Stash the URI if it has not already been stashed
         if (!successes.contains(dereferencedURI)) {
             // Queue up the original URI - ignoring issues of whether it matches another document.
@@ -889,13 +1012,22 @@ public class LoaderImpl implements Loader {
         }
     }
     
-    private void cleanupFailedLoad(URI uri, String reason, Exception e) {
-        logger.error(getDocumentURI() + " encountered a loading problem: " + e.getMessage());
+    /**
+     * Records the failure to load a document, removes whatever parts of
+     * the document have been persisted and discards the fragments that
+     * are being built.
+     * @param uri The URI of the document that failed to load.
+     * @param reason The reason for the failure.
+     * @param e The exception that caused the failure.
+     */
+    protected void cleanupFailedLoad(URI uri, String reason, Exception e) {
+        logger.error(uri + " encountered a loading problem: " + e.getMessage());
         failures.put(uri,reason);
         documentQueue.remove(uri);
-        getStore().recindLoadingRightsFor(this,getDocumentURI());
+        successes.remove(uri);
+        getStore().recindLoadingRightsFor(this,uri);
         try {
-            getStore().deleteDocument(getDocumentURI());
+            getStore().deleteDocument(uri);
             logger.info("Purged " + uri + " from the data store.");
         } catch (Exception exception) {
             logger.error("Failed to clean up the document from the data store. " + exception.getMessage());
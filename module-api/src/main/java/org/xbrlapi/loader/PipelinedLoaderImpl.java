@@ -0,0 +1,399 @@
+package org.xbrlapi.loader;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.xbrlapi.Fragment;
+import org.xbrlapi.data.Store;
+import org.xbrlapi.utilities.XBRLException;
+import org.xbrlapi.utilities.XMLDOMBuilder;
+import org.xbrlapi.xlink.XLinkProcessor;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * A loader that overlaps the fetching, parsing and persisting of documents.
+ * Discovery proceeds in three stages that are connected by bounded queues:
+ * <ul>
+ * <li>a pool of fetching threads copies the next documents waiting to be
+ * parsed into the loader's cache;</li>
+ * <li>the loader's own thread parses one document at a time into fragments,
+ * as the {@link LoaderImpl} does;</li>
+ * <li>a persisting thread persists the fragments of each parsed document in
+ * batches and then synchronises the data store.</li>
+ * </ul>
+ *
+ * The fragments of a document are handed to the persisting thread once the
+ * whole document has been parsed and each document is built in its own
+ * builder DOM, so the two threads never work on the same DOM.  The loading
+ * rights for a document are only rescinded once its fragments have been
+ * persisted.  Documents that cannot be persisted are cleaned up and
+ * reported as failures in the same way as documents that cannot be parsed.
+ *
+ * The fetching stage is only used if the loader has a cache.
+ *
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class PipelinedLoaderImpl extends LoaderImpl implements Loader {
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = -2352791624655818062L;
+
+    private static final Logger logger = Logger.getLogger(PipelinedLoaderImpl.class);
+
+    /**
+     * The number of threads fetching documents into the cache.
+     */
+    public static final int FETCH_THREADS = 4;
+
+    /**
+     * The maximum number of documents waiting to be fetched.
+     */
+    public static final int FETCH_QUEUE_SIZE = 16;
+
+    /**
+     * The maximum number of parsed documents waiting to be persisted.
+     */
+    public static final int PERSIST_QUEUE_SIZE = 4;
+
+    /**
+     * The maximum number of fragments persisted in a single batch.
+     */
+    public static final int BATCH_SIZE = 200;
+
+    /**
+     * The fetches that have been started, indexed by document URI.
+     */
+    transient private Map<URI,Future<URI>> fetches = null;
+
+    transient private ThreadPoolExecutor fetcher = null;
+
+    /**
+     * The documents that are being persisted, in the order that they
+     * were parsed.  This is only used by the loader's own thread.
+     */
+    transient private Map<URI,Future<Void>> persisting = null;
+
+    /**
+     * Limits the number of parsed documents that are waiting to be persisted.
+     */
+    transient private Semaphore persistPermits = null;
+
+    transient private ThreadPoolExecutor persister = null;
+
+    /**
+     * The fragments of the document being parsed, in the order that
+     * they were built.
+     */
+    transient private List<Fragment> parsed = new Vector<Fragment>();
+
+    /**
+     * The builder DOM for the document being parsed.
+     */
+    transient private Document dom = null;
+
+    /**
+     * @param store The data store to hold the DTS
+     * @param xlinkProcessor The XLink processor to use for link resolution
+     * @throws XBRLException if the loader cannot be instantiated.
+     */
+    public PipelinedLoaderImpl(Store store, XLinkProcessor xlinkProcessor)
+            throws XBRLException {
+        super(store, xlinkProcessor);
+    }
+
+    /**
+     * @param store The data store to hold the DTS
+     * @param xlinkProcessor The XLink processor to use for link resolution
+     * @param uris The array of URIs for loading.
+     * @throws XBRLException if the loader cannot be instantiated.
+     */
+    public PipelinedLoaderImpl(Store store, XLinkProcessor xlinkProcessor, List<URI> uris)
+            throws XBRLException {
+        super(store, xlinkProcessor, uris);
+    }
+
+    /**
+     * @param name The name to give the threads.
+     * @return a thread factory for the pipeline's daemon threads.
+     */
+    private ThreadFactory getThreadFactory(final String name) {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private synchronized ThreadPoolExecutor getFetcher() {
+        if (fetcher == null) {
+            fetches = new ConcurrentHashMap<URI,Future<URI>>();
+            fetcher = new ThreadPoolExecutor(FETCH_THREADS, FETCH_THREADS, 10, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(FETCH_QUEUE_SIZE),
+                    getThreadFactory("PipelinedLoader fetcher"));
+            fetcher.allowCoreThreadTimeOut(true);
+        }
+        return fetcher;
+    }
+
+    private synchronized ThreadPoolExecutor getPersister() {
+        if (persister == null) {
+            persisting = new LinkedHashMap<URI,Future<Void>>();
+            persistPermits = new Semaphore(PERSIST_QUEUE_SIZE);
+            persister = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(PERSIST_QUEUE_SIZE),
+                    getThreadFactory("PipelinedLoader persister"));
+            persister.allowCoreThreadTimeOut(true);
+        }
+        return persister;
+    }
+
+    /**
+     * Starts fetching the documents that are next in the queue of
+     * documents to parse, if they are not already being fetched.
+     * Documents are skipped once the fetching queue is full.
+     * @param current The URI of the document about to be parsed.
+     */
+    private void fetchAhead(URI current) {
+
+        Iterator<URI> uris = getDocumentsStillToAnalyse().iterator();
+        if (! uris.hasNext()) return;
+
+        ThreadPoolExecutor fetcher = getFetcher();
+        int count = 0;
+        while (uris.hasNext() && count < FETCH_QUEUE_SIZE) {
+            final URI uri = uris.next();
+            count++;
+            if (uri.equals(current) || fetches.containsKey(uri)) continue;
+            try {
+                if (getStore().hasDocument(uri)) continue;
+                FutureTask<URI> fetch = new FutureTask<URI>(new Callable<URI>() {
+                    public URI call() throws XBRLException {
+                        return getCache().getCacheURI(uri);
+                    }
+                });
+                fetches.put(uri, fetch);
+                fetcher.execute(fetch);
+            } catch (RejectedExecutionException e) {
+                fetches.remove(uri);
+                return;
+            } catch (XBRLException e) {
+                logger.debug("Could not check the data store for " + uri + ". " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Waits for the fetch of a document to finish if it has been started
+     * so that the document is not read while it is still being cached.
+     * @param uri The URI of the document.
+     */
+    private void awaitFetch(URI uri) {
+        if (fetches == null) return;
+        Future<URI> fetch = fetches.remove(uri);
+        if (fetch == null) return;
+        try {
+            fetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.debug("Failed to fetch " + uri + " ahead of parsing it. " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Fetches the following documents into the cache while this document is parsed.
+     * @see LoaderImpl#parse(URI)
+     */
+    protected void parse(URI uri) throws XBRLException, ParserConfigurationException, SAXException, IOException {
+        if (hasCache()) {
+            awaitFetch(uri);
+            fetchAhead(uri);
+        }
+        super.parse(uri);
+    }
+
+    /**
+     * Starts a new builder DOM and a new list of parsed fragments for each document.
+     * @see LoaderImpl#parse(URI, InputSource, ContentHandler)
+     */
+    protected void parse(URI uri, InputSource inputSource, ContentHandler contentHandler) throws XBRLException, ParserConfigurationException, SAXException, IOException {
+        dom = (new XMLDOMBuilder()).newDocument();
+        parsed = new Vector<Fragment>();
+        super.parse(uri, inputSource, contentHandler);
+    }
+
+    /**
+     * @return true if the loader has a cache to fetch documents into.
+     */
+    private boolean hasCache() {
+        try {
+            getCache();
+            return true;
+        } catch (XBRLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @see Loader#getBuilderDOM()
+     */
+    public Document getBuilderDOM() throws XBRLException {
+        if (dom == null) {
+            dom = (new XMLDOMBuilder()).newDocument();
+        }
+        return dom;
+    }
+
+    /**
+     * Holds the fragment until the whole document has been parsed.
+     * @see LoaderImpl#persistFragment(Fragment)
+     */
+    protected void persistFragment(Fragment fragment) throws XBRLException {
+        parsed.add(fragment);
+    }
+
+    /**
+     * Queues the fragments of the document for persisting, waiting if
+     * the queue is full, and flags the document as explored.
+     * @see LoaderImpl#documentParsed(URI)
+     */
+    protected void documentParsed(final URI uri) throws XBRLException {
+
+        final List<Fragment> fragments = parsed;
+        parsed = new Vector<Fragment>();
+        dom = null;
+
+        ThreadPoolExecutor persister = getPersister();
+        processPersisted(false);
+        try {
+            persistPermits.acquire();
+        } catch (InterruptedException e) {
+            throw new XBRLException("Interrupted while waiting to persist " + uri,e);
+        }
+
+        Future<Void> persist = null;
+        try {
+            persist = persister.submit(new Callable<Void>() {
+                public Void call() throws XBRLException {
+                    try {
+                        for (int i=0; i<fragments.size(); i+=BATCH_SIZE) {
+                            getStore().persist(fragments.subList(i, Math.min(i + BATCH_SIZE, fragments.size())));
+                        }
+                        getStore().sync();
+                        getStore().recindLoadingRightsFor(PipelinedLoaderImpl.this,uri);
+                        logger.debug("Persisted " + fragments.size() + " fragments in " + uri);
+                        return null;
+                    } finally {
+                        persistPermits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            persistPermits.release();
+            throw new XBRLException("The fragments of " + uri + " could not be queued for persisting.",e);
+        }
+        persisting.put(uri, persist);
+
+        markDocumentAsExplored(uri);
+
+    }
+
+    /**
+     * Leaves the loading rights for documents that are still being persisted
+     * to the persisting thread.
+     * @see LoaderImpl#releaseLoadingRights(URI)
+     */
+    protected void releaseLoadingRights(URI uri) {
+        if (persisting != null && persisting.containsKey(uri)) return;
+        super.releaseLoadingRights(uri);
+    }
+
+    /**
+     * @see LoaderImpl#awaitPersistence()
+     */
+    protected void awaitPersistence() throws XBRLException {
+        if (persisting == null) return;
+        processPersisted(true);
+    }
+
+    /**
+     * Waits for the document and the document that it matches to be 
+     * persisted if they are still being persisted, because the data
+     * store does not report either as loaded until then.  Other documents
+     * are left to carry on being persisted.
+     * @see LoaderImpl#awaitPersistence(URI)
+     */
+    protected void awaitPersistence(URI uri) throws XBRLException {
+        if (persisting == null || persisting.isEmpty()) return;
+        URI matchURI = uri;
+        try {
+            matchURI = getStore().getMatcher().getMatch(uri);
+        } catch (XBRLException e) {
+            logger.debug(uri + " could not be matched. " + e.getMessage());
+        }
+        if (persisting.containsKey(uri)) processPersisted(uri);
+        if (persisting.containsKey(matchURI)) processPersisted(matchURI);
+    }
+
+    /**
+     * Removes documents from the record of documents being persisted
+     * once they have been persisted, cleaning up those that failed.
+     * @param wait true if this should wait for all documents to be
+     * persisted and false if it should stop at the first document that
+     * is still being persisted.
+     * @throws XBRLException if interrupted while waiting.
+     */
+    private void processPersisted(boolean wait) throws XBRLException {
+        while (! persisting.isEmpty()) {
+            URI uri = persisting.keySet().iterator().next();
+            if (! wait && ! persisting.get(uri).isDone()) return;
+            processPersisted(uri);
+        }
+    }
+
+    /**
+     * Waits for a document to be persisted and then removes it from the
+     * record of documents being persisted, cleaning it up if it failed.
+     * @param uri The URI of a document that is being persisted.
+     * @throws XBRLException if interrupted while waiting.
+     */
+    private void processPersisted(URI uri) throws XBRLException {
+        try {
+            persisting.get(uri).get();
+            persisting.remove(uri);
+        } catch (InterruptedException e) {
+            throw new XBRLException("Interrupted while waiting for " + uri + " to be persisted.",e);
+        } catch (ExecutionException e) {
+            persisting.remove(uri);
+            Exception cause = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+            cleanupFailedLoad(uri,"The document could not be persisted: " + cause.getMessage(),cause);
+        }
+    }
+
+}
@@ -0,0 +1,231 @@
+package org.xbrlapi.loader.discoverer;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.xbrlapi.data.Store;
+import org.xbrlapi.loader.DocumentQueue;
+import org.xbrlapi.loader.Loader;
+import org.xbrlapi.networks.StorerImpl;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Discovers documents into a single data store using a bounded
+ * pool of worker threads.  Each worker has its own loader, and thus its
+ * own SAX content handler and stack of fragments being built, but all
+ * of the loaders share a single queue of documents to discover.
+ * Documents found by any worker are added to the shared queue and
+ * the data store loading rights ensure that each document is only
+ * parsed by one of the workers.
+ *
+ * Once all workers are finished, and any other loaders using the data
+ * store have finished loading, the relationships defined by the
+ * newly loaded documents are persisted if the data store is persisting
+ * relationships.
+ *
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class ParallelDiscoverer implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(ParallelDiscoverer.class);
+
+    /**
+     * The loaders, one per worker thread.
+     */
+    private List<Loader> loaders = new Vector<Loader>();
+
+    /**
+     * The queue of documents shared by the loaders.
+     */
+    private DocumentQueue queue = new DocumentQueue();
+
+    /**
+     * The documents that have been loaded by the workers.
+     */
+    private Set<URI> newDocuments = Collections.synchronizedSet(new TreeSet<URI>());
+
+    /**
+     * @param loaders The loaders to use, one per worker thread.  All
+     * of the loaders must be using the same data store.
+     * @throws XBRLException if the list of loaders is null or empty or if
+     * the loaders do not all use the same data store.
+     */
+    public ParallelDiscoverer(List<Loader> loaders) throws XBRLException {
+        if (loaders == null) throw new XBRLException("The list of loaders must not be null.");
+        if (loaders.isEmpty()) throw new XBRLException("At least one loader is required.");
+        Store store = loaders.get(0).getStore();
+        for (Loader loader: loaders) {
+            if (loader == null) throw new XBRLException("The loaders must not be null.");
+            if (loader.getStore() != store) throw new XBRLException("The loaders must all use the same data store.");
+            this.loaders.add(loader);
+        }
+    }
+
+    /**
+     * @return the data store that the documents are being discovered into.
+     */
+    private Store getStore() {
+        return loaders.get(0).getStore();
+    }
+
+    /**
+     * @param uri The URI of a document to discover.
+     */
+    public void stashURI(URI uri) {
+        queue.stash(uri);
+    }
+
+    /**
+     * @param uris The URIs of the documents to discover.
+     */
+    public void stashURIs(List<URI> uris) {
+        queue.stash(uris);
+    }
+
+    /**
+     * Stops the workers from starting on any more documents.
+     * Documents that are being parsed are finished.
+     */
+    public void requestInterrupt() {
+        queue.requestInterrupt();
+    }
+
+    /**
+     * @return the documents loaded into the data store by this discoverer.
+     */
+    public Set<URI> getNewDocuments() {
+        synchronized (newDocuments) {
+            return new TreeSet<URI>(newDocuments);
+        }
+    }
+
+    /**
+     * Discovers the stashed documents, and any documents that are found
+     * from them, using one worker thread per loader.  This method
+     * returns once all of the workers have finished.
+     * @throws XBRLException if the discovery process fails.
+     */
+    public void discover() throws XBRLException {
+
+        Store store = getStore();
+
+        for (Loader loader: loaders) {
+            loader.setDocumentQueue(queue);
+            store.startLoading(loader);
+        }
+
+        for (URI uri: store.getDocumentsToDiscover()) {
+            logger.info(uri + " stashed for discovery.");
+            queue.stash(uri);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(loaders.size());
+        try {
+            for (Loader loader: loaders) {
+                pool.execute(new Worker(loader));
+            }
+            pool.shutdown();
+            while (! pool.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.debug("Still discovering documents ...");
+            }
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while waiting for the discovery workers to finish.");
+            queue.requestInterrupt();
+            pool.shutdownNow();
+        } finally {
+            for (Loader loader: loaders) {
+                loader.setDocumentQueue(null);
+                loader.storeDocumentsToAnalyse();
+                store.stopLoading(loader);
+            }
+        }
+
+        List<URI> remaining = queue.getRemainingURIs();
+        if (remaining.isEmpty()) {
+            logger.debug("Document discovery completed.");
+        } else {
+            logger.info("Document discovery exited without completing.");
+            Map<URI,String> map = new HashMap<URI,String>();
+            for (URI document: remaining) {
+                if (document.equals(store.getMatcher().getMatch(document))) {
+                    map.put(document,"Document has not yet been analysed");
+                }
+            }
+            if (map.size() > 0) store.persistLoaderState(map);
+        }
+
+        Set<URI> documents = getNewDocuments();
+        try {
+            if (store.isPersistingRelationships() && (documents.size() > 0)) {
+
+                // Wait till other loaders using the store have finished with their loading activities.
+                while (store.isLoading()) {
+                    logger.debug("Still doing some loading into the store ... ");
+                    Thread.sleep(10000);
+                }
+                new StorerImpl(store).storeRelationships(documents);
+            }
+        } catch (InterruptedException e) {
+            logger.error("Failed to persist relationships.");
+            Map<URI,String> map = new HashMap<URI,String>();
+            for (URI document: documents) {
+                map.put(store.getMatcher().getMatch(document),"Failed to store relationships.");
+            }
+            store.persistLoaderState(map);
+        }
+
+    }
+
+    /**
+     * @see java.lang.Runnable#run()
+     */
+    public void run() {
+        try {
+            logger.info(Thread.currentThread().getName() + ": Starting parallel discovery with " + loaders.size() + " workers.");
+            discover();
+            logger.info(Thread.currentThread().getName() + ": Successfully exited.");
+        } catch (XBRLException e) {
+            logger.error(Thread.currentThread().getName() + ": Error doing the data discovery. " + e.getMessage(),e);
+        }
+    }
+
+    /**
+     * Takes documents from the shared queue and loads them
+     * until the queue is exhausted or interrupted.
+     */
+    private class Worker implements Runnable {
+
+        private Loader loader;
+
+        Worker(Loader loader) {
+            this.loader = loader;
+        }
+
+        public void run() {
+            URI uri = queue.take();
+            while (uri != null) {
+                try {
+                    if (loader.discoverDocument(uri)) {
+                        newDocuments.add(uri);
+                    }
+                } catch (XBRLException e) {
+                    logger.error(Thread.currentThread().getName() + ": Discovery of " + uri + " failed. " + e.getMessage());
+                } finally {
+                    queue.finished(uri);
+                }
+                uri = queue.take();
+            }
+        }
+    }
+
+}
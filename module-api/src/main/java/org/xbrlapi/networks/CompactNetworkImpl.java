@@ -0,0 +1,835 @@
+package org.xbrlapi.networks;
+
+import java.io.Serializable;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+import org.xbrlapi.Arc;
+import org.xbrlapi.ArcEnd;
+import org.xbrlapi.ExtendedLink;
+import org.xbrlapi.Fragment;
+import org.xbrlapi.Locator;
+import org.xbrlapi.Relationship;
+import org.xbrlapi.data.Store;
+import org.xbrlapi.impl.LocatorImpl;
+import org.xbrlapi.impl.RelationshipImpl;
+import org.xbrlapi.impl.RelationshipOrderComparator;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * <h2>Compact network</h2>
+ *
+ * <p>
+ * A network implementation for holding large networks in memory.  The
+ * {@link NetworkImpl} keeps every relationship and fragment in the network
+ * along with maps keyed by concatenated strings.  This implementation maps
+ * the indices of the fragments in the network to integer IDs and holds
+ * each relationship as a few integers in a set of parallel arrays.  The
+ * active relationships from and to each fragment are held as ranges of
+ * sorted arrays, indexed by fragment ID, that are rebuilt the first time that
+ * the network is queried after relationships have been added to it.
+ * </p>
+ *
+ * <p>
+ * Fragments and relationships are only retrieved from the data store when
+ * they are asked for, and only a bounded number of them are retained.  Relationships
+ * are rebuilt from their arcs, extended links, sources and targets.  The
+ * {@link #getChildren(String)} and {@link #getParents(String)} methods, that are
+ * also used by the {@link TreeIterator}, retrieve fragments without building
+ * any relationships at all.
+ * </p>
+ *
+ * <p>
+ * Relationships are treated in the same way as in the {@link NetworkImpl}.
+ * Relationships with the same source, target and signature are equivalent
+ * and the one with the highest priority is the active one.  This class
+ * is not thread safe.
+ * </p>
+ *
+ * @author Geoff Shuetrim (geoff@galexy.net)
+ */
+public class CompactNetworkImpl implements Network, Serializable {
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = -4006404781245396372L;
+
+    private static final Logger logger = Logger.getLogger(CompactNetworkImpl.class);
+
+    /**
+     * The number of fragments and the number of relationships to retain
+     * once they have been retrieved.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    /**
+     * The maximum number of fragment indices to match in one query.
+     */
+    private static final int QUERY_SIZE = 200;
+
+    /**
+     * The link role for the network.
+     */
+    private URI linkRole = null;
+
+    /**
+     * The arcrole for the network.
+     */
+    private URI arcRole = null;
+
+    /**
+     * The data store to retrieve fragments from.
+     */
+    private Store store = null;
+
+    /**
+     * The maximum number of fragments and of relationships to retain.
+     */
+    private int cacheSize = DEFAULT_CACHE_SIZE;
+
+    /**
+     * Maps from the indices of the sources, targets, arcs and extended
+     * links of the relationships in the network to their IDs.
+     */
+    private HashMap<String,Integer> ids = new HashMap<String,Integer>();
+
+    /**
+     * The fragment indices, in order of their IDs.
+     */
+    private String[] indices = new String[16];
+
+    /**
+     * Maps from relationship signatures to their IDs.
+     */
+    private HashMap<String,Integer> signatureIds = new HashMap<String,Integer>();
+
+    /**
+     * The relationship signatures, in order of their IDs.
+     */
+    private String[] signatures = new String[16];
+
+    /**
+     * The number of relationships in the network.
+     */
+    private int size = 0;
+
+    /**
+     * The relationships, held in parallel arrays and identified
+     * by their position in the arrays.
+     */
+    private int[] sources = new int[16];
+    private int[] targets = new int[16];
+    private int[] arcs = new int[16];
+    private int[] links = new int[16];
+    private int[] relationshipSignatures = new int[16];
+    private int[] priorities = new int[16];
+    private double[] orders = new double[16];
+
+    /**
+     * True if the relationships from and to each fragment reflect all
+     * of the relationships that have been added to the network.
+     */
+    private boolean compiled = true;
+
+    /**
+     * The number of relationships in the network, ignoring relationships
+     * that have been replaced by an equivalent relationship with the same priority.
+     */
+    private int relationshipCount = 0;
+
+    /**
+     * The active relationships from each fragment, in order, are those from
+     * fromOffsets[id] up to, but excluding, fromOffsets[id+1] in the
+     * fromRelationships array.
+     */
+    private int[] fromOffsets = new int[1];
+    private int[] fromRelationships = new int[0];
+
+    /**
+     * The active relationships to each fragment, in order.
+     */
+    private int[] toOffsets = new int[1];
+    private int[] toRelationships = new int[0];
+
+    /**
+     * The fragments that have been retrieved from the data store.
+     */
+    transient private Map<String,Fragment> fragmentCache = null;
+
+    /**
+     * The relationships that have been rebuilt, by relationship ID.
+     */
+    transient private Map<Integer,Relationship> relationshipCache = null;
+
+    /**
+     * @param store The data store.
+     * @param linkRole The link role defining the network.
+     * @param arcrole The arc role defining the network.
+     * @throws XBRLException if any of the parameters are null.
+     */
+    public CompactNetworkImpl(Store store, URI linkRole, URI arcrole) throws XBRLException {
+        super();
+        if (store == null) throw new XBRLException("The store must not be null.");
+        setLinkRole(linkRole);
+        setArcrole(arcrole);
+        this.store = store;
+    }
+
+    /**
+     * @param store The data store.
+     * @param linkRole The link role defining the network.
+     * @param arcrole The arc role defining the network.
+     * @param cacheSize The maximum number of fragments and of relationships
+     * to retain once they have been retrieved.
+     * @throws XBRLException if any of the parameters are null or the cache
+     * size is not positive.
+     */
+    public CompactNetworkImpl(Store store, URI linkRole, URI arcrole, int cacheSize) throws XBRLException {
+        this(store, linkRole, arcrole);
+        if (cacheSize < 1) throw new XBRLException("The cache size must be positive.");
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * @see Network#getStore()
+     */
+    public Store getStore() {
+        return store;
+    }
+
+    /**
+     * @see Network#getArcrole()
+     */
+    public URI getArcrole() {
+        return arcRole;
+    }
+
+    /**
+     * @see Network#setArcrole(URI)
+     */
+    public void setArcrole(URI arcrole) throws XBRLException {
+        if (arcrole == null) throw new XBRLException("The network arcrole must not be set to null");
+        this.arcRole = arcrole;
+    }
+
+    /**
+     * @see Network#getLinkRole()
+     */
+    public URI getLinkRole() {
+        return linkRole;
+    }
+
+    /**
+     * @see Network#setLinkRole(URI)
+     */
+    public void setLinkRole(URI linkRole) throws XBRLException {
+        if (linkRole == null) throw new XBRLException("The network link role must not be set to null");
+        this.linkRole = linkRole;
+    }
+
+    /**
+     * @see Network#hasFragment(String)
+     */
+    public boolean hasFragment(String index) throws XBRLException {
+        return ids.containsKey(index);
+    }
+
+    /**
+     * @see Network#contains(String)
+     */
+    public boolean contains(String index) {
+        return ids.containsKey(index);
+    }
+
+    /**
+     * @see Network#get(String)
+     */
+    public Fragment get(String index) throws XBRLException {
+        Map<String,Fragment> cache = getFragmentCache();
+        Fragment fragment = cache.get(index);
+        if (fragment == null) {
+            fragment = getStore().<Fragment>getXMLResource(index);
+            cache.put(index,fragment);
+        }
+        return fragment;
+    }
+
+    /**
+     * @see Network#getRootFragments()
+     */
+    @SuppressWarnings("unchecked")
+    public <F extends Fragment> List<F> getRootFragments() {
+        List<F> result = new Vector<F>();
+        try {
+            Map<String,Fragment> fragments = getFragments(getRootFragmentIndexes());
+            for (Fragment fragment: fragments.values()) {
+                result.add((F) fragment);
+            }
+        } catch (XBRLException e) {
+            logger.error("The root fragments could not be retrieved: " + e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * @see Network#getRootFragmentIndexes()
+     */
+    public Set<String> getRootFragmentIndexes() {
+        compile();
+        Set<String> roots = new HashSet<String>();
+        for (int id=0; id<fromOffsets.length-1; id++) {
+            if (fromOffsets[id+1] > fromOffsets[id] && toOffsets[id+1] == toOffsets[id]) {
+                roots.add(indices[id]);
+            }
+        }
+        return roots;
+    }
+
+    /**
+     * @see Network#addRelationship(Relationship)
+     */
+    public void addRelationship(Relationship relationship) throws XBRLException {
+
+        if (! getLinkRole().equals(relationship.getLinkRole())) throw new XBRLException("The network link role does not match that of the relationship.");
+        if (! getArcrole().equals(relationship.getArcrole())) throw new XBRLException("The network arc role does not match that of the relationship.");
+
+        if (size == sources.length) grow(size * 2);
+        sources[size] = getId(relationship.getSourceIndex());
+        targets[size] = getId(relationship.getTargetIndex());
+        arcs[size] = getId(relationship.getArcIndex());
+        links[size] = getId(relationship.getLinkIndex());
+        relationshipSignatures[size] = getSignatureId(relationship.getSignature());
+        priorities[size] = relationship.getArcPriority().intValue();
+        orders[size] = relationship.getArcOrder().doubleValue();
+        size++;
+        compiled = false;
+    }
+
+    /**
+     * @see Network#addRelationships(Collection)
+     */
+    public void addRelationships(Collection<Relationship> relationships) throws XBRLException {
+        for (Relationship relationship: relationships) {
+            this.addRelationship(relationship);
+        }
+    }
+
+    /**
+     * @see Network#getActiveRelationshipsFrom(String)
+     */
+    public SortedSet<Relationship> getActiveRelationshipsFrom(String index) throws XBRLException {
+        compile();
+        SortedSet<Relationship> result = new TreeSet<Relationship>(new RelationshipOrderComparator());
+        Integer id = ids.get(index);
+        if (id == null) return result;
+        result.addAll(getRelationships(fromRelationships, fromOffsets[id], fromOffsets[id+1]));
+        return result;
+    }
+
+    /**
+     * @see Network#getActiveRelationshipsTo(String)
+     */
+    public SortedSet<Relationship> getActiveRelationshipsTo(String index) throws XBRLException {
+        compile();
+        SortedSet<Relationship> result = new TreeSet<Relationship>(new RelationshipOrderComparator());
+        Integer id = ids.get(index);
+        if (id == null) return result;
+        result.addAll(getRelationships(toRelationships, toOffsets[id], toOffsets[id+1]));
+        return result;
+    }
+
+    /**
+     * @see Network#hasActiveRelationshipsFrom(String)
+     */
+    public boolean hasActiveRelationshipsFrom(String index) {
+        return getActiveRelationshipFromCount(index) > 0;
+    }
+
+    /**
+     * @see Network#hasActiveRelationshipsTo(String)
+     */
+    public boolean hasActiveRelationshipsTo(String index) {
+        return getActiveRelationshipToCount(index) > 0;
+    }
+
+    /**
+     * @see Network#hasSingleParent(String)
+     */
+    public boolean hasSingleParent(String index) throws XBRLException {
+        return getActiveRelationshipToCount(index) == 1;
+    }
+
+    /**
+     * @see Network#isRoot(String)
+     */
+    public boolean isRoot(String index) throws XBRLException {
+        return getActiveRelationshipToCount(index) == 0;
+    }
+
+    /**
+     * @see Network#isLeaf(String)
+     */
+    public boolean isLeaf(String index) throws XBRLException {
+        return getActiveRelationshipFromCount(index) == 0;
+    }
+
+    /**
+     * @param index The index of the fragment.
+     * @return the number of active relationships from the fragment.
+     */
+    private int getActiveRelationshipFromCount(String index) {
+        compile();
+        Integer id = ids.get(index);
+        if (id == null) return 0;
+        return fromOffsets[id+1] - fromOffsets[id];
+    }
+
+    /**
+     * @param index The index of the fragment.
+     * @return the number of active relationships to the fragment.
+     */
+    private int getActiveRelationshipToCount(String index) {
+        compile();
+        Integer id = ids.get(index);
+        if (id == null) return 0;
+        return toOffsets[id+1] - toOffsets[id];
+    }
+
+    /**
+     * @see Network#getChildren(String)
+     */
+    @SuppressWarnings("unchecked")
+    public <F extends Fragment> List<F> getChildren(String index) throws XBRLException {
+        compile();
+        List<F> children = new Vector<F>();
+        Integer id = ids.get(index);
+        if (id == null) return children;
+        List<String> childIndices = new Vector<String>();
+        for (int i=fromOffsets[id]; i<fromOffsets[id+1]; i++) {
+            childIndices.add(indices[targets[fromRelationships[i]]]);
+        }
+        Map<String,Fragment> fragments = getFragments(childIndices);
+        for (String childIndex: childIndices) {
+            children.add((F) fragments.get(childIndex));
+        }
+        return children;
+    }
+
+    /**
+     * @see Network#getParents(String)
+     */
+    @SuppressWarnings("unchecked")
+    public <F extends Fragment> List<F> getParents(String index) throws XBRLException {
+        compile();
+        List<F> parents = new Vector<F>();
+        Integer id = ids.get(index);
+        if (id == null) return parents;
+        List<String> parentIndices = new Vector<String>();
+        for (int i=toOffsets[id]; i<toOffsets[id+1]; i++) {
+            parentIndices.add(indices[sources[toRelationships[i]]]);
+        }
+        Map<String,Fragment> fragments = getFragments(parentIndices);
+        for (String parentIndex: parentIndices) {
+            parents.add((F) fragments.get(parentIndex));
+        }
+        return parents;
+    }
+
+    /**
+     * @see Network#getAllRelationships()
+     */
+    public List<Relationship> getAllRelationships() throws XBRLException {
+        compile();
+        int[] all = new int[size];
+        for (int r=0; r<size; r++) all[r] = r;
+        return getRelationships(all, 0, size);
+    }
+
+    /**
+     * @see Network#getAllActiveRelationships()
+     */
+    public List<Relationship> getAllActiveRelationships() throws XBRLException {
+        compile();
+        return getRelationships(fromRelationships, 0, fromRelationships.length);
+    }
+
+    /**
+     * @see Network#getNumberOfRelationships()
+     */
+    public int getNumberOfRelationships() {
+        compile();
+        return relationshipCount;
+    }
+
+    /**
+     * @see Network#getNumberOfActiveRelationships()
+     */
+    public int getNumberOfActiveRelationships() {
+        compile();
+        return fromRelationships.length;
+    }
+
+    /**
+     * @see Network#complete()
+     */
+    public void complete() throws XBRLException {
+
+        logger.debug("Completing network with arcrole " + this.getArcrole() + " and link role " + getLinkRole());
+
+        if (this.getStore().isPersistingRelationships()) {
+            Analyser analyser = new AnalyserImpl(getStore());
+            this.addRelationships(analyser.getRelationships(this.getLinkRole(), this.getArcrole()));
+            return;
+        }
+
+        List<ExtendedLink> extendedLinks = getStore().getExtendedLinks(this.getLinkRole());
+        for (ExtendedLink link: extendedLinks) {
+            List<Arc> linkArcs = link.getArcsWithArcrole(this.getArcrole());
+            for (Arc arc: linkArcs) {
+                List<ArcEnd> arcSources = arc.getSourceFragments();
+                List<ArcEnd> arcTargets = arc.getTargetFragments();
+                for (Fragment source: arcSources) {
+                    Fragment s = source;
+                    if (source.isa(LocatorImpl.class)) s = ((Locator) source).getTarget();
+                    for (Fragment target: arcTargets) {
+                        Fragment t = target;
+                        if (target.isa(LocatorImpl.class)) t = ((Locator) target).getTarget();
+                        this.addRelationship(new RelationshipImpl(arc,link,s,t));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @see Network#add(Network)
+     */
+    public void add(Network network) throws XBRLException {
+        if (this == network) return;
+        for (Relationship relationship: network.getAllRelationships()) {
+            if (! this.contains(relationship.getArcIndex())) {
+                this.addRelationship(relationship);
+            }
+        }
+    }
+
+    /**
+     * @param index The fragment index.
+     * @return the ID for the fragment index, assigning a new ID if necessary.
+     */
+    private int getId(String index) {
+        Integer id = ids.get(index);
+        if (id != null) return id;
+        int newId = ids.size();
+        if (newId == indices.length) {
+            String[] larger = new String[newId * 2];
+            System.arraycopy(indices, 0, larger, 0, newId);
+            indices = larger;
+        }
+        indices[newId] = index;
+        ids.put(index, newId);
+        return newId;
+    }
+
+    /**
+     * @param signature The relationship signature.
+     * @return the ID for the signature, assigning a new ID if necessary.
+     */
+    private int getSignatureId(String signature) {
+        Integer id = signatureIds.get(signature);
+        if (id != null) return id;
+        int newId = signatureIds.size();
+        if (newId == signatures.length) {
+            String[] larger = new String[newId * 2];
+            System.arraycopy(signatures, 0, larger, 0, newId);
+            signatures = larger;
+        }
+        signatures[newId] = signature;
+        signatureIds.put(signature, newId);
+        return newId;
+    }
+
+    /**
+     * @param capacity The number of relationships that the arrays must hold.
+     */
+    private void grow(int capacity) {
+        sources = copy(sources, capacity);
+        targets = copy(targets, capacity);
+        arcs = copy(arcs, capacity);
+        links = copy(links, capacity);
+        relationshipSignatures = copy(relationshipSignatures, capacity);
+        priorities = copy(priorities, capacity);
+        double[] larger = new double[capacity];
+        System.arraycopy(orders, 0, larger, 0, Math.min(size, capacity));
+        orders = larger;
+    }
+
+    private int[] copy(int[] array, int capacity) {
+        int[] larger = new int[capacity];
+        System.arraycopy(array, 0, larger, 0, Math.min(size, capacity));
+        return larger;
+    }
+
+    /**
+     * Removes relationships that have been added more than once and then
+     * rebuilds the active relationships from and to each fragment if
+     * relationships have been added since they were last built.
+     */
+    private void compile() {
+
+        if (compiled) return;
+
+        // Drop repeated additions of the same relationship, keeping the first.
+        Integer[] order = sequence(size);
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int result = compareEndsAndSignatures(a, b);
+                if (result != 0) return result;
+                if (arcs[a] != arcs[b]) return (arcs[a] < arcs[b]) ? -1 : 1;
+                return a.compareTo(b);
+            }
+        });
+        boolean[] repeated = new boolean[size];
+        int repeats = 0;
+        for (int i=1; i<size; i++) {
+            if (compareEndsAndSignatures(order[i-1], order[i]) == 0 && arcs[order[i-1]] == arcs[order[i]]) {
+                repeated[order[i]] = true;
+                repeats++;
+            }
+        }
+        if (repeats > 0) {
+            int n = 0;
+            for (int r=0; r<size; r++) {
+                if (repeated[r]) continue;
+                sources[n] = sources[r];
+                targets[n] = targets[r];
+                arcs[n] = arcs[r];
+                links[n] = links[r];
+                relationshipSignatures[n] = relationshipSignatures[r];
+                priorities[n] = priorities[r];
+                orders[n] = orders[r];
+                n++;
+            }
+            size = n;
+            getRelationshipCache().clear();
+        }
+
+        // Find the active relationship among each set of equivalent relationships.
+        order = sequence(size);
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int result = compareEndsAndSignatures(a, b);
+                if (result != 0) return result;
+                if (priorities[a] != priorities[b]) return (priorities[a] < priorities[b]) ? -1 : 1;
+                return a.compareTo(b);
+            }
+        });
+        relationshipCount = 0;
+        List<Integer> active = new Vector<Integer>();
+        for (int i=0; i<size; i++) {
+            boolean lastOfSet = (i == size - 1) || compareEndsAndSignatures(order[i], order[i+1]) != 0;
+            boolean lastOfPriority = lastOfSet || priorities[order[i]] != priorities[order[i+1]];
+            if (lastOfPriority) relationshipCount++;
+            if (lastOfSet) active.add(order[i]);
+        }
+
+        Integer[] activeFrom = active.toArray(new Integer[active.size()]);
+        Arrays.sort(activeFrom, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                if (sources[a] != sources[b]) return (sources[a] < sources[b]) ? -1 : 1;
+                return compareOrder(a, b);
+            }
+        });
+        Integer[] activeTo = active.toArray(new Integer[active.size()]);
+        Arrays.sort(activeTo, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                if (targets[a] != targets[b]) return (targets[a] < targets[b]) ? -1 : 1;
+                return compareOrder(a, b);
+            }
+        });
+
+        fromOffsets = new int[ids.size() + 1];
+        fromRelationships = new int[activeFrom.length];
+        toOffsets = new int[ids.size() + 1];
+        toRelationships = new int[activeTo.length];
+        for (int i=0; i<activeFrom.length; i++) {
+            fromRelationships[i] = activeFrom[i];
+            fromOffsets[sources[activeFrom[i]] + 1]++;
+            toRelationships[i] = activeTo[i];
+            toOffsets[targets[activeTo[i]] + 1]++;
+        }
+        for (int id=0; id<ids.size(); id++) {
+            fromOffsets[id+1] += fromOffsets[id];
+            toOffsets[id+1] += toOffsets[id];
+        }
+
+        compiled = true;
+        logger.debug("Compiled a network of " + size + " relationships between " + ids.size() + " fragments.");
+    }
+
+    /**
+     * @param n The length of the sequence.
+     * @return the integers from 0 to n less one.
+     */
+    private static Integer[] sequence(int n) {
+        Integer[] result = new Integer[n];
+        for (int i=0; i<n; i++) result[i] = i;
+        return result;
+    }
+
+    /**
+     * @param a The ID of the first relationship.
+     * @param b The ID of the second relationship.
+     * @return zero if the relationships are equivalent, having the same
+     * source, target and signature, and otherwise a consistent ordering.
+     */
+    private int compareEndsAndSignatures(int a, int b) {
+        if (sources[a] != sources[b]) return (sources[a] < sources[b]) ? -1 : 1;
+        if (targets[a] != targets[b]) return (targets[a] < targets[b]) ? -1 : 1;
+        if (relationshipSignatures[a] != relationshipSignatures[b]) return (relationshipSignatures[a] < relationshipSignatures[b]) ? -1 : 1;
+        return 0;
+    }
+
+    /**
+     * @param a The ID of the first relationship.
+     * @param b The ID of the second relationship.
+     * @return the ordering of the relationships used by the
+     * {@link RelationshipOrderComparator}.
+     */
+    private int compareOrder(int a, int b) {
+        if (orders[a] != orders[b]) return Double.compare(orders[a], orders[b]);
+        if (relationshipSignatures[a] != relationshipSignatures[b])
+            return signatures[relationshipSignatures[a]].compareTo(signatures[relationshipSignatures[b]]);
+        if (sources[a] != sources[b]) return indices[sources[a]].compareTo(indices[sources[b]]);
+        if (targets[a] != targets[b]) return indices[targets[a]].compareTo(indices[targets[b]]);
+        return 0;
+    }
+
+    /**
+     * @param relationshipIds The array of relationship IDs.
+     * @param start The position of the first relationship ID to use.
+     * @param end The position after the last relationship ID to use.
+     * @return the list of relationships, rebuilding those that are not
+     * retained from fragments retrieved from the data store in a few queries.
+     * @throws XBRLException
+     */
+    private List<Relationship> getRelationships(int[] relationshipIds, int start, int end) throws XBRLException {
+        Map<Integer,Relationship> cache = getRelationshipCache();
+        Relationship[] relationships = new Relationship[end - start];
+        Set<String> needed = new HashSet<String>();
+        for (int i=start; i<end; i++) {
+            int r = relationshipIds[i];
+            relationships[i - start] = cache.get(r);
+            if (relationships[i - start] != null) continue;
+            needed.add(indices[arcs[r]]);
+            needed.add(indices[links[r]]);
+            needed.add(indices[sources[r]]);
+            needed.add(indices[targets[r]]);
+        }
+        Map<String,Fragment> fragments = getFragments(needed);
+
+        List<Relationship> result = new Vector<Relationship>();
+        for (int i=start; i<end; i++) {
+            int r = relationshipIds[i];
+            Relationship relationship = relationships[i - start];
+            if (relationship == null) {
+                relationship = new RelationshipImpl(
+                        (Arc) fragments.get(indices[arcs[r]]),
+                        (ExtendedLink) fragments.get(indices[links[r]]),
+                        fragments.get(indices[sources[r]]),
+                        fragments.get(indices[targets[r]]));
+                cache.put(r, relationship);
+            }
+            result.add(relationship);
+        }
+        return result;
+    }
+
+    /**
+     * @param fragmentIndices The indices of the fragments to get.
+     * @return a map from index to fragment for the fragments, retrieving
+     * those that are not retained from the data store using queries that
+     * each match a bounded number of indices.
+     * @throws XBRLException if a fragment is not in the data store.
+     */
+    private Map<String,Fragment> getFragments(Collection<String> fragmentIndices) throws XBRLException {
+        Map<String,Fragment> cache = getFragmentCache();
+        Map<String,Fragment> fragments = new HashMap<String,Fragment>();
+        StringBuilder predicate = new StringBuilder();
+        int count = 0;
+        for (String index: fragmentIndices) {
+            if (fragments.containsKey(index)) continue;
+            Fragment fragment = cache.get(index);
+            if (fragment != null) {
+                fragments.put(index, fragment);
+                continue;
+            }
+            if (count > 0) predicate.append(" or ");
+            predicate.append("@index='").append(index).append("'");
+            count++;
+            if (count == QUERY_SIZE) {
+                getFragments(predicate.toString(), fragments);
+                predicate = new StringBuilder();
+                count = 0;
+            }
+        }
+        if (count > 0) getFragments(predicate.toString(), fragments);
+
+        for (String index: fragmentIndices) {
+            if (! fragments.containsKey(index)) throw new XBRLException("Fragment " + index + " is not in the data store.");
+        }
+        return fragments;
+    }
+
+    private void getFragments(String predicate, Map<String,Fragment> fragments) throws XBRLException {
+        Map<String,Fragment> cache = getFragmentCache();
+        for (Fragment fragment: getStore().<Fragment>queryForXMLResources("#roots#[" + predicate + "]")) {
+            fragments.put(fragment.getIndex(), fragment);
+            cache.put(fragment.getIndex(), fragment);
+        }
+    }
+
+    /**
+     * @return the cache of retrieved fragments, creating it if necessary.
+     */
+    private Map<String,Fragment> getFragmentCache() {
+        if (fragmentCache == null) {
+            fragmentCache = new LinkedHashMap<String,Fragment>(16,0.75f,true) {
+                private static final long serialVersionUID = 1L;
+                protected boolean removeEldestEntry(Map.Entry<String,Fragment> eldest) {
+                    return size() > cacheSize;
+                }
+            };
+        }
+        return fragmentCache;
+    }
+
+    /**
+     * @return the cache of rebuilt relationships, creating it if necessary.
+     */
+    private Map<Integer,Relationship> getRelationshipCache() {
+        if (relationshipCache == null) {
+            relationshipCache = new LinkedHashMap<Integer,Relationship>(16,0.75f,true) {
+                private static final long serialVersionUID = 1L;
+                protected boolean removeEldestEntry(Map.Entry<Integer,Relationship> eldest) {
+                    return size() > cacheSize;
+                }
+            };
+        }
+        return relationshipCache;
+    }
+
+}
@@ -1,15 +1,20 @@
 package org.xbrlapi.networks;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.net.URI;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 import org.xbrlapi.Arc;
@@ -22,6 +27,7 @@ import org.xbrlapi.data.Store;
 import org.xbrlapi.impl.LocatorImpl;
 import org.xbrlapi.impl.RelationshipImpl;
 import org.xbrlapi.impl.RelationshipOrderComparator;
+import org.xbrlapi.impl.RelationshipResolver;
 import org.xbrlapi.utilities.XBRLException;
 
 /**
@@ -71,6 +77,19 @@ public class NetworkImpl implements Network, Serializable {
 	 * for the relationship.
 	 */
 	private HashMap<String,HashMap<String,EquivalentRelationships>> targetRelationships = new HashMap<String,HashMap<String,EquivalentRelationships>>();
+
+	/**
+	 * The active relationships from each fragment, sorted by arc order.
+	 * These are determined when first needed and dropped when a relationship
+	 * from the fragment is added to the network.  Concurrent maps are used
+	 * because they are filled by the methods that read the network.
+	 */
+	transient private Map<String,SortedSet<Relationship>> activeRelationshipsFrom = new ConcurrentHashMap<String,SortedSet<Relationship>>();
+
+	/**
+	 * The active relationships to each fragment, sorted by arc order.
+	 */
+	transient private Map<String,SortedSet<Relationship>> activeRelationshipsTo = new ConcurrentHashMap<String,SortedSet<Relationship>>();
 	
 	/**
 	 * @param store The data store.
@@ -261,12 +280,16 @@ public class NetworkImpl implements Network, Serializable {
 		}
 		er.addRelationship(relationship);
 
+		getActiveRelationshipsFromCache().remove(sourceIndex);
+		getActiveRelationshipsToCache().remove(targetIndex);
+
 	}
 	
 	/**
 	 * @see Network#addRelationships(Collection)
 	 */
 	public void addRelationships(Collection<Relationship> relationships) throws XBRLException {
+    if (getStore() != null) RelationshipResolver.resolve(getStore(), relationships);
     for (Relationship relationship: relationships) {
         this.addRelationship(relationship);
     }
@@ -285,43 +308,77 @@ public class NetworkImpl implements Network, Serializable {
 	 * @see org.xbrlapi.networks.Network#getActiveRelationshipsFrom(String)
 	 */
 	public SortedSet<Relationship> getActiveRelationshipsFrom(String index) throws XBRLException {
-
 	    logger.debug("Getting active relationships from " + index + " for " + this);
-	    
-		SortedSet<Relationship> activeRelationships = new TreeSet<Relationship>(new RelationshipOrderComparator());
+		return new TreeSet<Relationship>(getActiveRelationships(index, sourceRelationships, getActiveRelationshipsFromCache()));
+	}
 
-		if (! sourceRelationships.containsKey(index)) return activeRelationships;
-		
-		// Sort the relationships based on their order attribute.
-		HashMap<String,EquivalentRelationships> sr = sourceRelationships.get(index);
-		logger.debug("There are " + sr.size() + " source relationships.");
-		for (EquivalentRelationships er: sr.values()) {
-            activeRelationships.add(er.getActiveRelationship());
-		}
-		logger.debug("Returning " + activeRelationships.size() + " active relationships.");
-		
-		return activeRelationships;
+	/**
+	 * @param index The index of the fragment.
+	 * @param fragmentRelationships The map from fragment indices to the relationships from
+	 * or to the fragment.
+	 * @param cache The cache of active relationships from or to each fragment.
+	 * @return the unmodifiable set of active relationships from or to the fragment, 
+	 * sorted by arc order, working them out if they are not already cached.
+	 * @throws XBRLException
+	 */
+	private SortedSet<Relationship> getActiveRelationships(String index, HashMap<String,HashMap<String,EquivalentRelationships>> fragmentRelationships, Map<String,SortedSet<Relationship>> cache) throws XBRLException {
+	    SortedSet<Relationship> activeRelationships = cache.get(index);
+	    if (activeRelationships != null) return activeRelationships;
+	    activeRelationships = new TreeSet<Relationship>(new RelationshipOrderComparator());
+	    if (! fragmentRelationships.containsKey(index)) return activeRelationships;
+	    for (EquivalentRelationships er: fragmentRelationships.get(index).values()) {
+	        activeRelationships.add(er.getActiveRelationship());
+	    }
+	    activeRelationships = Collections.unmodifiableSortedSet(activeRelationships);
+	    cache.put(index, activeRelationships);
+	    return activeRelationships;
+	}
+
+	/**
+	 * @return the cache of active relationships from each fragment.
+	 */
+	private Map<String,SortedSet<Relationship>> getActiveRelationshipsFromCache() {
+	    return activeRelationshipsFrom;
+	}
+
+	/**
+	 * @return the cache of active relationships to each fragment.
+	 */
+	private Map<String,SortedSet<Relationship>> getActiveRelationshipsToCache() {
+	    return activeRelationshipsTo;
+	}
+
+	/**
+	 * Handles object inflation, creating the empty caches of active relationships.
+	 * @param in The input object stream used to access the object's serialization.
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+	    in.defaultReadObject();
+	    activeRelationshipsFrom = new ConcurrentHashMap<String,SortedSet<Relationship>>();
+	    activeRelationshipsTo = new ConcurrentHashMap<String,SortedSet<Relationship>>();
 	}
 	
 	/**
 	 * @see Network#hasSingleParent(String)
 	 */
     public boolean hasSingleParent(String index) throws XBRLException {
-        return (this.getActiveRelationshipsTo(index).size() == 1);
+        return (getActiveRelationships(index, targetRelationships, getActiveRelationshipsToCache()).size() == 1);
     }
     
     /**
      * @see Network#isRoot(String)
      */
     public boolean isRoot(String index) throws XBRLException {
-        return (this.getActiveRelationshipsTo(index).size() == 0);
+        return (! targetRelationships.containsKey(index));
     }
     
     /**
      * @see Network#isLeaf(String)
      */
     public boolean isLeaf(String index) throws XBRLException {
-        return (this.getActiveRelationshipsFrom(index).size() == 0);
+        return (! sourceRelationships.containsKey(index));
     }	
 	
     /**
@@ -343,22 +400,8 @@ public class NetworkImpl implements Network, Serializable {
 	 * @see org.xbrlapi.networks.Network#getActiveRelationshipsTo(String)
 	 */
 	public SortedSet<Relationship> getActiveRelationshipsTo(String index) throws XBRLException {
-
         logger.debug("Getting active relationships to " + index + " for " + this);
-        
-        SortedSet<Relationship> activeRelationships = new TreeSet<Relationship>(new RelationshipOrderComparator());
-
-        if (! targetRelationships.containsKey(index)) return activeRelationships;
-        
-        // Sort the relationships based on their order attribute.
-        HashMap<String,EquivalentRelationships> tr = targetRelationships.get(index);
-        logger.debug("There are " + tr.size() + " target relationships.");
-        for (EquivalentRelationships equivalentRelationships: tr.values()) {
-            activeRelationships.add(equivalentRelationships.getActiveRelationship());
-        }
-        
-        return activeRelationships;	    
-	    
+        return new TreeSet<Relationship>(getActiveRelationships(index, targetRelationships, getActiveRelationshipsToCache()));
 	}
 
     /**
@@ -367,7 +410,7 @@ public class NetworkImpl implements Network, Serializable {
     @SuppressWarnings("unchecked")
     public <F extends Fragment> List<F> getChildren(String index) throws XBRLException {
         List<F> children = new Vector<F>();
-        for (Relationship relationship: this.getActiveRelationshipsFrom(index)) {
+        for (Relationship relationship: getActiveRelationships(index, sourceRelationships, getActiveRelationshipsFromCache())) {
             children.add((F) relationship.getTarget());
         }
         return children;
@@ -380,7 +423,7 @@ public class NetworkImpl implements Network, Serializable {
     @SuppressWarnings("unchecked")
     public <F extends Fragment> List<F> getParents(String index) throws XBRLException {
         List<F> parents = new Vector<F>();
-        for (Relationship relationship: this.getActiveRelationshipsTo(index)) {
+        for (Relationship relationship: getActiveRelationships(index, targetRelationships, getActiveRelationshipsToCache())) {
             parents.add((F) relationship.getSource());
         }
         return parents;
@@ -474,7 +517,7 @@ public class NetworkImpl implements Network, Serializable {
     public List<Relationship> getAllActiveRelationships() throws XBRLException {
         List<Relationship> relationships = new Vector<Relationship>();
         for (String sourceIndex: this.sourceRelationships.keySet()) {
-            relationships.addAll(this.getActiveRelationshipsFrom(sourceIndex));
+            relationships.addAll(getActiveRelationships(sourceIndex, sourceRelationships, getActiveRelationshipsFromCache()));
         }
         return relationships;
     }    
@@ -25,6 +25,7 @@ import org.xbrlapi.impl.ArcImpl;
 import org.xbrlapi.impl.LocatorImpl;
 import org.xbrlapi.impl.RelationshipImpl;
 import org.xbrlapi.impl.RelationshipOrderComparator;
+import org.xbrlapi.impl.RelationshipResolver;
 import org.xbrlapi.utilities.XBRLException;
 
 /**
@@ -371,6 +372,7 @@ public class NetworksImpl implements Networks, Serializable {
      * @see Networks#addRelationships(Collection)
      */
     public void addRelationships(Collection<Relationship> relationships) throws XBRLException {
+        RelationshipResolver.resolve(getStore(), relationships);
         for (Relationship relationship: relationships) 
             this.addRelationship(relationship);
     }
@@ -2,6 +2,8 @@ package org.xbrlapi.networks;
 
 import java.net.URI;
 import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
 
 import org.xbrlapi.Arc;
 import org.xbrlapi.Fragment;
@@ -30,8 +32,11 @@ public interface Storer {
      * @param documents The collection of URIs of the documents to store the relationships for.
      * Relationships are sought among the XLink arcs in the documents.
      * This is used by the discover to updated persisted relationships
-     * in the data store.
+     * in the data store.  Only relationships that are not already persisted
+     * are stored and the active status is only reassessed for relationships
+     * that are equivalent to the newly stored relationships.
      * @throws XBRLException
+     * @see #markActiveRelationships(URI, URI)
      */
     public void storeRelationships(Collection<URI> documents) throws XBRLException;
     
@@ -39,8 +44,11 @@ public interface Storer {
      * @param document The URI of the document to store the relationships for.
      * Relationships are sought among the XLink arcs in the documents.
      * This is used by the discover to updated persisted relationships
-     * in the data store.
+     * in the data store.  Only relationships that are not already persisted
+     * are stored and the active status is only reassessed for relationships
+     * that are equivalent to the newly stored relationships.
      * @throws XBRLException
+     * @see #markActiveRelationships(URI, URI)
      */
     public void storeRelationships(URI document) throws XBRLException;    
     
@@ -93,7 +101,8 @@ public interface Storer {
      * Deletes the persisted relationships that are related to arcs 
      * in the specified document.
      * @param document The URI of the document to delete the persisted
-     * relationships for.
+     * relationships for.  The active status is reassessed for the remaining
+     * relationships that were equivalent to the deleted relationships.
      * @throws XBRLException
      */
     public void deleteRelationships(URI document) throws XBRLException;    
@@ -118,4 +127,27 @@ public interface Storer {
      */
     public void deleteInactiveRelationships() throws XBRLException;
 
+    /**
+     * Marks the active persisted relationships in a network with an 
+     * <code>active</code> metadata attribute, and removes that attribute
+     * from persisted relationships that are overridden or prohibited.
+     * Persisted relationships whose active status has not changed are 
+     * not updated.  Storing the relationships for documents maintains
+     * these attributes for the relationships that the documents affect
+     * so this is only needed after relationships have been stored in 
+     * other ways.
+     * @param linkRole The linkRole of the network.
+     * @param arcrole The arcrole of the network.
+     * @throws XBRLException
+     */
+    public void markActiveRelationships(URI linkRole, URI arcrole) throws XBRLException;
+
+    /**
+     * @param document The URI of the document.
+     * @return a map from arcroles to the link roles of the networks that
+     * contain persisted relationships defined by arcs in the document.
+     * @throws XBRLException
+     */
+    public Map<URI,Set<URI>> getNetworks(URI document) throws XBRLException;
+
 }
@@ -1,23 +1,33 @@
 package org.xbrlapi.networks;
 
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
+import org.w3c.dom.Element;
 import org.xbrlapi.Arc;
 import org.xbrlapi.ArcEnd;
+import org.xbrlapi.ExtendedLink;
 import org.xbrlapi.Fragment;
 import org.xbrlapi.Locator;
 import org.xbrlapi.Relationship;
 import org.xbrlapi.data.Store;
 import org.xbrlapi.impl.ErrorImpl;
+import org.xbrlapi.impl.ExtendedLinkImpl;
 import org.xbrlapi.impl.RelationshipImpl;
 import org.xbrlapi.impl.RelationshipPriorityComparator;
 import org.xbrlapi.utilities.Constants;
@@ -31,12 +41,49 @@ public class StorerImpl implements Storer {
     protected static Logger logger = Logger.getLogger(StorerImpl.class);   
     
     private Store store;
-    
+
+    /**
+     * The number of threads to use when storing the relationships
+     * for a collection of documents.
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The maximum number of relationships to persist in one batch.
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * The maximum number of fragment indices to match in one query.
+     */
+    private static final int QUERY_SIZE = 200;
+
+    /**
+     * Held while the active status of a batch of relationships is worked
+     * out and the batch is persisted, so that batches stored by different
+     * threads see each other's relationships.
+     */
+    private final Object batchLock = new Object();
+
     public StorerImpl(Store store) throws XBRLException {
         super();
         setStore(store);
     }
 
+    /**
+     * @param store The data store in which the relationships are
+     * to be persisted.
+     * @param threads The number of threads to use when storing 
+     * the relationships for a collection of documents.
+     * @throws XBRLException if the data store is null or the 
+     * number of threads is less than one.
+     */
+    public StorerImpl(Store store, int threads) throws XBRLException {
+        this(store);
+        if (threads < 1) throw new XBRLException("At least one thread is required.");
+        this.threads = threads;
+    }
+
     /**
      * @return The data store in which the relationships are
      * to be persisted.
@@ -127,10 +174,15 @@ public class StorerImpl implements Storer {
      */
     public void deleteRelationships(URI document) throws XBRLException {
         Store store = getStore();
-        Set<String> indices = store.queryForIndices("#roots#[@type='org.xbrlapi.impl.RelationshipImpl' and @arcURI='"+document+"']");
-        for (String index: indices) {
-            store.remove(index);
+        Map<String,Set<String>> affected = new HashMap<String,Set<String>>();
+        List<Relationship> relationships = store.<Relationship>queryForXMLResources("#roots#[@type='org.xbrlapi.impl.RelationshipImpl' and @arcURI='"+document+"']");
+        for (Relationship relationship: relationships) {
+            addEquivalenceSet(affected, relationship);
+            store.remove(relationship.getIndex());
         }
+        Map<String,List<Relationship>> sets = new HashMap<String,List<Relationship>>();
+        getEquivalenceSets(affected, sets);
+        persistChanges(markActiveRelationships(sets.values()));
     }
 
     /**
@@ -145,17 +197,49 @@ public class StorerImpl implements Storer {
     }
 
     /**
+     * The relationships for the documents are stored in parallel, using
+     * up to the number of threads given when this storer was created.
      * @see org.xbrlapi.networks.Storer#storeRelationships(Collection)
      */
     public void storeRelationships(Collection<URI> documents) throws XBRLException {
-        for (URI document: documents) {
-            storeRelationships(document);
-            this.getStore().sync();
+
+        if (threads < 2 || documents.size() < 2) {
+            for (URI document: documents) {
+                storeRelationships(document);
+            }
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads,documents.size()));
+        try {
+            List<Future<Void>> futures = new Vector<Future<Void>>();
+            for (final URI document: documents) {
+                futures.add(pool.submit(new Callable<Void>() {
+                    public Void call() throws XBRLException {
+                        storeRelationships(document);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future: futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new XBRLException("Relationship persistence failed.",e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new XBRLException("Interrupted while persisting relationships.",e);
+        } finally {
+            pool.shutdownNow();
         }
     }
     
     /**
-     * This implementation uses just 3 database queries for the document.
+     * This implementation retrieves the arcs, arc ends, extended links and
+     * locator targets for the document using a handful of set-oriented queries
+     * and then persists the relationships in batches, with their active
+     * status already worked out.
      * @see org.xbrlapi.networks.Storer#storeRelationships(URI)
      */
     public void storeRelationships(URI document) throws XBRLException {
@@ -163,33 +247,32 @@ public class StorerImpl implements Storer {
         Store store = getStore();
 
         try {
-            // Get indices of all arcs in the document.
-            Set<String> arcIndices = store.getFragmentIndicesFromDocument(document,"Arc");
+            URI matchURI = store.getMatcher().getMatch(document);
+
+            // Get all arcs in the document.
+            List<Arc> arcs = store.<Arc>queryForXMLResources("#roots#[@uri='" + matchURI + "' and @type='org.xbrlapi.impl.ArcImpl']");
     
-            if (arcIndices.size() > 0) {
-                logger.info("Persisting relationships for " + arcIndices.size() + " arcs in " + document);
+            if (arcs.size() > 0) {
+                logger.info("Persisting relationships for " + arcs.size() + " arcs in " + document);
 
-                // Get indices of arc ends in the document.
-                Map<String,List<String>> endIndices = new HashMap<String,List<String>>();
-                String query = "for $fragment in #roots#[@uri='" + document + "' and */*[@xlink:type='resource' or @xlink:type='locator']] return concat($fragment/@index,' ',$fragment/@parentIndex,$fragment/*/*/@xlink:label)";
-                Set<String> pairs = getStore().queryForStrings(query);
-                for (String pair: pairs) {
-                    int split = pair.indexOf(" ");
-                    String index = pair.substring(0,split);
-                    String parentIndexPlusLabel = pair.substring(split+1);
-                    if (endIndices.containsKey(parentIndexPlusLabel)) {
-                        endIndices.get(parentIndexPlusLabel).add(index);
+                // Get arc ends in the document, keyed by their parent index and label.
+                Map<String,List<ArcEnd>> ends = new HashMap<String,List<ArcEnd>>();
+                String query = "#roots#[@uri='" + matchURI + "' and */*[@xlink:type='resource' or @xlink:type='locator']]";
+                for (ArcEnd end: store.<ArcEnd>queryForXMLResources(query)) {
+                    String key = end.getParentIndex() + end.getLabel();
+                    if (ends.containsKey(key)) {
+                        ends.get(key).add(end);
                     } else {
-                        List<String> list = new Vector<String>();
-                        list.add(index);
-                        endIndices.put(parentIndexPlusLabel,list);
+                        List<ArcEnd> list = new Vector<ArcEnd>();
+                        list.add(end);
+                        ends.put(key,list);
                     }
                 }
         
                 // Get indices of locator target fragments
                 Map<String,String> locatorTargets = new HashMap<String,String>();
-                query = "for $locator in #roots#[@uri='" + document + "' and */*/@xlink:type='locator'] return concat($locator/@index,' ',#roots#[@uri=$locator/@targetDocumentURI and $locator/@targetPointerValue=" + Constants.XBRLAPIPrefix + ":xptr/@value]/@index)";
-                pairs = getStore().queryForStrings(query);
+                query = "for $locator in #roots#[@uri='" + matchURI + "' and */*/@xlink:type='locator'] return concat($locator/@index,' ',#roots#[@uri=$locator/@targetDocumentURI and $locator/@targetPointerValue=" + Constants.XBRLAPIPrefix + ":xptr/@value]/@index)";
+                Set<String> pairs = store.queryForStrings(query);
                 for (String pair: pairs) {
                     int split = pair.indexOf(" ");
                     String locatorIndex = pair.substring(0,split);
@@ -197,29 +280,35 @@ public class StorerImpl implements Storer {
                     locatorTargets.put(locatorIndex,targetIndex);
                 }
                 
+                // Get the locator targets and the extended links containing the arcs.
+                Set<String> indices = new HashSet<String>(locatorTargets.values());
+                for (Arc arc: arcs) {
+                    indices.add(arc.getParentIndex());
+                }
+                Map<String,Fragment> fragments = getFragments(indices);
+
+                // Get indices of relationships already persisted for the document.
+                Set<String> existing = store.queryForIndices("#roots#[@type='org.xbrlapi.impl.RelationshipImpl' and @arcURI='" + matchURI + "']");
+
                 // Iterate arcs, storing relationships defined by each
-                for (String arcIndex: arcIndices) {
-                    Arc arc = getStore().<Arc>getXMLResource(arcIndex);
+                List<Relationship> batch = new Vector<Relationship>();
+                for (Arc arc: arcs) {
+                    String arcIndex = arc.getIndex();
                     String parentIndex = arc.getParentIndex();
                     String fromKey = parentIndex + arc.getFrom();
                     String toKey = parentIndex + arc.getTo();
-                    if (endIndices.containsKey(fromKey) && endIndices.containsKey(toKey)) {
-                        for (String sourceIndex: endIndices.get(fromKey)) {
-                            for (String targetIndex: endIndices.get(toKey)) {
+                    if (ends.containsKey(fromKey) && ends.containsKey(toKey)) {
+                        for (ArcEnd sourceEnd: ends.get(fromKey)) {
+                            for (ArcEnd targetEnd: ends.get(toKey)) {
                                 try {
-                                    Fragment source = null;
-                                    if (locatorTargets.containsKey(sourceIndex)) {
-                                        source = store.getXMLResource(locatorTargets.get(sourceIndex));
-                                    } else {
-                                        source = store.getXMLResource(sourceIndex);
-                                    }
-                                    Fragment target = null;
-                                    if (locatorTargets.containsKey(targetIndex)) {
-                                        target = store.getXMLResource(locatorTargets.get(targetIndex));
-                                    } else {
-                                        target = store.getXMLResource(targetIndex);
+                                    Fragment parent = fragments.get(parentIndex);
+                                    if (parent == null || ! parent.isa(ExtendedLinkImpl.class)) throw new XBRLException("The parent of arc " + arcIndex + " is not an extended link.");
+                                    Fragment source = getEndFragment(sourceEnd, locatorTargets, fragments);
+                                    Fragment target = getEndFragment(targetEnd, locatorTargets, fragments);
+                                    Relationship relationship = new RelationshipImpl(arc, (ExtendedLink) parent, source, target);
+                                    if (existing.add(relationship.getIndex())) {
+                                        batch.add(relationship);
                                     }
-                                    this.storeRelationship(arc,source,target);
                                 } catch (XBRLException e) {
                                     logger.error("Had problems persisting relationships for arc " + arcIndex);
                                     store.persist(new ErrorImpl(getStore().getId(document.toString() + arcIndex + "_error"), document,arcIndex,"Relationship persistence failed because of trouble finding sources/targets."));
@@ -227,7 +316,12 @@ public class StorerImpl implements Storer {
                             }
                         }
                     }
+                    if (batch.size() >= BATCH_SIZE) {
+                        storeRelationshipBatch(batch);
+                        batch = new Vector<Relationship>();
+                    }
                 }
+                storeRelationshipBatch(batch);
             }
         } catch (XBRLException e) {
             logger.error("Had problems persisting relationships for " + document);
@@ -237,6 +331,87 @@ public class StorerImpl implements Storer {
         getStore().sync();
 
     }    
+
+    /**
+     * @param end The arc end.
+     * @param locatorTargets The map from locator indices to the indices of their targets.
+     * @param fragments The map from indices to locator target fragments.
+     * @return the arc end itself if it is not a locator, or the target of the locator.
+     * @throws XBRLException if the target of a locator is not available.
+     */
+    private Fragment getEndFragment(ArcEnd end, Map<String,String> locatorTargets, Map<String,Fragment> fragments) throws XBRLException {
+        String index = end.getIndex();
+        if (! locatorTargets.containsKey(index)) return end;
+        Fragment target = fragments.get(locatorTargets.get(index));
+        if (target == null) throw new XBRLException("The target of locator " + index + " is not in the data store.");
+        return target;
+    }
+
+    /**
+     * Retrieves the fragments with the given indices using queries that
+     * each match a bounded number of indices.
+     * @param indices The indices of the fragments to retrieve.
+     * @return a map from index to fragment for the fragments that are in the data store.
+     * @throws XBRLException
+     */
+    private Map<String,Fragment> getFragments(Set<String> indices) throws XBRLException {
+        Map<String,Fragment> fragments = new HashMap<String,Fragment>();
+        StringBuilder predicate = new StringBuilder();
+        int count = 0;
+        for (String index: indices) {
+            if (index.equals("")) continue;
+            if (count > 0) predicate.append(" or ");
+            predicate.append("@index='").append(index).append("'");
+            count++;
+            if (count == QUERY_SIZE) {
+                getFragments(predicate.toString(), fragments);
+                predicate = new StringBuilder();
+                count = 0;
+            }
+        }
+        if (count > 0) getFragments(predicate.toString(), fragments);
+        return fragments;
+    }
+
+    private void getFragments(String predicate, Map<String,Fragment> fragments) throws XBRLException {
+        for (Fragment fragment: getStore().<Fragment>queryForXMLResources("#roots#[" + predicate + "]")) {
+            fragments.put(fragment.getIndex(),fragment);
+        }
+    }
+
+    /**
+     * Works out the active status of a batch of new relationships, together
+     * with the persisted relationships that they are equivalent to, and
+     * then persists the batch and the persisted relationships whose 
+     * active status has changed in one update.  This falls back to 
+     * persisting them one at a time if the update fails.
+     * @param batch The relationships to persist.
+     * @throws XBRLException
+     */
+    private void storeRelationshipBatch(List<Relationship> batch) throws XBRLException {
+        if (batch.isEmpty()) return;
+        synchronized (batchLock) {
+            Map<String,Set<String>> affected = new HashMap<String,Set<String>>();
+            for (Relationship relationship: batch) {
+                addEquivalenceSet(affected, relationship);
+            }
+            Map<String,List<Relationship>> sets = new HashMap<String,List<Relationship>>();
+            getEquivalenceSets(affected, sets);
+            for (Relationship relationship: batch) {
+                addToEquivalenceSet(sets, relationship);
+            }
+            List<Relationship> updates = new Vector<Relationship>(batch);
+            updates.addAll(markActiveRelationships(sets.values()));
+            try {
+                getStore().persist(updates);
+            } catch (XBRLException e) {
+                logger.warn("Persisting a batch of " + updates.size() + " relationships failed so persisting them one at a time.");
+                for (Relationship relationship: updates) {
+                    storeRelationship(relationship);
+                }
+            }
+        }
+    }
     
     /**
      * @param arc The arc to store relationships for.
@@ -316,27 +491,163 @@ public class StorerImpl implements Storer {
     }    
 
     /**
-     * @param linkRole The link role of the relationships to mark.
-     * @param arcrole the arcrole  of the relationships to mark.
+     * @see Storer#markActiveRelationships(URI, URI)
+     */
+    public void markActiveRelationships(URI linkRole, URI arcrole) throws XBRLException {
+        String query = "#roots#[@type='org.xbrlapi.impl.RelationshipImpl' and @linkRole='"+linkRole+"' and @arcRole='"+arcrole+"']";
+        Map<String,List<Relationship>> sets = new HashMap<String,List<Relationship>>();
+        for (Relationship relationship: getStore().<Relationship>queryForXMLResources(query)) {
+            addToEquivalenceSet(sets, relationship);
+        }
+        persistChanges(markActiveRelationships(sets.values()));
+    }
+
+    /**
+     * @see Storer#getNetworks(URI)
+     */
+    public Map<URI,Set<URI>> getNetworks(URI document) throws XBRLException {
+        URI matchURI = getStore().getMatcher().getMatch(document);
+        String query = "for $relationship in #roots#[@type='org.xbrlapi.impl.RelationshipImpl' and @arcURI='" + matchURI + "'] return concat($relationship/@arcRole,' ',$relationship/@linkRole)";
+        Map<URI,Set<URI>> networks = new HashMap<URI,Set<URI>>();
+        try {
+            for (String pair: getStore().queryForStrings(query)) {
+                int split = pair.indexOf(" ");
+                URI arcrole = new URI(pair.substring(0,split));
+                if (! networks.containsKey(arcrole)) networks.put(arcrole, new HashSet<URI>());
+                networks.get(arcrole).add(new URI(pair.substring(split+1)));
+            }
+        } catch (URISyntaxException e) {
+            throw new XBRLException("A persisted relationship has a malformed link role or arcrole.",e);
+        }
+        return networks;
+    }
+
+    /**
+     * @param relationship The relationship.
+     * @return the key shared by all relationships that are equivalent
+     * to the given relationship.
      * @throws XBRLException
      */
-    private void markActiveRelationships(URI linkRole, URI arcrole)
-            throws XBRLException {
-        
-        String query = "#roots#[@linkRole='"+linkRole+"' and @arcRole='"+arcrole+"']/@sourceIndex";
-        Set<String> sourceIndices = getStore().queryForStrings(query);
-        logger.info("# sources = " + sourceIndices.size());
-        for (String sourceIndex: sourceIndices) {
-            query = "#roots#[@linkRole='"+linkRole+"' and @arcRole='"+arcrole+"' and @sourceIndex='"+sourceIndex+"']/@targetIndex";
-            Set<String> targetIndices = getStore().queryForStrings(query);
-            for (String targetIndex: targetIndices) {
-                Map<String,SortedSet<Relationship>> map = getEquivalentRelationships(linkRole,arcrole,sourceIndex,targetIndex);
-                for (String key: map.keySet()) {
-                    map.get(key).first().setMetaAttribute("active","");
+    private String getEquivalenceKey(Relationship relationship) throws XBRLException {
+        return relationship.getSourceIndex() + " " + relationship.getTargetIndex() + " " + relationship.getLinkRole() + " " + relationship.getArcrole() + " " + relationship.getSignature();
+    }
+
+    /**
+     * Records the set of equivalent relationships that a relationship 
+     * belongs to as needing its active relationship to be reassessed.
+     * @param affected The map from source indices to equivalence keys.
+     * @param relationship The relationship.
+     * @throws XBRLException
+     */
+    private void addEquivalenceSet(Map<String,Set<String>> affected, Relationship relationship) throws XBRLException {
+        String sourceIndex = relationship.getSourceIndex();
+        String key = getEquivalenceKey(relationship);
+        if (! affected.containsKey(sourceIndex)) affected.put(sourceIndex, new HashSet<String>());
+        affected.get(sourceIndex).add(key);
+    }
+
+    /**
+     * @param sets The map from equivalence keys to sets of equivalent relationships.
+     * @param relationship The relationship to add to its set of equivalent relationships.
+     * @throws XBRLException
+     */
+    private void addToEquivalenceSet(Map<String,List<Relationship>> sets, Relationship relationship) throws XBRLException {
+        String key = getEquivalenceKey(relationship);
+        if (! sets.containsKey(key)) sets.put(key, new Vector<Relationship>());
+        sets.get(key).add(relationship);
+    }
+
+    /**
+     * Retrieves the persisted relationships in the sets of equivalent
+     * relationships that have been recorded as affected, using queries 
+     * that each match a bounded number of source indices.
+     * @param affected The map from source indices to the keys of the 
+     * affected sets of equivalent relationships.
+     * @param sets The map from equivalence keys to sets of equivalent 
+     * relationships to add the persisted relationships to.
+     * @throws XBRLException
+     */
+    private void getEquivalenceSets(Map<String,Set<String>> affected, Map<String,List<Relationship>> sets) throws XBRLException {
+        if (affected.isEmpty()) return;
+        StringBuilder predicate = new StringBuilder();
+        int count = 0;
+        for (String sourceIndex: affected.keySet()) {
+            if (count > 0) predicate.append(" or ");
+            predicate.append("@sourceIndex='").append(sourceIndex).append("'");
+            count++;
+            if (count == QUERY_SIZE) {
+                getEquivalenceSets(predicate.toString(), affected, sets);
+                predicate = new StringBuilder();
+                count = 0;
+            }
+        }
+        if (count > 0) getEquivalenceSets(predicate.toString(), affected, sets);
+    }
+
+    private void getEquivalenceSets(String predicate, Map<String,Set<String>> affected, Map<String,List<Relationship>> sets) throws XBRLException {
+        String query = "#roots#[@type='org.xbrlapi.impl.RelationshipImpl' and (" + predicate + ")]";
+        for (Relationship relationship: getStore().<Relationship>queryForXMLResources(query)) {
+            if (affected.get(relationship.getSourceIndex()).contains(getEquivalenceKey(relationship))) {
+                addToEquivalenceSet(sets, relationship);
+            }
+        }
+    }
+
+    /**
+     * Marks the active relationship in each set of equivalent relationships.
+     * The relationship with the highest priority is active unless it is
+     * prohibiting, in which case none of the relationships in the set are 
+     * active.  Prohibiting relationships take precedence over others with 
+     * the same priority.  The active status is set on the relationships 
+     * without updating the data store.
+     * @param sets The sets of equivalent relationships.
+     * @return the persisted relationships whose active status has changed
+     * and that need to be persisted again.
+     * @throws XBRLException
+     */
+    private List<Relationship> markActiveRelationships(Collection<List<Relationship>> sets) throws XBRLException {
+        List<Relationship> changes = new Vector<Relationship>();
+        for (List<Relationship> equivalents: sets) {
+            Relationship winner = null;
+            for (Relationship relationship: equivalents) {
+                if (winner == null) {
+                    winner = relationship;
+                    continue;
                 }
+                int comparison = relationship.getArcPriority().compareTo(winner.getArcPriority());
+                if (comparison == 0 && relationship.isProhibiting() != winner.isProhibiting()) {
+                    comparison = relationship.isProhibiting() ? 1 : -1;
+                }
+                if (comparison == 0) comparison = relationship.getIndex().compareTo(winner.getIndex());
+                if (comparison > 0) winner = relationship;
+            }
+            for (Relationship relationship: equivalents) {
+                boolean active = (relationship == winner && ! winner.isProhibiting());
+                if (active == relationship.hasMetaAttribute("active")) continue;
+                if (relationship.getBuilder() != null) {
+                    // Not yet persisted so this does not update the data store.
+                    if (active) relationship.setMetaAttribute("active","");
+                    else relationship.removeMetaAttribute("active");
+                    continue;
+                }
+                Element root = relationship.getMetadataRootElement();
+                if (active) root.setAttribute("active","");
+                else root.removeAttribute("active");
+                changes.add(relationship);
             }
         }
-        
+        logger.debug("Changed the active status of " + changes.size() + " persisted relationships in " + sets.size() + " sets of equivalent relationships.");
+        return changes;
+    }
+
+    /**
+     * Persists the relationships whose active status has changed in one update.
+     * @param relationships The relationships to persist.
+     * @throws XBRLException
+     */
+    private void persistChanges(List<Relationship> relationships) throws XBRLException {
+        if (relationships.isEmpty()) return;
+        getStore().persist(relationships);
     }
 
     /**
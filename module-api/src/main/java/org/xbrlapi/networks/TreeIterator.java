@@ -3,11 +3,9 @@ package org.xbrlapi.networks;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.SortedSet;
 import java.util.Vector;
 
 import org.xbrlapi.Fragment;
-import org.xbrlapi.Relationship;
 import org.xbrlapi.utilities.XBRLException;
 
 /**
@@ -27,7 +25,8 @@ public class TreeIterator implements Iterator<Fragment> {
     
     // The state of the iterator
     private Fragment root = null;
-    private List<SortedSet<Relationship>> state = new Vector<SortedSet<Relationship>>();
+    // The children of each fragment that is still to be fully iterated, in relationship order.
+    private List<List<Fragment>> state = new Vector<List<Fragment>>();
 
     private List<Fragment> initialise(Network network) throws XBRLException {
         if (network == null) throw new XBRLException("The network must not be null.");
@@ -80,8 +79,8 @@ public class TreeIterator implements Iterator<Fragment> {
         try {
 
             if (root != null) {
-                SortedSet<Relationship> relationships = network.getActiveRelationshipsFrom(root.getIndex());
-                if (! relationships.isEmpty()) state.add(relationships);
+                List<Fragment> children = network.<Fragment>getChildren(root.getIndex());
+                if (! children.isEmpty()) state.add(children);
                 Fragment next = root;
                 root = null;
                 return next;
@@ -92,15 +91,14 @@ public class TreeIterator implements Iterator<Fragment> {
             }
 
             // Update the state
-            SortedSet<Relationship> first = state.get(0);
-            Relationship next = first.first();
-            first.remove(next);
+            List<Fragment> first = state.get(0);
+            Fragment next = first.remove(0);
             if (first.isEmpty()) {
                 state.remove(0);
             }
-            SortedSet<Relationship> relationships = network.getActiveRelationshipsFrom(next.getTargetIndex());
-            if (! relationships.isEmpty()) state.add(relationships);
-            return next.getTarget();
+            List<Fragment> children = network.<Fragment>getChildren(next.getIndex());
+            if (! children.isEmpty()) state.add(children);
+            return next;
 
         } catch (XBRLException e) {
             throw new NoSuchElementException("The tree iterator encountered an XBRLException.");
@@ -1,10 +1,12 @@
 package org.xbrlapi.sax.identifiers;
 
 import java.io.IOException;
+import java.util.concurrent.Callable;
 
 import org.apache.xerces.parsers.XMLGrammarPreparser;
 import org.apache.xerces.util.XMLResourceIdentifierImpl;
 import org.apache.xerces.xni.XMLResourceIdentifier;
+import org.apache.xerces.xni.grammars.Grammar;
 import org.apache.xerces.xni.grammars.XMLGrammarDescription;
 import org.apache.xerces.xni.grammars.XSGrammar;
 import org.apache.xerces.xni.parser.XMLEntityResolver;
@@ -29,6 +31,8 @@ import org.xbrlapi.impl.SchemaSequenceCompositorImpl;
 import org.xbrlapi.impl.SimpleTypeDeclarationImpl;
 import org.xbrlapi.sax.ContentHandler;
 import org.xbrlapi.utilities.Constants;
+import org.xbrlapi.utilities.GrammarCacheImpl;
+import org.xbrlapi.utilities.XBRLAPIGrammarPoolImpl;
 import org.xbrlapi.utilities.XBRLException;
 import org.xml.sax.Attributes;
 
@@ -94,8 +98,8 @@ public class SchemaIdentifier extends BaseIdentifier implements Identifier {
             } else if (lName.equals("schema")) {
                 
                 fragment = new SchemaImpl();
-                setXSModel(constructXSModel());
                 setTargetNamespace(attrs.getValue("targetNamespace"));
+                setXSModel(constructXSModel());
                 
             } else if (lName.equals("element")) {
                 
@@ -249,39 +253,55 @@ public class SchemaIdentifier extends BaseIdentifier implements Identifier {
     }    
     
     /**
-     * (Commented out!) Modified on 13 February, 2007 by Howard Ungar to use the static grammar pool provided by the GrammarCache implementation.
-     * TODO Determine why a static grammar pool is needed to use included anonymous schemas.
+     * Modified on 13 February, 2007 by Howard Ungar to use the static grammar pool provided by the GrammarCache implementation.
+     * The grammar pool identifies grammars by the location of their schema documents
+     * as well as their target namespace so that included anonymous schemas and schemas
+     * sharing a target namespace do not get each other's grammars.  Imported schemas
+     * are only parsed the first time that they are imported and the XML Schema model
+     * for each schema is only built once, for all loaders.
      * @return the XML Schema grammar model for the XML Schema being parsed.
      * @throws XBRLException
      */
     protected XSModel constructXSModel() throws XBRLException {
-        try {
 
-            XMLGrammarPreparser preparser = new XMLGrammarPreparser();
-            preparser.registerPreparser(XMLGrammarDescription.XML_SCHEMA, null);
-            //preparser.setProperty("http://apache.org/xml/properties/internal/grammar-pool", GrammarCacheImpl.getGrammarPool());
-            //preparser.setGrammarPool(GrammarCacheImpl.getGrammarPool());
-            preparser.setFeature("http://xml.org/sax/features/namespaces", true);
-            preparser.setFeature("http://xml.org/sax/features/validation", true);
-            preparser.setFeature("http://apache.org/xml/features/validation/schema", true);
-            preparser.setFeature("http://apache.org/xml/features/validation/schema-full-checking", true);
+        final String uri = this.getContentHandler().getURI().toString();
+        final String namespace = this.getTargetNamespace();
+        final XMLEntityResolver entityResolver = this.getLoader().getEntityResolver();
 
-            XMLEntityResolver entityResolver = this.getLoader().getEntityResolver();
-            preparser.setEntityResolver(entityResolver);
+        return GrammarCacheImpl.getXSModel(uri, new Callable<XSModel>() {
+            public XSModel call() throws XBRLException {
+                try {
 
-            // TODO make sure that this XML Resource Identifier is being initialised correctly.
-            String uri = this.getContentHandler().getURI().toString();
-            XMLResourceIdentifier xri = new XMLResourceIdentifierImpl("", uri, uri, uri);
-            
-            XMLInputSource xmlInputSource = entityResolver.resolveEntity(xri);
-            
-            XSGrammar grammar = (XSGrammar) preparser.preparseGrammar(XMLGrammarDescription.XML_SCHEMA, xmlInputSource);
+                    // TODO make sure that this XML Resource Identifier is being initialised correctly.
+                    XMLResourceIdentifier xri = new XMLResourceIdentifierImpl("", uri, uri, uri);
+                    XMLInputSource xmlInputSource = entityResolver.resolveEntity(xri);
 
-            return grammar.toXSModel();         
+                    // Use the grammar for the schema if it has already been parsed as an import.
+                    XBRLAPIGrammarPoolImpl pool = GrammarCacheImpl.getGrammarPool();
+                    Grammar pooled = pool.getGrammar(namespace, uri);
+                    if (pooled == null) pooled = pool.getGrammar(namespace, xmlInputSource.getSystemId());
+                    if (pooled instanceof XSGrammar) {
+                        return ((XSGrammar) pooled).toXSModel();
+                    }
 
-        } catch (IOException e) {
-            throw new XBRLException("Grammar model construction for schema at URI: " + getContentHandler().getURI() + " failed.",e);
-        }
+                    XMLGrammarPreparser preparser = new XMLGrammarPreparser();
+                    preparser.registerPreparser(XMLGrammarDescription.XML_SCHEMA, null);
+                    preparser.setGrammarPool(pool);
+                    preparser.setFeature("http://xml.org/sax/features/namespaces", true);
+                    preparser.setFeature("http://xml.org/sax/features/validation", true);
+                    preparser.setFeature("http://apache.org/xml/features/validation/schema", true);
+                    preparser.setFeature("http://apache.org/xml/features/validation/schema-full-checking", true);
+                    preparser.setEntityResolver(entityResolver);
+
+                    XSGrammar grammar = (XSGrammar) preparser.preparseGrammar(XMLGrammarDescription.XML_SCHEMA, xmlInputSource);
+
+                    return grammar.toXSModel();
+
+                } catch (IOException e) {
+                    throw new XBRLException("Grammar model construction for schema at URI: " + uri + " failed.",e);
+                }
+            }
+        });
     }    
     
 }
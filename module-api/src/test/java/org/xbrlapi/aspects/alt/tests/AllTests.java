@@ -9,8 +9,10 @@ public class AllTests {
 		TestSuite suite = new TestSuite("Test for org.xbrlapi.aspects.tests");
 		//$JUnit-BEGIN$
         suite.addTestSuite(AspectsTestCase.class);
+        suite.addTestSuite(BitmapFactSetTestCase.class);
 		suite.addTestSuite(LabellerTestCase.class);
         suite.addTestSuite(PeriodAspectTestCase.class);
+        suite.addTestSuite(TieredLabelCacheTestCase.class);
 		//$JUnit-END$
 		return suite;
 	}
@@ -0,0 +1,186 @@
+package org.xbrlapi.aspects.alt.tests;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import org.xbrlapi.DOMLoadingTestCase;
+import org.xbrlapi.Fact;
+import org.xbrlapi.aspects.alt.Aspect;
+import org.xbrlapi.aspects.alt.AspectModel;
+import org.xbrlapi.aspects.alt.AspectValue;
+import org.xbrlapi.aspects.alt.BitmapFactSetImpl;
+import org.xbrlapi.aspects.alt.Combinations;
+import org.xbrlapi.aspects.alt.CombinationsImpl;
+import org.xbrlapi.aspects.alt.ConceptAspect;
+import org.xbrlapi.aspects.alt.EntityAspect;
+import org.xbrlapi.aspects.alt.FactSet;
+import org.xbrlapi.aspects.alt.FactSetImpl;
+import org.xbrlapi.aspects.alt.Filter;
+import org.xbrlapi.aspects.alt.FilterImpl;
+import org.xbrlapi.aspects.alt.LocationAspect;
+import org.xbrlapi.aspects.alt.StandardAspectModel;
+
+/**
+ * Tests the bitmap fact set implementation against the fact set implementation.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class BitmapFactSetTestCase extends DOMLoadingTestCase {
+	private final String FIRST_SMALL_INSTANCE = "test.data.small.instance";
+    private final String SECOND_SMALL_INSTANCE = "test.data.small.instance.2";
+
+    private AspectModel model;
+    private FactSet factSet;
+    private BitmapFactSetImpl bitmapFactSet;
+    private final String axis = "row";
+
+	protected void setUp() throws Exception {
+		super.setUp();
+
+        loader.discover(this.getURI(FIRST_SMALL_INSTANCE));
+        loader.discover(this.getURI(SECOND_SMALL_INSTANCE));
+
+        model = new StandardAspectModel(store);
+        model.initialise();
+
+        List<Fact> facts = store.getAllFacts();
+        assertTrue(facts.size() > 0);
+        factSet = new FactSetImpl(model);
+        factSet.addFacts(facts);
+        bitmapFactSet = new BitmapFactSetImpl(model);
+        bitmapFactSet.addFacts(facts);
+        bitmapFactSet.addFacts(facts);
+
+        model.addAspect(axis,model.getAspect(ConceptAspect.ID));
+        model.addAspect(axis,model.getAspect(EntityAspect.ID));
+	}
+
+	protected void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	public BitmapFactSetTestCase(String arg0) {
+		super(arg0);
+	}
+
+    public void testFactSetContent() {
+        try {
+            assertEquals(factSet.getSize(), bitmapFactSet.getSize());
+            assertEquals(factSet.getFacts(), bitmapFactSet.getFacts());
+            assertEquals(factSet.getAspectValues(), bitmapFactSet.getAspectValues());
+            for (Aspect aspect: model.getAspects()) {
+                assertEquals(factSet.getAspectValueCount(aspect.getId()), bitmapFactSet.getAspectValueCount(aspect.getId()));
+                assertEquals(factSet.isPopulated(aspect.getId()), bitmapFactSet.isPopulated(aspect.getId()));
+            }
+            for (AspectValue value: factSet.getAspectValues()) {
+                assertTrue(bitmapFactSet.hasAspectValue(value));
+                assertEquals(new HashSet<Fact>(factSet.getFacts(value)), new HashSet<Fact>(bitmapFactSet.getFacts(value)));
+            }
+            for (Fact fact: factSet.getFacts()) {
+                assertTrue(bitmapFactSet.hasFact(fact));
+                assertEquals(new HashSet<AspectValue>(factSet.getAspectValues(fact)), new HashSet<AspectValue>(bitmapFactSet.getAspectValues(fact)));
+                assertEquals(factSet.getAspectValue(ConceptAspect.ID,fact), bitmapFactSet.getAspectValue(ConceptAspect.ID,fact));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testMissingValuesMatchFactsWithoutOtherValues() {
+        try {
+            AspectValue missing = model.getAspect(LocationAspect.ID).getMissingValue();
+            assertEquals(0, bitmapFactSet.getFacts(missing).size());
+            Fact fact = bitmapFactSet.getFacts().iterator().next();
+            AspectValue concept = bitmapFactSet.getAspectValue(ConceptAspect.ID, fact);
+            assertFalse(bitmapFactSet.getFacts(concept).isEmpty());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testFiltering() {
+        try {
+            for (Fact fact: factSet.getFacts()) {
+                Filter filter = new FilterImpl();
+                filter.addCriterion(factSet.getAspectValue(ConceptAspect.ID, fact));
+                filter.addCriterion(factSet.getAspectValue(EntityAspect.ID, fact));
+                Set<Fact> expected = filter.getMatchingFacts(factSet);
+                Set<Fact> matches = filter.getMatchingFacts(bitmapFactSet);
+                assertTrue(matches.contains(fact));
+                assertEquals(expected, matches);
+            }
+            assertTrue((new FilterImpl()).getMatchingFacts(bitmapFactSet).isEmpty());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testParallelFactAddition() {
+        try {
+            List<Fact> facts = store.getAllFacts();
+
+            FactSet parallelFactSet = new FactSetImpl(model);
+            parallelFactSet.addFacts(facts, 4);
+            assertEquals(factSet.getFacts(), parallelFactSet.getFacts());
+            assertEquals(factSet.getAspectValues(), parallelFactSet.getAspectValues());
+
+            BitmapFactSetImpl parallelBitmapFactSet = new BitmapFactSetImpl(model);
+            parallelBitmapFactSet.addFacts(facts, 4);
+            assertEquals(new Vector<Fact>(bitmapFactSet.getFacts()), new Vector<Fact>(parallelBitmapFactSet.getFacts()));
+            for (AspectValue value: bitmapFactSet.getAspectValues()) {
+                assertEquals(bitmapFactSet.getFacts(value), parallelBitmapFactSet.getFacts(value));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+
+        try {
+            (new BitmapFactSetImpl(model)).addFacts(store.getAllFacts(), 0);
+            fail("At least one thread is required.");
+        } catch (Exception expected) {
+            ;
+        }
+    }
+
+    public void testCombinationMatching() {
+        try {
+            Combinations combinations = new CombinationsImpl(model,axis);
+            for (Aspect aspect: combinations.getAspects()) {
+                List<AspectValue> values = new Vector<AspectValue>(bitmapFactSet.getAspectValues(aspect.getId()));
+                values.remove(aspect.getMissingValue());
+                Collections.sort(values,aspect.getDomain());
+                combinations.setAspectValues(aspect.getId(),values);
+            }
+
+            Map<Integer,Set<Fact>> matches = bitmapFactSet.getMatchingFacts(combinations);
+            assertFalse(matches.isEmpty());
+
+            Set<Fact> matched = new HashSet<Fact>();
+            for (int i=0; i<combinations.getCombinationCount(); i++) {
+                Filter filter = new FilterImpl();
+                for (AspectValue value: combinations.getCombinationValues(i).values()) {
+                    filter.addCriterion(value);
+                }
+                Set<Fact> expected = filter.getMatchingFacts(factSet);
+                if (expected.isEmpty()) {
+                    assertFalse(matches.containsKey(i));
+                } else {
+                    assertEquals(expected, matches.get(i));
+                    matched.addAll(expected);
+                }
+            }
+            assertEquals(bitmapFactSet.getFacts(), matched);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+}
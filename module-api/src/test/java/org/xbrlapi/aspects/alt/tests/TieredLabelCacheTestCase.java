@@ -0,0 +1,141 @@
+package org.xbrlapi.aspects.alt.tests;
+
+import java.net.URI;
+
+import org.xbrlapi.DOMLoadingTestCase;
+import org.xbrlapi.aspects.alt.ConceptAspect;
+import org.xbrlapi.aspects.alt.MemoryLabelCache;
+import org.xbrlapi.aspects.alt.StoreLabelCache;
+import org.xbrlapi.aspects.alt.TieredLabelCache;
+import org.xbrlapi.aspects.alt.UnitAspect;
+import org.xbrlapi.impl.AspectValueLabelImpl;
+
+/**
+ * Tests the tiered aspect value label cache.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class TieredLabelCacheTestCase extends DOMLoadingTestCase {
+
+    private final URI LABEL_ROLE = URI.create("http://www.xbrl.org/2003/role/label");
+
+    protected void setUp() throws Exception {
+        super.setUp();
+    }
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    public TieredLabelCacheTestCase(String arg0) {
+        super(arg0);
+    }
+
+    public void testLabelsAreWrittenToTheStoreInBatches() {
+        try {
+            TieredLabelCache cache = new TieredLabelCache(new StoreLabelCache(store),100,3);
+            cache.cacheLabel(ConceptAspect.ID, "a", "en", LABEL_ROLE, null, "Label A");
+            cache.cacheLabel(ConceptAspect.ID, "b", "en", LABEL_ROLE, null, "Label B");
+            assertEquals("Label A", cache.getLabel(ConceptAspect.ID, "a", "en", LABEL_ROLE, null));
+            assertEquals(2, cache.getPendingCount());
+            assertEquals(0, store.getNumberOfXMLResources(AspectValueLabelImpl.class));
+
+            cache.cacheLabel(ConceptAspect.ID, "c", "en", LABEL_ROLE, null, "Label C");
+            assertEquals(0, cache.getPendingCount());
+            assertEquals(3, store.getNumberOfXMLResources(AspectValueLabelImpl.class));
+
+            cache.cacheLabel(UnitAspect.ID, "d", null, null, null, "Label D");
+            cache.flush();
+            assertEquals(0, cache.getPendingCount());
+            assertEquals(4, store.getNumberOfXMLResources(AspectValueLabelImpl.class));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testLabelsAreWrittenThroughByDefault() {
+        try {
+            TieredLabelCache cache = new TieredLabelCache(new StoreLabelCache(store));
+            cache.cacheLabel(ConceptAspect.ID, "a", "en", LABEL_ROLE, null, "Label A");
+            assertEquals(0, cache.getPendingCount());
+            assertEquals(1, store.getNumberOfXMLResources(AspectValueLabelImpl.class));
+            assertEquals("Label A", (new StoreLabelCache(store)).getLabel(ConceptAspect.ID, "a", "en", LABEL_ROLE, null));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testStoredLabelsArePreloaded() {
+        try {
+            TieredLabelCache cache = new TieredLabelCache(new StoreLabelCache(store));
+            cache.cacheLabel(ConceptAspect.ID, "a", "en", LABEL_ROLE, null, "Label A");
+            cache.cacheLabel(ConceptAspect.ID, "b", "en", LABEL_ROLE, null, "Label B");
+            cache.flush();
+
+            TieredLabelCache other = new TieredLabelCache(new StoreLabelCache(store));
+            assertEquals(0, other.getMemoryCache().getSize());
+            assertEquals("Label A", other.getLabel(ConceptAspect.ID, "a", "en", LABEL_ROLE, null));
+            assertEquals(2, other.getMemoryCache().getSize());
+            assertEquals("Label B", other.getLabel(ConceptAspect.ID, "b", "en", LABEL_ROLE, null));
+            assertNull(other.getLabel(ConceptAspect.ID, "b", "fr", LABEL_ROLE, null));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testCachedLabelsReplaceStoredLabels() {
+        try {
+            TieredLabelCache cache = new TieredLabelCache(new StoreLabelCache(store));
+            cache.cacheLabel(ConceptAspect.ID, "a", "en", LABEL_ROLE, null, "Old label");
+            cache.flush();
+            cache.cacheLabel(ConceptAspect.ID, "a", "en", LABEL_ROLE, null, "New label");
+            cache.flush();
+            assertEquals(1, store.getNumberOfXMLResources(AspectValueLabelImpl.class));
+            assertEquals("New label", (new StoreLabelCache(store)).getLabel(ConceptAspect.ID, "a", "en", LABEL_ROLE, null));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testDroppedLabelsAreRetrievedFromTheStore() {
+        try {
+            TieredLabelCache cache = new TieredLabelCache(new StoreLabelCache(store),2,100);
+            for (int i=0; i<5; i++) {
+                cache.cacheLabel(ConceptAspect.ID, "value" + i, "en", LABEL_ROLE, null, "Label " + i);
+                assertTrue(cache.getPendingCount() <= 2);
+            }
+            assertEquals(2, cache.getMemoryCache().getSize());
+            assertEquals(5, store.getNumberOfXMLResources(AspectValueLabelImpl.class) + cache.getPendingCount());
+            assertEquals("Label 0", cache.getLabel(ConceptAspect.ID, "value0", "en", LABEL_ROLE, null));
+            cache.flush();
+            for (int i=0; i<5; i++) {
+                assertEquals("Label " + i, cache.getLabel(ConceptAspect.ID, "value" + i, "en", LABEL_ROLE, null));
+            }
+            assertTrue(cache.getMemoryCache().getSize() <= 2);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testMemoryLabelCacheIsBounded() {
+        try {
+            MemoryLabelCache cache = new MemoryLabelCache(2);
+            cache.cacheLabel(ConceptAspect.ID, "a", null, null, null, "Label A");
+            cache.cacheLabel(ConceptAspect.ID, "b", null, null, null, "Label B");
+            cache.getLabel(ConceptAspect.ID, "a", null, null, null);
+            cache.cacheLabel(ConceptAspect.ID, "c", null, null, null, "Label C");
+            assertEquals(2, cache.getSize());
+            assertEquals(1, cache.getEvictionCount());
+            assertEquals("Label A", cache.getLabel(ConceptAspect.ID, "a", null, null, null));
+            assertNull(cache.getLabel(ConceptAspect.ID, "b", null, null, null));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+}
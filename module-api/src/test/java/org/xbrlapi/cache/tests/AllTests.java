@@ -10,6 +10,7 @@ public class AllTests {
 		//$JUnit-BEGIN$
 		suite.addTestSuite(CacheImplTestCase.class);
         suite.addTestSuite(CacheImplSerializationTestCase.class);
+        suite.addTestSuite(CachePrefetchTestCase.class);
 		//$JUnit-END$
 		return suite;
 	}
@@ -0,0 +1,208 @@
+package org.xbrlapi.cache.tests;
+
+/**
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.xbrlapi.cache.Cache;
+import org.xbrlapi.cache.CacheImpl;
+import org.xbrlapi.utilities.BaseTestCase;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the caching of documents served by a local HTTP server.
+ */
+public class CachePrefetchTestCase extends BaseTestCase {
+
+    private String cacheRoot;
+
+    private HttpServer server;
+
+    private AtomicInteger requests = new AtomicInteger(0);
+
+    private List<URI> uris = new Vector<URI>();
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        cacheRoot = configuration.getProperty("local.cache");
+        server = HttpServer.create(new InetSocketAddress("localhost",0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                String path = exchange.getRequestURI().getPath();
+                if (path.startsWith("/missing")) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] content = getContent(path).getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, content.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(content);
+                out.close();
+            }
+        });
+        server.start();
+        for (int i=0; i<20; i++) {
+            uris.add(getServerURI("/documents/" + i + ".xml"));
+        }
+    }
+
+    protected void tearDown() throws Exception {
+        server.stop(0);
+        Cache cache = new CacheImpl(new File(cacheRoot));
+        for (URI uri: uris) {
+            cache.purge(uri);
+        }
+        super.tearDown();
+    }
+
+    /**
+     * @param arg0
+     */
+    public CachePrefetchTestCase(String arg0) {
+        super(arg0);
+    }
+
+    private URI getServerURI(String path) throws Exception {
+        return new URI("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    private String getContent(String path) {
+        StringBuilder content = new StringBuilder("<document path=\"" + path + "\">");
+        for (int i=0; i<5000; i++) {
+            content.append("<item>").append(i).append("</item>");
+        }
+        return content.append("</document>").toString();
+    }
+
+    private String read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < bytes.length) {
+                offset += in.read(bytes, offset, bytes.length - offset);
+            }
+            return new String(bytes,"UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    public final void testPrefetch() {
+        try {
+            Cache cache = new CacheImpl(new File(cacheRoot));
+            URI missingURI = getServerURI("/missing.xml");
+            List<URI> toFetch = new Vector<URI>(uris);
+            toFetch.add(uris.get(0));
+            toFetch.add(missingURI);
+
+            List<URI> missing = cache.prefetch(toFetch, 4);
+            assertEquals(1, missing.size());
+            assertEquals(missingURI, missing.get(0));
+            assertEquals(uris.size() + 1, requests.get());
+
+            for (URI uri: uris) {
+                File file = cache.getCacheFile(uri);
+                assertTrue(file.exists());
+                assertEquals(getContent(uri.getPath()), read(file));
+            }
+            assertFalse(cache.getCacheFile(missingURI).exists());
+
+            File directory = cache.getCacheFile(uris.get(0)).getParentFile();
+            for (File file: directory.listFiles()) {
+                assertFalse(file.getName().endsWith(".part"));
+            }
+            assertEquals(uris.size(), cache.getAllUris(uris.get(0)).size());
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Unexpected exception was thrown. " + e.getMessage());
+        }
+    }
+
+    public final void testPrefetchSkipsCachedDocuments() {
+        try {
+            Cache cache = new CacheImpl(new File(cacheRoot));
+            assertEquals(0, cache.prefetch(uris, 2).size());
+            int count = requests.get();
+            assertEquals(0, cache.prefetch(uris, 2).size());
+            assertEquals(count, requests.get());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Unexpected exception was thrown. " + e.getMessage());
+        }
+    }
+
+    public final void testCachingOfLocalFiles() {
+        File source = null;
+        try {
+            source = File.createTempFile("cache-test", ".xml");
+            FileWriter writer = new FileWriter(source);
+            writer.write(getContent("/local"));
+            writer.close();
+
+            Cache cache = new CacheImpl(new File(cacheRoot));
+            URI uri = source.toURI();
+            uris.add(uri);
+            File cacheFile = cache.getCacheFile(uri);
+            cache.copyToCache(uri, cacheFile);
+            assertTrue(cacheFile.exists());
+            assertEquals(getContent("/local"), read(cacheFile));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Unexpected exception was thrown. " + e.getMessage());
+        } finally {
+            if (source != null) source.delete();
+        }
+    }
+
+    public final void testCachedStringsReplaceCacheFilesAtomically() {
+        try {
+            final Cache cache = new CacheImpl(new File(cacheRoot));
+            final URI uri = new URI("http://localhost/replaced.xml");
+            uris.add(uri);
+            final File cacheFile = cache.getCacheFile(uri);
+            cache.copyToCache(uri, "<original/>");
+            final AtomicInteger missing = new AtomicInteger(0);
+            Thread reader = new Thread() {
+                public void run() {
+                    while (! isInterrupted()) {
+                        if (! cacheFile.exists()) missing.incrementAndGet();
+                    }
+                }
+            };
+            reader.start();
+            for (int i=0; i<200; i++) {
+                cache.copyToCache(uri, "<replacement number=\"" + i + "\"/>");
+            }
+            reader.interrupt();
+            reader.join();
+            assertEquals(0, missing.get());
+            assertEquals("<replacement number=\"199\"/>", read(cacheFile));
+            for (String name: cacheFile.getParentFile().list()) {
+                assertFalse(name.startsWith("." + cacheFile.getName() + "."));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Unexpected exception was thrown. " + e.getMessage());
+        }
+    }
+
+}
@@ -16,6 +16,10 @@ public class AllTests {
         suite.addTestSuite(QueryForStringsTestCase.class);
         suite.addTestSuite(StoreSerializationTestCase.class);
         suite.addTestSuite(XBRLFunctionTestCase.class);
+        suite.addTestSuite(IndexedStoreImplTestCase.class);
+        suite.addTestSuite(StoreSnapshotTestCase.class);
+        suite.addTestSuite(StoreMetricsTestCase.class);
+        suite.addTestSuite(DocumentCatalogTestCase.class);
 		//$JUnit-END$
 		return suite;
 	}
@@ -94,13 +94,23 @@ public abstract class BaseTestCase extends org.xbrlapi.utilities.BaseTestCase {
             fail("A URI has invalid syntax.");
         }
         EntityResolver resolver = new EntityResolverImpl(cacheFile,map);
-		Loader myLoader = new LoaderImpl(store,xlinkProcessor);
+		Loader myLoader = newLoader(store,xlinkProcessor);
 		myLoader.setCache(cacheImpl);
 		myLoader.setEntityResolver(resolver);
 		xlinkHandler.setLoader(myLoader);
 		return myLoader;
 	}
 	
+	/**
+	 * @param store The store to use for the loader.
+	 * @param xlinkProcessor The XLink processor to use for the loader.
+	 * @return a new, unconfigured, loader.
+	 * @throws XBRLException
+	 */
+	protected Loader newLoader(Store store, XLinkProcessor xlinkProcessor) throws XBRLException {
+		return new LoaderImpl(store,xlinkProcessor);
+	}
+	
 	/**
 	 * Helper method to clean up and shut down the data store.
 	 * @param store the store for the XBRL data.
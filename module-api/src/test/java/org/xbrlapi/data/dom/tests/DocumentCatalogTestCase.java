@@ -0,0 +1,79 @@
+package org.xbrlapi.data.dom.tests;
+
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.xbrlapi.Fragment;
+import org.xbrlapi.data.DocumentCatalog;
+
+/**
+ * Test the maintenance of the catalog of documents in the data store.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class DocumentCatalogTestCase extends BaseTestCase {
+
+    private final String STARTING_POINT = "test.data.small.schema";
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        loader.discover(this.getURI(STARTING_POINT));
+    }
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    public DocumentCatalogTestCase(String arg0) {
+        super(arg0);
+    }
+
+    private Set<URI> getQueriedDocumentURIs() throws Exception {
+        Set<URI> uris = new HashSet<URI>();
+        for (String uri: store.queryForStrings("for $root in #roots#[@parentIndex=''] return string($root/@uri)")) {
+            uris.add(new URI(uri));
+        }
+        return uris;
+    }
+
+    public void testCatalogMatchesStore() {
+        try {
+            DocumentCatalog catalog = store.getDocumentCatalog();
+            Set<URI> uris = getQueriedDocumentURIs();
+            assertTrue(uris.size() > 1);
+            assertEquals(uris, store.getDocumentURIs());
+            assertEquals(uris.size(), catalog.size());
+            for (URI uri: uris) {
+                assertTrue(store.hasDocument(uri));
+                DocumentCatalog.Entry entry = catalog.getEntry(uri);
+                Fragment root = store.<Fragment>getXMLResource(entry.getRootIndex());
+                assertTrue(root.isRoot());
+                assertEquals(uri, root.getURI());
+                assertTrue(entry.getLoadTime() > 0);
+                assertEquals(store.queryCount("#roots#[@uri='" + uri + "']"), catalog.getFragmentCount(uri));
+            }
+            assertFalse(store.hasDocument(new URI("http://example.com/missing.xsd")));
+            assertEquals(0, catalog.getFragmentCount(new URI("http://example.com/missing.xsd")));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testCatalogTracksDeletions() {
+        try {
+            DocumentCatalog catalog = store.getDocumentCatalog();
+            URI uri = store.getDocumentURIs().iterator().next();
+            int documents = catalog.size();
+            store.deleteDocument(uri);
+            assertFalse(catalog.hasDocument(uri));
+            assertEquals(documents - 1, catalog.size());
+            assertEquals(getQueriedDocumentURIs(), store.getDocumentURIs());
+            assertFalse(store.getMissingDocumentURIs().contains(store.getDocumentURIs().iterator().next()));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+}
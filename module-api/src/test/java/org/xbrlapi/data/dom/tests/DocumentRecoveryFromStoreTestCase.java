@@ -1,11 +1,14 @@
 package org.xbrlapi.data.dom.tests;
 
+import java.io.ByteArrayOutputStream;
 import java.net.URI;
 import java.util.Set;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 import org.xbrlapi.utilities.XBRLException;
+import org.xbrlapi.utilities.XMLDOMBuilder;
 
 /**
  * Test the XBRLAPI Store implementation 
@@ -79,4 +82,56 @@ public class DocumentRecoveryFromStoreTestCase extends BaseTestCase {
 		}
 	}
 
+	/**
+	 * Test streaming a single document from a store to an output stream.
+	 */
+	public void testSerializeDocument() {
+		try {
+			URI uri = null;
+			for (URI candidate: store.getDocumentURIs()) {
+			    if (candidate.getPath().equals(getURI(STARTING_POINT).getPath())) uri = candidate;
+			}
+			assertNotNull(uri);
+			ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+			store.serializeDocument(uri, streamed);
+			
+			Element root = store.getDocumentAsDOM(uri);
+			ByteArrayOutputStream built = new ByteArrayOutputStream();
+			store.serialize(root, built);
+			
+			XMLDOMBuilder builder = new XMLDOMBuilder();
+			Element expected = builder.newDocument(built.toString("UTF-8")).getDocumentElement();
+			Element actual = builder.newDocument(streamed.toString("UTF-8")).getDocumentElement();
+			assertEquals("schema", actual.getLocalName());
+			NodeList expectedElements = expected.getElementsByTagNameNS("*","*");
+			NodeList actualElements = actual.getElementsByTagNameNS("*","*");
+			assertEquals(expectedElements.getLength(), actualElements.getLength());
+			for (int i=0; i<expectedElements.getLength(); i++) {
+			    Element e = (Element) expectedElements.item(i);
+			    Element a = (Element) actualElements.item(i);
+			    assertEquals(e.getNamespaceURI(), a.getNamespaceURI());
+			    assertEquals(e.getLocalName(), a.getLocalName());
+			    assertEquals(e.getAttributes().getLength(), a.getAttributes().getLength());
+			    assertEquals(e.getTextContent(), a.getTextContent());
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Test that streaming a document that is not in the store fails.
+	 */
+	public void testSerializeMissingDocument() {
+		try {
+			store.serializeDocument(new URI("http://example.com/missing.xsd"), new ByteArrayOutputStream());
+			fail("The document is not in the store.");
+		} catch (XBRLException expected) {
+			;
+		} catch (Exception e) {
+			fail("Unexpected " + e.getMessage());
+		}
+	}
+
 }
@@ -0,0 +1,108 @@
+package org.xbrlapi.data.dom.tests;
+
+import java.net.URI;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.xbrlapi.Fragment;
+import org.xbrlapi.data.dom.IndexedStoreImpl;
+import org.xbrlapi.data.dom.StoreImpl;
+import org.xbrlapi.data.resource.InStoreMatcherImpl;
+import org.xbrlapi.impl.MockImpl;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Test the indexed XML DOM XBRLAPI Store implementation.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class IndexedStoreImplTestCase extends BaseTestCase {
+
+    private final String STARTING_POINT = "test.data.small.schema";
+
+    protected void setUp() throws Exception {
+        super.setUp();
+    }
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    public IndexedStoreImplTestCase(String arg0) {
+        super(arg0);
+    }
+
+    /**
+     * @see org.xbrlapi.data.dom.tests.BaseTestCase#createStore()
+     */
+    public StoreImpl createStore() throws XBRLException {
+        StoreImpl store = new IndexedStoreImpl();
+        store.setMatcher(new InStoreMatcherImpl(store,cacheImpl));
+        return store;
+    }
+
+    public void testIndexedQueriesMatchTheXQueryResults() throws Exception {
+
+        loader.discover(this.getURI(STARTING_POINT));
+
+        // Parenthesised queries are not answered from the indexes.
+        Fragment root = store.<Fragment>queryForXMLResources("(#roots#[@parentIndex=''])").get(0);
+        String[] queries = {
+                "#roots#[@parentIndex='" + root.getIndex() + "']",
+                "#roots#[@parentIndex='']",
+                "#roots#[@type='org.xbrlapi.impl.ConceptImpl']",
+                "#roots#[@type='org.xbrlapi.impl.ConceptImpl' and @parentIndex='" + root.getIndex() + "']",
+                "#roots#[@uri='" + root.getURI() + "' and @parentIndex='']",
+                "#roots#[@parentIndex and @type=\"org.xbrlapi.impl.SchemaImpl\"]",
+                "#roots#[@type='no.such.Type']",
+        };
+        for (String query: queries) {
+            String xquery = "(" + query + ")";
+            assertEquals(query, store.queryForIndices(xquery), store.queryForIndices(query));
+            assertEquals(query, store.queryCount(xquery), store.queryCount(query));
+            List<Fragment> expected = store.<Fragment>queryForXMLResources(xquery);
+            List<Fragment> actual = store.<Fragment>queryForXMLResources(query);
+            assertEquals(query, expected.size(), actual.size());
+            for (int i=0; i<expected.size(); i++) {
+                assertEquals(query, expected.get(i).getIndex(), actual.get(i).getIndex());
+            }
+        }
+
+        String query = "#roots#[@parentIndex='" + root.getIndex() + "']/@type";
+        assertEquals(store.queryForStrings("(" + query + ")"), store.queryForStrings(query));
+    }
+
+    public void testIndexesFollowMetadataChanges() throws Exception {
+
+        store.persist(new MockImpl("1"));
+        MockImpl fragment = new MockImpl("2");
+        fragment.setParentIndex("1");
+        store.persist(fragment);
+        assertEquals(1,store.queryForIndices("#roots#[@parentIndex='1']").size());
+
+        Fragment stored = store.getXMLResource("2");
+        stored.setMetaAttribute("parentIndex","3");
+        assertEquals(0,store.queryForIndices("#roots#[@parentIndex='1']").size());
+        Set<String> indices = store.queryForIndices("#roots#[@parentIndex='3']");
+        assertEquals(1,indices.size());
+        assertTrue(indices.contains("2"));
+
+        store.remove("2");
+        assertEquals(0,store.queryCount("#roots#[@parentIndex='3']"));
+    }
+
+    public void testIndexedQueriesRespectURIFiltering() throws Exception {
+
+        loader.discover(this.getURI(STARTING_POINT));
+        String query = "#roots#[@parentIndex='']";
+        assertTrue(store.queryCount(query) > 0);
+
+        Set<URI> uris = new HashSet<URI>();
+        uris.add(new URI("http://example.com/not-in-the-store.xsd"));
+        store.setFilteringURIs(uris);
+        assertEquals(0,store.queryCount(query));
+        store.clearFilteringURIs();
+        assertTrue(store.queryCount(query) > 0);
+    }
+
+}
@@ -2,6 +2,7 @@ package org.xbrlapi.data.dom.tests;
 
 import java.net.URI;
 import java.util.Set;
+import java.util.Vector;
 
 import org.xbrlapi.Fragment;
 import java.util.List;
@@ -140,7 +141,62 @@ public class StoreImplTestCase extends BaseTestCase {
     }
     
     
+    /**
+     * Queries that only differ in their string literals share a compiled
+     * query so check that each of them still gets its own results.
+     */
+    public void testQueriesWithTheSameShape() throws Exception {
+        store.persist(new MockImpl("shape_1"));
+        store.persist(new MockImpl("shape_2"));
+        assertEquals(1, store.queryCount("#roots#[@index='shape_1']"));
+        assertEquals(1, store.queryCount("#roots#[@index=\"shape_2\"]"));
+        assertEquals(0, store.queryCount("#roots#[@index='shape_3']"));
+        assertEquals("shape_2", store.queryForString("string(#roots#[@index='shape_2']/@index)"));
+        assertEquals("it's", store.queryForString("'it''s'"));
+        assertEquals("a&b", store.queryForString("'a&amp;b'"));
+        assertEquals(2, store.queryCount("(: 'comment' :) #roots#[@type='org.xbrlapi.impl.MockImpl']"));
+    }
+
+    /**
+     * Queries run in several threads while fragments are being persisted.
+     */
+    public void testConcurrentQueriesAndPersistence() throws Exception {
 
+        final String query = "#roots#[@type='org.xbrlapi.impl.MockImpl']";
+        final List<Throwable> problems = new Vector<Throwable>();
+        List<Thread> readers = new Vector<Thread>();
+        for (int i=0; i<4; i++) {
+            Thread reader = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int j=0; j<50; j++) {
+                            for (String index: store.queryForIndices(query)) {
+                                store.getXMLResource(index);
+                            }
+                            store.queryCount(query);
+                        }
+                    } catch (Throwable t) {
+                        problems.add(t);
+                    }
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+
+        for (int i=0; i<100; i++) {
+            store.persist(new MockImpl("concurrent_" + i));
+        }
+        for (Thread reader: readers) {
+            reader.join();
+        }
+
+        for (Throwable problem: problems) {
+            problem.printStackTrace();
+        }
+        assertTrue(problems.isEmpty());
+        assertEquals(100, store.queryCount(query));
+    }
 
 	public void testHasDocument() {
 		try {
@@ -0,0 +1,160 @@
+package org.xbrlapi.data.dom.tests;
+
+import java.util.List;
+import java.util.Map;
+
+import org.xbrlapi.Fragment;
+import org.xbrlapi.XML;
+import org.xbrlapi.data.XMLCursor;
+import org.xbrlapi.data.dom.IndexedStoreImpl;
+import org.xbrlapi.data.dom.StoreImpl;
+import org.xbrlapi.data.metrics.QueryStatistics;
+import org.xbrlapi.data.metrics.StoreMetrics;
+import org.xbrlapi.data.metrics.StoreMetricsImpl;
+import org.xbrlapi.data.resource.InStoreMatcherImpl;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Test the recording of data store operation metrics.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class StoreMetricsTestCase extends BaseTestCase {
+
+    private final String STARTING_POINT = "test.data.small.schema";
+
+    private StoreMetrics metrics = null;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        metrics = new StoreMetricsImpl(-1);
+        store.setMetrics(metrics);
+        loader.discover(this.getURI(STARTING_POINT));
+        store.getMatcher().flush();
+        metrics.reset();
+    }
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    public StoreMetricsTestCase(String arg0) {
+        super(arg0);
+    }
+
+    /**
+     * @see org.xbrlapi.data.dom.tests.BaseTestCase#createStore()
+     */
+    public StoreImpl createStore() throws XBRLException {
+        StoreImpl store = new IndexedStoreImpl();
+        store.setMatcher(new InStoreMatcherImpl(store,cacheImpl));
+        return store;
+    }
+
+    public void testQueryShapes() {
+        assertEquals("#roots#[@uri=? and @parentIndex=?]", metrics.getShape("#roots#[@uri='http://example.com/a.xsd' and @parentIndex=\"\"]"));
+        assertEquals(metrics.getShape("#roots#[@index='a' or @index='b']"), metrics.getShape("#roots#[@index='c' or @index='d' or @index='e']"));
+        assertEquals("#roots#[@index=? or ...]", metrics.getShape("#roots#[@index='c' or @index='d' or @index='e']"));
+        assertEquals("#roots#[?]/@index", metrics.getShape("#roots#[1]/@index"));
+    }
+
+    public void testOperationsAreRecordedOnce() {
+        try {
+            String query = "#roots#[@type='org.xbrlapi.impl.ElementDeclarationImpl']";
+            List<Fragment> declarations = store.<Fragment>queryForXMLResources(query);
+            assertTrue(declarations.size() > 0);
+
+            // Has the same shape as the first query.
+            store.<Fragment>queryForXMLResources("#roots#[@type='org.xbrlapi.impl.SchemaImpl']");
+
+            // Answered by the superclass of the indexed store.
+            String unindexed = "(" + query + ")";
+            assertEquals(declarations.size(), store.queryForIndices(unindexed).size());
+            XMLCursor<Fragment> cursor = store.<Fragment>queryForXMLCursor(unindexed);
+            while (cursor.hasNext()) cursor.next();
+
+            store.getXMLResource(declarations.get(0).getIndex());
+
+            Map<String,QueryStatistics> statistics = metrics.getStatistics();
+            QueryStatistics resources = statistics.get(StoreMetrics.QUERY_FOR_XML_RESOURCES + " " + metrics.getShape(query));
+            assertEquals(2, resources.getCount());
+            assertEquals(0, resources.getFailures());
+            assertTrue(resources.getResults() > declarations.size());
+            assertEquals(resources.getResults(), resources.getFragments());
+            long histogramCount = 0;
+            for (long bucket: resources.getHistogram()) histogramCount += bucket;
+            assertEquals(2, histogramCount);
+
+            QueryStatistics indices = statistics.get(StoreMetrics.QUERY_FOR_INDICES + " " + metrics.getShape(unindexed));
+            assertEquals(1, indices.getCount());
+            assertEquals(declarations.size(), indices.getResults());
+
+            QueryStatistics cursors = statistics.get(StoreMetrics.QUERY_FOR_XML_CURSOR + " " + metrics.getShape(unindexed));
+            assertEquals(1, cursors.getCount());
+            assertEquals(declarations.size(), cursors.getResults());
+
+            // Each fragment retrieved by the cursor is recorded as a retrieval.
+            assertEquals(declarations.size() + 1, statistics.get(StoreMetrics.GET_XML_RESOURCE).getCount());
+            assertEquals(4, statistics.size());
+            assertTrue(metrics.getReport().contains(StoreMetrics.QUERY_FOR_INDICES));
+
+            store.setMetrics(null);
+            store.<Fragment>queryForXMLResources(query);
+            assertEquals(2, metrics.getStatistics().get(StoreMetrics.QUERY_FOR_XML_RESOURCES + " " + metrics.getShape(query)).getCount());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testOperationsInsideAnotherStoreOperationAreRecorded() {
+        try {
+            final String index = store.queryForIndices("#roots#").iterator().next();
+            StoreImpl outer = new StoreImpl() {
+                private static final long serialVersionUID = 1L;
+                public <F extends XML> F getXMLResource(String ignored) throws XBRLException {
+                    long start = startOperation();
+                    try {
+                        return store.<F>getXMLResource(index);
+                    } finally {
+                        endOperation(start, StoreMetrics.GET_XML_RESOURCE, null, 1, 1);
+                    }
+                }
+            };
+            stores.add(outer);
+            StoreMetrics outerMetrics = new StoreMetricsImpl(-1);
+            outer.setMetrics(outerMetrics);
+            metrics.reset();
+            outer.getXMLResource(index);
+            assertEquals(1, outerMetrics.getStatistics().get(StoreMetrics.GET_XML_RESOURCE).getCount());
+            assertEquals(1, metrics.getStatistics().get(StoreMetrics.GET_XML_RESOURCE).getCount());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testQueryShapesAreCapped() {
+        for (int i=0; i<StoreMetricsImpl.MAXIMUM_QUERY_SHAPES + 10; i++) {
+            metrics.record(StoreMetrics.QUERY_FOR_INDICES, "#roots#[@a" + i + "='x']", 1, 1, 0);
+        }
+        Map<String,QueryStatistics> statistics = metrics.getStatistics();
+        assertEquals(StoreMetricsImpl.MAXIMUM_QUERY_SHAPES + 1, statistics.size());
+        assertEquals(10, statistics.get(StoreMetrics.QUERY_FOR_INDICES + " " + StoreMetricsImpl.OTHER_QUERY_SHAPES).getCount());
+
+        // Shapes that are already being recorded are still recorded separately.
+        metrics.record(StoreMetrics.QUERY_FOR_INDICES, "#roots#[@a0='y']", 1, 1, 0);
+        assertEquals(2, metrics.getStatistics().get(StoreMetrics.QUERY_FOR_INDICES + " " + metrics.getShape("#roots#[@a0='x']")).getCount());
+    }
+
+    public void testFailuresAreRecorded() {
+        try {
+            store.getXMLResource("not a fragment index");
+            fail("The fragment does not exist.");
+        } catch (XBRLException expected) {
+            QueryStatistics retrievals = metrics.getStatistics().get(StoreMetrics.GET_XML_RESOURCE);
+            assertEquals(1, retrievals.getCount());
+            assertEquals(1, retrievals.getFailures());
+        }
+    }
+
+}
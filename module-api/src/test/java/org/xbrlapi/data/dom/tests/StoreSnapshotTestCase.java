@@ -0,0 +1,125 @@
+package org.xbrlapi.data.dom.tests;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.net.URI;
+import java.util.Set;
+
+import org.xbrlapi.XML;
+import org.xbrlapi.data.dom.IndexedStoreImpl;
+import org.xbrlapi.data.dom.StoreImpl;
+import org.xbrlapi.data.resource.InStoreMatcherImpl;
+import org.xbrlapi.networks.StorerImpl;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Tests the saving and loading of data store snapshots.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class StoreSnapshotTestCase extends BaseTestCase {
+
+    private final String START = "test.data.small.schema";
+
+    private final String LINKBASE = "test.data.xlink.titles";
+
+    private File snapshot = null;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        snapshot = File.createTempFile("store", ".snapshot");
+    }
+
+    protected void tearDown() throws Exception {
+        snapshot.delete();
+        super.tearDown();
+    }
+
+    public StoreSnapshotTestCase(String arg0) {
+        super(arg0);
+    }
+
+    public final void testSnapshotRoundTrip() {
+        try {
+            loader.discover(this.getURI(LINKBASE));
+            (new StorerImpl(store)).storeRelationships(store.getDocumentURIs());
+            String relationships = "#roots#[@type='org.xbrlapi.impl.RelationshipImpl']";
+            assertTrue(store.queryCount(relationships) > 0);
+
+            ((StoreImpl) store).saveSnapshot(snapshot);
+            assertTrue(snapshot.length() > 0);
+
+            StoreImpl copy = createStore();
+            stores.add(copy);
+            copy.loadSnapshot(snapshot);
+
+            assertEquals(store.getSize(), copy.getSize());
+            assertEquals(store.getDocumentURIs(), copy.getDocumentURIs());
+            assertEquals(store.queryCount(relationships), copy.queryCount(relationships));
+            Set<String> indices = store.queryForIndices("#roots#");
+            assertEquals(indices, copy.queryForIndices("#roots#"));
+            for (String index: indices) {
+                XML original = store.getXMLResource(index);
+                XML loaded = copy.getXMLResource(index);
+                assertEquals(original.getType(), loaded.getType());
+                assertEquals(store.serializeToString(original.getMetadataRootElement()), copy.serializeToString(loaded.getMetadataRootElement()));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Unexpected exception. " + e.getMessage());
+        }
+    }
+
+    public final void testMatcherReloadsSnapshotMatches() {
+        try {
+            URI uri = this.getURI(START);
+            loader.discover(uri);
+            ((StoreImpl) store).saveSnapshot(snapshot);
+
+            StoreImpl copy = createStore();
+            stores.add(copy);
+            assertEquals(0, copy.queryCount("#roots#[@type='org.xbrlapi.impl.MatchImpl']"));
+            assertFalse(copy.getMatcher().getAllMatchingURIs(uri).size() > 0);
+            copy.loadSnapshot(snapshot);
+            assertTrue(copy.getMatcher().hasURI(uri));
+            assertEquals(store.getMatcher().getAllMatchingURIs(uri), copy.getMatcher().getAllMatchingURIs(uri));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Unexpected exception. " + e.getMessage());
+        }
+    }
+
+    public final void testIndexedStoreLoadsSnapshot() {
+        try {
+            loader.discover(this.getURI(START));
+            ((StoreImpl) store).saveSnapshot(snapshot);
+
+            StoreImpl copy = new IndexedStoreImpl();
+            copy.setMatcher(new InStoreMatcherImpl(copy,cacheImpl));
+            stores.add(copy);
+            copy.loadSnapshot(snapshot);
+
+            String query = "#roots#[@parentIndex='']";
+            assertTrue(store.queryCount(query) > 0);
+            assertEquals(store.queryForIndices(query), copy.queryForIndices(query));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Unexpected exception. " + e.getMessage());
+        }
+    }
+
+    public final void testLoadingAFileThatIsNotASnapshot() {
+        try {
+            FileWriter writer = new FileWriter(snapshot);
+            writer.write("<store/>");
+            writer.close();
+            ((StoreImpl) store).loadSnapshot(snapshot);
+            fail("The file is not a snapshot.");
+        } catch (XBRLException expected) {
+            ;
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Unexpected exception. " + e.getMessage());
+        }
+    }
+
+}
@@ -12,6 +12,7 @@ public class AllTests {
 		suite.addTestSuite(InStoreMatcherTestCase.class);
         suite.addTestSuite(MatcherSerializationTestCase.class);
         suite.addTestSuite(SignerSerializationTestCase.class);
+        suite.addTestSuite(StreamingSignerTestCase.class);
 		//$JUnit-END$
 		return suite;
 	}
@@ -1,5 +1,7 @@
 package org.xbrlapi.data.resource.tests;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.net.URI;
 
 import org.xbrlapi.data.Store;
@@ -18,6 +20,7 @@ public class InStoreMatcherTestCase extends BaseTestCase {
 		super.setUp();
 		store = new StoreImpl();
         matcher = new InStoreMatcherImpl(store,cache);
+        store.setMatcher(matcher);
 	}
 	
     protected void tearDown() throws Exception {
@@ -61,9 +64,84 @@ public class InStoreMatcherTestCase extends BaseTestCase {
             fail("Unexpected exception thrown.");
         }
     }
-    
 
+    private File createResource(File directory, String name, String content) throws Exception {
+        File file = new File(directory, name);
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+        return file;
+    }
 
-	
+    private int getStoredMatchCount() throws Exception {
+        return store.queryForIndices("#roots#[@type='org.xbrlapi.impl.MatchImpl']").size();
+    }
+
+    public void testMatchesAreIndexedAndPersisted() {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "matcher" + System.currentTimeMillis());
+        try {
+            assertTrue(directory.mkdirs());
+            URI a = createResource(directory, "a.xml", "<a>" + directory + "</a>\n").toURI();
+            URI b = createResource(directory, "b.xml", "<a>" + directory + "</a>\r\n").toURI();
+            URI c = createResource(directory, "c.xml", "<c>" + directory + "</c>\n").toURI();
+
+            assertEquals(a, matcher.getMatch(a));
+            assertEquals(a, matcher.getMatch(b));
+            assertEquals(c, matcher.getMatch(c));
+            assertTrue(matcher.hasURI(b));
+            assertEquals(2, matcher.getAllMatchingURIs(b).size());
+
+            // The store persists the new matches before it is queried.
+            assertEquals(2, getStoredMatchCount());
+
+            // A new matcher loads its index from the store.
+            InStoreMatcherImpl reloaded = new InStoreMatcherImpl(store,cache);
+            assertTrue(reloaded.hasURI(b));
+            assertEquals(a, reloaded.getMatch(b));
+            reloaded.flush();
+            assertEquals(2, getStoredMatchCount());
+
+            assertEquals(b, matcher.delete(a));
+            assertNull(matcher.delete(c));
+            assertFalse(matcher.hasURI(a));
+            matcher.flush();
+            assertEquals(1, getStoredMatchCount());
+            assertEquals(b, (new InStoreMatcherImpl(store,cache)).getMatch(b));
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Unexpected exception thrown.");
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) for (File file: files) file.delete();
+            directory.delete();
+        }
+    }
+
+    private boolean hasFlusherThread() {
+        for (Thread thread: Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().equals("InStoreMatcher flusher")) return true;
+        }
+        return false;
+    }
+
+    public void testFlusherThreadStops() {
+        try {
+            URI uri = getURI("test.data.small.schema");
+            assertEquals(uri, matcher.getMatch(uri));
+            assertTrue(hasFlusherThread());
+            matcher.flush();
+
+            // Flushers of other matchers stop once their changes are persisted.
+            long deadline = System.currentTimeMillis() + 5000;
+            while (hasFlusherThread() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertFalse(hasFlusherThread());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Unexpected exception thrown.");
+        }
+    }
 
 }
\ No newline at end of file
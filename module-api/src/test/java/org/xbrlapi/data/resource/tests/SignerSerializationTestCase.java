@@ -4,6 +4,8 @@ package org.xbrlapi.data.resource.tests;
  * @author Geoffrey Shuetrim (geoff@galexy.net) 
  */
 
+import org.xbrlapi.data.resource.ChecksumSignerImpl;
+import org.xbrlapi.data.resource.DigestSignerImpl;
 import org.xbrlapi.data.resource.MD5SignerImpl;
 import org.xbrlapi.utilities.BaseTestCase;
 
@@ -32,6 +34,22 @@ public class SignerSerializationTestCase extends BaseTestCase {
             fail("Unexpected exception. " + e.getMessage());
         }
     }	
+
+    public final void testStreamingSignerSerialization() {
+        try {
+            Object object = new DigestSignerImpl("SHA-1");
+            Object copy = getDeepCopy(object);
+            this.assessCustomEquality(object,copy);
+            assertFalse(object.equals(new DigestSignerImpl()));
+
+            object = new ChecksumSignerImpl();
+            copy = getDeepCopy(object);
+            this.assessCustomEquality(object,copy);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Unexpected exception. " + e.getMessage());
+        }
+    }
 	
 
 
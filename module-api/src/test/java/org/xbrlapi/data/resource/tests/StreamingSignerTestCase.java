@@ -0,0 +1,159 @@
+package org.xbrlapi.data.resource.tests;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Vector;
+
+import org.xbrlapi.data.dom.StoreImpl;
+import org.xbrlapi.data.resource.BaseStreamingSignerImpl;
+import org.xbrlapi.data.resource.ChecksumSignerImpl;
+import org.xbrlapi.data.resource.DigestSignerImpl;
+import org.xbrlapi.data.resource.InStoreMatcherImpl;
+import org.xbrlapi.data.resource.MD5SignerImpl;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Tests the streaming signature generators.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class StreamingSignerTestCase extends BaseTestCase {
+
+    protected void setUp() throws Exception {
+        super.setUp();
+    }
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    public StreamingSignerTestCase(String arg0) {
+        super(arg0);
+    }
+
+    private InputStream getStream(String content) throws Exception {
+        return new ByteArrayInputStream(content.getBytes("UTF-8"));
+    }
+
+    public void testDigestSignature() {
+        try {
+            BaseStreamingSignerImpl signer = new DigestSignerImpl();
+            assertEquals("md5", signer.getAlgorithm());
+            assertEquals("md5_3_900150983cd24fb0d6963f7d28e17f72", signer.getSignature(getStream("abc")));
+
+            signer = new DigestSignerImpl("SHA-1");
+            assertEquals("sha1_3_a9993e364706816aba3e25717850c26c9cd0d89d", signer.getSignature(getStream("abc")));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Unexpected exception. " + e.getMessage());
+        }
+    }
+
+    public void testUnknownDigestAlgorithm() {
+        try {
+            new DigestSignerImpl("NOT-AN-ALGORITHM");
+            fail("The algorithm does not exist.");
+        } catch (XBRLException expected) {
+            ;
+        }
+    }
+
+    public void testSignaturesIgnoreLineEndings() {
+        try {
+            BaseStreamingSignerImpl[] signers = { new DigestSignerImpl(), new ChecksumSignerImpl() };
+            for (BaseStreamingSignerImpl signer: signers) {
+                String unix = signer.getSignature(getStream("<a>\n<b/>\n</a>"));
+                assertTrue(unix.startsWith(signer.getAlgorithm() + "_"));
+                assertEquals(unix, signer.getSignature(getStream("<a>\r\n<b/>\r\n</a>")));
+                assertFalse(unix.equals(signer.getSignature(getStream("<a>\n<c/>\n</a>"))));
+
+                List<String> lines = new Vector<String>();
+                lines.add("<a>");
+                lines.add("<b/>");
+                lines.add("</a>");
+                assertEquals(unix, signer.getSignature(lines));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Unexpected exception. " + e.getMessage());
+        }
+    }
+
+    public void testSignatureDoesNotDependOnReads() {
+        try {
+            StringBuilder content = new StringBuilder();
+            for (int i=0; i<20000; i++) content.append("<line number=\"").append(i).append("\"/>\r\n");
+            BaseStreamingSignerImpl signer = new ChecksumSignerImpl();
+            String signature = signer.getSignature(getStream(content.toString()));
+            InputStream trickle = new FilterInputStream(getStream(content.toString())) {
+                public int read(byte[] bytes, int offset, int length) throws IOException {
+                    return super.read(bytes, offset, Math.min(length, 7));
+                }
+            };
+            assertEquals(signature, signer.getSignature(trickle));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Unexpected exception. " + e.getMessage());
+        }
+    }
+
+    private File getFile(String content) throws Exception {
+        File file = File.createTempFile("signer", ".xml");
+        file.deleteOnExit();
+        FileOutputStream stream = new FileOutputStream(file);
+        stream.write(content.getBytes("UTF-8"));
+        stream.close();
+        return file;
+    }
+
+    private List<String> getLines(File file) throws Exception {
+        List<String> lines = new Vector<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        String line;
+        while ((line = reader.readLine()) != null) lines.add(line);
+        reader.close();
+        return lines;
+    }
+
+    public void testMD5FileSignatureMatchesLineSignature() {
+        try {
+            MD5SignerImpl signer = new MD5SignerImpl();
+            StringBuilder large = new StringBuilder();
+            for (int i=0; i<5000; i++) large.append("<line number=\"").append(i).append("\"/>").append((i % 3 == 0) ? "\r\n" : "\n");
+            String[] contents = { "", "<a/>", "<a>\n<b/>\n</a>\n", "<a>\r<b/>\r\n</a>", "\n\n\n", large.toString() };
+            for (String content: contents) {
+                File file = getFile(content);
+                assertEquals(signer.getSignature(getLines(file)), signer.getSignature(file));
+            }
+            List<String> lines = new Vector<String>();
+            for (int i=0; i<100; i++) lines.add("<line number=\"" + i + "\"/>");
+            assertEquals("1002e71cf22c51f227e509c27f51c5552ce", signer.getSignature(lines));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Unexpected exception. " + e.getMessage());
+        }
+    }
+
+    public void testMatcherUsesStreamingSignature() {
+        try {
+            matcher = new InStoreMatcherImpl(new StoreImpl(),cache);
+            String signature = matcher.getSignature(getURI("test.data.small.schema"));
+            matcher.setSigner(new MD5SignerImpl());
+            assertEquals(signature, matcher.getSignature(getURI("test.data.small.schema")));
+            matcher.setSigner(new DigestSignerImpl());
+            assertTrue(matcher.getSignature(getURI("test.data.small.schema")).startsWith("md5_"));
+            matcher.setSigner(new ChecksumSignerImpl());
+            assertTrue(matcher.getSignature(getURI("test.data.small.schema")).startsWith("crc32adler32_"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Unexpected exception. " + e.getMessage());
+        }
+    }
+
+}
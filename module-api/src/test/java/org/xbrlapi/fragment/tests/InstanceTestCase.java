@@ -1,9 +1,19 @@
 package org.xbrlapi.fragment.tests;
 
+import java.net.URI;
 import java.util.List;
+import java.util.Map;
 
+import org.xbrlapi.Context;
 import org.xbrlapi.DOMLoadingTestCase;
+import org.xbrlapi.Fact;
 import org.xbrlapi.Instance;
+import org.xbrlapi.Item;
+import org.xbrlapi.data.XMLCursor;
+import org.xbrlapi.data.metrics.QueryStatistics;
+import org.xbrlapi.data.metrics.StoreMetrics;
+import org.xbrlapi.data.metrics.StoreMetricsImpl;
+import org.xbrlapi.utilities.XBRLException;
 
 /**
  * Tests the implementation of the org.xbrlapi.Instance interface.
@@ -87,6 +97,98 @@ public class InstanceTestCase extends DOMLoadingTestCase {
         }
     }
 	
+	/**
+	 * Test that contexts and units are cached until the instance is deleted.
+	 */
+	public void testContextAndUnitCaching() {
+	    try {
+	        List<Instance> instances = store.<Instance>getXMLResources("Instance");
+	        assertTrue(instances.size() > 0);
+	        URI uri = instances.get(0).getURI();
+	        assertSame(store.getContext(uri,"ci"), store.getContext(uri,"ci"));
+	        assertEquals(instances.get(0).getUnit("u1"), store.getUnit(uri,"u1"));
+	        try {
+	            store.getUnit(uri,"ci");
+	            fail("A context is not a unit.");
+	        } catch (XBRLException expected) {
+	            ;
+	        }
+	        store.deleteDocument(uri);
+	        try {
+	            store.getContext(uri,"ci");
+	            fail("The context was deleted with the instance.");
+	        } catch (XBRLException expected) {
+	            ;
+	        }
+	    } catch (Exception e) {
+	        fail(e.getMessage());
+	    }
+	}
+
+	/**
+	 * Test that looking up missing contexts does not query the store again.
+	 */
+	public void testMissingContextIsNotReloaded() {
+	    try {
+	        List<Instance> instances = store.<Instance>getXMLResources("Instance");
+	        assertTrue(instances.size() > 0);
+	        URI uri = instances.get(0).getURI();
+	        StoreMetrics metrics = new StoreMetricsImpl(-1);
+	        store.setMetrics(metrics);
+	        for (int i=0; i<3; i++) {
+	            try {
+	                store.getContext(uri,"missing");
+	                fail("There is no such context.");
+	            } catch (XBRLException expected) {
+	                ;
+	            }
+	        }
+	        store.setMetrics(null);
+	        long queries = 0;
+	        Map<String,QueryStatistics> statistics = metrics.getStatistics();
+	        for (String key: statistics.keySet()) {
+	            if (key.startsWith(StoreMetrics.QUERY_FOR_XML_RESOURCES)) queries += statistics.get(key).getCount();
+	        }
+	        assertEquals(1, queries);
+	    } catch (Exception e) {
+	        fail(e.getMessage());
+	    }
+	}
+
+	/**
+	 * Test that items get the replacement when a context is replaced
+	 * and that they no longer get a context once it is removed.
+	 */
+	public void testReplacedContextIsNotCached() {
+	    try {
+	        List<Instance> instances = store.<Instance>getXMLResources("Instance");
+	        assertTrue(instances.size() > 0);
+	        List<Item> items = instances.get(0).getAllItems();
+	        assertTrue(items.size() > 0);
+	        Item item = items.get(0);
+	        Context original = item.getContext();
+	        assertSame(original, item.getContext());
+
+	        Context replacement = store.<Context>getXMLResource(original.getIndex());
+	        store.persist(replacement);
+	        Context current = item.getContext();
+	        assertNotSame(original, current);
+	        assertEquals(original.getIndex(), current.getIndex());
+	        assertNotNull(current.getMetadataRootElement().getParentNode());
+
+	        store.remove(current);
+	        try {
+	            item.getContext();
+	            fail("The context was removed.");
+	        } catch (XBRLException expected) {
+	            ;
+	        }
+	    } catch (Exception e) {
+	        e.printStackTrace();
+	        fail(e.getMessage());
+	    }
+	}
+
 	/**
 	 * Test getting schemaRefs.
 	 */
@@ -145,6 +247,38 @@ public class InstanceTestCase extends DOMLoadingTestCase {
         }
     }	
 	
+    public void testGetAllFactsCursor() {
+        try {
+            List<Instance> instances = store.<Instance>getXMLResources("Instance");
+            assertTrue(instances.size() > 0);
+            for (Instance instance: instances) {
+                List<Fact> facts = instance.getAllFacts();
+                XMLCursor<Fact> cursor = instance.getAllFactsCursor();
+                for (Fact fact: facts) {
+                    assertTrue(cursor.hasNext());
+                    assertEquals(fact.getIndex(), cursor.next().getIndex());
+                }
+                assertFalse(cursor.hasNext());
+                cursor.close();
+            }
+            
+            int count = 0;
+            XMLCursor<Fact> cursor = store.getAllFactsCursor();
+            while (cursor.hasNext()) {
+                assertNotNull(cursor.next().getType());
+                count++;
+            }
+            assertEquals(store.getAllFacts().size(), count);
+            
+            cursor = store.getFactsCursor();
+            assertTrue(cursor.hasNext());
+            cursor.close();
+            assertFalse(cursor.hasNext());
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }   
+    
     public void testGetTuples() {
         try {
             List<Instance> instances = store.<Instance>getXMLResources("Instance");
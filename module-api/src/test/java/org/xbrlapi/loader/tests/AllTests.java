@@ -13,7 +13,9 @@ public class AllTests {
         suite.addTestSuite(LoaderImplTestCase.class);
 		suite.addTestSuite(LoaderSerializationTestCase.class);
         suite.addTestSuite(LoadingDuplicateDocumentsTestCase.class);
+        suite.addTestSuite(ParallelDiscovererTestCase.class);
         suite.addTestSuite(PartialLoadingTestCase.class);
+        suite.addTestSuite(PipelinedLoaderImplTestCase.class);
         suite.addTestSuite(SimpleLinkDiscoveryTestCase.class);
 		//$JUnit-END$
 		return suite;
@@ -0,0 +1,96 @@
+package org.xbrlapi.loader.tests;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+
+import org.xbrlapi.data.Store;
+import org.xbrlapi.data.dom.tests.BaseTestCase;
+import org.xbrlapi.loader.Loader;
+import org.xbrlapi.loader.discoverer.ParallelDiscoverer;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Test parallel discovery using a set of loaders sharing a document queue.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class ParallelDiscovererTestCase extends BaseTestCase {
+	
+	private final String STARTING_POINT = "test.data.small.schema";
+	private final String STARTING_POINT_2 = "test.data.small.instance";
+	private URI uri1 = null;
+	private URI uri2 = null;
+	
+	protected void setUp() throws Exception {
+		super.setUp();
+		uri1 = getURI(this.STARTING_POINT);
+		uri2 = getURI(this.STARTING_POINT_2);
+	}
+	
+	public ParallelDiscovererTestCase(String arg0) {
+		super(arg0);
+	}
+
+	public void testFailOnEmptyListOfLoaders() {
+	    try {
+	        new ParallelDiscoverer(new Vector<Loader>());
+	        fail("An empty list of loaders is not allowed.");
+	    } catch (XBRLException expected) {
+	        ;
+	    }
+	}
+
+	public void testFailOnLoadersUsingDifferentStores() throws Exception {
+	    Store other = createStore();
+	    stores.add(other);
+	    List<Loader> loaders = new Vector<Loader>();
+	    loaders.add(loader);
+	    loaders.add(createLoader(other));
+	    try {
+	        new ParallelDiscoverer(loaders);
+	        fail("Loaders using different data stores are not allowed.");
+	    } catch (XBRLException expected) {
+	        ;
+	    }
+	}
+
+	/**
+	 * Test that parallel discovery loads the same documents as
+	 * discovery using a single loader.
+	 */
+	public void testParallelDiscovery() {
+	    try {
+	        List<Loader> loaders = new Vector<Loader>();
+	        loaders.add(loader);
+            loaders.add(createLoader(store));
+            loaders.add(createLoader(store));
+            ParallelDiscoverer discoverer = new ParallelDiscoverer(loaders);
+            discoverer.stashURI(uri1);
+            discoverer.stashURI(uri2);
+            discoverer.discover();
+
+            Set<URI> parallelURIs = store.getDocumentURIs();
+            assertTrue(parallelURIs.contains(uri1));
+            assertTrue(parallelURIs.contains(uri2));
+            assertEquals(parallelURIs.size(), discoverer.getNewDocuments().size());
+            for (Loader l: loaders) {
+                assertNull(l.getDocumentQueue());
+            }
+
+            Store serialStore = createStore();
+            stores.add(serialStore);
+            Loader serialLoader = createLoader(serialStore);
+            serialLoader.stashURI(uri1);
+            serialLoader.stashURI(uri2);
+            serialLoader.discover();
+            assertEquals(serialStore.getDocumentURIs().size(), parallelURIs.size());
+            assertEquals(serialStore.getSize(), store.getSize());
+
+		} catch (Exception e) {
+		    e.printStackTrace();
+			fail("Unexpected " + e.getMessage());
+		}
+	}
+	
+}
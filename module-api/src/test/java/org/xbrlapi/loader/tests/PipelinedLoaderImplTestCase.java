@@ -0,0 +1,125 @@
+package org.xbrlapi.loader.tests;
+
+import java.net.URI;
+import java.util.Set;
+
+import org.xbrlapi.data.Store;
+import org.xbrlapi.data.dom.tests.BaseTestCase;
+import org.xbrlapi.loader.Loader;
+import org.xbrlapi.loader.LoaderImpl;
+import org.xbrlapi.loader.PipelinedLoaderImpl;
+import org.xbrlapi.utilities.XBRLException;
+import org.xbrlapi.xlink.XLinkProcessor;
+
+/**
+ * Test the pipelined loader implementation.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class PipelinedLoaderImplTestCase extends BaseTestCase {
+
+	private final String STARTING_POINT = "test.data.small.schema";
+	private final String STARTING_POINT_2 = "test.data.small.instance";
+	private URI uri1 = null;
+	private URI uri2 = null;
+
+	private final String VALID_URI = "test.data.local.xbrl.presentation.simple";
+	private final String DUPLICATE_INSTANCE_URI = "test.data.local.xbrl.duplicate.instance";
+
+	/**
+	 * True if the test case should create pipelined loaders.
+	 */
+	private boolean pipelined = true;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		uri1 = getURI(this.STARTING_POINT);
+		uri2 = getURI(this.STARTING_POINT_2);
+	}
+
+	public PipelinedLoaderImplTestCase(String arg0) {
+		super(arg0);
+	}
+
+	/**
+	 * @see BaseTestCase#newLoader(Store, XLinkProcessor)
+	 */
+	protected Loader newLoader(Store store, XLinkProcessor xlinkProcessor) throws XBRLException {
+	    if (pipelined) return new PipelinedLoaderImpl(store,xlinkProcessor);
+	    return new LoaderImpl(store,xlinkProcessor);
+	}
+
+	/**
+	 * Test that the pipelined loader loads the same documents
+	 * and fragments as the loader that does one thing at a time.
+	 */
+	public void testPipelinedDiscovery() {
+	    try {
+	        assertTrue(loader instanceof PipelinedLoaderImpl);
+	        loader.stashURI(uri1);
+	        loader.stashURI(uri2);
+	        loader.discover();
+
+	        Set<URI> pipelinedURIs = store.getDocumentURIs();
+	        assertTrue(pipelinedURIs.contains(uri1));
+	        assertTrue(pipelinedURIs.contains(uri2));
+	        assertTrue(loader.getDocumentsStillToAnalyse().isEmpty());
+	        for (URI uri: pipelinedURIs) {
+	            assertTrue(store.requestLoadingRightsFor(createLoader(store), uri));
+	        }
+
+	        pipelined = false;
+	        Store serialStore = createStore();
+	        stores.add(serialStore);
+	        Loader serialLoader = createLoader(serialStore);
+	        serialLoader.stashURI(uri1);
+	        serialLoader.stashURI(uri2);
+	        serialLoader.discover();
+	        assertEquals(serialStore.getDocumentURIs(), pipelinedURIs);
+	        assertEquals(serialStore.getSize(), store.getSize());
+	    } catch (Exception e) {
+	        e.printStackTrace();
+	        fail("Unexpected " + e.getMessage());
+	    }
+	}
+
+	/**
+	 * Test that the pipelined loader does not store a document whose
+	 * content duplicates a document that it is still persisting.
+	 */
+	public void testDuplicateDocumentsAreNotStored() {
+	    try {
+	        loader.stashURI(getURI(VALID_URI));
+	        loader.stashURI(getURI(DUPLICATE_INSTANCE_URI));
+	        loader.discover();
+
+	        pipelined = false;
+	        Store serialStore = createStore();
+	        stores.add(serialStore);
+	        Loader serialLoader = createLoader(serialStore);
+	        serialLoader.stashURI(getURI(VALID_URI));
+	        serialLoader.stashURI(getURI(DUPLICATE_INSTANCE_URI));
+	        serialLoader.discover();
+	        assertEquals(serialStore.getDocumentURIs().size(), store.getDocumentURIs().size());
+	    } catch (Exception e) {
+	        e.printStackTrace();
+	        fail("Unexpected " + e.getMessage());
+	    }
+	}
+
+	/**
+	 * Test that a document discovered by the pipelined loader
+	 * is in the data store as soon as its discovery is reported.
+	 */
+	public void testDiscoverDocument() {
+	    try {
+	        assertTrue(loader.discoverDocument(uri1));
+	        assertTrue(store.hasDocument(uri1));
+	        assertTrue(store.getDocumentCatalog().getFragmentCount(uri1) > 0);
+	        assertFalse(loader.discoverDocument(uri1));
+	    } catch (Exception e) {
+	        e.printStackTrace();
+	        fail("Unexpected " + e.getMessage());
+	    }
+	}
+
+}
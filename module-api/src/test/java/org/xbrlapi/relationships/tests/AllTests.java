@@ -13,6 +13,7 @@ public class AllTests {
         suite.addTestSuite(PersistedNetworksTestCase.class);
         suite.addTestSuite(PersistedRelationshipLoadingTestCase.class);
         suite.addTestSuite(PersistedRelationshipErrorsTestCase.class);
+        suite.addTestSuite(CompactNetworkTestCase.class);
 		//$JUnit-END$
 		return suite;
 	}
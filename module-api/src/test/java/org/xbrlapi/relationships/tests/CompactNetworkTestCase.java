@@ -0,0 +1,133 @@
+package org.xbrlapi.relationships.tests;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+
+import org.xbrlapi.DOMLoadingTestCase;
+import org.xbrlapi.Fragment;
+import org.xbrlapi.Relationship;
+import org.xbrlapi.networks.CompactNetworkImpl;
+import org.xbrlapi.networks.Network;
+import org.xbrlapi.networks.Networks;
+import org.xbrlapi.networks.TreeIterator;
+
+/**
+ * Tests the compact network implementation against the network implementation.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class CompactNetworkTestCase extends DOMLoadingTestCase {
+
+    private Networks networks = null;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        loader.discover(getURI("test.data.xlink.titles"));
+        networks = store.getNetworks();
+        assertTrue(networks.getSize() > 0);
+    }
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    public CompactNetworkTestCase(String arg0) {
+        super(arg0);
+    }
+
+    private Network getCompactNetwork(Network network, int cacheSize) throws Exception {
+        Network compact = new CompactNetworkImpl(store, network.getLinkRole(), network.getArcrole(), cacheSize);
+        List<Relationship> relationships = network.getAllRelationships();
+        compact.addRelationships(relationships);
+        compact.addRelationships(relationships);
+        return compact;
+    }
+
+    private List<String> getIndices(Collection<? extends Fragment> fragments) {
+        List<String> result = new Vector<String>();
+        for (Fragment fragment: fragments) result.add(fragment.getIndex());
+        return result;
+    }
+
+    private List<String> getRelationshipIndices(Collection<Relationship> relationships) {
+        List<String> result = new Vector<String>();
+        for (Relationship relationship: relationships) result.add(relationship.getIndex());
+        return result;
+    }
+
+    public void testCompactNetworkMatchesNetwork() {
+        try {
+            for (Network network: networks) {
+                Network compact = getCompactNetwork(network, CompactNetworkImpl.DEFAULT_CACHE_SIZE);
+                assertEquals(network.getNumberOfRelationships(), compact.getNumberOfRelationships());
+                assertEquals(network.getNumberOfActiveRelationships(), compact.getNumberOfActiveRelationships());
+                assertEquals(network.getRootFragmentIndexes(), compact.getRootFragmentIndexes());
+                assertEquals(new HashSet<String>(getIndices(network.<Fragment>getRootFragments())), new HashSet<String>(getIndices(compact.<Fragment>getRootFragments())));
+
+                Set<String> indices = new HashSet<String>();
+                for (Relationship relationship: network.getAllRelationships()) {
+                    indices.add(relationship.getSourceIndex());
+                    indices.add(relationship.getTargetIndex());
+                    assertTrue(compact.contains(relationship.getArcIndex()));
+                }
+                for (String index: indices) {
+                    assertEquals(getRelationshipIndices(network.getActiveRelationshipsFrom(index)), getRelationshipIndices(compact.getActiveRelationshipsFrom(index)));
+                    assertEquals(getRelationshipIndices(network.getActiveRelationshipsTo(index)), getRelationshipIndices(compact.getActiveRelationshipsTo(index)));
+                    assertEquals(getIndices(network.<Fragment>getChildren(index)), getIndices(compact.<Fragment>getChildren(index)));
+                    assertEquals(getIndices(network.<Fragment>getParents(index)), getIndices(compact.<Fragment>getParents(index)));
+                    assertEquals(network.hasActiveRelationshipsFrom(index), compact.hasActiveRelationshipsFrom(index));
+                    assertEquals(network.hasActiveRelationshipsTo(index), compact.hasActiveRelationshipsTo(index));
+                    assertEquals(network.isRoot(index), compact.isRoot(index));
+                    assertEquals(network.isLeaf(index), compact.isLeaf(index));
+                    assertEquals(network.hasSingleParent(index), compact.hasSingleParent(index));
+                    assertEquals(index, compact.get(index).getIndex());
+                }
+                assertFalse(compact.hasActiveRelationshipsFrom("not a fragment index"));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testRelationshipsAreRebuiltWhenNotRetained() {
+        try {
+            for (Network network: networks) {
+                Network compact = getCompactNetwork(network, 1);
+                assertEquals(new HashSet<String>(getRelationshipIndices(network.getAllRelationships())), new HashSet<String>(getRelationshipIndices(compact.getAllRelationships())));
+                assertEquals(new HashSet<String>(getRelationshipIndices(network.getAllActiveRelationships())), new HashSet<String>(getRelationshipIndices(compact.getAllActiveRelationships())));
+                for (Relationship relationship: compact.getAllActiveRelationships()) {
+                    assertEquals(relationship.getSourceIndex(), relationship.getSource().getIndex());
+                    assertEquals(relationship.getTargetIndex(), relationship.getTarget().getIndex());
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testTreeIteration() {
+        try {
+            for (Network network: networks) {
+                Network compact = getCompactNetwork(network, CompactNetworkImpl.DEFAULT_CACHE_SIZE);
+                for (Fragment root: network.<Fragment>getRootFragments()) {
+                    List<String> expected = new Vector<String>();
+                    TreeIterator iterator = new TreeIterator(network, root);
+                    while (iterator.hasNext()) expected.add(iterator.next().getIndex());
+                    List<String> actual = new Vector<String>();
+                    iterator = new TreeIterator(compact, compact.get(root.getIndex()));
+                    while (iterator.hasNext()) actual.add(iterator.next().getIndex());
+                    assertTrue(expected.size() > 1);
+                    assertEquals(expected, actual);
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+}
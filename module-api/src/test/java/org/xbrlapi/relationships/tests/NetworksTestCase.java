@@ -16,6 +16,7 @@ import org.xbrlapi.DOMLoadingTestCase;
 import org.xbrlapi.LabelResource;
 import org.xbrlapi.Relationship;
 import org.xbrlapi.networks.Network;
+import org.xbrlapi.networks.NetworkImpl;
 import org.xbrlapi.networks.Networks;
 import org.xbrlapi.utilities.Constants;
 
@@ -189,4 +190,41 @@ public class NetworksTestCase extends DOMLoadingTestCase {
 			fail(e.getMessage());
 		}
 	}
+
+    /**
+     * Test that the active relationships of a network reflect relationships
+     * that are added after the active relationships have been retrieved.
+     */
+    public void testActiveRelationshipsReflectAddedRelationships() {
+        try {
+            networks = store.getNetworks(Constants.LabelArcrole);
+            Network network = networks.getNetwork(Constants.StandardLinkRole,Constants.LabelArcrole);
+            List<Relationship> relationships = network.getAllRelationships();
+            assertTrue(relationships.size() > 0);
+
+            Network myNetwork = new NetworkImpl(store,Constants.StandardLinkRole,Constants.LabelArcrole);
+            for (Relationship relationship: relationships) {
+                String sourceIndex = relationship.getSourceIndex();
+                String targetIndex = relationship.getTargetIndex();
+                int fromCount = myNetwork.getActiveRelationshipsFrom(sourceIndex).size();
+                int toCount = myNetwork.getActiveRelationshipsTo(targetIndex).size();
+                myNetwork.addRelationship(relationship);
+                SortedSet<Relationship> from = myNetwork.getActiveRelationshipsFrom(sourceIndex);
+                assertEquals(fromCount + 1, from.size());
+                assertTrue(from.contains(relationship));
+                assertEquals(toCount + 1, myNetwork.getActiveRelationshipsTo(targetIndex).size());
+                assertFalse(myNetwork.isLeaf(sourceIndex));
+                assertFalse(myNetwork.isRoot(targetIndex));
+
+                from.clear();
+                assertEquals(fromCount + 1, myNetwork.getActiveRelationshipsFrom(sourceIndex).size());
+                assertEquals(fromCount + 1, myNetwork.getChildren(sourceIndex).size());
+            }
+            assertEquals(network.getNumberOfActiveRelationships(), myNetwork.getAllActiveRelationships().size());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
 }
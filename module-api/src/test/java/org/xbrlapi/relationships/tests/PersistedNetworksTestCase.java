@@ -1,21 +1,28 @@
 package org.xbrlapi.relationships.tests;
 
 import java.net.URI;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
 import org.xbrlapi.Arc;
 import org.xbrlapi.Concept;
 import org.xbrlapi.DOMLoadingTestCase;
+import org.xbrlapi.Fragment;
 import org.xbrlapi.LabelResource;
 import org.xbrlapi.Relationship;
+import org.xbrlapi.data.metrics.StoreMetrics;
+import org.xbrlapi.data.metrics.StoreMetricsImpl;
+import org.xbrlapi.impl.RelationshipResolver;
 import org.xbrlapi.networks.Analyser;
 import org.xbrlapi.networks.AnalyserImpl;
 import org.xbrlapi.networks.Network;
 import org.xbrlapi.networks.Networks;
 import org.xbrlapi.networks.Storer;
 import org.xbrlapi.networks.StorerImpl;
+import org.xbrlapi.utilities.Constants;
 
 /**
  * @author Geoffrey Shuetrim (geoff@galexy.net)
@@ -77,6 +84,31 @@ public class PersistedNetworksTestCase extends DOMLoadingTestCase {
         }
     }
 
+    /**
+     * Test that storing the relationships document by document, in parallel,
+     * persists the same relationships as storing them from the networks.
+     */
+    public void testPersistingRelationshipsForDocuments() { 
+        try {
+            storeNetworks();
+            Set<String> expected = store.queryForIndices("#roots#[@type='org.xbrlapi.impl.RelationshipImpl']");
+            assertTrue(expected.size() > 0);
+            storer.deleteRelationships();
+            assertEquals(initialSize,store.getSize());
+
+            new StorerImpl(store,2).storeRelationships(store.getDocumentURIs());
+            Set<String> actual = store.queryForIndices("#roots#[@type='org.xbrlapi.impl.RelationshipImpl']");
+            assertEquals(expected,actual);
+
+            // Storing them again does not add any more relationships.
+            new StorerImpl(store).storeRelationships(uri);
+            assertEquals(initialSize + expected.size(),store.getSize());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+    
     /**
      * Test retrieval of arcroles
      */
@@ -302,5 +334,68 @@ public class PersistedNetworksTestCase extends DOMLoadingTestCase {
             e.printStackTrace();
             fail(e.getMessage());
         }
-    }    
+    }
+
+    public void testResolvingPersistedRelationships() {
+        try {
+            storeNetworks();
+            List<Relationship> relationships = store.<Relationship>queryForXMLResources("#roots#[@type='org.xbrlapi.impl.RelationshipImpl']");
+            assertTrue(relationships.size() > 1);
+            RelationshipResolver.resolve(store, relationships);
+            Map<String,Fragment> sources = new HashMap<String,Fragment>();
+            for (Relationship relationship: relationships) {
+                Fragment source = relationship.getSource();
+                assertEquals(relationship.getSourceIndex(), source.getIndex());
+                assertSame(source, relationship.getSource());
+                assertEquals(relationship.getTargetIndex(), relationship.getTarget().getIndex());
+                assertEquals(relationship.getArcIndex(), relationship.getArc().getIndex());
+                assertEquals(relationship.getLinkIndex(), relationship.getExtendedLink().getIndex());
+                if (sources.containsKey(source.getIndex())) assertSame(sources.get(source.getIndex()), source);
+                else sources.put(source.getIndex(), source);
+            }
+            assertTrue(sources.size() < relationships.size());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testActiveRelationshipsAreMarkedWhenStored() {
+        try {
+            Storer storer = new StorerImpl(store);
+            StoreMetrics metrics = new StoreMetricsImpl(-1);
+            store.setMetrics(metrics);
+            storer.storeAllRelationships();
+            store.setMetrics(null);
+            int expected = 0;
+            for (Network network: store.getNetworks()) {
+                expected += network.getNumberOfActiveRelationships();
+            }
+            assertTrue(expected > 0);
+            String query = "#roots#[@type='org.xbrlapi.impl.RelationshipImpl' and @active]";
+            assertEquals(expected, store.queryForIndices(query).size());
+
+            // The relationships are persisted in batches with their active status set.
+            assertTrue(metrics.getStatistics().get(StoreMetrics.PERSIST).getCount() < expected);
+
+            URI document = store.<Arc>getXMLResources("Arc").get(0).getURI();
+            Map<URI,Set<URI>> documentNetworks = storer.getNetworks(document);
+            assertTrue(documentNetworks.containsKey(Constants.LabelArcrole));
+            assertTrue(documentNetworks.get(Constants.LabelArcrole).contains(Constants.StandardLinkRole));
+
+            for (Relationship relationship: store.<Relationship>queryForXMLResources(query)) {
+                relationship.removeMetaAttribute("active");
+            }
+            assertEquals(0, store.queryForIndices(query).size());
+            storer.markActiveRelationships(Constants.StandardLinkRole, Constants.LabelArcrole);
+            assertEquals(expected, store.queryForIndices(query).size());
+
+            storer.deleteRelationships(document);
+            assertEquals(0, store.queryForIndices("#roots#[@type='org.xbrlapi.impl.RelationshipImpl' and @active and @arcURI='" + document + "']").size());
+            assertTrue(storer.getNetworks(document).isEmpty());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
 }
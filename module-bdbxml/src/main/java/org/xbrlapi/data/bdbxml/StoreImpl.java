@@ -1,5 +1,6 @@
 package org.xbrlapi.data.bdbxml;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -7,6 +8,7 @@ import java.io.ObjectInputStream;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -15,10 +17,11 @@ import java.util.Vector;
 
 import org.apache.log4j.Logger;
 import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 import org.xbrlapi.XML;
 import org.xbrlapi.data.BaseStoreImpl;
 import org.xbrlapi.data.Store;
+import org.xbrlapi.data.XMLCursor;
+import org.xbrlapi.data.metrics.StoreMetrics;
 import org.xbrlapi.impl.FragmentFactory;
 import org.xbrlapi.utilities.Constants;
 import org.xbrlapi.utilities.XBRLException;
@@ -67,6 +70,13 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	transient public XmlContainer dataContainer;
 	
 	private int CACHE_SIZE = 1024 * 1024 * 1024;
+
+    /**
+     * DOM builders used to materialise fragments retrieved from the
+     * container, one per thread so that the parser is set up once
+     * per thread rather than once per fragment.
+     */
+    private static final ThreadLocal<XMLDOMBuilder> builders = new ThreadLocal<XMLDOMBuilder>();
 	
 	/**
 	 * This uses the default 1 GB cache size.
@@ -158,13 +168,18 @@ public class StoreImpl extends BaseStoreImpl implements Store {
     }
     
     /**
-     * @see org.xbrlapi.data.Store#persist(XML)
+     * Outstanding resource matches are persisted first so that they are counted.
+     * @see org.xbrlapi.data.Store#getSize()
      */
-    public synchronized int getSize() throws XBRLException {
+    public int getSize() throws XBRLException {
+        flushMatches();
+        readLock().lock();
         try {
             return this.dataContainer.getNumDocuments();
         } catch (XmlException e) {
             throw new XBRLException("Failed to get the number of fragments in the data store.",e);
+        } finally {
+            readLock().unlock();
         }
     }
     
@@ -354,10 +369,16 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	 * that are used by the store.
 	 * @see org.xbrlapi.data.Store#close()
 	 */
-    public synchronized void close() throws XBRLException {
-	    super.close();
-	    closeContainer();
-	    closeManager();
+    public void close() throws XBRLException {
+        getMatcher().flush();
+        writeLock().lock();
+        try {
+            super.close();
+            closeContainer();
+            closeManager();
+        } finally {
+            writeLock().unlock();
+        }
 	}
 	
 
@@ -389,17 +410,25 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	/**
 	 * @see org.xbrlapi.data.Store#delete()
 	 */
-    public synchronized void delete() throws XBRLException {
-	    deleteContainer();
-	    closeManager();
+    public void delete() throws XBRLException {
+        writeLock().lock();
+        try {
+            deleteContainer();
+            closeManager();
+        } finally {
+            writeLock().unlock();
+        }
 	}
 	
 	/**
 	 * @see org.xbrlapi.data.Store#persist(XML)
 	 */
-    synchronized public void persist(XML xml) throws XBRLException {
+    public void persist(XML xml) throws XBRLException {
 
+        long start = startOperation();
+        int results = -1;
         XmlUpdateContext xmlUpdateContext = null;
+        writeLock().lock();
 	    try {
 	        
             String index = xml.getIndex();
@@ -415,24 +444,63 @@ public class StoreImpl extends BaseStoreImpl implements Store {
                 if (xml.getBuilder() != null) xml.setResource(xml.getBuilder().getMetadata());
                 xml.setStore(this);
 	        }
+            xmlPersisted(xml);
+            results = 1;
 	        	        
         } catch (XmlException e) {
             throw new XBRLException("The fragment could not be added to the BDB XML data store.", e);
 	    } finally {
             //if (xmlUpdateContext != null) xmlUpdateContext.delete();
+	        writeLock().unlock();
+	        endOperation(start, StoreMetrics.PERSIST, null, results, 0);
 	    }
 	}
 
+    /**
+     * The fragments are all put into the container using the one
+     * update context rather than creating an update context per fragment.
+     * @see org.xbrlapi.data.Store#persist(Collection)
+     */
+    public void persist(Collection<? extends XML> xmls) throws XBRLException {
+
+        long start = startOperation();
+        int results = -1;
+        writeLock().lock();
+        try {
+            XmlUpdateContext xmlUpdateContext = dataManager.createUpdateContext();
+            for (XML xml: xmls) {
+                String index = xml.getIndex();
+                if (hasXMLResource(index)) dataContainer.deleteDocument(index,xmlUpdateContext);
+                String content = serializeToString(xml.getMetadataRootElement());
+                dataContainer.putDocument(index, content, xmlUpdateContext, null);
+                if (xml.getStore() == null) {
+                    if (xml.getBuilder() != null) xml.setResource(xml.getBuilder().getMetadata());
+                    xml.setStore(this);
+                }
+                xmlPersisted(xml);
+            }
+            results = xmls.size();
+        } catch (XmlException e) {
+            throw new XBRLException("The fragments could not be added to the BDB XML data store.", e);
+        } finally {
+            writeLock().unlock();
+            endOperation(start, StoreMetrics.PERSIST, null, results, 0);
+        }
+    }
+
 	/**
 	 * @see org.xbrlapi.data.Store#hasXMLResource(String)
 	 */
-    public synchronized boolean hasXMLResource(String index) throws XBRLException {
+    public boolean hasXMLResource(String index) throws XBRLException {
 
+        readLock().lock();
 	    try {
 	        dataContainer.getDocument(index);
 			return true;
         } catch (XmlException e) {
             return false;
+        } finally {
+            readLock().unlock();
         }
 	}
 	
@@ -441,68 +509,104 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	/**
 	 * @see org.xbrlapi.data.Store#getXMLResource(String)
 	 */
-     public synchronized <F extends XML> F getXMLResource(String index) throws XBRLException {
+     public <F extends XML> F getXMLResource(String index) throws XBRLException {
 
+         long start = startOperation();
+         int results = -1;
+         readLock().lock();
          try {
             XmlDocument xmlDocument = dataContainer.getDocument(index);
-            Document document = (new XMLDOMBuilder()).newDocument(xmlDocument.getContentAsInputStream());
-            return FragmentFactory.<F>newFragment(this, document.getDocumentElement());
+            F xml = this.<F>newFragment(xmlDocument);
+            results = 1;
+            return xml;
         } catch (XmlException e) { // Thrown if the document is not found
             throw new XBRLException("The fragment " + index + " could not be retrieved from the store.",e);
+        } finally {
+            readLock().unlock();
+            endOperation(start, StoreMetrics.GET_XML_RESOURCE, null, results, results);
         }
 
 	}
 
+    /**
+     * @return the DOM builder for the current thread.
+     * @throws XBRLException if the DOM builder cannot be initialised.
+     */
+    private static XMLDOMBuilder getBuilder() throws XBRLException {
+        XMLDOMBuilder builder = builders.get();
+        if (builder == null) {
+            builder = new XMLDOMBuilder();
+            builders.set(builder);
+        }
+        return builder;
+    }
+
+    /**
+     * Materialises a fragment from a document in the container.  The
+     * content is copied out of the container in one call and parsed by
+     * the DOM builder for the current thread.
+     * @param xmlDocument The container document holding the fragment.
+     * @return the fragment.
+     * @throws XmlException if the document content cannot be retrieved.
+     * @throws XBRLException if the fragment cannot be built.
+     */
+    private <F extends XML> F newFragment(XmlDocument xmlDocument) throws XmlException, XBRLException {
+        Document document = getBuilder().newDocument(new ByteArrayInputStream(xmlDocument.getContent()));
+        return FragmentFactory.<F>newFragment(this, document.getDocumentElement());
+    }
+
 	/**
 	 * @see org.xbrlapi.data.Store#remove(String)
 	 */
-     public synchronized void remove(XML fragment) throws XBRLException {
+     public void remove(XML fragment) throws XBRLException {
 		remove(fragment.getIndex());
 	}
 
 	/**
 	 * @see org.xbrlapi.data.Store#remove(String)
 	 */
-     public synchronized void remove(String index) throws XBRLException {
+     public void remove(String index) throws XBRLException {
 
+        long start = startOperation();
+        int results = -1;
         XmlUpdateContext xmlUpdateContext = null;
+        writeLock().lock();
         try {
             xmlUpdateContext = dataManager.createUpdateContext();
             dataContainer.deleteDocument(index,xmlUpdateContext);
+            xmlRemoved(index);
+            results = 1;
         } catch (XmlException e) {
             throw new XBRLException("The fragment removal failed.", e);
         } finally {
             //if (xmlUpdateContext != null) xmlUpdateContext.delete();
+            writeLock().unlock();
+            endOperation(start, StoreMetrics.REMOVE, null, results, 0);
         }
 	}
 
 	/**
 	 * @see org.xbrlapi.data.Store#queryForXMLResources(String)
 	 */
-    @SuppressWarnings(value = "unchecked")
-	public synchronized <F extends XML> List<F> queryForXMLResources(String query) throws XBRLException {
+	public <F extends XML> List<F> queryForXMLResources(String query) throws XBRLException {
+        flushMatches();
 
+        long start = startOperation();
+        int results = -1;
         XmlResults xmlResults = null;
+        readLock().lock();
         try {
     
             try {
     			xmlResults = runQuery(query);
 
-    			double startTime = System.currentTimeMillis();
-
     			XmlValue xmlValue = xmlResults.next();
     			List<F> fragments = new Vector<F>();
-    			XMLDOMBuilder builder = new XMLDOMBuilder();
     		    while (xmlValue != null) {
-                    XmlDocument doc = xmlValue.asDocument();
-    		        Document document = builder.newDocument(doc.getContentAsInputStream());
-    		        Element root = document.getDocumentElement();
-    				fragments.add((F) FragmentFactory.newFragment(this, root));
+    				fragments.add(this.<F>newFragment(xmlValue.asDocument()));
     		        xmlValue = xmlResults.next();
     		    }
-    	    	
-    	        Double time = new Double((System.currentTimeMillis()-startTime));
-    	        logger.debug(time + " milliseconds to create fragment list from" + query);
+    			results = fragments.size();
     			return fragments;
     
     		} catch (XmlException e) {
@@ -511,21 +615,108 @@ public class StoreImpl extends BaseStoreImpl implements Store {
     		
         } finally {
             if (xmlResults != null) xmlResults.delete();
+            readLock().unlock();
+            endOperation(start, StoreMetrics.QUERY_FOR_XML_RESOURCES, query, results, results);
         }
 	}
     
+    /**
+     * The query is evaluated lazily so each fragment is only retrieved
+     * from the container and built as the cursor moves to it.
+     * @see org.xbrlapi.data.Store#queryForXMLCursor(String)
+     */
+    public <F extends XML> XMLCursor<F> queryForXMLCursor(String query) throws XBRLException {
+        flushMatches();
+        long start = startOperation();
+        int results = -1;
+        readLock().lock();
+        try {
+            XMLCursor<F> cursor = new LazyCursor<F>(runQuery(query, XmlQueryContext.Lazy));
+            results = 0;
+            return cursor;
+        } finally {
+            readLock().unlock();
+            endOperation(start, StoreMetrics.QUERY_FOR_XML_CURSOR, query, results, 0);
+        }
+    }
+
+    /**
+     * A cursor over the lazily evaluated results of a query.  The next
+     * result is always read ahead so that the results are released as soon
+     * as the last fragment has been built.
+     */
+    private class LazyCursor<F extends XML> implements XMLCursor<F> {
+
+        private XmlResults xmlResults;
+        private XmlValue xmlValue = null;
+
+        LazyCursor(XmlResults xmlResults) throws XBRLException {
+            this.xmlResults = xmlResults;
+            advance();
+        }
+
+        private void advance() throws XBRLException {
+            if (xmlResults == null) {
+                xmlValue = null;
+                return;
+            }
+            readLock().lock();
+            try {
+                xmlValue = xmlResults.next();
+            } catch (XmlException e) {
+                close();
+                throw new XBRLException("The next query result could not be retrieved.",e);
+            } finally {
+                readLock().unlock();
+            }
+            if (xmlValue == null) close();
+        }
+
+        public boolean hasNext() {
+            return xmlValue != null;
+        }
+
+        public F next() throws XBRLException {
+            if (xmlValue == null) throw new XBRLException("There are no more XML resources.");
+            F xml = null;
+            readLock().lock();
+            try {
+                xml = StoreImpl.this.<F>newFragment(xmlValue.asDocument());
+            } catch (XmlException e) {
+                close();
+                throw new XBRLException("The XML resource could not be built from the query result.",e);
+            } finally {
+                readLock().unlock();
+            }
+            advance();
+            return xml;
+        }
+
+        public void close() {
+            xmlValue = null;
+            if (xmlResults != null) {
+                xmlResults.delete();
+                xmlResults = null;
+            }
+        }
+    }
+
     /**
      * @see org.xbrlapi.data.Store#queryForIndices(String)
      */
-    public synchronized Set<String> queryForIndices(String query) throws XBRLException {
+    public Set<String> queryForIndices(String query) throws XBRLException {
+        flushMatches();
 
-        query = "for $fragment in " + query + " return string($fragment/@index)";
+        String indexQuery = "for $fragment in " + query + " return string($fragment/@index)";
         
+        long start = startOperation();
+        int results = -1;
         XmlResults xmlResults = null;
+        readLock().lock();
         try {
     
             try {
-                xmlResults = runQuery(query);
+                xmlResults = runQuery(indexQuery);
                 XmlValue xmlValue = xmlResults.next();
                 Set<String> indices = new HashSet<String>();
 
@@ -533,16 +724,19 @@ public class StoreImpl extends BaseStoreImpl implements Store {
                     indices.add(xmlValue.asString());
                     xmlValue = xmlResults.next();
                 }
+                results = indices.size();
                 return indices;
     
             } catch (XmlException e) {
-                throw new XBRLException("Failed query: " + query,e);
+                throw new XBRLException("Failed query: " + indexQuery,e);
             } catch (IllegalStateException e) {
-                throw new XBRLException("Failed query: " + query,e);
+                throw new XBRLException("Failed query: " + indexQuery,e);
             }
             
         } finally {
             if (xmlResults != null) xmlResults.delete();
+            readLock().unlock();
+            endOperation(start, StoreMetrics.QUERY_FOR_INDICES, query, results, 0);
         }
         
     }
@@ -550,14 +744,17 @@ public class StoreImpl extends BaseStoreImpl implements Store {
     /**
      * @see org.xbrlapi.data.Store#queryForStrings(String)
      */
-    public synchronized Set<String> queryForStrings(String query) throws XBRLException {
+    public Set<String> queryForStrings(String query) throws XBRLException {
+        flushMatches();
                 
+        long start = startOperation();
+        int results = -1;
         XmlResults xmlResults = null;
+        readLock().lock();
         try {
     
             try {
                 xmlResults = runQuery(query);
-                double startTime = System.currentTimeMillis();
                 XmlValue xmlValue = xmlResults.next();
                 Set<String> strings = new TreeSet<String>();
                 while (xmlValue != null) {
@@ -567,9 +764,7 @@ public class StoreImpl extends BaseStoreImpl implements Store {
                         strings.add(xmlValue.asString());
                     xmlValue = xmlResults.next();
                 }
-                
-                Double time = new Double((System.currentTimeMillis()-startTime));
-                logger.debug(time + " milliseconds to create String list from" + query);
+                results = strings.size();
                 return strings;
     
             } catch (XmlException e) {
@@ -578,23 +773,32 @@ public class StoreImpl extends BaseStoreImpl implements Store {
             
         } finally {
             if (xmlResults != null) xmlResults.delete();
+            readLock().unlock();
+            endOperation(start, StoreMetrics.QUERY_FOR_STRINGS, query, results, 0);
         }        
     }
     
     /**
      * @see Store#queryCount(String)
      */
-    public synchronized long queryCount(String query) throws XBRLException {
+    public long queryCount(String query) throws XBRLException {
+        flushMatches();
 
+        long start = startOperation();
+        int results = -1;
         XmlResults xmlResults = null;
+        readLock().lock();
         try {
             xmlResults = runQuery(query, XmlQueryContext.Eager);
-            return xmlResults.size();
+            results = xmlResults.size();
+            return results;
         } catch (XmlException e) {
             logger.error("The query stuffed up. " + query);
             throw new XBRLException("Failed query: " + query,e);
         } finally {
             if (xmlResults != null) xmlResults.delete();
+            readLock().unlock();
+            endOperation(start, StoreMetrics.QUERY_COUNT, query, results, 0);
         }
     }    
     
@@ -700,14 +904,25 @@ public class StoreImpl extends BaseStoreImpl implements Store {
      * @see Store#sync()
      */
     transient private long lastSync;
-    public synchronized void sync() throws XBRLException {
-        if ((System.currentTimeMillis() - lastSync) < 10000) return;
-        if (this.dataContainer == null) throw new XBRLException("The database container cannot be synced because it is null.");
+    public void sync() throws XBRLException {
+        getMatcher().flush();
+        long start = startOperation();
+        int results = -1;
+        writeLock().lock();
         try {
+            if ((System.currentTimeMillis() - lastSync) < 10000) {
+                results = 0;
+                return;
+            }
+            if (this.dataContainer == null) throw new XBRLException("The database container cannot be synced because it is null.");
             this.dataContainer.sync();
             lastSync = System.currentTimeMillis();
+            results = 1;
         } catch (XmlException e) {
             throw new XBRLException("The database updates could not be flushed to disk using the sync method.",e);
+        } finally {
+            writeLock().unlock();
+            endOperation(start, StoreMetrics.SYNC, null, results, 0);
         }
     }
 
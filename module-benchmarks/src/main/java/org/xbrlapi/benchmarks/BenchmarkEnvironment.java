@@ -0,0 +1,152 @@
+package org.xbrlapi.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Properties;
+
+import org.xbrlapi.cache.Cache;
+import org.xbrlapi.cache.CacheImpl;
+import org.xbrlapi.data.Store;
+import org.xbrlapi.data.resource.InStoreMatcherImpl;
+import org.xbrlapi.loader.Loader;
+import org.xbrlapi.loader.LoaderImpl;
+import org.xbrlapi.sax.EntityResolverImpl;
+import org.xbrlapi.utilities.XBRLException;
+import org.xbrlapi.xlink.XLinkProcessor;
+import org.xbrlapi.xlink.XLinkProcessorImpl;
+import org.xbrlapi.xlink.handler.XBRLCustomLinkRecogniserImpl;
+import org.xbrlapi.xlink.handler.XBRLXLinkHandlerImpl;
+
+/**
+ * Sets up the data stores and loaders used by the benchmarks.
+ * The benchmarks use the same configuration properties file as the
+ * unit tests, identified by the xbrlapi.test.configuration system
+ * property, so that they run against the same local document cache,
+ * test data and Berkeley DB XML database location.
+ *
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class BenchmarkEnvironment {
+
+    /**
+     * The configuration properties file used when the
+     * xbrlapi.test.configuration system property is not set.
+     */
+    private static final String CONFIGURATION = "test.configuration.properties";
+
+    /**
+     * The store type parameter value for the in-memory XML DOM data store.
+     */
+    public static final String DOM = "dom";
+
+    /**
+     * The store type parameter value for the Berkeley DB XML data store.
+     */
+    public static final String BDBXML = "bdbxml";
+
+    private Properties configuration = new Properties();
+
+    private Cache cache;
+
+    /**
+     * @throws XBRLException if the configuration properties cannot be loaded
+     * or do not identify the local document cache.
+     */
+    public BenchmarkEnvironment() throws XBRLException {
+        String property = System.getProperty("xbrlapi.test.configuration");
+        File file = (property == null) ? new File(CONFIGURATION) : new File(property);
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                configuration.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new XBRLException("The benchmark configuration " + file + " could not be loaded.",e);
+        }
+        if (! configuration.containsKey("local.cache")) {
+            throw new XBRLException("The benchmark configuration " + file + " does not identify the local cache.");
+        }
+        cache = new CacheImpl(new File(configuration.getProperty("local.cache")));
+    }
+
+    /**
+     * Resolves test data URIs in the same way as the unit tests.
+     * @param property The configuration property identifying the test data.
+     * @return the absolute URI of the test data.
+     * @throws XBRLException if the property is not set or is not a valid URI.
+     */
+    public URI getURI(String property) throws XBRLException {
+        String value = configuration.getProperty(property);
+        if (value == null) {
+            throw new XBRLException("The benchmark configuration does not define " + property);
+        }
+        try {
+            if (value.startsWith("http:/") || value.startsWith("file:/")) {
+                return new URI(value);
+            }
+            if (property.startsWith("test.data.local.")) {
+                return new File(new File(configuration.getProperty("local.test.data.root")),value).toURI();
+            }
+            return new URI(configuration.getProperty("test.data.baseURI") + value);
+        } catch (URISyntaxException e) {
+            throw new XBRLException("The URI for " + property + " is malformed.",e);
+        }
+    }
+
+    /**
+     * @param type The type of data store, {@link #DOM} or {@link #BDBXML}.
+     * @param container The name of the Berkeley DB XML container, if
+     * a Berkeley DB XML data store is required.
+     * @return a new empty data store of the given type.
+     * @throws XBRLException if the data store cannot be created.
+     */
+    public Store newStore(String type, String container) throws XBRLException {
+        Store store = null;
+        if (type.equals(DOM)) {
+            store = new org.xbrlapi.data.dom.StoreImpl();
+        } else if (type.equals(BDBXML)) {
+            String location = configuration.getProperty("bdbxml.store.location");
+            store = new org.xbrlapi.data.bdbxml.StoreImpl(location,container);
+        } else {
+            throw new XBRLException("The store type " + type + " is not supported.");
+        }
+        store.setMatcher(new InStoreMatcherImpl(store,cache));
+        return store;
+    }
+
+    /**
+     * @param store The data store to load documents into.
+     * @return a new loader for the data store.
+     * @throws XBRLException if the loader cannot be created.
+     */
+    public Loader newLoader(Store store) throws XBRLException {
+        XBRLXLinkHandlerImpl xlinkHandler = new XBRLXLinkHandlerImpl();
+        XLinkProcessor xlinkProcessor = new XLinkProcessorImpl(xlinkHandler,new XBRLCustomLinkRecogniserImpl());
+        Loader loader = new LoaderImpl(store,xlinkProcessor);
+        loader.setCache(cache);
+        loader.setEntityResolver(new EntityResolverImpl(new File(configuration.getProperty("local.cache"))));
+        xlinkHandler.setLoader(loader);
+        return loader;
+    }
+
+    /**
+     * @param type The type of data store.
+     * @param container The name of the Berkeley DB XML container.
+     * @param property The configuration property identifying the
+     * test data to load.
+     * @return a new data store holding the test data and
+     * the documents that it discovers.
+     * @throws XBRLException if the data cannot be loaded.
+     */
+    public Store newLoadedStore(String type, String container, String property) throws XBRLException {
+        Store store = newStore(type,container);
+        newLoader(store).discover(getURI(property));
+        return store;
+    }
+
+}
@@ -0,0 +1,112 @@
+package org.xbrlapi.benchmarks;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xbrlapi.Fact;
+import org.xbrlapi.aspects.alt.AspectModel;
+import org.xbrlapi.aspects.alt.BitmapFactSetImpl;
+import org.xbrlapi.aspects.alt.ConceptAspect;
+import org.xbrlapi.aspects.alt.EntityAspect;
+import org.xbrlapi.aspects.alt.FactSet;
+import org.xbrlapi.aspects.alt.FactSetImpl;
+import org.xbrlapi.aspects.alt.Filter;
+import org.xbrlapi.aspects.alt.FilterImpl;
+import org.xbrlapi.aspects.alt.StandardAspectModel;
+import org.xbrlapi.data.Store;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Measures the addition of the facts in an XBRL instance to a fact set
+ * that uses the standard aspect model, including the determination
+ * of the aspect values of each fact, and the filtering of the facts
+ * in a fact set on their concept and entity aspect values.
+ *
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FactSetBenchmark {
+
+    @Param({"test.data.small.instance", "test.data.segments", "test.data.tuple.instance"})
+    public String instance;
+
+    @Param({BenchmarkEnvironment.DOM})
+    public String storeType;
+
+    @Param({"map", "bitmap"})
+    public String factSetType;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Store store;
+
+    private List<Fact> facts;
+
+    private AspectModel model;
+
+    private FactSet factSet;
+
+    private int position = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws XBRLException {
+        BenchmarkEnvironment environment = new BenchmarkEnvironment();
+        store = environment.newLoadedStore(storeType,"factSetBenchmark",instance);
+        facts = store.getAllFacts();
+        if (facts.isEmpty()) {
+            throw new XBRLException(instance + " does not contain any facts.");
+        }
+        model = new StandardAspectModel(store);
+        model.initialise();
+        factSet = newFactSet(model);
+        factSet.addFacts(facts);
+    }
+
+    private FactSet newFactSet(AspectModel aspectModel) throws XBRLException {
+        if (factSetType.equals("bitmap")) return new BitmapFactSetImpl(aspectModel);
+        return new FactSetImpl(aspectModel);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws XBRLException {
+        store.delete();
+    }
+
+    @Benchmark
+    public FactSet addFacts() throws XBRLException {
+        FactSet result = newFactSet(new StandardAspectModel(store));
+        result.addFacts(facts,threads);
+        return result;
+    }
+
+    @Benchmark
+    public Set<Fact> filter() throws XBRLException {
+        if (position == facts.size()) position = 0;
+        Fact fact = facts.get(position++);
+        Filter filter = new FilterImpl();
+        filter.addCriterion(factSet.getAspectValue(ConceptAspect.ID,fact));
+        filter.addCriterion(factSet.getAspectValue(EntityAspect.ID,fact));
+        return filter.getMatchingFacts(factSet);
+    }
+
+}
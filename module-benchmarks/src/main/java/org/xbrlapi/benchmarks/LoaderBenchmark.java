@@ -0,0 +1,76 @@
+package org.xbrlapi.benchmarks;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xbrlapi.data.Store;
+import org.xbrlapi.loader.Loader;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Measures the time taken to discover the test taxonomies, and the
+ * documents that they refer to, into an empty data store.  Documents
+ * are read from the local document cache so the measurements cover
+ * parsing, XLink processing, fragment building and storage.
+ *
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoaderBenchmark {
+
+    @Param({"test.data.small.schema", "test.data.multi.concept.schema", "test.data.xlink.titles", "test.data.small.instance"})
+    public String taxonomy;
+
+    @Param({BenchmarkEnvironment.DOM})
+    public String storeType;
+
+    private BenchmarkEnvironment environment;
+
+    private URI uri;
+
+    private Store store;
+
+    private Loader loader;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws XBRLException {
+        environment = new BenchmarkEnvironment();
+        uri = environment.getURI(taxonomy);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() throws XBRLException {
+        store = environment.newStore(storeType,"loaderBenchmark");
+        loader = environment.newLoader(store);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() throws XBRLException {
+        store.delete();
+    }
+
+    @Benchmark
+    public long discover() throws XBRLException {
+        loader.discover(uri);
+        return store.getSize();
+    }
+
+}
@@ -0,0 +1,122 @@
+package org.xbrlapi.benchmarks;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xbrlapi.Fragment;
+import org.xbrlapi.data.Store;
+import org.xbrlapi.networks.AllAnalyserImpl;
+import org.xbrlapi.networks.CompactNetworkImpl;
+import org.xbrlapi.networks.Network;
+import org.xbrlapi.networks.NetworkImpl;
+import org.xbrlapi.networks.Networks;
+import org.xbrlapi.networks.StorerImpl;
+import org.xbrlapi.networks.TreeIterator;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Measures the construction of the networks of relationships from
+ * fragments, either from the arcs in the data store or from
+ * persisted relationships, and the building and traversal of a
+ * network using each of the network implementations.
+ *
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NetworkBenchmark {
+
+    @Param({"test.data.xlink.titles", "test.data.calculation.links"})
+    public String taxonomy;
+
+    @Param({"false", "true"})
+    public boolean persistedRelationships;
+
+    @Param({BenchmarkEnvironment.DOM})
+    public String storeType;
+
+    @Param({"map", "compact"})
+    public String networkType;
+
+    private Store store;
+
+    private List<String> sources;
+
+    private int position = 0;
+
+    private Network largest;
+
+    @Setup(Level.Trial)
+    public void setUp() throws XBRLException {
+        BenchmarkEnvironment environment = new BenchmarkEnvironment();
+        store = environment.newLoadedStore(storeType,"networkBenchmark",taxonomy);
+        if (persistedRelationships) {
+            (new StorerImpl(store)).storeRelationships(store.getDocumentURIs());
+            store.setAnalyser(new AllAnalyserImpl(store));
+        }
+        sources = new Vector<String>(store.queryForIndices("#roots#[@type='org.xbrlapi.impl.ConceptImpl' or @type='org.xbrlapi.impl.ElementDeclarationImpl']"));
+        if (sources.isEmpty()) {
+            throw new XBRLException(taxonomy + " does not contain any element declarations.");
+        }
+        for (Network network: store.getNetworks()) {
+            if (largest == null || network.getNumberOfRelationships() > largest.getNumberOfRelationships()) largest = network;
+        }
+        if (largest == null) {
+            throw new XBRLException(taxonomy + " does not contain any relationships.");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws XBRLException {
+        store.delete();
+    }
+
+    @Benchmark
+    public Networks getNetworksFrom() throws XBRLException {
+        if (position == sources.size()) position = 0;
+        return store.getNetworksFrom(sources.get(position++));
+    }
+
+    /**
+     * Builds the largest network in the taxonomy from its relationships
+     * and then iterates the trees in the network.
+     */
+    @Benchmark
+    public int buildAndIterateNetwork() throws XBRLException {
+        Network network = null;
+        if (networkType.equals("compact")) {
+            network = new CompactNetworkImpl(store, largest.getLinkRole(), largest.getArcrole());
+        } else {
+            network = new NetworkImpl(store, largest.getLinkRole(), largest.getArcrole());
+        }
+        network.addRelationships(largest.getAllRelationships());
+        int count = 0;
+        for (Fragment root: network.<Fragment>getRootFragments()) {
+            TreeIterator iterator = new TreeIterator(network, root);
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
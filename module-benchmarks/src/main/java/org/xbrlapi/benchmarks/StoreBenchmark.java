@@ -0,0 +1,84 @@
+package org.xbrlapi.benchmarks;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xbrlapi.Fragment;
+import org.xbrlapi.XML;
+import org.xbrlapi.data.Store;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Measures fragment queries and fragment retrieval by index on a
+ * data store holding a loaded taxonomy.  The Berkeley DB XML data store
+ * needs the native Berkeley DB XML libraries on the java.library.path
+ * of the forked benchmark JVM.
+ *
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StoreBenchmark {
+
+    @Param({BenchmarkEnvironment.DOM, BenchmarkEnvironment.BDBXML})
+    public String storeType;
+
+    @Param({"test.data.small.instance"})
+    public String taxonomy;
+
+    private Store store;
+
+    private String rootIndex;
+
+    private List<String> indices;
+
+    private int position = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws XBRLException {
+        BenchmarkEnvironment environment = new BenchmarkEnvironment();
+        store = environment.newLoadedStore(storeType,"storeBenchmark",taxonomy);
+        indices = new Vector<String>(store.queryForIndices("#roots#"));
+        rootIndex = store.<Fragment>queryForXMLResources("#roots#[@parentIndex='']").get(0).getIndex();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws XBRLException {
+        store.delete();
+    }
+
+    @Benchmark
+    public List<Fragment> queryForXMLResourcesByType() throws XBRLException {
+        return store.<Fragment>queryForXMLResources("#roots#[@type='org.xbrlapi.impl.ConceptImpl']");
+    }
+
+    @Benchmark
+    public List<Fragment> queryForXMLResourcesByParent() throws XBRLException {
+        return store.<Fragment>queryForXMLResources("#roots#[@parentIndex='" + rootIndex + "']");
+    }
+
+    @Benchmark
+    public XML getXMLResource() throws XBRLException {
+        if (position == indices.size()) position = 0;
+        return store.getXMLResource(indices.get(position++));
+    }
+
+}
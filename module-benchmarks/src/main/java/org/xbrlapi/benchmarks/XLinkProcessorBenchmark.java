@@ -0,0 +1,116 @@
+package org.xbrlapi.benchmarks;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xbrlapi.utilities.Constants;
+import org.xbrlapi.xlink.XLinkException;
+import org.xbrlapi.xlink.XLinkHandlerDefaultImpl;
+import org.xbrlapi.xlink.XLinkProcessor;
+import org.xbrlapi.xlink.XLinkProcessorImpl;
+import org.xbrlapi.xlink.handler.XBRLCustomLinkRecogniserImpl;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Measures the XLink processing of the SAX events for a label linkbase
+ * with one extended link containing a locator, a label resource and a
+ * label arc for each concept.  The XLink handler does nothing so the
+ * measurements only cover the XLink processor itself.
+ *
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XLinkProcessorBenchmark {
+
+    @Param({"100", "10000"})
+    public int concepts;
+
+    private static final String LINK = Constants.XBRL21LinkNamespace.toString();
+
+    private static final String XLINK = Constants.XLinkNamespace.toString();
+
+    /**
+     * The SAX events for the linkbase, as element local names and
+     * attributes, in document order.
+     */
+    private List<String> names;
+
+    private List<Attributes> attributes;
+
+    private XLinkProcessor processor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        processor = new XLinkProcessorImpl(new XLinkHandlerDefaultImpl(),new XBRLCustomLinkRecogniserImpl());
+        names = new Vector<String>();
+        attributes = new Vector<Attributes>();
+        for (int i=0; i<concepts; i++) {
+            AttributesImpl locator = new AttributesImpl();
+            addXLinkAttribute(locator,"type","locator");
+            addXLinkAttribute(locator,"href","concepts.xsd#concept" + i);
+            addXLinkAttribute(locator,"label","concept" + i);
+            names.add("loc");
+            attributes.add(locator);
+
+            AttributesImpl resource = new AttributesImpl();
+            addXLinkAttribute(resource,"type","resource");
+            addXLinkAttribute(resource,"label","label" + i);
+            addXLinkAttribute(resource,"role","http://www.xbrl.org/2003/role/label");
+            resource.addAttribute(Constants.XMLNamespace.toString(),"lang","xml:lang","CDATA","en");
+            names.add("label");
+            attributes.add(resource);
+
+            AttributesImpl arc = new AttributesImpl();
+            addXLinkAttribute(arc,"type","arc");
+            addXLinkAttribute(arc,"arcrole","http://www.xbrl.org/2003/arcrole/concept-label");
+            addXLinkAttribute(arc,"from","concept" + i);
+            addXLinkAttribute(arc,"to","label" + i);
+            names.add("labelArc");
+            attributes.add(arc);
+        }
+    }
+
+    private void addXLinkAttribute(AttributesImpl attributes, String name, String value) {
+        attributes.addAttribute(XLINK,name,"xlink:" + name,"CDATA",value);
+    }
+
+    @Benchmark
+    public XLinkProcessor processLinkbase() throws XLinkException {
+        AttributesImpl none = new AttributesImpl();
+        processor.startElement(LINK,"linkbase","link:linkbase",none);
+
+        AttributesImpl link = new AttributesImpl();
+        addXLinkAttribute(link,"type","extended");
+        addXLinkAttribute(link,"role","http://www.xbrl.org/2003/role/link");
+        processor.startElement(LINK,"labelLink","link:labelLink",link);
+        for (int i=0; i<names.size(); i++) {
+            String name = names.get(i);
+            processor.startElement(LINK,name,"link:" + name,attributes.get(i));
+            processor.endElement(LINK,name,"link:" + name,attributes.get(i));
+        }
+        processor.endElement(LINK,"labelLink","link:labelLink",link);
+
+        processor.endElement(LINK,"linkbase","link:linkbase",none);
+        return processor;
+    }
+
+}
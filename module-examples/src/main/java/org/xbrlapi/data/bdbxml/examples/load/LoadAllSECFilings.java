@@ -17,7 +17,7 @@ import org.xbrlapi.data.bdbxml.StoreImpl;
 import org.xbrlapi.grabber.Grabber;
 import org.xbrlapi.grabber.SecGrabberImpl;
 import org.xbrlapi.loader.Loader;
-import org.xbrlapi.loader.discoverer.Discoverer;
+import org.xbrlapi.loader.discoverer.ParallelDiscoverer;
 import org.xbrlapi.networks.AnalyserImpl;
 import org.xbrlapi.sax.EntityResolver;
 import org.xbrlapi.sax.EntityResolverImpl;
@@ -30,7 +30,8 @@ import org.xbrlapi.xlink.handler.XBRLXLinkHandlerImpl;
 
 /**
  *  This example loads all of the data identified in the 
- *  SEC RSS feed.  It does so using a series of threads
+ *  SEC RSS feed.  It does so using a pool of threads
+ *  that share the one queue of documents to discover,
  *  the number of which can be set at the command line.
  * @author Geoff Shuetrim (geoff@galexy.net)
  */
@@ -103,33 +104,14 @@ public class LoadAllSECFilings {
             // Default to using 2 threads.
             int threadCount = 2;
             if (arguments.containsKey("threads")) threadCount = (new Integer(arguments.get("threads")).intValue());
-            int gap = new Double(Math.floor(resources.size()/threadCount)).intValue();
-            System.out.println("# of URIs per thread = " + gap + " given # URIs = " + resources.size() + " and #threads = " + threadCount);
-            List<Thread> threads = new Vector<Thread>();
+            List<Loader> loaders = new Vector<Loader>();
             for (int counter=0; counter<threadCount; counter++) {
-                Loader loader = createLoader(store,arguments.get("cache")); 
-                if (counter == threadCount-1) {
-                    System.out.println("Thread " + (counter+1) + " gets documents " + (counter*gap) + " to " + (resources.size()-1));
-                    loader.stashURIs(resources.subList(counter*gap,resources.size()-1));
-                } else {
-                    System.out.println("Thread " + (counter+1) + " gets documents " + (counter*gap) + " to " + ((counter+1)*gap-1));
-                    loader.stashURIs(resources.subList(counter*gap,(counter+1)*gap-1));
-                }
-                Discoverer discoverer = new Discoverer(loader);
-                Thread thread = new Thread(discoverer);
-                threads.add(thread);
-                thread.start();
-            }
-            
-            // Wait till data loading is done.
-            boolean stillGoing = true;
-            while (stillGoing) {
-                Thread.sleep(5000);
-                stillGoing = false;
-                for (Thread thread: threads) {
-                    if (thread.isAlive()) stillGoing = true;
-                }
+                loaders.add(createLoader(store,arguments.get("cache")));
             }
+            System.out.println("Loading " + resources.size() + " URIs using " + threadCount + " threads.");
+            ParallelDiscoverer discoverer = new ParallelDiscoverer(loaders);
+            discoverer.stashURIs(resources);
+            discoverer.discover();
             
             // Clean up the data store and exit
             cleanup(store);
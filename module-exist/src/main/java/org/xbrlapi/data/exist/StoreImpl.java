@@ -16,6 +16,7 @@ import org.w3c.dom.Node;
 import org.xbrlapi.XML;
 import org.xbrlapi.data.BaseStoreImpl;
 import org.xbrlapi.data.Store;
+import org.xbrlapi.data.metrics.StoreMetrics;
 import org.xbrlapi.impl.FragmentFactory;
 import org.xbrlapi.utilities.Constants;
 import org.xbrlapi.utilities.XBRLException;
@@ -62,9 +63,10 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	transient private CollectionManagementService manager;
 
 	/**
-	 * The XQuery service for the data collection.
+	 * The XQuery services for the data collection, one per thread
+	 * so that queries can run concurrently.
 	 */
-    transient private XQueryService xqueryService;
+    transient private ThreadLocal<XQueryService> xqueryServices;
     	
     /**
      * @return the database connection or null if there is none.
@@ -427,6 +429,21 @@ public class StoreImpl extends BaseStoreImpl implements Store {
         }
 
         try {
+            xqueryServices = new ThreadLocal<XQueryService>();
+            getQueryService();
+        } catch (XMLDBException e) {
+            throw new XBRLException("The XPath services could not be initialised.",e);
+        }        
+	}
+
+    /**
+     * @return the XQuery service for the data collection that is used by
+     * the current thread, with the namespace bindings declared.
+     * @throws XMLDBException if the service cannot be initialised.
+     */
+    private XQueryService getQueryService() throws XMLDBException {
+        XQueryService xqueryService = xqueryServices.get();
+        if (xqueryService == null) {
             xqueryService = (XQueryService) collection.getService("XQueryService","1.0");
             xqueryService.setNamespace(Constants.XLinkPrefix, Constants.XLinkNamespace.toString());
             xqueryService.setNamespace(Constants.XMLSchemaPrefix, Constants.XMLSchemaNamespace.toString());
@@ -434,31 +451,37 @@ public class StoreImpl extends BaseStoreImpl implements Store {
             xqueryService.setNamespace(Constants.XBRL21LinkPrefix, Constants.XBRL21LinkNamespace.toString());
             xqueryService.setNamespace(Constants.XBRLAPIPrefix, Constants.XBRLAPINamespace.toString());
             xqueryService.setNamespace(Constants.XBRLAPILanguagesPrefix, Constants.XBRLAPILanguagesNamespace.toString());
-            
-        } catch (XMLDBException e) {
-            throw new XBRLException("The XPath services could not be initialised.",e);
-        }        
-	}
+            xqueryServices.set(xqueryService);
+        }
+        for (URI namespace: this.namespaceBindings.keySet()) 
+            xqueryService.setNamespace(this.namespaceBindings.get(namespace), namespace.toString());
+        return xqueryService;
+    }
     
 	/**
 	 * Close the data store.
 	 * Throws XBRLException if the data store cannot be closed. 
 	 */
-	public synchronized void close() throws XBRLException {
+	public void close() throws XBRLException {
+	    getMatcher().flush();
+	    writeLock().lock();
 		try {
 			collection.close();
 			connection.close();
 			connection = null;
 		} catch (XMLDBException e) {
 			throw new XBRLException("The Xindice DTS collection could not be closed.",e);
+		} finally {
+		    writeLock().unlock();
 		}
 	}
 	
 	/**
 	 * @see org.xbrlapi.data.Store#delete()
 	 */
-	public synchronized void delete() throws XBRLException {
+	public void delete() throws XBRLException {
 
+	    writeLock().lock();
 	    try {
 			if (connection.hasCollection(dataCollectionName)) {
 	            connection.deleteCollection(dataCollectionName,collection.getParentCollection());
@@ -477,17 +500,24 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	    } catch (XMLDBException e) {
 	        logger.error("Darn!");
 			throw new XBRLException("The data collection could not be deleted.",e);
+		} finally {
+		    writeLock().unlock();
 		}
 	}	
 	
     /**
-     * @see org.xbrlapi.data.Store#persist(XML)
+     * Outstanding resource matches are persisted first so that they are counted.
+     * @see org.xbrlapi.data.Store#getSize()
      */
-    public synchronized int getSize() throws XBRLException {
+    public int getSize() throws XBRLException {
+        flushMatches();
+        readLock().lock();
         try {
             return this.collection.getResourceCount();
         } catch (XMLDBException e) {
             throw new XBRLException("Failed to get the number of fragments in the data store.",e);
+        } finally {
+            readLock().unlock();
         }
     }	
 
@@ -499,40 +529,52 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	 * @throws XBRLException if the fragment cannot be added to the store 
 	 * (eg: because one with the same index is already in the store).
 	 */
-    public synchronized void persist(XML xml) throws XBRLException {
+    public void persist(XML xml) throws XBRLException {
+        long start = startOperation();
+        int results = -1;
+	    writeLock().lock();
+	    try {
 
-		if (xml == null) throw new XBRLException("The fragment is null so it cannot be added.");
-		String index = xml.getIndex();
+    		if (xml == null) throw new XBRLException("The fragment is null so it cannot be added.");
+    		String index = xml.getIndex();
 		
-		if (hasXMLResource(index)) {
-            this.remove(index);
-        }
+    		if (hasXMLResource(index)) {
+                this.remove(index);
+            }
 
-        if (xml.getStore() != null) {
-	    	try {
-	    		XMLResource resource = (XMLResource) collection.createResource(index, XMLResource.RESOURCE_TYPE);
-		        resource.setContent(DOM2String(xml.getMetadataRootElement()));
-		        collection.storeResource(resource);
-	        } catch (XMLDBException e) {
-	        	throw new XBRLException("The fragment data could not be added to the eXist data store.", e);
-	        }			
-			return;
-		}
+            if (xml.getStore() != null) {
+    	    	try {
+    	    		XMLResource resource = (XMLResource) collection.createResource(index, XMLResource.RESOURCE_TYPE);
+    		        resource.setContent(DOM2String(xml.getMetadataRootElement()));
+    		        collection.storeResource(resource);
+    	        } catch (XMLDBException e) {
+    	        	throw new XBRLException("The fragment data could not be added to the eXist data store.", e);
+    	        }			
+    	        xmlPersisted(xml);
+    	        results = 1;
+    			return;
+    		}
 		
-		try {
-			XMLResource resource = (XMLResource) collection.createResource(index, XMLResource.RESOURCE_TYPE);
-            resource.setContent(DOM2String(xml.getBuilder().getMetadata()));
-	        collection.storeResource(resource);
-        } catch (XMLDBException e) {
-        	throw new XBRLException("The fragment data could not be added to the eXist data store.", e);
-        }
+    		try {
+    			XMLResource resource = (XMLResource) collection.createResource(index, XMLResource.RESOURCE_TYPE);
+                resource.setContent(DOM2String(xml.getBuilder().getMetadata()));
+    	        collection.storeResource(resource);
+            } catch (XMLDBException e) {
+            	throw new XBRLException("The fragment data could not be added to the eXist data store.", e);
+            }
 
-        // Finalise the fragment, ready for use
-        if (xml.getStore() == null) {
-            if (xml.getBuilder() != null) xml.setResource(xml.getBuilder().getMetadata());
-            xml.setStore(this);
-        }
+            // Finalise the fragment, ready for use
+            if (xml.getStore() == null) {
+                if (xml.getBuilder() != null) xml.setResource(xml.getBuilder().getMetadata());
+                xml.setStore(this);
+            }
+            xmlPersisted(xml);
+            results = 1;
 
+	    } finally {
+	        writeLock().unlock();
+	        endOperation(start, StoreMetrics.PERSIST, null, results, 0);
+	    }
 	}
 	
     /**
@@ -543,11 +585,16 @@ public class StoreImpl extends BaseStoreImpl implements Store {
      * fragment index.
      * @throws XBRLException If the test cannot be conducted.
      */
-	public synchronized boolean hasXMLResource(String index) throws XBRLException {
-    	if (getXMLResource(index) == null) {
-    		return false;
-    	}
-    	return true;
+	public boolean hasXMLResource(String index) throws XBRLException {
+        readLock().lock();
+        try {
+        	if (getXMLResource(index) == null) {
+        		return false;
+        	}
+        	return true;
+        } finally {
+            readLock().unlock();
+        }
     }
 	
     /**
@@ -559,15 +606,28 @@ public class StoreImpl extends BaseStoreImpl implements Store {
      * the fragment is not in the store.
      * @throws XBRLException if the fragment cannot be retrieved.
      */
-    public synchronized <F extends XML> F getXMLResource(String index) throws XBRLException {
-    	try {
-    		XMLResource resource = (XMLResource) collection.getResource(index);
-    		if (resource == null) return null;
-    		Element root = getResourceRootElement(resource);
-    		return FragmentFactory.<F>newFragment(this, root);
-    	} catch (XMLDBException e) {
-    		throw new XBRLException("The fragment with index " + index + " could not be retrieved.",e);
-    	}
+    public <F extends XML> F getXMLResource(String index) throws XBRLException {
+        long start = startOperation();
+        int results = -1;
+        readLock().lock();
+        try {
+        	try {
+        		XMLResource resource = (XMLResource) collection.getResource(index);
+        		if (resource == null) {
+        		    results = 0;
+        		    return null;
+        		}
+        		Element root = getResourceRootElement(resource);
+        		F xml = FragmentFactory.<F>newFragment(this, root);
+        		results = 1;
+        		return xml;
+        	} catch (XMLDBException e) {
+        		throw new XBRLException("The fragment with index " + index + " could not be retrieved.",e);
+        	}
+        } finally {
+            readLock().unlock();
+            endOperation(start, StoreMetrics.GET_XML_RESOURCE, null, results, results);
+        }
     }
     
     /**
@@ -592,19 +652,30 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	 * @param index The index of the fragment to be removed from the DTS store.
 	 * @throws XBRLException if the fragment cannot be removed from the store.
 	 */
-    public synchronized void remove(String index) throws XBRLException {
-        try {
-            if (!hasXMLResource(index)) {
-            	return;
-            }
+    public void remove(String index) throws XBRLException {
+        long start = startOperation();
+        int results = -1;
+	    writeLock().lock();
+	    try {
+            try {
+                if (!hasXMLResource(index)) {
+                    results = 0;
+                	return;
+                }
 
-            Resource document = collection.getResource(index);
-            collection.removeResource(document);
+                Resource document = collection.getResource(index);
+                collection.removeResource(document);
+                xmlRemoved(index);
+                results = 1;
         
-        }
-        catch (XMLDBException e) {
-        	throw new XBRLException("The fragment removal failed.", e);
-        }
+            }
+            catch (XMLDBException e) {
+            	throw new XBRLException("The fragment removal failed.", e);
+            }
+	    } finally {
+	        writeLock().unlock();
+	        endOperation(start, StoreMetrics.REMOVE, null, results, 0);
+	    }
 	}
 	
 
@@ -617,118 +688,146 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	 * @see org.xbrlapi.data.Store#queryForXMLResources(String)
 	 */
     @SuppressWarnings(value = "unchecked")
-	public synchronized <F extends XML> List<F> queryForXMLResources(String query) throws XBRLException {
+	public <F extends XML> List<F> queryForXMLResources(String query) throws XBRLException {
+        flushMatches();
+        long start = startOperation();
+        int results = -1;
+	    readLock().lock();
+	    try {
 		
-        String roots = "/*" + this.getURIFilteringPredicate();
-        query = query.replaceAll("#roots#",roots);
+            String roots = "/*" + this.getURIFilteringPredicate();
         
-		ResourceSet resources = null;
-		try {
-	        for (URI namespace: this.namespaceBindings.keySet()) 
-	            xqueryService.setNamespace(this.namespaceBindings.get(namespace), namespace.toString());
-			resources = xqueryService.query(query);
-		} catch (XMLDBException e) {
-			throw new XBRLException("The query service failed.", e);
-		}
-
-		List<F> fragments = new Vector<F>();
-		try {
-			ResourceIterator iterator = resources.getIterator();
-			while (iterator.hasMoreResources()) {
-				Element root = getResourceRootElement((XMLResource) iterator.nextResource());
-				fragments.add((F) FragmentFactory.newFragment(this, root));
-			}
-		} catch (XMLDBException e) {
-			throw new XBRLException("The query failed.", e);
-		}
-		return fragments;
+    		ResourceSet resources = null;
+    		try {
+    			resources = getQueryService().query(query.replaceAll("#roots#",roots));
+    		} catch (XMLDBException e) {
+    			throw new XBRLException("The query service failed.", e);
+    		}
+
+    		List<F> fragments = new Vector<F>();
+    		try {
+    			ResourceIterator iterator = resources.getIterator();
+    			while (iterator.hasMoreResources()) {
+    				Element root = getResourceRootElement((XMLResource) iterator.nextResource());
+    				fragments.add((F) FragmentFactory.newFragment(this, root));
+    			}
+    		} catch (XMLDBException e) {
+    			throw new XBRLException("The query failed.", e);
+    		}
+    		results = fragments.size();
+    		return fragments;
+	    } finally {
+	        readLock().unlock();
+	        endOperation(start, StoreMetrics.QUERY_FOR_XML_RESOURCES, query, results, results);
+	    }
 	}
     
     /**
      * @see org.xbrlapi.data.Store#queryCount(String)
      */
-    public synchronized long queryCount(String query) throws XBRLException {
+    public long queryCount(String query) throws XBRLException {
+        flushMatches();
+        long start = startOperation();
+        int results = -1;
+        readLock().lock();
+        try {
         
-        String roots = "/*" + this.getURIFilteringPredicate();
-        query = query.replaceAll("#roots#",roots);
+            String roots = "/*" + this.getURIFilteringPredicate();
         
-        ResourceSet resources = null;
-        try {
-            for (URI namespace: this.namespaceBindings.keySet()) 
-                xqueryService.setNamespace(this.namespaceBindings.get(namespace), namespace.toString());
-            resources = xqueryService.query(query);
-            return resources.getSize();
-        } catch (XMLDBException e) {
-            throw new XBRLException("The query service failed.", e);
-        }
+            ResourceSet resources = null;
+            try {
+                resources = getQueryService().query(query.replaceAll("#roots#",roots));
+                results = (int) resources.getSize();
+                return results;
+            } catch (XMLDBException e) {
+                throw new XBRLException("The query service failed.", e);
+            }
 
+        } finally {
+            readLock().unlock();
+            endOperation(start, StoreMetrics.QUERY_COUNT, query, results, 0);
+        }
     }    
     
     /**
      * @see org.xbrlapi.data.Store#queryForIndices(String)
      */
-    public synchronized Set<String> queryForIndices(String query) throws XBRLException {
+    public Set<String> queryForIndices(String query) throws XBRLException {
+        flushMatches();
+        long start = startOperation();
+        int results = -1;
+        readLock().lock();
+        try {
 
-        String roots = "/*" + this.getURIFilteringPredicate();
-        query = query.replaceAll("#roots#",roots);
+            String roots = "/*" + this.getURIFilteringPredicate();
         
-        ResourceSet resources = null;
-        try {
-            for (URI namespace: this.namespaceBindings.keySet()) 
-                xqueryService.setNamespace(this.namespaceBindings.get(namespace), namespace.toString());
-            resources = xqueryService.query(query);
-        } catch (XMLDBException e) {
-            throw new XBRLException("The XPath query service failed.", e);
-        }
+            ResourceSet resources = null;
+            try {
+                resources = getQueryService().query(query.replaceAll("#roots#",roots));
+            } catch (XMLDBException e) {
+                throw new XBRLException("The XPath query service failed.", e);
+            }
 
-        Set<String> indices = new TreeSet<String>();
-        try {
-            ResourceIterator iterator = resources.getIterator();
-            String regex = "<xbrlapi:fragment.*? index=\"(\\w+)\".*?>";
-            Pattern pattern = Pattern.compile(regex,Pattern.DOTALL);
-            while (iterator.hasMoreResources()) {
-                XMLResource resource = (XMLResource) iterator.nextResource();
-                String string = ((String) resource.getContent()).replaceAll("\n"," ");
-                Matcher matcher = pattern.matcher(string);
-                matcher.matches();
-                String index = matcher.group(1);
-                indices.add(index);
+            Set<String> indices = new TreeSet<String>();
+            try {
+                ResourceIterator iterator = resources.getIterator();
+                String regex = "<xbrlapi:fragment.*? index=\"(\\w+)\".*?>";
+                Pattern pattern = Pattern.compile(regex,Pattern.DOTALL);
+                while (iterator.hasMoreResources()) {
+                    XMLResource resource = (XMLResource) iterator.nextResource();
+                    String string = ((String) resource.getContent()).replaceAll("\n"," ");
+                    Matcher matcher = pattern.matcher(string);
+                    matcher.matches();
+                    String index = matcher.group(1);
+                    indices.add(index);
+                }
+            } catch (XMLDBException e) {
+                throw new XBRLException("The query failed.", e);
             }
-        } catch (XMLDBException e) {
-            throw new XBRLException("The query failed.", e);
+            results = indices.size();
+            return indices;
+        } finally {
+            readLock().unlock();
+            endOperation(start, StoreMetrics.QUERY_FOR_INDICES, query, results, 0);
         }
-        return indices;
     }
     
     /**
      * @see org.xbrlapi.data.Store#queryForStrings(String)
      */
-    public synchronized Set<String> queryForStrings(String query) throws XBRLException {
+    public Set<String> queryForStrings(String query) throws XBRLException {
+        flushMatches();
+        long start = startOperation();
+        int results = -1;
+        readLock().lock();
+        try {
 
-        String roots = "/*" + this.getURIFilteringPredicate();
-        query = query.replaceAll("#roots#",roots);
+            String roots = "/*" + this.getURIFilteringPredicate();
         
-        ResourceSet resources = null;
-        try {
-            for (URI namespace: this.namespaceBindings.keySet()) 
-                xqueryService.setNamespace(this.namespaceBindings.get(namespace), namespace.toString());
-            resources = xqueryService.query(query);
-        } catch (XMLDBException e) {
-            throw new XBRLException("The XQuery service failed.", e);
-        }
+            ResourceSet resources = null;
+            try {
+                resources = getQueryService().query(query.replaceAll("#roots#",roots));
+            } catch (XMLDBException e) {
+                throw new XBRLException("The XQuery service failed.", e);
+            }
 
-        Set<String> strings = new TreeSet<String>();
-        try {
-            ResourceIterator iterator = resources.getIterator();
-            while (iterator.hasMoreResources()) {
-                XMLResource resource = (XMLResource) iterator.nextResource();
-                strings.add((String) resource.getContent());
+            Set<String> strings = new TreeSet<String>();
+            try {
+                ResourceIterator iterator = resources.getIterator();
+                while (iterator.hasMoreResources()) {
+                    XMLResource resource = (XMLResource) iterator.nextResource();
+                    strings.add((String) resource.getContent());
+                }
+            } catch (XMLDBException e) {
+                throw new XBRLException("The query failed.", e);
             }
-        } catch (XMLDBException e) {
-            throw new XBRLException("The query failed.", e);
-        }
-        return strings;
+            results = strings.size();
+            return strings;
 
+        } finally {
+            readLock().unlock();
+            endOperation(start, StoreMetrics.QUERY_FOR_STRINGS, query, results, 0);
+        }
     }    
 	
 	/**
@@ -1,7 +1,12 @@
 package org.xbrlapi.utilities;
 
-//import org.apache.xerces.util.XMLGrammarPoolImpl;
-import org.apache.xerces.xni.grammars.XMLGrammarPool;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.xerces.xs.XSModel;
 
 /**
  *
@@ -12,24 +17,99 @@ import org.apache.xerces.xni.grammars.XMLGrammarPool;
  * XML Schema content models for schemas that include other schemas, such as the schemas
  * used by XBRL GL.</p>
  * Contributed on 13 February, 2007.
+ *
+ * <p>The cache also holds the XML Schema models, identified by the URI of the
+ * schema that they were built for, so that each schema only has its model
+ * built once, no matter how many loaders discover it.  Both the grammar pool
+ * and the model cache are bounded and are safe to share between threads.</p>
  * @author Howard Ungar.
  * @version 1.0
  */
 public class GrammarCacheImpl {
-	
+
   /**
    * Uses the XBRL grammar pool to ensure that pool interactions can be logged
    * and analysed.
    */
-  private static XBRLAPIGrammarPoolImpl xmlGrammarPoolImpl = new XBRLAPIGrammarPoolImpl();
+  private static volatile XBRLAPIGrammarPoolImpl xmlGrammarPoolImpl = new XBRLAPIGrammarPoolImpl();
+
+  /**
+   * The maximum number of XML Schema models to keep.
+   */
+  private static final int XSMODEL_CACHE_SIZE = 1000;
 
-  public static XMLGrammarPool getGrammarPool()
+  /**
+   * Maps from schema URIs to the tasks that build their XML Schema models,
+   * in least recently used order.  A model is built by the first thread
+   * that needs it and any other threads needing the same model wait for
+   * it to be built.
+   */
+  private static final Map<String,FutureTask<XSModel>> models = new LinkedHashMap<String,FutureTask<XSModel>>(16,0.75f,true) {
+      private static final long serialVersionUID = 1L;
+      protected boolean removeEldestEntry(Map.Entry<String,FutureTask<XSModel>> eldest) {
+          return size() > XSMODEL_CACHE_SIZE;
+      }
+  };
+
+  public static XBRLAPIGrammarPoolImpl getGrammarPool()
   {
     return xmlGrammarPoolImpl;
   }
-  
+
   public static void emptyGrammarPool() {
 	  xmlGrammarPoolImpl = new XBRLAPIGrammarPoolImpl();
+	  synchronized (models) {
+	      models.clear();
+	  }
+  }
+
+  /**
+   * @param uri The URI of the XML Schema.
+   * @param builder The builder of the XML Schema model, used if
+   * the model is not already in the cache.
+   * @return the XML Schema model for the schema.
+   * @throws XBRLException if the model cannot be built.
+   */
+  public static XSModel getXSModel(String uri, Callable<XSModel> builder) throws XBRLException {
+
+      FutureTask<XSModel> task = null;
+      boolean isBuilder = false;
+      synchronized (models) {
+          task = models.get(uri);
+          if (task == null) {
+              task = new FutureTask<XSModel>(builder);
+              models.put(uri,task);
+              isBuilder = true;
+          }
+      }
+
+      if (isBuilder) task.run();
+
+      try {
+          return task.get();
+      } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new XBRLException("Interrupted while waiting for the XML Schema model for " + uri,e);
+      } catch (ExecutionException e) {
+          synchronized (models) {
+              if (models.get(uri) == task) models.remove(uri);
+          }
+          Throwable cause = e.getCause();
+          if (cause instanceof XBRLException) throw (XBRLException) cause;
+          throw new XBRLException("The XML Schema model for " + uri + " could not be built.",cause);
+      }
+  }
+
+  /**
+   * @param uri The URI of the XML Schema.
+   * @return true if the XML Schema model for the schema has been
+   * built and is in the cache and false otherwise.
+   */
+  public static boolean hasXSModel(String uri) {
+      synchronized (models) {
+          FutureTask<XSModel> task = models.get(uri);
+          return (task != null && task.isDone());
+      }
   }
 
 }
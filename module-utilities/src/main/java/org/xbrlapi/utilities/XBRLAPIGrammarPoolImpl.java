@@ -1,57 +1,213 @@
 package org.xbrlapi.utilities;
 
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
 import org.apache.log4j.Logger;
 import org.apache.xerces.util.XMLGrammarPoolImpl;
 import org.apache.xerces.xni.grammars.Grammar;
 import org.apache.xerces.xni.grammars.XMLGrammarDescription;
+import org.apache.xerces.xs.StringList;
+import org.apache.xerces.xs.XSNamespaceItem;
 
+/**
+ * A thread-safe and bounded grammar pool that can be shared by
+ * the grammar parsers of all loaders.
+ *
+ * The Xerces grammar pool identifies XML Schema grammars by their
+ * target namespace alone so it hands out the grammar of the first
+ * schema that it saw for a namespace in place of any other schema
+ * for that namespace.  This pool instead identifies grammars by their
+ * target namespace and by the location of the schema documents that
+ * they were built from so that a grammar is only reused for an import
+ * or include of one of those schema documents.  Grammars are dropped,
+ * least recently used first, once the pool holds more than the maximum
+ * number of entries.
+ *
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
 public class XBRLAPIGrammarPoolImpl extends XMLGrammarPoolImpl {
 
-	protected static Logger logger = Logger.getLogger(XBRLAPIGrammarPoolImpl.class);	
-	
+	protected static Logger logger = Logger.getLogger(XBRLAPIGrammarPoolImpl.class);
+
+	/**
+	 * The default maximum number of entries in the pool.
+	 */
+	public static final int DEFAULT_SIZE = 5000;
+
+	/**
+	 * The maximum number of entries in the pool.
+	 */
+	private int maximumSize = DEFAULT_SIZE;
+
+	/**
+	 * Maps from namespace and document location keys to grammars,
+	 * in least recently used order.
+	 */
+	private Map<String,Grammar> grammars = new LinkedHashMap<String,Grammar>(16,0.75f,true) {
+        private static final long serialVersionUID = 1L;
+        protected boolean removeEldestEntry(Map.Entry<String,Grammar> eldest) {
+            return size() > maximumSize;
+        }
+	};
+
 	public XBRLAPIGrammarPoolImpl() {
 		super();
 	}
 
+	/**
+	 * @param arg0 The maximum number of entries in the pool.
+	 */
 	public XBRLAPIGrammarPoolImpl(int arg0) {
 		super(arg0);
+		this.maximumSize = arg0;
 	}
 
-	/* (non-Javadoc)
+	/**
 	 * @see org.apache.xerces.util.XMLGrammarPoolImpl#cacheGrammars(java.lang.String, org.apache.xerces.xni.grammars.Grammar[])
 	 */
-	public void cacheGrammars(String arg0, Grammar[] arg1) {
-		super.cacheGrammars(arg0, arg1);
+	public synchronized void cacheGrammars(String arg0, Grammar[] arg1) {
+	    if (fPoolIsLocked) return;
+	    for (Grammar grammar: arg1) {
+	        putGrammar(grammar);
+	    }
 	}
 
-	/* (non-Javadoc)
+	/**
+	 * @see org.apache.xerces.util.XMLGrammarPoolImpl#retrieveInitialGrammarSet(java.lang.String)
+	 */
+	public synchronized Grammar[] retrieveInitialGrammarSet(String arg0) {
+	    return new Grammar[0];
+	}
+
+	/**
 	 * @see org.apache.xerces.util.XMLGrammarPoolImpl#containsGrammar(org.apache.xerces.xni.grammars.XMLGrammarDescription)
 	 */
-	public boolean containsGrammar(XMLGrammarDescription arg0) {
-		boolean b = super.containsGrammar(arg0);
-		return b;
+	public synchronized boolean containsGrammar(XMLGrammarDescription arg0) {
+		return getGrammar(arg0) != null;
 	}
 
-	/* (non-Javadoc)
+	/**
+	 * @return the grammar from the pool that was built from the
+	 * document identified by the description or null if there is
+	 * no such grammar in the pool.
 	 * @see org.apache.xerces.util.XMLGrammarPoolImpl#getGrammar(org.apache.xerces.xni.grammars.XMLGrammarDescription)
 	 */
-	public Grammar getGrammar(XMLGrammarDescription arg0) {
-		Grammar g =  super.getGrammar(arg0);
-		return g;
+	public synchronized Grammar getGrammar(XMLGrammarDescription arg0) {
+	    for (String key: getKeys(arg0)) {
+	        Grammar grammar = grammars.get(key);
+	        if (grammar != null) return grammar;
+	    }
+		return null;
+	}
+
+	/**
+	 * @param namespace The target namespace of the schema or null if it has none.
+	 * @param location The absolute URI of the schema document.
+	 * @return the grammar from the pool that was built from the
+	 * schema document or null if there is no such grammar in the pool.
+	 */
+	public synchronized Grammar getGrammar(String namespace, String location) {
+	    return grammars.get(getKey(namespace,location));
 	}
 
-	/* (non-Javadoc)
+	/**
+	 * Adds the grammar to the pool, identified by its target namespace
+	 * and the location of each of the documents that it was built from.
 	 * @see org.apache.xerces.util.XMLGrammarPoolImpl#putGrammar(org.apache.xerces.xni.grammars.Grammar)
 	 */
-	public void putGrammar(Grammar arg0) {
-		super.putGrammar(arg0);
+	public synchronized void putGrammar(Grammar arg0) {
+	    if (fPoolIsLocked) return;
+	    Set<String> keys = getKeys(arg0.getGrammarDescription());
+	    if (arg0 instanceof XSNamespaceItem) {
+	        String namespace = ((XSNamespaceItem) arg0).getSchemaNamespace();
+	        StringList locations = ((XSNamespaceItem) arg0).getDocumentLocations();
+	        for (int i=0; i<locations.getLength(); i++) {
+	            keys.add(getKey(namespace,locations.item(i)));
+	        }
+	    }
+	    for (String key: keys) {
+	        grammars.put(key,arg0);
+	    }
+	    logger.debug("Pooled the grammar for " + keys);
 	}
 
-	/* (non-Javadoc)
+	/**
 	 * @see org.apache.xerces.util.XMLGrammarPoolImpl#retrieveGrammar(org.apache.xerces.xni.grammars.XMLGrammarDescription)
 	 */
-	public Grammar retrieveGrammar(XMLGrammarDescription arg0) {
-		Grammar g = super.retrieveGrammar(arg0);
-		return g;
+	public synchronized Grammar retrieveGrammar(XMLGrammarDescription arg0) {
+		return getGrammar(arg0);
 	}
+
+	/**
+	 * @see org.apache.xerces.util.XMLGrammarPoolImpl#removeGrammar(org.apache.xerces.xni.grammars.XMLGrammarDescription)
+	 */
+	public synchronized Grammar removeGrammar(XMLGrammarDescription arg0) {
+	    Grammar grammar = getGrammar(arg0);
+	    if (grammar != null) {
+	        grammars.values().removeAll(Collections.singleton(grammar));
+	    }
+	    return grammar;
+	}
+
+	/**
+	 * @see org.apache.xerces.util.XMLGrammarPoolImpl#clear()
+	 */
+	public synchronized void clear() {
+	    grammars.clear();
+	}
+
+	/**
+	 * @return the number of entries in the pool.
+	 */
+	public synchronized int getSize() {
+	    return grammars.size();
+	}
+
+	/**
+	 * @param description The grammar description.
+	 * @return the keys for the document locations given by the
+	 * grammar description, resolved against the base URI when
+	 * they are relative.
+	 */
+	private Set<String> getKeys(XMLGrammarDescription description) {
+	    Set<String> keys = new HashSet<String>();
+	    if (description == null) return keys;
+	    String namespace = description.getNamespace();
+	    String base = description.getBaseSystemId();
+	    if (description.getExpandedSystemId() != null) {
+	        keys.add(getKey(namespace,description.getExpandedSystemId()));
+	    }
+	    String location = resolve(base, description.getLiteralSystemId());
+	    if (location != null) {
+	        keys.add(getKey(namespace,location));
+	    }
+	    return keys;
+	}
+
+	private String getKey(String namespace, String location) {
+	    return ((namespace == null) ? "" : namespace) + " " + location;
+	}
+
+	/**
+	 * @param base The base URI or null if there is none.
+	 * @param location The possibly relative location or null if there is none.
+	 * @return the absolute location or null if the location is null
+	 * or cannot be resolved.
+	 */
+	private String resolve(String base, String location) {
+	    if (location == null) return null;
+	    try {
+	        URI uri = new URI(location);
+	        if (uri.isAbsolute() || base == null) return uri.toString();
+	        return new URI(base).resolve(uri).toString();
+	    } catch (Exception e) {
+	        return null;
+	    }
+	}
+
 }
@@ -9,6 +9,7 @@ public class AllTests {
 		TestSuite suite = new TestSuite("Test for org.xbrlapi.utils.tests");
 		//$JUnit-BEGIN$
         suite.addTestSuite(DOMBuilderTest.class);
+        suite.addTestSuite(GrammarPoolTestCase.class);
 
 		//$JUnit-END$
 		return suite;
@@ -0,0 +1,146 @@
+package org.xbrlapi.utils.tests;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.concurrent.Callable;
+
+import org.apache.xerces.parsers.XMLGrammarPreparser;
+import org.apache.xerces.xni.grammars.XMLGrammarDescription;
+import org.apache.xerces.xni.grammars.XSGrammar;
+import org.apache.xerces.xni.parser.XMLInputSource;
+import org.apache.xerces.xs.XSModel;
+import org.xbrlapi.utilities.BaseTestCase;
+import org.xbrlapi.utilities.GrammarCacheImpl;
+import org.xbrlapi.utilities.XBRLAPIGrammarPoolImpl;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Tests the grammar pool and the XML Schema model cache.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class GrammarPoolTestCase extends BaseTestCase {
+
+    private final String NAMESPACE = "http://xbrlapi.org/test/pooled";
+
+    private File directory = null;
+
+    public GrammarPoolTestCase(String arg0) {
+        super(arg0);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("grammarPool","");
+        directory.delete();
+        directory.mkdir();
+        write("first.xsd", "<schema xmlns='http://www.w3.org/2001/XMLSchema' targetNamespace='" + NAMESPACE + "'><element name='first' type='string'/></schema>");
+        write("second.xsd", "<schema xmlns='http://www.w3.org/2001/XMLSchema' targetNamespace='" + NAMESPACE + "'><element name='second' type='string'/></schema>");
+        write("importsFirst.xsd", "<schema xmlns='http://www.w3.org/2001/XMLSchema' targetNamespace='http://xbrlapi.org/test/one'><import namespace='" + NAMESPACE + "' schemaLocation='first.xsd'/></schema>");
+        write("importsSecond.xsd", "<schema xmlns='http://www.w3.org/2001/XMLSchema' targetNamespace='http://xbrlapi.org/test/two'><import namespace='" + NAMESPACE + "' schemaLocation='second.xsd'/></schema>");
+        GrammarCacheImpl.emptyGrammarPool();
+    }
+
+    protected void tearDown() throws Exception {
+        GrammarCacheImpl.emptyGrammarPool();
+        for (File file: directory.listFiles()) file.delete();
+        directory.delete();
+        super.tearDown();
+    }
+
+    private void write(String name, String content) throws Exception {
+        FileWriter writer = new FileWriter(new File(directory,name));
+        writer.write(content);
+        writer.close();
+    }
+
+    private String location(String name) {
+        return new File(directory,name).toURI().toString();
+    }
+
+    private XSModel preparse(String name) throws Exception {
+        XMLGrammarPreparser preparser = new XMLGrammarPreparser();
+        preparser.registerPreparser(XMLGrammarDescription.XML_SCHEMA, null);
+        preparser.setProperty("http://apache.org/xml/properties/internal/grammar-pool", GrammarCacheImpl.getGrammarPool());
+        preparser.setFeature("http://xml.org/sax/features/namespaces", true);
+        preparser.setFeature("http://apache.org/xml/features/validation/schema", true);
+        XSGrammar grammar = (XSGrammar) preparser.preparseGrammar(XMLGrammarDescription.XML_SCHEMA, new XMLInputSource(null, location(name), null));
+        return grammar.toXSModel();
+    }
+
+    public void testSchemasWithTheSameNamespaceAreNotConfused() {
+        try {
+            XSModel first = preparse("importsFirst.xsd");
+            assertNotNull(first.getElementDeclaration("first",NAMESPACE));
+            XSModel second = preparse("importsSecond.xsd");
+            assertNotNull(second.getElementDeclaration("second",NAMESPACE));
+            assertNull(second.getElementDeclaration("first",NAMESPACE));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("An unexpected exception was thrown.");
+        }
+    }
+
+    public void testImportedSchemasArePooledByLocation() {
+        try {
+            preparse("importsFirst.xsd");
+            XBRLAPIGrammarPoolImpl pool = GrammarCacheImpl.getGrammarPool();
+            assertNotNull(pool.getGrammar(NAMESPACE,location("first.xsd")));
+            assertNull(pool.getGrammar(NAMESPACE,location("second.xsd")));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("An unexpected exception was thrown.");
+        }
+    }
+
+    public void testThePoolIsBounded() {
+        try {
+            GrammarCacheImpl.emptyGrammarPool();
+            XBRLAPIGrammarPoolImpl pool = new XBRLAPIGrammarPoolImpl(1);
+            XMLGrammarPreparser preparser = new XMLGrammarPreparser();
+            preparser.registerPreparser(XMLGrammarDescription.XML_SCHEMA, null);
+            preparser.setProperty("http://apache.org/xml/properties/internal/grammar-pool", pool);
+            preparser.preparseGrammar(XMLGrammarDescription.XML_SCHEMA, new XMLInputSource(null, location("first.xsd"), null));
+            preparser.preparseGrammar(XMLGrammarDescription.XML_SCHEMA, new XMLInputSource(null, location("second.xsd"), null));
+            assertEquals(1,pool.getSize());
+            assertNotNull(pool.getGrammar(NAMESPACE,location("second.xsd")));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("An unexpected exception was thrown.");
+        }
+    }
+
+    public void testModelsAreOnlyBuiltOnce() {
+        try {
+            final String uri = location("importsFirst.xsd");
+            XSModel model = GrammarCacheImpl.getXSModel(uri, new Callable<XSModel>() {
+                public XSModel call() throws Exception {
+                    return preparse("importsFirst.xsd");
+                }
+            });
+            assertTrue(GrammarCacheImpl.hasXSModel(uri));
+            assertSame(model, GrammarCacheImpl.getXSModel(uri, new Callable<XSModel>() {
+                public XSModel call() throws Exception {
+                    throw new XBRLException("The model should not be built again.");
+                }
+            }));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("An unexpected exception was thrown.");
+        }
+    }
+
+    public void testFailedModelBuildsAreNotCached() {
+        String uri = location("missing.xsd");
+        try {
+            GrammarCacheImpl.getXSModel(uri, new Callable<XSModel>() {
+                public XSModel call() throws Exception {
+                    throw new XBRLException("The schema is missing.");
+                }
+            });
+            fail("The failure to build the model should have been reported.");
+        } catch (XBRLException expected) {
+            assertFalse(GrammarCacheImpl.hasXSModel(uri));
+        }
+    }
+
+}
@@ -90,8 +90,8 @@ public class SchemaIdentifier extends org.xbrlapi.sax.identifiers.SchemaIdentifi
                 
                 fragment = new SchemaImpl();
 
-                setXSModel(constructXSModel());
                 setTargetNamespace(attrs.getValue("targetNamespace"));
+                setXSModel(constructXSModel());
                 
             } else if (lName.equals("element")) {
                 
@@ -8,12 +8,12 @@ import org.xbrlapi.aspects.alt.ConceptAspect;
 import org.xbrlapi.aspects.alt.ConceptLabeller;
 import org.xbrlapi.aspects.alt.EntityAspect;
 import org.xbrlapi.aspects.alt.EntityLabeller;
-import org.xbrlapi.aspects.alt.LabelCache;
 import org.xbrlapi.aspects.alt.LocationAspect;
 import org.xbrlapi.aspects.alt.LocationLabeller;
 import org.xbrlapi.aspects.alt.PeriodAspect;
 import org.xbrlapi.aspects.alt.PeriodLabeller;
 import org.xbrlapi.aspects.alt.StoreLabelCache;
+import org.xbrlapi.aspects.alt.TieredLabelCache;
 import org.xbrlapi.aspects.alt.UnitAspect;
 import org.xbrlapi.aspects.alt.UnitLabeller;
 import org.xbrlapi.data.Store;
@@ -23,6 +23,8 @@ import org.xbrlapi.utilities.XBRLException;
  * This is the same as the dimensional aspect model except that it 
  * also sets up the store-based caching aspect value labeller system
  * automatically as part of the constructor.
+ * The labels are cached in memory, in front of the data store,
+ * and new labels are written straight through to the data store.
  * 
  * @author Geoff Shuetrim (geoff@galexy.net)
  */
@@ -34,6 +36,11 @@ public class DimensionalAspectModelWithStoreCachingLabellers extends Dimensional
     private static final long serialVersionUID = 1324422842628544753L;
     private static final Logger logger = Logger.getLogger(DimensionalAspectModelWithStoreCachingLabellers.class);
     
+    /**
+     * The aspect value label cache.
+     */
+    private TieredLabelCache cache = null;
+
     /**
      * @param store The data store.
      * @throws XBRLException if a parameter is null.
@@ -47,7 +54,7 @@ public class DimensionalAspectModelWithStoreCachingLabellers extends Dimensional
      */
     public void initialise() throws XBRLException {
         super.initialise();
-        LabelCache cache = new StoreLabelCache(getStore());
+        cache = new TieredLabelCache(new StoreLabelCache(getStore()));
         this.setLabeller(LocationAspect.ID, new CachingLabeller(cache, new LocationLabeller(this.getAspect(LocationAspect.ID))));
         this.setLabeller(ConceptAspect.ID, new CachingLabeller(cache, new ConceptLabeller(this.getAspect(ConceptAspect.ID))));
         this.setLabeller(UnitAspect.ID, new CachingLabeller(cache, new UnitLabeller(this.getAspect(UnitAspect.ID))));
@@ -64,6 +71,14 @@ public class DimensionalAspectModelWithStoreCachingLabellers extends Dimensional
             this.setLabeller(aspect.getId(), new CachingLabeller(cache, new ExplicitDimensionLabeller(this.getAspect(aspect.getId()))));
         }
         
-    }       
-    
+    }
+
+    /**
+     * @return the aspect value label cache used by the labellers or null
+     * if the aspect model has not been initialised.
+     */
+    public TieredLabelCache getLabelCache() {
+        return cache;
+    }
+
 }